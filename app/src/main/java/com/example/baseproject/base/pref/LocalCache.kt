@@ -1,20 +1,86 @@
 package com.example.baseproject.base.pref
 
 import android.content.Context
+import android.os.Handler
+import android.os.HandlerThread
 import android.os.Parcelable
+import android.util.Log
 import com.tencent.mmkv.MMKV
 import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
 
-class LocalCache private constructor() {
+/**
+ * Key-value cache backed by MMKV.
+ *
+ * [getInstance] returns the default cache. Unrelated data (ads state, settings, big caches)
+ * can live in named domains with [getInstance], each one having its own MMKV file and lock,
+ * so that heavy writers in one domain don't slow down reads in the others. A domain can have
+ * a size budget: when its file grows past it, it is compacted with [trim] on a background
+ * thread.
+ */
+class LocalCache private constructor(
+    private val cache: MMKV,
+    val domain: String?,
+    val maxBytes: Long
+) {
+
+    class Stats(val keyCount: Long, val totalSize: Long, val actualSize: Long) {
+        override fun toString(): String =
+            "Stats(keyCount=$keyCount, totalSize=$totalSize, actualSize=$actualSize)"
+    }
 
     companion object {
+        private const val TAG = "LocalCache"
+        private const val BUDGET_CHECK_WRITES = 32
+
+        /**
+         * Key of the default cache in [getAllStats]. Domain names can't be empty.
+         */
+        const val DEFAULT_DOMAIN_KEY = ""
+
+        // Budget checks and trims, off the writing threads.
+        private val budgetHandler: Handler by lazy {
+            Handler(HandlerThread("LocalCache").apply { start() }.looper)
+        }
+
         @Volatile
         private var instance: LocalCache? = null
 
+        private val domains = ConcurrentHashMap<String, LocalCache>()
+
         @JvmStatic
         fun getInstance() =
             instance ?: synchronized(this) {
-                instance ?: LocalCache().also { instance = it }
+                instance ?: LocalCache(MMKV.defaultMMKV()!!, null, 0L).also { instance = it }
+            }
+
+        /**
+         * Returns the cache of the given domain, creating it on first use. Options are only
+         * read on first use.
+         *
+         * @param domain the domain name, used as MMKV id. Can't be empty
+         * @param multiProcess whether the domain is shared with other processes of the app,
+         * like the widget process
+         * @param maxBytes the file size over which the domain is trimmed, or 0 for no budget
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun getInstance(domain: String, multiProcess: Boolean = false, maxBytes: Long = 0L): LocalCache {
+            require(domain.isNotEmpty()) { "Domain name can't be empty" }
+            return domains.getOrPut(domain) {
+                val mode = if (multiProcess) MMKV.MULTI_PROCESS_MODE else MMKV.SINGLE_PROCESS_MODE
+                LocalCache(MMKV.mmkvWithID(domain, mode), domain, maxBytes)
+            }
+        }
+
+        /**
+         * Returns the statistics of the default cache, keyed by [DEFAULT_DOMAIN_KEY],
+         * and of all the domains opened so far, keyed by name.
+         */
+        @JvmStatic
+        fun getAllStats(): Map<String, Stats> =
+            (listOf(getInstance()) + domains.values).associate {
+                (it.domain ?: DEFAULT_DOMAIN_KEY) to it.getStats()
             }
 
         @JvmStatic
@@ -23,50 +89,98 @@ class LocalCache private constructor() {
         }
     }
 
-    private var cache: MMKV = MMKV.defaultMMKV()!!
+    private val budget = SizeBudget(maxBytes, BUDGET_CHECK_WRITES, { budgetHandler.post(it) }) {
+        checkBudget()
+    }
 
     fun put(key: String, value: Any?): Boolean {
-        when (value) {
-            is String -> return cache.encode(key, value)
-            is Float -> return cache.encode(key, value)
-            is Boolean -> return cache.encode(key, value)
-            is Int -> return cache.encode(key, value)
-            is Long -> return cache.encode(key, value)
-            is Double -> return cache.encode(key, value)
-            is ByteArray -> return cache.encode(key, value)
+        val done = when (value) {
+            is String -> cache.encode(key, value)
+            is Float -> cache.encode(key, value)
+            is Boolean -> cache.encode(key, value)
+            is Int -> cache.encode(key, value)
+            is Long -> cache.encode(key, value)
+            is Double -> cache.encode(key, value)
+            is ByteArray -> cache.encode(key, value)
+            else -> false
         }
-        return false
+        return done.also { if (it) onWrite() }
     }
 
+    /**
+     * Stores the collection in order, in the format of [ParcelableCollections].
+     * Reads can jump to any element without decoding the previous ones.
+     */
     fun <T : Parcelable> putParcelableCollection(
         data: Collection<T>,
         key: String,
         onComplete: (() -> Unit)? = null
     ) {
-        data.map {
-            it.toSerializedString().addTag()
-        }.toMutableSet().let {
-            cache.encode(key, it).let { finish ->
-                if (finish) {
-                    onComplete?.invoke()
-                }
-            }
+        if (cache.encode(key, ParcelableCollections.encode(data))) {
+            onWrite()
+            onComplete?.invoke()
         }
     }
 
     fun <T : Parcelable> getParcelableCollection(
         creator: Parcelable.Creator<T>,
         key: String
-    ): Collection<T>? {
+    ): Collection<T>? = getParcelableCollection(creator, key, 0, Int.MAX_VALUE)
+
+    /**
+     * Returns up to [limit] elements starting at [offset], decoding only those.
+     * Collections saved in the old string set format are converted on first read.
+     */
+    fun <T : Parcelable> getParcelableCollection(
+        creator: Parcelable.Creator<T>,
+        key: String,
+        offset: Int,
+        limit: Int
+    ): List<T>? {
+        val result = ArrayList<T>()
+        if (!forEachParcelable(creator, key, offset, limit) { result.add(it) }) {
+            return migrateParcelableCollection(creator, key)?.let { all ->
+                all.drop(offset).take(limit)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Decodes up to [limit] elements starting at [offset] one by one, without building a list.
+     *
+     * @return false if there is no collection in the binary format for this key
+     */
+    fun <T : Parcelable> forEachParcelable(
+        creator: Parcelable.Creator<T>,
+        key: String,
+        offset: Int = 0,
+        limit: Int = Int.MAX_VALUE,
+        action: (T) -> Unit
+    ): Boolean {
+        require(offset >= 0 && limit >= 0) { "Invalid page: offset=$offset, limit=$limit" }
+        val bytes = cache.decodeBytes(key) ?: return false
+        return ParcelableCollections.forEach(bytes, creator, offset, limit, action)
+    }
+
+    fun getParcelableCollectionSize(key: String): Int {
+        val bytes = cache.decodeBytes(key) ?: return 0
+        ParcelableCollections.size(bytes)?.let { return it }
+        return cache.decodeStringSet(key, mutableSetOf())?.size ?: 0
+    }
+
+    private fun <T : Parcelable> migrateParcelableCollection(
+        creator: Parcelable.Creator<T>,
+        key: String
+    ): List<T>? {
         try {
-            cache.decodeStringSet(key, mutableSetOf())?.let { dataSet ->
-                if (!dataSet.isNullOrEmpty()) {
-                    return dataSet.mapNotNull { result ->
-                        result.removeTag()?.second?.toParcelable(creator)
-                    }.map {
-                        it
-                    }
+            val dataSet = cache.decodeStringSet(key, mutableSetOf())
+            if (!dataSet.isNullOrEmpty()) {
+                val data = dataSet.mapNotNull { result ->
+                    result.removeTag()?.second?.toParcelable(creator)
                 }
+                putParcelableCollection(data, key)
+                return data
             }
         } catch (e: Exception) {
             e.printStackTrace()
@@ -75,7 +189,7 @@ class LocalCache private constructor() {
     }
 
     fun <T : Parcelable> put(key: String, t: T?): Boolean {
-        return cache.encode(key, t)
+        return cache.encode(key, t).also { if (it) onWrite() }
     }
 
     fun <T : Parcelable> getParcelable(key: String, tClass: Class<T>): T? {
@@ -83,7 +197,7 @@ class LocalCache private constructor() {
     }
 
     fun put(key: String, sets: Set<String>?): Boolean {
-        return cache.encode(key, sets)
+        return cache.encode(key, sets).also { if (it) onWrite() }
     }
 
     fun getStringSet(key: String): Set<String>? {
@@ -137,4 +251,25 @@ class LocalCache private constructor() {
     fun getTotalSize(): Long {
         return cache.totalSize()
     }
+
+    fun getStats(): Stats = Stats(cache.count(), cache.totalSize(), cache.actualSize())
+
+    /**
+     * Compacts the file: MMKV appends on write, so the file only grows until it is trimmed.
+     */
+    fun trim() {
+        val before = cache.totalSize()
+        cache.trim()
+        Log.i(TAG, "trim: ${domain ?: "default"} $before -> ${cache.totalSize()} bytes")
+    }
+
+    private fun onWrite() = budget.onWrite()
+
+    private fun checkBudget() {
+        if (cache.totalSize() <= maxBytes) return
+        trim()
+        if (cache.actualSize() > maxBytes) {
+            Log.w(TAG, "${domain ?: "default"} is over budget: ${cache.actualSize()} > $maxBytes bytes")
+        }
+    }
 }
\ No newline at end of file
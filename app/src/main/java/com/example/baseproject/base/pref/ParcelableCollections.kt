@@ -0,0 +1,91 @@
+package com.example.baseproject.base.pref
+
+import android.os.Parcel
+import android.os.Parcelable
+
+/**
+ * Binary format of the Parcelable collections stored by [LocalCache].
+ *
+ * A collection is one marshalled Parcel: a header (magic, count), an index with the start
+ * position of each element, then the elements, in order. Reads can jump to any element
+ * without decoding the previous ones.
+ */
+internal object ParcelableCollections {
+
+    // "PCL1", first int of collections in the binary format.
+    private const val MAGIC = 0x50434C31
+
+    fun <T : Parcelable> encode(data: Collection<T>): ByteArray {
+        val parcel = Parcel.obtain()
+        try {
+            parcel.writeInt(MAGIC)
+            parcel.writeInt(data.size)
+            val indexPosition = parcel.dataPosition()
+            repeat(data.size) { parcel.writeInt(0) }
+            val positions = IntArray(data.size)
+            data.forEachIndexed { i, item ->
+                positions[i] = parcel.dataPosition()
+                item.writeToParcel(parcel, 0)
+            }
+            val end = parcel.dataPosition()
+            parcel.setDataPosition(indexPosition)
+            positions.forEach { parcel.writeInt(it) }
+            parcel.setDataPosition(end)
+            return parcel.marshall()
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    /**
+     * Decodes up to [limit] elements starting at [offset] one by one.
+     *
+     * @return false if the bytes are not a collection in this format
+     */
+    fun <T : Parcelable> forEach(
+        bytes: ByteArray,
+        creator: Parcelable.Creator<T>,
+        offset: Int,
+        limit: Int,
+        action: (T) -> Unit
+    ): Boolean {
+        require(offset >= 0 && limit >= 0) { "Invalid page: offset=$offset, limit=$limit" }
+        if (bytes.size < 8) return false
+        val parcel = Parcel.obtain()
+        try {
+            parcel.unmarshall(bytes, 0, bytes.size)
+            parcel.setDataPosition(0)
+            if (parcel.readInt() != MAGIC) return false
+            val count = parcel.readInt()
+            if (offset >= count) return true
+            val indexPosition = parcel.dataPosition()
+            parcel.setDataPosition(indexPosition + offset * 4)
+            parcel.setDataPosition(parcel.readInt())
+            val end = offset + minOf(limit, count - offset)
+            for (i in offset until end) {
+                action(creator.createFromParcel(parcel))
+            }
+            return true
+        } catch (e: Exception) {
+            e.printStackTrace()
+            return false
+        } finally {
+            parcel.recycle()
+        }
+    }
+
+    /**
+     * Returns the number of elements, or null if the bytes are not a collection in this format.
+     */
+    fun size(bytes: ByteArray): Int? {
+        if (bytes.size < 8) return null
+        val parcel = Parcel.obtain()
+        try {
+            parcel.unmarshall(bytes, 0, 8)
+            parcel.setDataPosition(0)
+            return if (parcel.readInt() == MAGIC) parcel.readInt() else null
+        } finally {
+            parcel.recycle()
+        }
+    }
+}
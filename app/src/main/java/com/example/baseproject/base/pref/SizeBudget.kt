@@ -0,0 +1,32 @@
+package com.example.baseproject.base.pref
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Decides when the size budget of a [LocalCache] domain should be checked.
+ *
+ * Checking sizes is cheap, but not free: [check] runs every [checkEvery] writes, through
+ * [post] so that writers never wait for a trim, and never twice at the same time.
+ * Nothing happens if [maxBytes] is 0.
+ */
+internal class SizeBudget(
+    private val maxBytes: Long,
+    private val checkEvery: Int,
+    private val post: (Runnable) -> Unit,
+    private val check: () -> Unit
+) {
+    // Writes since the last check.
+    private val writes = AtomicInteger()
+    private val pending = AtomicBoolean()
+
+    fun onWrite() {
+        if (maxBytes <= 0L || writes.incrementAndGet() < checkEvery) return
+        writes.set(0)
+        if (!pending.compareAndSet(false, true)) return
+        post(Runnable {
+            pending.set(false)
+            check()
+        })
+    }
+}
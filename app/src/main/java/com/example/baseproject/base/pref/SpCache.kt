@@ -0,0 +1,130 @@
+package com.example.baseproject.base.pref
+
+import android.content.SharedPreferences
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * In-memory cache of decoded values read through [SpUtils] and
+ * [com.example.baseproject.base.utils.util.SharePrefUtils], keyed by file, key and type.
+ *
+ * Every save or remove done by these classes invalidates the key. Changes made to the
+ * same files by other code are caught by a change listener registered on each file.
+ * Cached objects are shared between callers, so they should not be modified. [SpUtils]
+ * returns a copy of cached collections and maps, but not of the items they hold.
+ *
+ * [hits] and [misses] count reads, a miss meaning that the value was read and decoded.
+ * */
+object SpCache {
+
+    private object Null
+
+    // file -> key -> type -> value
+    private val files = ConcurrentHashMap<String, ConcurrentHashMap<String, ConcurrentHashMap<Any, Any>>>()
+
+    // Incremented by each invalidation, so that a value loaded meanwhile is not kept.
+    private val versions = ConcurrentHashMap<String, AtomicLong>()
+
+    // SharedPreferences only keeps weak references to its listeners.
+    private val listeners = ConcurrentHashMap<String, SharedPreferences.OnSharedPreferenceChangeListener>()
+
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+
+    /**
+     * Number of reads served from memory.
+     * */
+    @JvmStatic
+    val hits: Long
+        get() = hitCount.get()
+
+    /**
+     * Number of reads that had to read and decode the value.
+     * */
+    @JvmStatic
+    val misses: Long
+        get() = missCount.get()
+
+    /**
+     * Resets [hits] and [misses].
+     * */
+    @JvmStatic
+    fun resetStats() {
+        hitCount.set(0)
+        missCount.set(0)
+    }
+
+    /**
+     * Returns the cached value of the given key and type, or loads it and caches it.
+     * Null values are cached too.
+     *
+     * @param file Shared Preferences file name
+     * @param key the key
+     * @param type anything identifying how the value is decoded, like its class
+     * @param load reads and decodes the value
+     * @return the value
+     * */
+    @Suppress("UNCHECKED_CAST")
+    internal fun <T> get(file: String, key: String, type: Any, load: () -> T?): T? {
+        val types = files.getOrPut(file) { ConcurrentHashMap() }.getOrPut(key) { ConcurrentHashMap() }
+        types[type]?.let {
+            hitCount.incrementAndGet()
+            return if (it === Null) null else it as T
+        }
+        missCount.incrementAndGet()
+        val version = version(file).get()
+        val value = load()
+        types[type] = value ?: Null
+        if (version(file).get() != version) types.remove(type)
+        return value
+    }
+
+    /**
+     * Removes all cached values of the given key.
+     *
+     * @param file Shared Preferences file name
+     * @param key the key
+     * */
+    internal fun invalidate(file: String, key: String) {
+        version(file).incrementAndGet()
+        files[file]?.remove(key)
+    }
+
+    /**
+     * Removes all cached values of the given file.
+     *
+     * @param file Shared Preferences file name
+     * */
+    internal fun invalidateAll(file: String) {
+        version(file).incrementAndGet()
+        files.remove(file)
+    }
+
+    /**
+     * Registers a change listener on the given file, if not done already,
+     * so that changes made outside of our save paths invalidate the cache.
+     *
+     * @param file Shared Preferences file name
+     * @param preferences the file preferences
+     * */
+    internal fun bind(file: String, preferences: SharedPreferences) {
+        if (listeners.containsKey(file)) return
+        val listener = SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
+            // A null key means that the file was cleared.
+            if (key == null) invalidateAll(file) else invalidate(file, key)
+        }
+        if (listeners.putIfAbsent(file, listener) == null) {
+            preferences.registerOnSharedPreferenceChangeListener(listener)
+        }
+    }
+
+    /**
+     * Removes all cached values.
+     * */
+    @JvmStatic
+    fun clear() {
+        for (file in versions.keys) invalidateAll(file)
+    }
+
+    private fun version(file: String): AtomicLong = versions.getOrPut(file) { AtomicLong() }
+}
@@ -0,0 +1,253 @@
+package com.example.baseproject.base.pref
+
+import android.os.Parcel
+import android.os.Parcelable
+import android.util.Base64
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Writes and reads values of one type for [SpUtils], without reflection.
+ *
+ * Register codecs for the objects that are read often, like the cached user or profile,
+ * with [SpCodecs.register]. Other values fall back to Parcel or java serialization,
+ * which are larger and slower to read.
+ * */
+interface SpCodec<T : Any> {
+
+    fun write(value: T, out: DataOutput)
+
+    fun read(input: DataInput): T
+}
+
+/**
+ * Codec registry and binary format used by [SpUtils] for objects and collection items.
+ *
+ * Each value is encoded as:
+ * - a header byte: the format version in the high 4 bits, the kind in the low 4 bits.
+ *   Kinds are registered codec, Parcel or java serialization
+ * - for registered codecs, the codec id as a varint, usually a single byte
+ * - the payload length as a varint
+ * - the payload
+ *
+ * The length lets truncated values be detected instead of decoded into garbage.
+ *
+ * SharedPreferences can only hold strings, so the bytes are stored in Base64 after a
+ * [PREFIX]. Values written by older versions (bytes widened to chars) have no prefix and
+ * are still readable: [SpUtils] rewrites them in this format the first time they are read.
+ * */
+object SpCodecs {
+
+    internal const val PREFIX = "spx1:"
+
+    /**
+     * Ids below this value are used by the codecs of this class.
+     * */
+    const val FIRST_USER_ID = 16
+
+    private const val VERSION = 1
+    private const val KIND_CODEC = 1
+    private const val KIND_PARCEL = 2
+    private const val KIND_JAVA = 3
+
+    private class Registration(val id: Int, val codec: SpCodec<*>)
+
+    private val byClass = ConcurrentHashMap<Class<*>, Registration>()
+    private val byId = ConcurrentHashMap<Int, Registration>()
+
+    init {
+        put(1, String::class.java, object : SpCodec<String> {
+            override fun write(value: String, out: DataOutput) = out.writeUTF(value)
+            override fun read(input: DataInput): String = input.readUTF()
+        })
+        put(2, Int::class.javaObjectType, object : SpCodec<Int> {
+            override fun write(value: Int, out: DataOutput) = out.writeInt(value)
+            override fun read(input: DataInput): Int = input.readInt()
+        })
+        put(3, Long::class.javaObjectType, object : SpCodec<Long> {
+            override fun write(value: Long, out: DataOutput) = out.writeLong(value)
+            override fun read(input: DataInput): Long = input.readLong()
+        })
+        put(4, Boolean::class.javaObjectType, object : SpCodec<Boolean> {
+            override fun write(value: Boolean, out: DataOutput) = out.writeBoolean(value)
+            override fun read(input: DataInput): Boolean = input.readBoolean()
+        })
+        put(5, ByteArray::class.java, object : SpCodec<ByteArray> {
+            override fun write(value: ByteArray, out: DataOutput) {
+                out.writeInt(value.size)
+                out.write(value)
+            }
+
+            override fun read(input: DataInput): ByteArray =
+                ByteArray(input.readInt()).also { input.readFully(it) }
+        })
+    }
+
+    /**
+     * Registers the codec used to write and read values of the given class.
+     * The id is written with each value instead of the class name, so it must never be
+     * reused for another type. Values saved before the registration stay readable.
+     *
+     * @param id a stable id, at least [FIRST_USER_ID]
+     * @param type the exact class of the values
+     * @param codec the codec
+     * */
+    @JvmStatic
+    fun <T : Any> register(id: Int, type: Class<T>, codec: SpCodec<T>) {
+        require(id >= FIRST_USER_ID) { "Ids below $FIRST_USER_ID are reserved" }
+        put(id, type, codec)
+    }
+
+    /**
+     * Removes the codec of the given class. Values written with it can't be read anymore.
+     *
+     * @param type the class
+     * */
+    @JvmStatic
+    fun unregister(type: Class<*>) {
+        val registration = byClass.remove(type) ?: return
+        byId.remove(registration.id)
+    }
+
+    private fun put(id: Int, type: Class<*>, codec: SpCodec<*>) {
+        val current = byId[id]
+        require(current == null || byClass[type] === current) { "Id $id is already registered" }
+        val registration = Registration(id, codec)
+        byClass.put(type, registration)?.let { byId.remove(it.id) }
+        byId[id] = registration
+    }
+
+    internal fun isEncoded(value: String): Boolean = value.startsWith(PREFIX)
+
+    internal fun encodeToString(value: Any): String =
+        PREFIX + Base64.encodeToString(encode(value), Base64.NO_WRAP)
+
+    @Suppress("UNCHECKED_CAST")
+    internal fun encode(value: Any): ByteArray {
+        val registration = byClass[value.javaClass]
+        val buffer = ByteArrayOutputStream()
+        DataOutputStream(buffer).use { out ->
+            when {
+                registration != null -> {
+                    val payload = ByteArrayOutputStream()
+                    DataOutputStream(payload).use {
+                        (registration.codec as SpCodec<Any>).write(value, it)
+                    }
+                    out.writeByte(header(KIND_CODEC))
+                    writeVarInt(out, registration.id)
+                    writePayload(out, payload.toByteArray())
+                }
+
+                value is Parcelable -> {
+                    val parcel = Parcel.obtain()
+                    try {
+                        value.writeToParcel(parcel, 0)
+                        out.writeByte(header(KIND_PARCEL))
+                        writePayload(out, parcel.marshall())
+                    } finally {
+                        parcel.recycle()
+                    }
+                }
+
+                value is java.io.Serializable -> {
+                    val payload = ByteArrayOutputStream()
+                    ObjectOutputStream(payload).use { it.writeObject(value) }
+                    out.writeByte(header(KIND_JAVA))
+                    writePayload(out, payload.toByteArray())
+                }
+
+                else -> throw IllegalArgumentException("No codec for ${value.javaClass}")
+            }
+        }
+        return buffer.toByteArray()
+    }
+
+    /**
+     * Decodes a string returned by [encodeToString].
+     *
+     * @param value the encoded string
+     * @param creator the creator, for Parcelable values
+     * @return the value, or null if it could not be decoded
+     * */
+    internal fun <T : Any> decodeFromString(
+        value: String, creator: Parcelable.Creator<T>? = null
+    ): T? = try {
+        decode(Base64.decode(value.substring(PREFIX.length), Base64.NO_WRAP), creator)
+    } catch (ex: Throwable) {
+        ex.printStackTrace()
+        null
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T : Any> decode(bytes: ByteArray, creator: Parcelable.Creator<T>?): T? {
+        val input = ByteArrayInputStream(bytes)
+        val data = DataInputStream(input)
+        val header = data.readUnsignedByte()
+        val version = header shr 4
+        require(version == VERSION) { "Unknown version $version" }
+        val kind = header and 0x0F
+        val id = if (kind == KIND_CODEC) readVarInt(data) else 0
+        val length = readVarInt(data)
+        val offset = bytes.size - input.available()
+        check(length == bytes.size - offset) {
+            "Expected $length bytes, found ${bytes.size - offset}"
+        }
+        return when (kind) {
+            KIND_CODEC -> {
+                val registration = byId[id] ?: throw IllegalStateException("No codec for id $id")
+                (registration.codec as SpCodec<T>).read(data)
+            }
+
+            KIND_PARCEL -> {
+                requireNotNull(creator) { "A creator is needed for Parcel values" }
+                val parcel = Parcel.obtain()
+                try {
+                    parcel.unmarshall(bytes, offset, length)
+                    parcel.setDataPosition(0)
+                    creator.createFromParcel(parcel)
+                } finally {
+                    parcel.recycle()
+                }
+            }
+
+            KIND_JAVA -> ObjectInputStream(input).use { it.readObject() as T }
+
+            else -> throw IllegalStateException("Unknown kind $kind")
+        }
+    }
+
+    private fun header(kind: Int): Int = (VERSION shl 4) or kind
+
+    private fun writePayload(out: DataOutput, payload: ByteArray) {
+        writeVarInt(out, payload.size)
+        out.write(payload)
+    }
+
+    private fun writeVarInt(out: DataOutput, value: Int) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            out.writeByte((remaining and 0x7F) or 0x80)
+            remaining = remaining ushr 7
+        }
+        out.writeByte(remaining)
+    }
+
+    private fun readVarInt(input: DataInput): Int {
+        var value = 0
+        var shift = 0
+        while (shift < 32) {
+            val byte = input.readUnsignedByte()
+            value = value or ((byte and 0x7F) shl shift)
+            if (byte and 0x80 == 0) return value
+            shift += 7
+        }
+        throw IllegalStateException("Malformed varint")
+    }
+}
@@ -19,16 +19,30 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @return returns instance of subject 'SharedPreferences'
      * */
     private fun getSharedPreferences(context: Context): SharedPreferences =
-        context.getSharedPreferences(SP_FILE_KEY, Context.MODE_PRIVATE)
+        openSharedPreferences(context).also { SpWrites.flush(SP_FILE_KEY) }
 
     /**
-     * Method to get hold of subject 'SharedPreferences.Editor' instance
+     * Method to get hold of subject 'SharedPreferences' instance for writing, without
+     * flushing the writes that are being coalesced
      *
      * @param context Android Context
-     * @return returns instance of subject 'SharedPreferences.Editor'
+     * @return returns instance of subject 'SharedPreferences'
+     * */
+    private fun openSharedPreferences(context: Context): SharedPreferences =
+        context.getSharedPreferences(SP_FILE_KEY, Context.MODE_PRIVATE).also { SpCache.bind(SP_FILE_KEY, it) }
+
+    /**
+     * Method to write one key through [SpWrites], which applies it now or merges it
+     * with the other writes of the coalescing window
+     *
+     * @param context Android Context
+     * @param key unique key of the written object
+     * @param put puts the object in the editor
      * */
-    private fun getSpEditor(context: Context): SharedPreferences.Editor =
-        getSharedPreferences(context).edit()
+    private fun write(context: Context, key: String, put: (SharedPreferences.Editor) -> Unit) {
+        SpWrites.edit(SP_FILE_KEY, openSharedPreferences(context), 1, put)
+        SpCache.invalidate(SP_FILE_KEY, key)
+    }
 
     /**
      * Method to save(async) object(Primitive,Serializable) on Shared Preference
@@ -60,10 +74,10 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * */
     fun <T : Serializable> saveDataSync(context: Context, data: T, key: String) {
-        return saveSerializableData(getSpEditor(context), data, key)
+        write(context, key) { putSerializableData(it, data, key) }
     }
 
-    private fun <T : Serializable> saveSerializableData(editor: SharedPreferences.Editor, data: T, key: String) {
+    private fun <T : Serializable> putSerializableData(editor: SharedPreferences.Editor, data: T, key: String) {
         when (data) {
             is Long -> editor.putLong(key, data)
             is Int -> editor.putInt(key, data)
@@ -72,7 +86,58 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
             is String -> editor.putString(key, data.toString())
             else -> editor.putString(key, data.toSerializedString())
         }
-        editor.apply()
+    }
+
+    /**
+     * Method to save(blocking) several objects in a single write. The block is run
+     * right away, and the saves made through the given [Batch] are applied with one
+     * editor, so that the file is written once
+     *
+     * @param context Android Context
+     * @param block saves the objects
+     * */
+    fun edit(context: Context, block: Batch.() -> Unit) {
+        val batch = Batch().apply(block)
+        if (batch.puts.isEmpty()) return
+        SpWrites.edit(SP_FILE_KEY, openSharedPreferences(context), batch.puts.size) { editor ->
+            batch.puts.forEach { it(editor) }
+        }
+        batch.keys.forEach { SpCache.invalidate(SP_FILE_KEY, it) }
+    }
+
+    /**
+     * Saves collected by [edit], written together at the end of the block
+     * */
+    inner class Batch internal constructor() {
+        internal val puts = mutableListOf<(SharedPreferences.Editor) -> Unit>()
+        internal val keys = mutableSetOf<String>()
+
+        private fun add(key: String, put: (SharedPreferences.Editor) -> Unit) {
+            puts.add(put)
+            keys.add(key)
+        }
+
+        fun <T : Serializable> saveData(data: T, key: String) =
+            add(key) { putSerializableData(it, data, key) }
+
+        fun <T : Serializable> saveSerializableCollection(data: Collection<T>, key: String) =
+            add(key) { putSerializableCollection(it, data, key) }
+
+        fun <K : Serializable, V : Serializable> saveSerializableMap(data: Map<K, V>, key: String) =
+            add(key) { putSerializableMap(it, data, key) }
+
+        fun <K : Serializable, V : Parcelable> saveParcelableMap(data: Map<K, V>, key: String) =
+            add(key) { putParcelableMap(it, data, key) }
+
+        fun <T : Parcelable> saveParcelableCollection(data: Collection<T>, key: String) =
+            add(key) { putParcelableCollection(it, data, key) }
+
+        fun <T : Parcelable> saveParcelable(data: T, key: String) =
+            add(key) { putParcelable(it, data, key) }
+
+        fun removeKey(key: String) {
+            add(key) { it.remove(key) }
+        }
     }
 
     /**
@@ -92,10 +157,14 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param context Android Context
      * @param key unique key to the object to be saved
      * @param type subject class type
-     * @return 'instance' of subject type if found else null
+     * @return 'instance' of subject type if found else null.
+     * The instance is cached and shared with other callers, so it should not be modified
      * */
+    fun <T : Serializable> getData(context: Context, key: String, type: Class<T>): T? =
+        SpCache.get(SP_FILE_KEY, key, type) { readData(context, key, type) }
+
     @Suppress("UNCHECKED_CAST")
-    fun <T : Serializable> getData(context: Context, key: String, type: Class<T>): T? {
+    private fun <T : Serializable> readData(context: Context, key: String, type: Class<T>): T? {
         var retVal: T? = null
         getSharedPreferences(context).let {
             if (it.contains(key)) {
@@ -106,7 +175,11 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
                         type.isAssignableFrom(Float::class.java) -> it.getFloat(key, Float.MIN_VALUE)
                         type.isAssignableFrom(false.javaClass) -> it.getBoolean(key, false)
                         type.isAssignableFrom(String::class.java) -> it.getString(key, "")
-                        else -> it.getString(key, "")!!.toSerializable(type)
+                        else -> it.getString(key, "")!!.let { raw ->
+                            raw.toSerializable(type)?.also { value ->
+                                if (raw.isLegacyEncoded()) write(context, key) { putSerializableData(it, value, key) }
+                            }
+                        }
                     } as T?
                 } catch (ex: Throwable) {
                     ex.printStackTrace()
@@ -148,9 +221,9 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * */
     fun <T : Serializable> saveSerializableCollectionSync(context: Context, data: Collection<T>, key: String) =
-        saveSerializableCollection(getSpEditor(context), data, key)
+        write(context, key) { putSerializableCollection(it, data, key) }
 
-    private fun <T : Serializable> saveSerializableCollection(
+    private fun <T : Serializable> putSerializableCollection(
         editor: SharedPreferences.Editor,
         data: Collection<T>,
         key: String
@@ -158,7 +231,6 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
         data.map { it.toSerializedString().addTag() }.toMutableSet().let {
             editor.putStringSet(key, it)
         }
-        editor.apply()
     }
 
     /**
@@ -193,9 +265,9 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * */
     fun <K : Serializable, V : Serializable> saveSerializableMapSync(context: Context, data: Map<K, V>, key: String) =
-        saveSerializableMap(getSpEditor(context), data, key)
+        write(context, key) { putSerializableMap(it, data, key) }
 
-    private fun <K : Serializable, V : Serializable> saveSerializableMap(
+    private fun <K : Serializable, V : Serializable> putSerializableMap(
         editor: SharedPreferences.Editor,
         data: Map<K, V>,
         key: String
@@ -205,7 +277,6 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
             dataSet.add(data.get(it)!!.toSerializedString().addTag(it.toSerializedString()))
         }
         editor.putStringSet(key, dataSet)
-        editor.apply()
     }
 
     /**
@@ -242,9 +313,9 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
     fun <K : Serializable, V : Parcelable> saveParcelableMapSync(
         context: Context,
         data: Map<K, V>, key: String
-    ) = saveParcelableMap(getSpEditor(context), data, key)
+    ) = write(context, key) { putParcelableMap(it, data, key) }
 
-    private fun <K : Serializable, V : Parcelable> saveParcelableMap(
+    private fun <K : Serializable, V : Parcelable> putParcelableMap(
         editor: SharedPreferences.Editor,
         data: Map<K, V>, key: String
     ) {
@@ -253,7 +324,6 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
             dataSet.add(data.get(it)!!.toSerializedString().addTag(it.toSerializedString()))
         }
         editor.putStringSet(key, dataSet)
-        editor.apply()
     }
 
     /**
@@ -279,10 +349,19 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * @param keyType class type of Map key
      * @param valueType class type of Map value
-     * @return Map<K : Serializable,V : Serializable> if found else null
+     * @return Map<K : Serializable,V : Serializable> if found else null.
+     * The map is a new copy, but its keys and values are shared with other callers
+     * and should not be modified
      * */
     fun <K : Serializable, V : Serializable> getSerializableMap(
         context: Context, keyType: Class<K>, valueType: Class<V>, key: String
+    )
+            : Map<K, V>? =
+        SpCache.get(SP_FILE_KEY, key, Pair(keyType, valueType)) { readSerializableMap(context, keyType, valueType, key) }
+            ?.toMap()
+
+    private fun <K : Serializable, V : Serializable> readSerializableMap(
+        context: Context, keyType: Class<K>, valueType: Class<V>, key: String
     )
             : Map<K, V>? {
         val dataSet = mutableMapOf<K, V>()
@@ -299,6 +378,9 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
                                     it.second.toSerializable(valueType)!!
                                 )
                             }
+                        if (it.any { it.isLegacyEntry() }) {
+                            write(context, key) { putSerializableMap(it, dataSet, key) }
+                        }
                         return dataSet.toMap()
                     }
                 }
@@ -330,11 +412,21 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * @param keyType class type of Map key
      * @param creator Parcelable.Creator of subject value type
-     * @return Map<K : Serializable,V : Serializable> if found else null
+     * @return Map<K : Serializable,V : Parcelable> if found else null.
+     * The map is a new copy, but its keys and values are shared with other callers
+     * and should not be modified
      * */
     fun <K : Serializable, V : Parcelable> getParcelableMap(
         context: Context, keyType: Class<K>,
         creator: Parcelable.Creator<V>, key: String
+    )
+            : Map<K, V>? =
+        SpCache.get(SP_FILE_KEY, key, Pair(keyType, creator)) { readParcelableMap(context, keyType, creator, key) }
+            ?.toMap()
+
+    private fun <K : Serializable, V : Parcelable> readParcelableMap(
+        context: Context, keyType: Class<K>,
+        creator: Parcelable.Creator<V>, key: String
     )
             : Map<K, V>? {
         val dataSet = mutableMapOf<K, V>()
@@ -351,6 +443,9 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
                                     it.second.toParcelable(creator)
                                 )
                             }
+                        if (it.any { it.isLegacyEntry() }) {
+                            write(context, key) { putParcelableMap(it, dataSet, key) }
+                        }
                         return dataSet.toMap()
                     }
                 }
@@ -366,16 +461,26 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param context Android Context
      * @param key unique key to the object to be saved
      * @param type subject class type
-     * @return Collection of subject type if found else null
+     * @return Collection of subject type if found else null.
+     * The collection is a new copy, but its items are shared with other callers
+     * and should not be modified
      * */
-    fun <T : Serializable> getSerializableCollection(context: Context, type: Class<T>, key: String): Collection<T>? {
+    fun <T : Serializable> getSerializableCollection(context: Context, type: Class<T>, key: String): Collection<T>? =
+        SpCache.get(SP_FILE_KEY, key, Pair(Collection::class.java, type)) { readSerializableCollection(context, type, key) }
+            ?.toList()
+
+    private fun <T : Serializable> readSerializableCollection(context: Context, type: Class<T>, key: String): Collection<T>? {
         if (checkIfExists(context, key)) {
             try {
                 getSharedPreferences(context)
                     .getStringSet(key, mutableSetOf())
                     ?.let {
                         if (it.isNotEmpty()) {
-                            return it.map { it.removeTag()?.second?.toSerializable(type) }.filter { it != null }.map { it!! }
+                            val values = it.map { it.removeTag()?.second?.toSerializable(type) }.filter { it != null }.map { it!! }
+                            if (it.any { it.isLegacyEntry() }) {
+                                write(context, key) { putSerializableCollection(it, values, key) }
+                            }
+                            return values
                         }
                     }
             } catch (ex: Throwable) {
@@ -406,11 +511,10 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
     fun <T : Parcelable> saveParcelableCollection(context: Context, data: Collection<T>, key: String) =
         CoroutineScope(Dispatchers.IO).launch { saveParcelableCollectionSync(context, data, key) }
 
-    private fun <T : Parcelable> saveParcelableCollection(editor: SharedPreferences.Editor, data: Collection<T>, key: String) {
+    private fun <T : Parcelable> putParcelableCollection(editor: SharedPreferences.Editor, data: Collection<T>, key: String) {
         data.map { it.toSerializedString().addTag() }.toMutableSet().let {
             editor.putStringSet(key, it)
         }
-        editor.apply()
     }
 
     /**
@@ -421,7 +525,7 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * */
     fun <T : Parcelable> saveParcelableCollectionSync(context: Context, data: Collection<T>, key: String) =
-        saveParcelableCollection(getSpEditor(context), data, key)
+        write(context, key) { putParcelableCollection(it, data, key) }
 
     /**
      * Method(suspend) to save Collection of objects that implements Parcelable on Shared Preference
@@ -439,16 +543,26 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param context Android Context
      * @param creator Parcelable.Creator of subject type
      * @param key unique key to the object to be saved
-     * @return Collection of subject type if found else null
+     * @return Collection of subject type if found else null.
+     * The collection is a new copy, but its items are shared with other callers
+     * and should not be modified
      * */
-    fun <T : Parcelable> getParcelableCollection(context: Context, creator: Parcelable.Creator<T>, key: String): Collection<T>? {
+    fun <T : Parcelable> getParcelableCollection(context: Context, creator: Parcelable.Creator<T>, key: String): Collection<T>? =
+        SpCache.get(SP_FILE_KEY, key, Pair(Collection::class.java, creator)) { readParcelableCollection(context, creator, key) }
+            ?.toList()
+
+    private fun <T : Parcelable> readParcelableCollection(context: Context, creator: Parcelable.Creator<T>, key: String): Collection<T>? {
         if (checkIfExists(context, key)) {
             try {
                 getSharedPreferences(context)
                     .getStringSet(key, mutableSetOf())
                     ?.let {
                         if (it.isNotEmpty()) {
-                            return it.map { it.removeTag()?.second?.toParcelable(creator) }.filter { it != null }.map { it!! }
+                            val values = it.map { it.removeTag()?.second?.toParcelable(creator) }.filter { it != null }.map { it!! }
+                            if (it.any { it.isLegacyEntry() }) {
+                                write(context, key) { putParcelableCollection(it, values, key) }
+                            }
+                            return values
                         }
                     }
             } catch (ex: Throwable) {
@@ -497,11 +611,10 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param key unique key to the object to be saved
      * */
     fun <T : Parcelable> saveParcelableSync(context: Context, data: T, key: String) =
-        saveParcelable(getSpEditor(context), data, key)
+        write(context, key) { putParcelable(it, data, key) }
 
-    private fun <T : Parcelable> saveParcelable(editor: SharedPreferences.Editor, data: T, key: String) {
+    private fun <T : Parcelable> putParcelable(editor: SharedPreferences.Editor, data: T, key: String) {
         editor.putString(key, data.toSerializedString())
-        editor.apply()
     }
 
     /**
@@ -510,19 +623,26 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param context Android Context
      * @param key unique key to the object to be saved
      * @param creator Parcelable.Creator of subject type
-     * @return 'instance' of subject type if found else null
+     * @return 'instance' of subject type if found else null.
+     * The instance is cached and shared with other callers, so it should not be modified
      * */
     fun <T : Parcelable> getParcelableData(
         context: Context, key: String,
         creator: Parcelable.Creator<T>
+    ): T? = SpCache.get(SP_FILE_KEY, key, creator) { readParcelableData(context, key, creator) }
+
+    private fun <T : Parcelable> readParcelableData(
+        context: Context, key: String,
+        creator: Parcelable.Creator<T>
     ): T? {
         var retVal: T? = null
         getSharedPreferences(context).let {
             if (it.contains(key)) {
                 try {
-                    it.getString(key, "")?.let {
-                        if (it.isNotBlank()) {
-                            retVal = it.toParcelable(creator)
+                    it.getString(key, "")?.let { raw ->
+                        if (raw.isNotBlank()) {
+                            retVal = raw.toParcelable(creator)
+                            if (raw.isLegacyEncoded()) write(context, key) { putParcelable(it, retVal!!, key) }
                         }
                     }
                 } catch (ex: Throwable) {
@@ -555,7 +675,9 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      * @param context Android Context
      * @param key unique key to the saved object
      * */
-    fun removeKey(context: Context, key: String) = getSpEditor(context).remove(key).apply()
+    fun removeKey(context: Context, key: String) {
+        write(context, key) { it.remove(key) }
+    }
 
     /**
      * Checks whwather object with given key exists on Shared Preferences
@@ -571,7 +693,11 @@ class SpUtils internal constructor(private val SP_FILE_KEY: String) {
      *
      * @param context Android Context
      * */
-    fun clearAll(context: Context): Boolean = getSpEditor(context).clear().commit()
+    fun clearAll(context: Context): Boolean {
+        SpWrites.discard(SP_FILE_KEY)
+        return openSharedPreferences(context).edit().clear().commit()
+            .also { SpCache.invalidateAll(SP_FILE_KEY) }
+    }
 
     /**
      * Registers Shared Preference Change Listener     *
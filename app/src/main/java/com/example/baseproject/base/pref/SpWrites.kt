@@ -0,0 +1,134 @@
+package com.example.baseproject.base.pref
+
+import android.content.SharedPreferences
+import android.os.Handler
+import android.os.HandlerThread
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Write path of [SpUtils]. Every save ends up in one `apply()`, and each `apply()` queues
+ * a rewrite of the whole preference file that `Activity.onStop` waits for.
+ *
+ * When [coalesceWindowMillis] is greater than 0, saves made to the same file within the
+ * window are merged into a single editor, applied when the window ends. Reads done
+ * through [SpUtils] apply the pending writes first, so they always see them. Pending
+ * writes are lost if the process dies before the window ends: call [flushAll] when
+ * leaving the app if that matters.
+ *
+ * [requested] counts the saved keys, [commits] the applied editors.
+ * */
+object SpWrites {
+
+    /**
+     * Time window, in milliseconds, in which saves to the same file are merged.
+     * Defaults to 0, which applies each save right away.
+     * */
+    @JvmStatic
+    @Volatile
+    var coalesceWindowMillis: Long = 0L
+
+    private val lock = Any()
+    private val pending = HashMap<String, SharedPreferences.Editor>()
+
+    private val handler: Handler by lazy {
+        Handler(HandlerThread("SpWrites").apply { start() }.looper)
+    }
+
+    private val requestedCount = AtomicLong()
+    private val commitCount = AtomicLong()
+
+    /**
+     * Number of keys saved or removed.
+     * */
+    @JvmStatic
+    val requested: Long
+        get() = requestedCount.get()
+
+    /**
+     * Number of editors applied, each one being a file write.
+     * */
+    @JvmStatic
+    val commits: Long
+        get() = commitCount.get()
+
+    /**
+     * Resets [requested] and [commits].
+     * */
+    @JvmStatic
+    fun resetStats() {
+        requestedCount.set(0)
+        commitCount.set(0)
+    }
+
+    /**
+     * Runs the block on an editor of the given file, then applies it,
+     * or keeps it for the end of the coalescing window.
+     *
+     * @param file Shared Preferences file name
+     * @param preferences the file preferences
+     * @param writes number of keys written by the block
+     * @param block puts the values in the editor
+     * */
+    internal fun edit(
+        file: String,
+        preferences: SharedPreferences,
+        writes: Int,
+        block: (SharedPreferences.Editor) -> Unit
+    ) {
+        requestedCount.addAndGet(writes.toLong())
+        val window = coalesceWindowMillis
+        if (window <= 0L) {
+            val editor = preferences.edit()
+            block(editor)
+            apply(editor)
+            return
+        }
+        synchronized(lock) {
+            val editor = pending[file]
+            if (editor != null) {
+                block(editor)
+            } else {
+                pending[file] = preferences.edit().also(block)
+                handler.postDelayed({ flush(file) }, window)
+            }
+        }
+    }
+
+    /**
+     * Applies the pending writes of the given file, if any.
+     *
+     * @param file Shared Preferences file name
+     * */
+    internal fun flush(file: String) {
+        val editor = synchronized(lock) {
+            if (pending.isEmpty()) return
+            pending.remove(file)
+        } ?: return
+        apply(editor)
+    }
+
+    /**
+     * Drops the pending writes of the given file, for example because it is being cleared.
+     *
+     * @param file Shared Preferences file name
+     * */
+    internal fun discard(file: String) {
+        synchronized(lock) { pending.remove(file) }
+    }
+
+    /**
+     * Applies the pending writes of all files.
+     * */
+    @JvmStatic
+    fun flushAll() {
+        val editors = synchronized(lock) {
+            pending.values.toList().also { pending.clear() }
+        }
+        editors.forEach { apply(it) }
+    }
+
+    private fun apply(editor: SharedPreferences.Editor) {
+        editor.apply()
+        commitCount.incrementAndGet()
+    }
+}
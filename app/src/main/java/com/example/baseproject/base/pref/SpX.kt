@@ -8,7 +8,6 @@ import kotlinx.coroutines.withContext
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.io.ObjectInputStream
-import java.io.ObjectOutputStream
 import java.util.UUID
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.resume
@@ -30,24 +29,22 @@ internal fun CharArray.byteArray(): ByteArray {
     return bytes
 }
 
-private fun ByteArray.toSerializedString(): String = String(toCharArray())
 private fun String.deserialize(): ByteArray = toCharArray().byteArray()
 
+/**
+ * Whether this string was written by older versions, as bytes widened to chars.
+ * Such values are still readable, and should be written again with [SpCodecs].
+ * */
+internal fun String.isLegacyEncoded(): Boolean = !SpCodecs.isEncoded(this)
+
 @Suppress("UNCHECKED_CAST")
 internal fun <T : java.io.Serializable> String.toSerializable(type: Class<T>): T? {
+    if (SpCodecs.isEncoded(this)) return SpCodecs.decodeFromString(this)
     return this.deserialize().toSerializable(type)
 }
 
-private fun java.io.Serializable.toByteArray(): ByteArray {
-    val buffer = ByteArrayOutputStream()
-    val oos = ObjectOutputStream(buffer)
-    oos.writeObject(this)
-    oos.close()
-    return buffer.toByteArray()
-}
-
 internal fun java.io.Serializable.toSerializedString(): String {
-    return this.toByteArray().toSerializedString()
+    return SpCodecs.encodeToString(this)
 }
 
 @Suppress("UNCHECKED_CAST")
@@ -60,20 +57,16 @@ private fun <T : java.io.Serializable> ByteArray.toSerializable(type: Class<T>):
     }
 }
 
-private fun Parcelable.toByteArray(): ByteArray {
-    val parcel = Parcel.obtain()
-    this.writeToParcel(parcel, 0)
-    val bytes = parcel.marshall()
-    parcel.recycle()
-    return bytes
-}
-
 internal fun Parcelable.toSerializedString(): String {
-    return this.toByteArray().toSerializedString()
+    return SpCodecs.encodeToString(this)
 }
 
-internal fun <T : Parcelable> String.toParcelable(creator: Parcelable.Creator<T>): T =
-    byteArrayToParcelable(toCharArray().byteArray(), creator)
+internal fun <T : Parcelable> String.toParcelable(creator: Parcelable.Creator<T>): T {
+    if (SpCodecs.isEncoded(this)) {
+        return SpCodecs.decodeFromString(this, creator) ?: throw IllegalStateException("Could not decode value")
+    }
+    return byteArrayToParcelable(toCharArray().byteArray(), creator)
+}
 
 
 internal fun <T : Parcelable> byteArrayToParcelable(bytes: ByteArray, creator: Parcelable.Creator<T>): T {
@@ -109,6 +102,12 @@ internal fun String.addTag(tag: String? = null): String {
     return "$stringTag$STRING_TAG_SEPARATOR$this"
 }
 
+/**
+ * Whether this tagged collection entry was written by older versions.
+ * */
+internal fun String.isLegacyEntry(): Boolean =
+    removeTag()?.let { it.second.isLegacyEncoded() } ?: false
+
 internal fun String.removeTag(): Pair<String, String>? {
 //    val tagSeparatorStartIndex = this.indexOf(STRING_TAG_SEPARATOR)
 //    if (tagSeparatorStartIndex == -1){
@@ -2,6 +2,7 @@ package com.example.baseproject.base.utils.util
 
 import android.content.Context
 import android.content.SharedPreferences
+import com.example.baseproject.base.pref.SpCache
 
 object SharePrefUtils {
     private const val PREF_NAME = "AppName"
@@ -13,6 +14,7 @@ object SharePrefUtils {
             return
         }
         sharePref = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
+        SpCache.bind(PREF_NAME, sharePref)
     }
 
     fun <T> saveKey(key: String, value: T) {
@@ -23,6 +25,7 @@ object SharePrefUtils {
             is Long -> sharePref.edit().putLong(key, value).apply()
             is Float -> sharePref.edit().putFloat(key, value).apply()
         }
+        SpCache.invalidate(PREF_NAME, key)
 
     }
 
@@ -30,35 +33,45 @@ object SharePrefUtils {
         if (!::sharePref.isInitialized) {
             return defaultValue
         }
-        return sharePref.getString(key, "")?.trim() ?: ""
+        return SpCache.get(PREF_NAME, key, String::class.java) {
+            sharePref.getString(key, "")?.trim() ?: ""
+        } ?: ""
     }
 
     fun getInt(key: String, defaultValue: Int = 0): Int {
         if (!::sharePref.isInitialized) {
             return defaultValue
         }
-        return sharePref.getInt(key, defaultValue)
+        return SpCache.get(PREF_NAME, key, Int::class.java) {
+            if (sharePref.contains(key)) sharePref.getInt(key, defaultValue) else null
+        } ?: defaultValue
     }
 
     fun getBoolean(key: String, defaultValue: Boolean = false): Boolean {
         if (!::sharePref.isInitialized) {
             return defaultValue
         }
-        return sharePref.getBoolean(key, defaultValue)
+        return SpCache.get(PREF_NAME, key, Boolean::class.java) {
+            if (sharePref.contains(key)) sharePref.getBoolean(key, defaultValue) else null
+        } ?: defaultValue
     }
 
     fun getLong(key: String, defaultValue: Long = 0L): Long {
         if (!::sharePref.isInitialized) {
             return defaultValue
         }
-        return sharePref.getLong(key, defaultValue)
+        return SpCache.get(PREF_NAME, key, Long::class.java) {
+            if (sharePref.contains(key)) sharePref.getLong(key, defaultValue) else null
+        } ?: defaultValue
     }
 
     fun getFloat(key: String, defaultValue: Float = 0f): Float {
         if (!::sharePref.isInitialized) {
             return defaultValue
         }
-        return sharePref.getFloat(key, defaultValue)
+        return SpCache.get(PREF_NAME, key, Float::class.java) {
+            if (sharePref.contains(key)) sharePref.getFloat(key, defaultValue) else null
+        } ?: defaultValue
     }
 
     fun isFistOpen() = getBoolean("is_first_open", true)
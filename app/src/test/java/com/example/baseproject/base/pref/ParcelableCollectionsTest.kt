@@ -0,0 +1,87 @@
+package com.example.baseproject.base.pref
+
+import android.app.Application
+import android.os.Parcel
+import android.os.Parcelable
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class ParcelableCollectionsTest {
+
+    data class Item(val id: Int, val name: String) : Parcelable {
+        override fun writeToParcel(dest: Parcel, flags: Int) {
+            dest.writeInt(id)
+            dest.writeString(name)
+        }
+
+        override fun describeContents(): Int = 0
+
+        companion object CREATOR : Parcelable.Creator<Item> {
+            override fun createFromParcel(source: Parcel): Item =
+                Item(source.readInt(), source.readString()!!)
+
+            override fun newArray(size: Int): Array<Item?> = arrayOfNulls(size)
+        }
+    }
+
+    private val items = (0 until 10).map { Item(it, "item $it".repeat(it + 1)) }
+
+    private fun read(bytes: ByteArray, offset: Int, limit: Int): List<Item> {
+        val result = ArrayList<Item>()
+        assertTrue(ParcelableCollections.forEach(bytes, Item.CREATOR, offset, limit) { result.add(it) })
+        return result
+    }
+
+    @Test
+    fun roundTrip_keepsOrder() {
+        val bytes = ParcelableCollections.encode(items)
+        assertEquals(items.size, ParcelableCollections.size(bytes))
+        assertEquals(items, read(bytes, 0, Int.MAX_VALUE))
+    }
+
+    @Test
+    fun pages_decodeOnlyRequestedElements() {
+        val bytes = ParcelableCollections.encode(items)
+        assertEquals(items.subList(3, 7), read(bytes, 3, 4))
+        assertEquals(items.subList(8, 10), read(bytes, 8, 5))
+        assertEquals(emptyList<Item>(), read(bytes, 10, 5))
+        assertEquals(emptyList<Item>(), read(bytes, 2, 0))
+
+        var decoded = 0
+        val creator = object : Parcelable.Creator<Item> by Item.CREATOR {
+            override fun createFromParcel(source: Parcel): Item =
+                Item.CREATOR.createFromParcel(source).also { decoded++ }
+        }
+        ParcelableCollections.forEach(bytes, creator, 9, 1) {}
+        assertEquals(1, decoded)
+    }
+
+    @Test
+    fun emptyCollection_roundTrip() {
+        val bytes = ParcelableCollections.encode(emptyList<Item>())
+        assertEquals(0, ParcelableCollections.size(bytes))
+        assertEquals(emptyList<Item>(), read(bytes, 0, Int.MAX_VALUE))
+    }
+
+    @Test
+    fun otherBytes_areNotACollection() {
+        val legacy = "tag!@#$%!@#$%!@#$%value".toByteArray()
+        assertNull(ParcelableCollections.size(legacy))
+        assertFalse(ParcelableCollections.forEach(legacy, Item.CREATOR, 0, 1) {})
+        assertNull(ParcelableCollections.size(ByteArray(4)))
+        assertFalse(ParcelableCollections.forEach(ByteArray(4), Item.CREATOR, 0, 1) {})
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun negativeOffset_isRejected() {
+        ParcelableCollections.forEach(ParcelableCollections.encode(items), Item.CREATOR, -1, 1) {}
+    }
+}
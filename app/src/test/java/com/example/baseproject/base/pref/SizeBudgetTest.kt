@@ -0,0 +1,46 @@
+package com.example.baseproject.base.pref
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class SizeBudgetTest {
+
+    private val posted = ArrayList<Runnable>()
+    private var checks = 0
+
+    private fun budget(maxBytes: Long) = SizeBudget(maxBytes, 4, { posted.add(it) }) { checks++ }
+
+    @Test
+    fun noBudget_neverChecks() {
+        val budget = budget(0L)
+        repeat(100) { budget.onWrite() }
+        assertTrue(posted.isEmpty())
+    }
+
+    @Test
+    fun checksEveryFewWrites_offTheWritingThread() {
+        val budget = budget(1024L)
+        repeat(3) { budget.onWrite() }
+        assertTrue(posted.isEmpty())
+        budget.onWrite()
+        assertEquals(1, posted.size)
+        // Posted, not run by the writer.
+        assertEquals(0, checks)
+        posted.removeAt(0).run()
+        assertEquals(1, checks)
+    }
+
+    @Test
+    fun pendingCheck_isNotPostedTwice() {
+        val budget = budget(1024L)
+        repeat(12) { budget.onWrite() }
+        assertEquals(1, posted.size)
+
+        posted.removeAt(0).run()
+        repeat(4) { budget.onWrite() }
+        assertEquals(1, posted.size)
+        posted.removeAt(0).run()
+        assertEquals(2, checks)
+    }
+}
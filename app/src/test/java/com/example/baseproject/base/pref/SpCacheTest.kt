@@ -0,0 +1,85 @@
+package com.example.baseproject.base.pref
+
+import android.app.Application
+import android.content.Context
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.util.UUID
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class SpCacheTest {
+
+    private lateinit var context: Context
+    private lateinit var file: String
+    private lateinit var sp: SpUtils
+
+    @Before
+    fun setUp() {
+        context = RuntimeEnvironment.getApplication()
+        // SpCache is process wide: use a new file for each test.
+        file = "sp-cache-" + UUID.randomUUID()
+        sp = SpUtils.getInstance(file)
+        SpCache.resetStats()
+    }
+
+    @Test
+    fun getData_servesRepeatedReadsFromMemory() {
+        sp.saveDataSync(context, "first", KEY)
+        assertEquals("first", sp.getData(context, KEY, String::class.java))
+        assertEquals("first", sp.getData(context, KEY, String::class.java))
+        assertEquals(1L, SpCache.misses)
+        assertEquals(1L, SpCache.hits)
+    }
+
+    @Test
+    fun save_invalidatesKey() {
+        sp.saveDataSync(context, "first", KEY)
+        sp.getData(context, KEY, String::class.java)
+        sp.saveDataSync(context, "second", KEY)
+        assertEquals("second", sp.getData(context, KEY, String::class.java))
+        assertEquals(2L, SpCache.misses)
+    }
+
+    @Test
+    fun otherWriter_invalidatesKey() {
+        sp.saveDataSync(context, "first", KEY)
+        assertEquals("first", sp.getData(context, KEY, String::class.java))
+
+        // Written without SpUtils: only the change listener can notice it.
+        context.getSharedPreferences(file, Context.MODE_PRIVATE)
+            .edit().putString(KEY, "other").commit()
+        assertEquals("other", sp.getData(context, KEY, String::class.java))
+
+        context.getSharedPreferences(file, Context.MODE_PRIVATE).edit().clear().commit()
+        assertNull(sp.getData(context, KEY, String::class.java))
+    }
+
+    @Test
+    fun nullValues_areCached() {
+        assertNull(sp.getData(context, KEY, String::class.java))
+        assertNull(sp.getData(context, KEY, String::class.java))
+        assertEquals(1L, SpCache.misses)
+        assertEquals(1L, SpCache.hits)
+    }
+
+    @Test
+    fun collections_areCopied() {
+        sp.saveSerializableCollectionSync(context, listOf("a", "b"), KEY)
+        val first = sp.getSerializableCollection(context, String::class.java, KEY) as MutableList<String>
+        first.clear()
+        val second = sp.getSerializableCollection(context, String::class.java, KEY)!!
+        assertEquals(setOf("a", "b"), second.toSet())
+        assertEquals(1L, SpCache.hits)
+    }
+
+    companion object {
+        private const val KEY = "key"
+    }
+}
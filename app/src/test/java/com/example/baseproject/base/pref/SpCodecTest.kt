@@ -0,0 +1,119 @@
+package com.example.baseproject.base.pref
+
+import android.app.Application
+import android.os.Bundle
+import android.util.Base64
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.ObjectOutputStream
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class SpCodecTest {
+
+    data class Profile(val name: String, val age: Int) : java.io.Serializable
+
+    private object ProfileCodec : SpCodec<Profile> {
+        override fun write(value: Profile, out: DataOutput) {
+            out.writeUTF(value.name)
+            out.writeInt(value.age)
+        }
+
+        override fun read(input: DataInput): Profile = Profile(input.readUTF(), input.readInt())
+    }
+
+    @After
+    fun tearDown() {
+        SpCodecs.unregister(Profile::class.java)
+    }
+
+    @Test
+    fun builtIns_roundTrip() {
+        for (value in listOf<Any>("text", 42, 7L, true)) {
+            val encoded = SpCodecs.encodeToString(value)
+            assertTrue(SpCodecs.isEncoded(encoded))
+            assertEquals(value, SpCodecs.decodeFromString<Any>(encoded))
+        }
+        val bytes = byteArrayOf(1, 2, 3)
+        val decoded = SpCodecs.decodeFromString<ByteArray>(SpCodecs.encodeToString(bytes))
+        assertTrue(bytes.contentEquals(decoded))
+    }
+
+    @Test
+    fun registeredCodec_roundTrip() {
+        SpCodecs.register(SpCodecs.FIRST_USER_ID, Profile::class.java, ProfileCodec)
+        val profile = Profile("Ann", 30)
+        val encoded = SpCodecs.encodeToString(profile)
+        assertEquals(profile, SpCodecs.decodeFromString<Profile>(encoded))
+        // Header, one byte id, one byte length: no class name in the value.
+        assertEquals(3 + 2 + "Ann".length + 4, SpCodecs.encode(profile).size)
+    }
+
+    @Test
+    fun serializable_roundTrip() {
+        val profile = Profile("Bob", 41)
+        assertEquals(profile, profile.toSerializedString().toSerializable(Profile::class.java))
+    }
+
+    @Test
+    fun parcelable_roundTrip() {
+        val bundle = Bundle().apply { putString("key", "value") }
+        val decoded = bundle.toSerializedString().toParcelable(Bundle.CREATOR)
+        assertEquals("value", decoded.getString("key"))
+    }
+
+    @Test
+    fun legacyValue_isStillReadable() {
+        val profile = Profile("Old", 60)
+        val buffer = ByteArrayOutputStream()
+        ObjectOutputStream(buffer).use { it.writeObject(profile) }
+        val legacy = String(buffer.toByteArray().toCharArray())
+
+        assertFalse(SpCodecs.isEncoded(legacy))
+        assertTrue(legacy.isLegacyEncoded())
+        assertEquals(profile, legacy.toSerializable(Profile::class.java))
+    }
+
+    @Test
+    fun truncatedValue_decodesToNull() {
+        SpCodecs.register(SpCodecs.FIRST_USER_ID, Profile::class.java, ProfileCodec)
+        val bytes = SpCodecs.encode(Profile("Ann", 30))
+        for (size in 0 until bytes.size) {
+            val truncated = SpCodecs.PREFIX +
+                    Base64.encodeToString(bytes.copyOf(size), Base64.NO_WRAP)
+            assertNull(SpCodecs.decodeFromString<Profile>(truncated))
+        }
+    }
+
+    @Test
+    fun corruptValue_decodesToNull() {
+        val bytes = SpCodecs.encode("text")
+        // Unknown version.
+        val version = bytes.copyOf().also { it[0] = 0x71 }
+        assertNull(SpCodecs.decodeFromString<String>(encode(version)))
+        // Trailing garbage.
+        assertNull(SpCodecs.decodeFromString<String>(encode(bytes + 0.toByte())))
+        // Not Base64.
+        assertNull(SpCodecs.decodeFromString<String>(SpCodecs.PREFIX + "%%%"))
+        // Unknown codec id.
+        assertNull(SpCodecs.decodeFromString<String>(encode(byteArrayOf(0x11, 0x7F, 0))))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun register_rejectsReservedIds() {
+        SpCodecs.register(SpCodecs.FIRST_USER_ID - 1, Profile::class.java, ProfileCodec)
+    }
+
+    private fun encode(bytes: ByteArray): String =
+        SpCodecs.PREFIX + Base64.encodeToString(bytes, Base64.NO_WRAP)
+}
@@ -0,0 +1,107 @@
+package com.example.baseproject.base.pref
+
+import android.app.Application
+import android.content.Context
+import android.content.SharedPreferences
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import java.util.UUID
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class SpWritesTest {
+
+    private lateinit var context: Context
+    private lateinit var file: String
+    private lateinit var sp: SpUtils
+
+    @Before
+    fun setUp() {
+        context = RuntimeEnvironment.getApplication()
+        file = "sp-writes-" + UUID.randomUUID()
+        sp = SpUtils.getInstance(file)
+        SpWrites.resetStats()
+    }
+
+    @After
+    fun tearDown() {
+        SpWrites.flushAll()
+        SpWrites.coalesceWindowMillis = 0L
+    }
+
+    private fun preferences(): SharedPreferences =
+        context.getSharedPreferences(file, Context.MODE_PRIVATE)
+
+    @Test
+    fun noWindow_appliesEachSave() {
+        sp.saveDataSync(context, 1, "a")
+        sp.saveDataSync(context, 2, "b")
+        assertEquals(2L, SpWrites.requested)
+        assertEquals(2L, SpWrites.commits)
+        assertEquals(2, preferences().getInt("b", 0))
+    }
+
+    @Test
+    fun edit_appliesBatchOnce() {
+        sp.edit(context) {
+            saveData(1, "a")
+            saveData("text", "b")
+            saveSerializableCollection(listOf("x", "y"), "c")
+        }
+        assertEquals(3L, SpWrites.requested)
+        assertEquals(1L, SpWrites.commits)
+        assertEquals(1, preferences().getInt("a", 0))
+        assertEquals("text", preferences().getString("b", null))
+        assertEquals(2, preferences().getStringSet("c", null)!!.size)
+    }
+
+    @Test
+    fun window_mergesSavesUntilRead() {
+        SpWrites.coalesceWindowMillis = 60_000L
+        sp.saveDataSync(context, 1, "a")
+        sp.saveDataSync(context, 2, "b")
+        sp.saveDataSync(context, 3, "a")
+        // Still pending: not visible to other readers of the file.
+        assertFalse(preferences().contains("a"))
+        assertEquals(0L, SpWrites.commits)
+
+        // Reads through SpUtils apply the pending writes first.
+        assertEquals(3, sp.getData(context, "a", Int::class.java))
+        assertEquals(1L, SpWrites.commits)
+        assertEquals(3L, SpWrites.requested)
+        assertEquals(3, preferences().getInt("a", 0))
+        assertEquals(2, preferences().getInt("b", 0))
+    }
+
+    @Test
+    fun flushAll_appliesPendingWrites() {
+        SpWrites.coalesceWindowMillis = 60_000L
+        val other = SpUtils.getInstance("$file-other")
+        sp.saveDataSync(context, "value", "a")
+        other.saveDataSync(context, "value", "a")
+        assertEquals(0L, SpWrites.commits)
+
+        SpWrites.flushAll()
+        assertEquals(2L, SpWrites.commits)
+        assertEquals("value", preferences().getString("a", null))
+        assertTrue(context.getSharedPreferences("$file-other", Context.MODE_PRIVATE).contains("a"))
+    }
+
+    @Test
+    fun clearAll_discardsPendingWrites() {
+        SpWrites.coalesceWindowMillis = 60_000L
+        sp.saveDataSync(context, "value", "a")
+        sp.clearAll(context)
+        SpWrites.flushAll()
+        assertFalse(preferences().contains("a"))
+        assertFalse(sp.checkIfExists(context, "a"))
+    }
+}
@@ -0,0 +1,94 @@
+package com.base.cameraview
+
+import android.graphics.Bitmap
+
+/**
+ * A pool of mutable bitmaps that can be reused when decoding pictures with
+ * [PictureResult.toBitmap], to avoid allocating large bitmaps for each picture.
+ *
+ * Bitmaps that are not needed anymore can be given back with [put]. A bitmap can be
+ * reused for any size and config whose byte count is not larger than its allocation.
+ * When the pooled bitmaps exceed [maxBytes], the oldest ones are recycled.
+ *
+ * This class is thread safe.
+ *
+ * @param maxBytes the max memory held by pooled bitmaps, in bytes
+ */
+class BitmapPool(val maxBytes: Long) {
+
+    private val mBitmaps = ArrayDeque<Bitmap>()
+    private var mBytes = 0L
+
+    init {
+        require(maxBytes > 0) { "maxBytes should be > 0, got $maxBytes" }
+    }
+
+    /**
+     * Returns a pooled bitmap reconfigured to the given size and config, if any.
+     * Its contents are undefined.
+     *
+     * @param width  the width
+     * @param height the height
+     * @param config the config
+     * @return a mutable bitmap, or null
+     */
+    @Synchronized
+    fun get(width: Int, height: Int, config: Bitmap.Config): Bitmap? {
+        val bytes = width.toLong() * height * bytesPerPixel(config)
+        var best: Bitmap? = null
+        for (bitmap in mBitmaps) {
+            val allocation = bitmap.allocationByteCount
+            if (allocation >= bytes && (best == null || allocation < best.allocationByteCount)) {
+                best = bitmap
+            }
+        }
+        if (best == null) return null
+        mBitmaps.remove(best)
+        mBytes -= best.allocationByteCount
+        best.reconfigure(width, height, config)
+        return best
+    }
+
+    /**
+     * Gives a bitmap to the pool, so that it can be reused.
+     * The bitmap should not be used anymore after this call.
+     * Immutable or recycled bitmaps are ignored.
+     *
+     * @param bitmap the bitmap
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (!bitmap.isMutable || bitmap.isRecycled || mBitmaps.contains(bitmap)) return
+        val bytes = bitmap.allocationByteCount
+        if (bytes > maxBytes) {
+            bitmap.recycle()
+            return
+        }
+        mBitmaps.addLast(bitmap)
+        mBytes += bytes
+        while (mBytes > maxBytes) {
+            val oldest = mBitmaps.removeFirst()
+            mBytes -= oldest.allocationByteCount
+            oldest.recycle()
+        }
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    @Synchronized
+    fun clear() {
+        for (bitmap in mBitmaps) bitmap.recycle()
+        mBitmaps.clear()
+        mBytes = 0
+    }
+
+    private fun bytesPerPixel(config: Bitmap.Config): Int {
+        return when (config) {
+            Bitmap.Config.ALPHA_8 -> 1
+            Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+            Bitmap.Config.RGBA_F16 -> 8
+            else -> 4
+        }
+    }
+}
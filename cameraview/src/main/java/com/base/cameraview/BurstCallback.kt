@@ -0,0 +1,32 @@
+package com.base.cameraview
+
+import androidx.annotation.UiThread
+
+/**
+ * Receives the pictures of a snapshot burst.
+ *
+ * @see CameraView.takePictureSnapshotBurst
+ */
+interface BurstCallback {
+    /**
+     * Notifies that a picture of the burst is ready. Pictures are always
+     * passed in capture order, even if they are compressed in parallel.
+     * This is run on the UI thread.
+     *
+     * @param result the picture
+     * @param index  the position of this picture in the burst, starting at 0
+     */
+    @UiThread
+    fun onBurstPicture(result: PictureResult, index: Int)
+
+    /**
+     * Notifies that the burst is over and no more pictures will be passed.
+     * This is run on the UI thread.
+     *
+     * @param count the number of pictures that were passed, which can be less
+     * than requested if the burst was stopped, or 0 if it could not start because
+     * another picture was being taken
+     */
+    @UiThread
+    fun onBurstEnd(count: Int)
+}
@@ -1,17 +1,33 @@
 package com.base.cameraview
 
 import android.util.Log
+import androidx.annotation.IntDef
 import androidx.annotation.VisibleForTesting
 import java.util.concurrent.CopyOnWriteArraySet
 
 /**
  * Utility class that can log traces and info.
+ *
+ * The vararg methods allocate an array and box primitives even when the message is not
+ * logged. Code that runs for every frame should either check [isEnabled] first, or use
+ * the lazy overloads (which are inlined in Kotlin, so the message is never built) or the
+ * primitive overloads.
  */
 class CameraLogger private constructor(private val mTag: String) {
     private fun should(messageLevel: Int): Boolean {
         return sLevel <= messageLevel && sLoggers.isNotEmpty()
     }
 
+    /**
+     * Whether messages of the given level would currently be logged.
+     *
+     * @param level the log level
+     * @return true if enabled
+     */
+    fun isEnabled(@LogLevel level: Int): Boolean {
+        return should(level)
+    }
+
     /**
      * Log to the verbose channel.
      *
@@ -52,6 +68,110 @@ class CameraLogger private constructor(private val mTag: String) {
         return log(LEVEL_ERROR, *data)
     }
 
+    /**
+     * Log to the verbose channel. The message is only built if needed.
+     *
+     * @param message log contents
+     * @return the log message, if logged
+     */
+    inline fun v(message: () -> String): String? {
+        return if (isEnabled(LEVEL_VERBOSE)) logMessage(LEVEL_VERBOSE, message(), null) else null
+    }
+
+    /**
+     * Log to the info channel. The message is only built if needed.
+     *
+     * @param message log contents
+     * @return the log message, if logged
+     */
+    inline fun i(message: () -> String): String? {
+        return if (isEnabled(LEVEL_INFO)) logMessage(LEVEL_INFO, message(), null) else null
+    }
+
+    /**
+     * Log to the warning channel. The message is only built if needed.
+     *
+     * @param message log contents
+     * @return the log message, if logged
+     */
+    inline fun w(message: () -> String): String? {
+        return if (isEnabled(LEVEL_WARNING)) logMessage(LEVEL_WARNING, message(), null) else null
+    }
+
+    /**
+     * Log to the error channel. The message is only built if needed.
+     *
+     * @param message log contents
+     * @return the log message, if logged
+     */
+    inline fun e(message: () -> String): String? {
+        return if (isEnabled(LEVEL_ERROR)) logMessage(LEVEL_ERROR, message(), null) else null
+    }
+
+    /**
+     * Log to the verbose channel, without allocating if disabled.
+     *
+     * @param message log contents
+     * @return the log message, if logged
+     */
+    fun v(message: String): String? {
+        return if (should(LEVEL_VERBOSE)) logMessage(LEVEL_VERBOSE, message, null) else null
+    }
+
+    /**
+     * Log to the verbose channel, without boxing or allocating if disabled.
+     *
+     * @param message log contents
+     * @param value   a value appended to the message
+     * @return the log message, if logged
+     */
+    fun v(message: String, value: Int): String? {
+        return if (should(LEVEL_VERBOSE)) logMessage(LEVEL_VERBOSE, "$message $value", null) else null
+    }
+
+    /**
+     * Log to the verbose channel, without boxing or allocating if disabled.
+     *
+     * @param message log contents
+     * @param value   a value appended to the message
+     * @return the log message, if logged
+     */
+    fun v(message: String, value: Long): String? {
+        return if (should(LEVEL_VERBOSE)) logMessage(LEVEL_VERBOSE, "$message $value", null) else null
+    }
+
+    /**
+     * Log to the info channel, without allocating if disabled.
+     *
+     * @param message log contents
+     * @return the log message, if logged
+     */
+    fun i(message: String): String? {
+        return if (should(LEVEL_INFO)) logMessage(LEVEL_INFO, message, null) else null
+    }
+
+    /**
+     * Log to the info channel, without boxing or allocating if disabled.
+     *
+     * @param message log contents
+     * @param value   a value appended to the message
+     * @return the log message, if logged
+     */
+    fun i(message: String, value: Int): String? {
+        return if (should(LEVEL_INFO)) logMessage(LEVEL_INFO, "$message $value", null) else null
+    }
+
+    /**
+     * Log to the info channel, without boxing or allocating if disabled.
+     *
+     * @param message log contents
+     * @param value   a value appended to the message
+     * @return the log message, if logged
+     */
+    fun i(message: String, value: Long): String? {
+        return if (should(LEVEL_INFO)) logMessage(LEVEL_INFO, "$message $value", null) else null
+    }
+
     private fun log(@LogLevel level: Int, vararg data: Any): String? {
         if (!should(level)) return null
 
@@ -64,13 +184,17 @@ class CameraLogger private constructor(private val mTag: String) {
             message.append(`object`)
             message.append(" ")
         }
-        val string = message.toString().trim { it <= ' ' }
+        return logMessage(level, message.toString().trim { it <= ' ' }, throwable)
+    }
+
+    @PublishedApi
+    internal fun logMessage(@LogLevel level: Int, message: String, throwable: Throwable?): String {
         for (logger in sLoggers) {
-            logger.log(level, mTag, string, throwable)
+            logger.log(level, mTag, message, throwable)
         }
-        lastMessage = string
+        lastMessage = message
         lastTag = mTag
-        return string
+        return message
     }
 
     /**
@@ -84,7 +208,7 @@ class CameraLogger private constructor(private val mTag: String) {
      *
      * @see .LEVEL_ERROR
      */
-//    @IntDef([LEVEL_VERBOSE, LEVEL_INFO, LEVEL_WARNING, LEVEL_ERROR])
+    @IntDef(LEVEL_VERBOSE, LEVEL_INFO, LEVEL_WARNING, LEVEL_ERROR)
     @Retention(AnnotationRetention.SOURCE)
     annotation class LogLevel
 
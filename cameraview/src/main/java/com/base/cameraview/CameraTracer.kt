@@ -0,0 +1,277 @@
+package com.base.cameraview
+
+import android.os.Build
+import android.os.Trace
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Records timed spans for the camera lifecycle: orchestrator jobs (like START ENGINE,
+ * BIND or PREVIEW), metering actions, picture and video recorder stages, and milestones
+ * like [FIRST_FRAME], which goes from the start of the engine to the first preview frame.
+ *
+ * Spans are dispatched to registered [Tracer]s. By default, a [SystemTracer] exports them
+ * to [android.os.Trace] while a system trace is being captured. A [RingTracer] can be
+ * registered to keep the latest spans in memory.
+ *
+ * When no tracer is active, [begin] returns null and nothing is allocated.
+ */
+object CameraTracer {
+
+    const val CATEGORY_JOB: String = "job"
+    const val CATEGORY_ACTION: String = "action"
+    const val CATEGORY_PICTURE: String = "picture"
+    const val CATEGORY_VIDEO: String = "video"
+    const val CATEGORY_MILESTONE: String = "milestone"
+
+    /**
+     * Milestone going from the start of the engine to the first drawn preview frame.
+     */
+    const val FIRST_FRAME: String = "FIRST FRAME"
+
+    private val sTracers: MutableSet<Tracer> = CopyOnWriteArraySet<Tracer>()
+    private val sMilestones = ConcurrentHashMap<String, Span>()
+    private val sIds = AtomicInteger(0)
+
+    init {
+        sTracers.add(SystemTracer)
+    }
+
+    /**
+     * Registers a [Tracer] for span events.
+     * Make sure to unregister using [unregisterTracer].
+     *
+     * @param tracer tracer to add
+     */
+    @JvmStatic
+    fun registerTracer(tracer: Tracer) {
+        sTracers.add(tracer)
+    }
+
+    /**
+     * Unregisters a previously registered [Tracer].
+     *
+     * @param tracer tracer to remove
+     */
+    @JvmStatic
+    fun unregisterTracer(tracer: Tracer) {
+        sTracers.remove(tracer)
+    }
+
+    /**
+     * Starts a span. It should be passed to [end] when done, from any thread.
+     *
+     * @param category the span category, like [CATEGORY_JOB]
+     * @param name     the span name
+     * @return a span, or null if no tracer is active
+     */
+    @JvmStatic
+    fun begin(category: String, name: String): Span? {
+        if (sTracers.none { it.isActive }) return null
+        val span = Span(category, name, sIds.incrementAndGet(), System.nanoTime())
+        for (tracer in sTracers) {
+            if (tracer.isActive) tracer.onSpanStarted(span)
+        }
+        return span
+    }
+
+    /**
+     * Ends a span returned by [begin]. Does nothing if null or already ended.
+     *
+     * @param span  the span
+     * @param error an error that made the operation fail, if any
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun end(span: Span?, error: Throwable? = null) {
+        if (span == null || !span.finish(System.nanoTime(), error)) return
+        for (tracer in sTracers) {
+            if (tracer.isActive) tracer.onSpanEnded(span)
+        }
+    }
+
+    /**
+     * Starts a milestone span that can be ended from a different component with
+     * [endMilestone]. Starting it again replaces the previous one, which is dropped.
+     *
+     * @param name the milestone name, like [FIRST_FRAME]
+     */
+    @JvmStatic
+    fun beginMilestone(name: String) {
+        val span = begin(CATEGORY_MILESTONE, name)
+        if (span == null) {
+            sMilestones.remove(name)
+        } else {
+            sMilestones[name] = span
+        }
+    }
+
+    /**
+     * Ends the milestone span with the given name, if it was started.
+     * This is cheap enough to be called for every frame.
+     *
+     * @param name the milestone name
+     */
+    @JvmStatic
+    fun endMilestone(name: String) {
+        if (sMilestones.isEmpty()) return
+        end(sMilestones.remove(name))
+    }
+
+    /**
+     * A timed operation.
+     */
+    class Span internal constructor(
+        val category: String,
+        val name: String,
+        val id: Int,
+        val startNanos: Long
+    ) {
+        /**
+         * The end time, or -1 if the span is still running.
+         */
+        @Volatile
+        var endNanos: Long = -1L
+            private set
+
+        /**
+         * The error that made the operation fail, if any.
+         */
+        @Volatile
+        var error: Throwable? = null
+            private set
+
+        /**
+         * The duration, or -1 if the span is still running.
+         */
+        val durationNanos: Long
+            get() = endNanos.let { if (it < 0) -1L else it - startNanos }
+
+        @Synchronized
+        internal fun finish(endNanos: Long, error: Throwable?): Boolean {
+            if (this.endNanos >= 0) return false
+            this.error = error
+            this.endNanos = endNanos
+            return true
+        }
+
+        override fun toString(): String {
+            return "Span($category:$name, id=$id, durationMs=${durationNanos / 1000000F}" +
+                    (if (error != null) ", error=$error" else "") + ")"
+        }
+    }
+
+    /**
+     * A Tracer receives span events and exports them somewhere.
+     * Callbacks can come from any thread.
+     */
+    interface Tracer {
+        /**
+         * Whether this tracer wants to receive events now.
+         * When no tracer is active, spans are not even created.
+         */
+        val isActive: Boolean
+            get() = true
+
+        /**
+         * Notifies that a span was started.
+         *
+         * @param span the span
+         */
+        fun onSpanStarted(span: Span) {}
+
+        /**
+         * Notifies that a span was ended.
+         *
+         * @param span the span
+         */
+        fun onSpanEnded(span: Span)
+    }
+
+    /**
+     * Exports spans to [android.os.Trace] as async sections, so that they show up in
+     * system traces even when they start and end on different threads.
+     * Only active on API 29+, while tracing is enabled.
+     */
+    object SystemTracer : Tracer {
+        override val isActive: Boolean
+            get() = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && Trace.isEnabled()
+
+        override fun onSpanStarted(span: Span) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(sectionName(span), span.id)
+            }
+        }
+
+        override fun onSpanEnded(span: Span) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(sectionName(span), span.id)
+            }
+        }
+
+        // Section names are limited to 127 characters.
+        private fun sectionName(span: Span): String {
+            return "CameraView ${span.category}: ${span.name}".take(127)
+        }
+    }
+
+    /**
+     * Keeps the latest ended spans in memory, up to the given capacity, so that they
+     * can be read by tests or dashboards.
+     *
+     * @param capacity the max number of spans to keep
+     */
+    class RingTracer(val capacity: Int) : Tracer {
+        private val mSpans = arrayOfNulls<Span>(capacity)
+        private var mNext = 0
+        private var mCount = 0
+
+        init {
+            require(capacity > 0) { "capacity should be > 0, got $capacity" }
+        }
+
+        override fun onSpanEnded(span: Span) {
+            synchronized(mSpans) {
+                mSpans[mNext] = span
+                mNext = (mNext + 1) % capacity
+                if (mCount < capacity) mCount++
+            }
+        }
+
+        /**
+         * Returns the ended spans, from the oldest to the newest.
+         *
+         * @return a list of spans
+         */
+        fun getSpans(): List<Span> {
+            synchronized(mSpans) {
+                val start = (mNext - mCount + capacity) % capacity
+                return List(mCount) { mSpans[(start + it) % capacity]!! }
+            }
+        }
+
+        /**
+         * Returns the ended spans with the given category and name,
+         * from the oldest to the newest.
+         *
+         * @param category the category
+         * @param name     the name
+         * @return a list of spans
+         */
+        fun getSpans(category: String, name: String): List<Span> {
+            return getSpans().filter { it.category == category && it.name == name }
+        }
+
+        /**
+         * Removes all spans.
+         */
+        fun clear() {
+            synchronized(mSpans) {
+                mSpans.fill(null)
+                mNext = 0
+                mCount = 0
+            }
+        }
+    }
+}
@@ -17,12 +17,12 @@ import com.base.cameraview.controls.Facing
 import com.base.cameraview.engine.mappers.Camera1Mapper.Companion.get
 import com.base.cameraview.internal.ExifHelper.getOrientation
 import com.base.cameraview.internal.WorkerHandler
-import java.io.BufferedOutputStream
 import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
 
 /**
  * Static utilities for dealing with camera I/O, orientations, etc.
@@ -87,9 +87,10 @@ object CameraUtils {
     fun writeToFile(data: ByteArray, file: File): File? {
         if (file.exists() && !file.delete()) return null
         try {
-            BufferedOutputStream(FileOutputStream(file)).use { stream ->
-                stream.write(data)
-                stream.flush()
+            // A single channel write of the whole array, no intermediate buffer copy.
+            FileOutputStream(file).channel.use { channel ->
+                val buffer = ByteBuffer.wrap(data)
+                while (buffer.hasRemaining()) channel.write(buffer)
                 return file
             }
         } catch (e: IOException) {
@@ -114,8 +115,9 @@ object CameraUtils {
     ) {
         val ui = Handler(Looper.getMainLooper())
         WorkerHandler.execute {
+            val result = writeToFile(data, file)
             ui.post {
-                callback.onFileReady(writeToFile(data, file))
+                callback.onFileReady(result)
             }
         }
     }
@@ -62,7 +62,10 @@ import com.base.cameraview.filter.NoFilter;
 import com.base.cameraview.filter.OneParameterFilter;
 import com.base.cameraview.filter.TwoParameterFilter;
 import com.base.cameraview.frame.Frame;
+import com.base.cameraview.frame.FrameDispatchPolicy;
+import com.base.cameraview.frame.FrameDispatcher;
 import com.base.cameraview.frame.FrameProcessor;
+import com.base.cameraview.frame.RgbaFrameProcessor;
 import com.base.cameraview.gesture.Gesture;
 import com.base.cameraview.gesture.GestureAction;
 import com.base.cameraview.gesture.GestureFinder;
@@ -70,7 +73,9 @@ import com.base.cameraview.gesture.GestureParser;
 import com.base.cameraview.gesture.PinchGestureFinder;
 import com.base.cameraview.gesture.ScrollGestureFinder;
 import com.base.cameraview.gesture.TapGestureFinder;
+import com.base.cameraview.internal.CameraCapabilities;
 import com.base.cameraview.internal.CropHelper;
+import com.base.cameraview.internal.GlFrameReader;
 import com.base.cameraview.internal.GridLinesLayout;
 import com.base.cameraview.internal.OrientationHelper;
 import com.base.cameraview.markers.AutoFocusMarker;
@@ -83,6 +88,7 @@ import com.base.cameraview.overlay.OverlayLayout;
 import com.base.cameraview.preview.CameraPreview;
 import com.base.cameraview.preview.FilterCameraPreview;
 import com.base.cameraview.preview.GlCameraPreview;
+import com.base.cameraview.preview.RendererCameraPreview;
 import com.base.cameraview.preview.SurfaceCameraPreview;
 import com.base.cameraview.preview.TextureCameraPreview;
 import com.base.cameraview.size.AspectRatio;
@@ -90,6 +96,7 @@ import com.base.cameraview.size.Size;
 import com.base.cameraview.size.SizeSelector;
 import com.base.cameraview.size.SizeSelectorParser;
 import com.base.cameraview.size.SizeSelectors;
+import com.base.cameraview.video.encoding.PreRollBuffer;
 
 import java.io.File;
 import java.io.FileDescriptor;
@@ -97,12 +104,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Entry point for the whole library.
@@ -116,6 +117,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
     final static boolean DEFAULT_USE_DEVICE_ORIENTATION = true;
     final static boolean DEFAULT_PICTURE_METERING = true;
     final static boolean DEFAULT_PICTURE_SNAPSHOT_METERING = false;
+    final static int DEFAULT_PICTURE_PIPELINE_SIZE = 1;
     final static boolean DEFAULT_REQUEST_PERMISSIONS = true;
     final static int DEFAULT_FRAME_PROCESSING_POOL_SIZE = 2;
     final static int DEFAULT_FRAME_PROCESSING_EXECUTORS = 1;
@@ -150,11 +152,11 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
     private Preview mPreview;
     private Engine mEngine;
     private Filter mPendingFilter;
-    private int mFrameProcessingExecutors;
     private int mActiveGestures;
     // Components
     private Handler mUiHandler;
-    private Executor mFrameProcessingExecutor;
+    private FrameDispatcher mFrameDispatcher;
+    private GlFrameReader mGlFrameReader;
     private CameraPreview mCameraPreview;
     private OrientationHelper mOrientationHelper;
     private CameraEngine mCameraEngine;
@@ -200,6 +202,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         int gridColor = a.getColor(R.styleable.CameraView_cameraGridColor, GridLinesLayout.DEFAULT_COLOR);
         long videoMaxSize = (long) a.getFloat(R.styleable.CameraView_cameraVideoMaxSize, 0);
         int videoMaxDuration = a.getInteger(R.styleable.CameraView_cameraVideoMaxDuration, 0);
+        int videoSnapshotPreRoll = a.getInteger(R.styleable.CameraView_cameraVideoSnapshotPreRoll, 0);
         int videoBitRate = a.getInteger(R.styleable.CameraView_cameraVideoBitRate, 0);
         int audioBitRate = a.getInteger(R.styleable.CameraView_cameraAudioBitRate, 0);
         float videoFrameRate = a.getFloat(R.styleable.CameraView_cameraPreviewFrameRate, 0);
@@ -207,6 +210,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         long autoFocusResetDelay = (long) a.getInteger(R.styleable.CameraView_cameraAutoFocusResetDelay, (int) DEFAULT_AUTOFOCUS_RESET_DELAY_MILLIS);
         boolean pictureMetering = a.getBoolean(R.styleable.CameraView_cameraPictureMetering, DEFAULT_PICTURE_METERING);
         boolean pictureSnapshotMetering = a.getBoolean(R.styleable.CameraView_cameraPictureSnapshotMetering, DEFAULT_PICTURE_SNAPSHOT_METERING);
+        int picturePipelineSize = a.getInteger(R.styleable.CameraView_cameraPicturePipelineSize, DEFAULT_PICTURE_PIPELINE_SIZE);
         int snapshotMaxWidth = a.getInteger(R.styleable.CameraView_cameraSnapshotMaxWidth, 0);
         int snapshotMaxHeight = a.getInteger(R.styleable.CameraView_cameraSnapshotMaxHeight, 0);
         int frameMaxWidth = a.getInteger(R.styleable.CameraView_cameraFrameProcessingMaxWidth, 0);
@@ -214,8 +218,12 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         int frameFormat = a.getInteger(R.styleable.CameraView_cameraFrameProcessingFormat, 0);
         int framePoolSize = a.getInteger(R.styleable.CameraView_cameraFrameProcessingPoolSize, DEFAULT_FRAME_PROCESSING_POOL_SIZE);
         int frameExecutors = a.getInteger(R.styleable.CameraView_cameraFrameProcessingExecutors, DEFAULT_FRAME_PROCESSING_EXECUTORS);
+        int frameDispatchPolicy = a.getInteger(R.styleable.CameraView_cameraFrameProcessingDispatchPolicy, FrameDispatchPolicy.DEFAULT.getValue());
+        int frameQueueSize = a.getInteger(R.styleable.CameraView_cameraFrameProcessingQueueSize, FrameDispatcher.DEFAULT_QUEUE_SIZE);
+        boolean frameParallel = a.getBoolean(R.styleable.CameraView_cameraFrameProcessingParallel, false);
 
         boolean drawHardwareOverlays = a.getBoolean(R.styleable.CameraView_cameraDrawHardwareOverlays, false);
+        boolean cacheOverlays = a.getBoolean(R.styleable.CameraView_cameraCacheOverlays, false);
 
         // Size selectors and gestures
         SizeSelectorParser sizeSelectors = new SizeSelectorParser(a);
@@ -227,6 +235,8 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
 
         // Components
         mCameraCallbacks = new CameraCallbacks();
+        mFrameDispatcher = new FrameDispatcher(mFrameProcessors);
+        mGlFrameReader = new GlFrameReader();
         mUiHandler = new Handler(Looper.getMainLooper());
 
         // Gestures
@@ -243,6 +253,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         addView(mOverlayLayout);
 
         // Create the engine
+        prewarm(context);
         doInstantiateEngine();
 
         // Apply self managed
@@ -251,6 +262,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         setGrid(controls.getGrid());
         setGridColor(gridColor);
         setDrawHardwareOverlays(drawHardwareOverlays);
+        setCacheOverlays(cacheOverlays);
 
         // Apply camera engine params
         // Adding new ones? See setEngine().
@@ -265,11 +277,13 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         setPictureSize(sizeSelectors.pictureSizeSelector);
         setPictureMetering(pictureMetering);
         setPictureSnapshotMetering(pictureSnapshotMetering);
+        setPicturePipelineSize(picturePipelineSize);
         setPictureFormat(controls.getPictureFormat());
         setVideoSize(sizeSelectors.videoSizeSelector);
         setVideoCodec(controls.getVideoCodec());
         setVideoMaxSize(videoMaxSize);
         setVideoMaxDuration(videoMaxDuration);
+        setVideoSnapshotPreRoll(videoSnapshotPreRoll);
         setVideoBitRate(videoBitRate);
         setAutoFocusResetDelay(autoFocusResetDelay);
         setPreviewFrameRateExact(videoFrameRateExact);
@@ -281,6 +295,9 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         setFrameProcessingFormat(frameFormat);
         setFrameProcessingPoolSize(framePoolSize);
         setFrameProcessingExecutors(frameExecutors);
+        setFrameProcessingDispatchPolicy(FrameDispatchPolicy.fromValue(frameDispatchPolicy));
+        setFrameProcessingQueueSize(frameQueueSize);
+        setFrameProcessingParallel(frameParallel);
 
         // Apply gestures
         mapGesture(Gesture.TAP, gestures.getTapAction());
@@ -321,6 +338,9 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         mCameraPreview = instantiatePreview(mPreview, getContext(), this);
         LOG.w("doInstantiateEngine:", "instantiated. preview:", mCameraPreview.getClass().getSimpleName());
         mCameraEngine.setPreview(mCameraPreview);
+        if (mCameraPreview instanceof RendererCameraPreview) {
+            ((RendererCameraPreview) mCameraPreview).addRendererFrameCallback(mGlFrameReader);
+        }
         if (mPendingFilter != null) {
             setFilter(mPendingFilter);
             mPendingFilter = null;
@@ -707,6 +727,18 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
 
     //region Lifecycle APIs
 
+    /**
+     * Starts probing camera and encoder capabilities on background threads, so that
+     * the first {@link #open()} is faster. Results are cached for the whole process,
+     * so later opens skip probing anyway. This is also done when a CameraView is created,
+     * but apps can call it earlier, for example in {@code Application.onCreate()}.
+     *
+     * @param context a context
+     */
+    public static void prewarm(@NonNull Context context) {
+        CameraCapabilities.prewarm(context);
+    }
+
     /**
      * Sets permissions flag if you want enable auto check permissions or disable it.
      *
@@ -852,6 +884,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         if (mInEditor) return;
         mOrientationHelper.disable();
         mCameraEngine.stop(false);
+        mFrameDispatcher.clear();
         if (mCameraPreview != null) mCameraPreview.onPause();
     }
 
@@ -864,6 +897,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         if (mInEditor) return;
         clearCameraListeners();
         clearFrameProcessors();
+        clearRgbaFrameProcessors();
         mCameraEngine.destroy(true);
         if (mCameraPreview != null) mCameraPreview.onDestroy();
     }
@@ -1033,6 +1067,8 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         setVideoCodec(oldEngine.getVideoCodec());
         setVideoMaxSize(oldEngine.getVideoMaxSize());
         setVideoMaxDuration(oldEngine.getVideoMaxDuration());
+        setVideoSnapshotPreRollMaxSize(oldEngine.getVideoSnapshotPreRollMaxSize());
+        setVideoSnapshotPreRoll(oldEngine.getVideoSnapshotPreRoll());
         setVideoBitRate(oldEngine.getVideoBitRate());
         setAutoFocusResetDelay(oldEngine.getAutoFocusResetDelay());
         setPreviewFrameRate(oldEngine.getPreviewFrameRate());
@@ -1043,6 +1079,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         setFrameProcessingMaxHeight(oldEngine.getFrameProcessingMaxHeight());
         setFrameProcessingFormat(0 /* this is very engine specific, so do not pass */);
         setFrameProcessingPoolSize(oldEngine.getFrameProcessingPoolSize());
+        setPicturePipelineSize(oldEngine.getPicturePipelineSize());
         mCameraEngine.setHasFrameProcessors(!mFrameProcessors.isEmpty());
     }
 
@@ -1507,6 +1544,35 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         mCameraEngine.setPictureSnapshotMetering(enable);
     }
 
+    /**
+     * Returns the max number of pictures taken with {@link #takePicture()} that can be
+     * in flight at the same time. See {@link #setPicturePipelineSize(int)}.
+     *
+     * @return the pipeline size
+     * @see #setPicturePipelineSize(int)
+     */
+    public int getPicturePipelineSize() {
+        return mCameraEngine.getPicturePipelineSize();
+    }
+
+    /**
+     * Sets the max number of pictures taken with {@link #takePicture()} that can be
+     * in flight at the same time. When this is greater than 1, the next picture can be
+     * taken as soon as the previous one was read from the camera, while it is still being
+     * processed and written to file in background. Results keep the capture order.
+     * <p>
+     * Each picture in flight holds its data in memory. Defaults to 1, which means that
+     * a picture can only be taken after the previous result was dispatched.
+     * <p>
+     * This is a CAMERA2 only API. On CAMERA1, pictures are always taken one at a time.
+     *
+     * @param size the pipeline size, greater than 0
+     * @see #takePicture(File)
+     */
+    public void setPicturePipelineSize(int size) {
+        mCameraEngine.setPicturePipelineSize(size);
+    }
+
     /**
      * Returns the current picture format.
      *
@@ -1688,6 +1754,23 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         mCameraEngine.takePicture(stub);
     }
 
+    /**
+     * Asks the camera to capture an image of the current scene, and to write it to the
+     * given file. This will trigger {@link CameraListener#onPictureTaken(PictureResult)}
+     * once the file was written, and the result will hold the file.
+     * <p>
+     * With CAMERA2, the file is written in background while the next picture can be
+     * taken, if {@link #setPicturePipelineSize(int)} allows it.
+     *
+     * @param file the file to write into
+     * @see #takePicture()
+     */
+    public void takePicture(@NonNull File file) {
+        PictureResult.Stub stub = new PictureResult.Stub();
+        stub.setFile(file);
+        mCameraEngine.takePicture(stub);
+    }
+
     /**
      * Asks the camera to capture a snapshot of the current preview.
      * This eventually triggers {@link CameraListener#onPictureTaken(PictureResult)} if a listener
@@ -1703,6 +1786,42 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         mCameraEngine.takePictureSnapshot(stub);
     }
 
+    /**
+     * Asks the camera to capture a burst of snapshots of the current preview,
+     * at the given rate. Pictures are passed to the given callback in capture order.
+     * Capturing, reading and compressing are pipelined, so the preview keeps running smoothly.
+     * <p>
+     * This is only supported with {@link Preview#GL_SURFACE}. While the burst is running,
+     * other pictures can not be taken.
+     *
+     * @param count    the number of pictures
+     * @param fps      the target capture rate, in pictures per second
+     * @param callback a callback for the pictures
+     * @see #stopPictureSnapshotBurst()
+     */
+    public void takePictureSnapshotBurst(int count, float fps, @NonNull BurstCallback callback) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Need at least 1 picture, got " + count);
+        }
+        if (fps <= 0F) {
+            throw new IllegalArgumentException("Need a positive rate, got " + fps);
+        }
+        if (mCameraPreview != null && !(mCameraPreview instanceof RendererCameraPreview)) {
+            throw new IllegalStateException("Snapshot bursts are only supported with Preview.GL_SURFACE.");
+        }
+        PictureResult.Stub stub = new PictureResult.Stub();
+        mCameraEngine.takePictureSnapshotBurst(stub, count, fps, callback);
+    }
+
+    /**
+     * Stops a burst started with {@link #takePictureSnapshotBurst(int, float, BurstCallback)}.
+     * Pictures that were already captured are still passed to the callback,
+     * then {@link BurstCallback#onBurstEnd(int)} is called.
+     */
+    public void stopPictureSnapshotBurst() {
+        mCameraEngine.stopPictureSnapshotBurst();
+    }
+
     /**
      * Starts recording a video. Video will be written to the given file,
      * so callers should ensure they have appropriate permissions to write to the file.
@@ -2123,6 +2242,64 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         mCameraEngine.setVideoMaxDuration(videoMaxDurationMillis);
     }
 
+    /**
+     * Returns the pre-roll duration set with {@link #setVideoSnapshotPreRoll(long)}.
+     *
+     * @return the pre-roll duration in milliseconds
+     */
+    public long getVideoSnapshotPreRoll() {
+        return mCameraEngine.getVideoSnapshotPreRoll();
+    }
+
+    /**
+     * Sets a pre-roll duration in milliseconds for video snapshots. When positive,
+     * the video snapshot encoders keep running while the preview is visible, and the last
+     * encoded seconds are kept in memory. When {@link #takeVideoSnapshot(File)} is called,
+     * they are written at the beginning of the file, so the video starts before the request.
+     * <p>
+     * Since the video must start with a key frame, the actual pre-roll can be up to one
+     * second shorter. Memory is bounded by {@link #setVideoSnapshotPreRollMaxSize(int)}.
+     * This is only supported with {@link Preview#GL_SURFACE}. Defaults to 0 (disabled).
+     *
+     * @param preRollMillis the pre-roll duration in milliseconds
+     */
+    public void setVideoSnapshotPreRoll(long preRollMillis) {
+        mCameraEngine.setVideoSnapshotPreRoll(preRollMillis);
+    }
+
+    /**
+     * Returns the value set with {@link #setVideoSnapshotPreRollMaxSize(int)}.
+     *
+     * @return the pre-roll memory bound in bytes
+     */
+    public int getVideoSnapshotPreRollMaxSize() {
+        return mCameraEngine.getVideoSnapshotPreRollMaxSize();
+    }
+
+    /**
+     * Sets the max memory that the video snapshot pre-roll can use for encoded samples.
+     * When full, the oldest samples are dropped, so the pre-roll gets shorter.
+     *
+     * @param maxSizeBytes the pre-roll memory bound in bytes
+     */
+    public void setVideoSnapshotPreRollMaxSize(int maxSizeBytes) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("Need a positive size, got " + maxSizeBytes);
+        }
+        mCameraEngine.setVideoSnapshotPreRollMaxSize(maxSizeBytes);
+    }
+
+    /**
+     * Returns the current state of the video snapshot pre-roll buffer, including the
+     * memory in use, or null if not pre-rolling.
+     *
+     * @return the pre-roll stats or null
+     */
+    @Nullable
+    public PreRollBuffer.Stats getVideoSnapshotPreRollStats() {
+        return mCameraEngine.getVideoSnapshotPreRollStats();
+    }
+
     /**
      * Returns true if the camera is currently recording a video
      *
@@ -2160,6 +2337,28 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
     public void setDrawHardwareOverlays(boolean on) {
         mOverlayLayout.setHardwareCanvasEnabled(on);
     }
+
+    /**
+     * Returns true if overlays drawn on snapshots are cached until they change.
+     *
+     * @return boolean indicating overlay caching is enabled
+     */
+    public boolean getCacheOverlays() {
+        return mOverlayLayout.getCachingEnabled();
+    }
+
+    /**
+     * Caches overlays drawn on picture and video snapshots, so that they are only redrawn
+     * when some overlay view is invalidated, and only in the invalidated region.
+     * Useful for static overlays like watermarks during long videos.
+     * Should not be used with overlay views that change without being invalidated,
+     * like video players.
+     *
+     * @param on true if enabled
+     */
+    public void setCacheOverlays(boolean on) {
+        mOverlayLayout.setCachingEnabled(on);
+    }
     //endregion
 
     //region Callbacks and dispatching
@@ -2173,6 +2372,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
     public void addFrameProcessor(@Nullable FrameProcessor processor) {
         if (processor != null) {
             mFrameProcessors.add(processor);
+            mFrameDispatcher.onProcessorAdded(processor);
             if (mFrameProcessors.size() == 1) {
                 mCameraEngine.setHasFrameProcessors(true);
             }
@@ -2191,6 +2391,10 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
     public void removeFrameProcessor(@Nullable FrameProcessor processor) {
         if (processor != null) {
             mFrameProcessors.remove(processor);
+            if (!mFrameProcessors.contains(processor)) {
+                // Added more than once: keep its lane until the last one goes.
+                mFrameDispatcher.onProcessorRemoved(processor);
+            }
             if (mFrameProcessors.size() == 0) {
                 mCameraEngine.setHasFrameProcessors(false);
             }
@@ -2204,11 +2408,69 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
     public void clearFrameProcessors() {
         boolean had = mFrameProcessors.size() > 0;
         mFrameProcessors.clear();
+        mFrameDispatcher.onProcessorsCleared();
         if (had) {
             mCameraEngine.setHasFrameProcessors(false);
         }
     }
 
+    /**
+     * Adds a {@link RgbaFrameProcessor} instance to be notified of downscaled
+     * RGBA frames, rendered and read back by the GL preview renderer.
+     * This is only supported by the {@link Preview#GL_SURFACE} preview.
+     *
+     * @param processor a RGBA frame processor
+     * @see #setRgbaFrameProcessingSize(int, int)
+     */
+    public void addRgbaFrameProcessor(@Nullable RgbaFrameProcessor processor) {
+        if (processor == null) return;
+        if (mCameraPreview != null && !(mCameraPreview instanceof RendererCameraPreview)) {
+            throw new RuntimeException("RGBA frames are only supported by the GL_SURFACE preview." + " Current preview:" + mPreview);
+        }
+        mGlFrameReader.addProcessor(processor);
+    }
+
+    /**
+     * Remove a {@link RgbaFrameProcessor} that was previously registered.
+     *
+     * @param processor a RGBA frame processor
+     */
+    public void removeRgbaFrameProcessor(@Nullable RgbaFrameProcessor processor) {
+        if (processor != null) {
+            mGlFrameReader.removeProcessor(processor);
+        }
+    }
+
+    /**
+     * Clears the list of {@link RgbaFrameProcessor} that have been registered.
+     */
+    public void clearRgbaFrameProcessors() {
+        mGlFrameReader.clearProcessors();
+    }
+
+    /**
+     * Returns the size of frames passed to {@link RgbaFrameProcessor}s.
+     *
+     * @return the RGBA frame size
+     * @see #setRgbaFrameProcessingSize(int, int)
+     */
+    @NonNull
+    public Size getRgbaFrameProcessingSize() {
+        return mGlFrameReader.getSize();
+    }
+
+    /**
+     * Sets the size of frames passed to {@link RgbaFrameProcessor}s, already rotated
+     * to match the preview. Smaller sizes make the GPU readback cheaper.
+     * Defaults to 320x240.
+     *
+     * @param width  the frame width
+     * @param height the frame height
+     */
+    public void setRgbaFrameProcessingSize(int width, int height) {
+        mGlFrameReader.setSize(new Size(width, height));
+    }
+
     /**
      * The max width for frame processing frames.
      *
@@ -2306,7 +2568,7 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
      * @see #setFrameProcessingExecutors(int)
      */
     public int getFrameProcessingExecutors() {
-        return mFrameProcessingExecutors;
+        return mFrameDispatcher.getExecutors();
     }
 
     /**
@@ -2322,20 +2584,100 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
      * @param executors thread count
      */
     public void setFrameProcessingExecutors(int executors) {
-        if (executors < 1) {
-            throw new IllegalArgumentException("Need at least 1 executor, got " + executors);
-        }
-        mFrameProcessingExecutors = executors;
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(executors, executors, 4, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
-            private final AtomicInteger mCount = new AtomicInteger(1);
+        mFrameDispatcher.setExecutors(executors);
+    }
 
-            @Override
-            public Thread newThread(@NonNull Runnable r) {
-                return new Thread(r, "FrameExecutor #" + mCount.getAndIncrement());
-            }
-        });
-        executor.allowCoreThreadTimeOut(true);
-        mFrameProcessingExecutor = executor;
+    /**
+     * Returns the current frame dispatch policy.
+     *
+     * @return the dispatch policy
+     * @see #setFrameProcessingDispatchPolicy(FrameDispatchPolicy)
+     */
+    @NonNull
+    public FrameDispatchPolicy getFrameProcessingDispatchPolicy() {
+        return mFrameDispatcher.getPolicy();
+    }
+
+    /**
+     * Sets what happens to new frames when frame processors can't keep up with the preview.
+     * Defaults to {@link FrameDispatchPolicy#QUEUE}, which queues every frame.
+     * Use {@link FrameDispatchPolicy#LATEST} or {@link FrameDispatchPolicy#DROP_OLDEST}
+     * so that processors always receive fresh frames and latency stays bounded.
+     *
+     * @param policy the dispatch policy
+     */
+    public void setFrameProcessingDispatchPolicy(@NonNull FrameDispatchPolicy policy) {
+        mFrameDispatcher.setPolicy(policy);
+    }
+
+    /**
+     * Returns the current frame processing queue size.
+     *
+     * @return queue size
+     * @see #setFrameProcessingQueueSize(int)
+     */
+    public int getFrameProcessingQueueSize() {
+        return mFrameDispatcher.getQueueSize();
+    }
+
+    /**
+     * Sets the max number of frames waiting to be processed when using
+     * {@link FrameDispatchPolicy#DROP_OLDEST}. Defaults to 2.
+     * <p>
+     * Frames waiting in the queue are not available to the camera engine, so this should
+     * be lower than {@link #setFrameProcessingPoolSize(int)}.
+     *
+     * @param queueSize queue size
+     */
+    public void setFrameProcessingQueueSize(int queueSize) {
+        mFrameDispatcher.setQueueSize(queueSize);
+    }
+
+    /**
+     * Returns whether frame processors run concurrently.
+     *
+     * @return true if processors run in parallel
+     * @see #setFrameProcessingParallel(boolean)
+     */
+    public boolean getFrameProcessingParallel() {
+        return mFrameDispatcher.isParallel();
+    }
+
+    /**
+     * When enabled, each {@link FrameProcessor} runs on its own thread and receives
+     * the same {@link Frame}, so a slow processor does not stall the others.
+     * The frame is released after the last processor returns.
+     * Defaults to false, which means that processors run one after the other.
+     * <p>
+     * Frames are held until all processors are done, so the frame processing pool
+     * size might need to be increased.
+     *
+     * @param parallel whether processors should run in parallel
+     */
+    public void setFrameProcessingParallel(boolean parallel) {
+        mFrameDispatcher.setParallel(parallel);
+    }
+
+    /**
+     * Limits the rate at which the given processor receives frames. Other processors
+     * are not affected. Pass 0 to remove the limit.
+     *
+     * @param processor a frame processor
+     * @param maxFps    the max frames per second
+     */
+    public void setFrameProcessorMaxFps(@NonNull FrameProcessor processor, float maxFps) {
+        mFrameDispatcher.setMaxFps(processor, maxFps);
+    }
+
+    /**
+     * Returns frame dispatching metrics like the current queue depth
+     * and the number of dropped frames.
+     *
+     * @return the dispatch stats
+     */
+    @NonNull
+    public FrameDispatcher.Stats getFrameProcessingStats() {
+        return mFrameDispatcher.getStats();
     }
 
     @Override
@@ -2612,23 +2954,15 @@ public class CameraView extends FrameLayout implements DefaultLifecycleObserver
         public void dispatchFrame(@NonNull final Frame frame) {
             // The getTime() below might crash if developers incorrectly release
             // frames asynchronously.
-            LOG.v("dispatchFrame:", frame.getTime(), "processors:", mFrameProcessors.size());
+            if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("dispatchFrame:", frame.getTime(), "processors:", mFrameProcessors.size());
+            }
             if (mFrameProcessors.isEmpty()) {
                 // Mark as released. This instance will be reused.
                 frame.release();
             } else {
                 // Dispatch this frame to frame processors.
-                mFrameProcessingExecutor.execute(() -> {
-                    LOG.v("dispatchFrame: executing. Passing", frame.getTime(), "to processors.");
-                    for (FrameProcessor processor : mFrameProcessors) {
-                        try {
-                            processor.process(frame);
-                        } catch (Exception e) {
-                            LOG.w("Frame processor crashed:", e);
-                        }
-                    }
-                    frame.release();
-                });
+                mFrameDispatcher.dispatch(frame);
             }
         }
 
@@ -1,11 +1,16 @@
 package com.base.cameraview
 
-import android.graphics.BitmapFactory
+import android.graphics.Bitmap
+import android.graphics.Rect
 import android.location.Location
-import com.base.cameraview.CameraUtils.decodeBitmap
+import android.os.Handler
+import android.os.Looper
+import androidx.annotation.WorkerThread
 import com.base.cameraview.CameraUtils.writeToFile
 import com.base.cameraview.controls.Facing
 import com.base.cameraview.controls.PictureFormat
+import com.base.cameraview.internal.PictureDecoder
+import com.base.cameraview.internal.WorkerHandler
 import com.base.cameraview.size.Size
 import java.io.File
 
@@ -64,6 +69,15 @@ class PictureResult internal constructor(builder: Stub) {
      */
     val format: PictureFormat = builder.format!!
 
+    /**
+     * Returns the file this picture was written to, if it was taken with
+     * [CameraView.takePicture] passing a file. The file is complete when the
+     * result is dispatched.
+     *
+     * @return the file or null
+     */
+    val file: File? = builder.file
+
     /**
      * Decodes this picture on a background thread and posts the result in the UI thread using
      * the given callback.
@@ -73,25 +87,57 @@ class PictureResult internal constructor(builder: Stub) {
      * @param callback  a callback to be notified of image decoding
      */
     fun toBitmap(maxWidth: Int, maxHeight: Int, callback: BitmapCallback) {
-        when (format) {
-            PictureFormat.JPEG -> {
-                decodeBitmap(
-                    this.data, maxWidth, maxHeight, BitmapFactory.Options(),
-                    rotation, callback
-                )
-            }
+        toBitmap(maxWidth, maxHeight, null, null, callback)
+    }
 
-            PictureFormat.DNG -> {
-                // Apparently: BitmapFactory added DNG support in API 24.
-                // https://github.com/aosp-mirror/platform_frameworks_base/blob/nougat-mr1-release/core/jni/android/graphics/BitmapFactory.cpp
-                decodeBitmap(
-                    this.data, maxWidth, maxHeight, BitmapFactory.Options(),
-                    rotation, callback
-                )
+    /**
+     * Decodes this picture on a background thread and posts the result in the UI thread using
+     * the given callback. See [toBitmap] for details.
+     *
+     * @param maxWidth  the max. width of final bitmap, or -1
+     * @param maxHeight the max. height of final bitmap, or -1
+     * @param crop      the region to decode in [size] coordinates, or null for the whole picture
+     * @param pool      a pool to take bitmaps from, or null
+     * @param callback  a callback to be notified of image decoding
+     */
+    fun toBitmap(
+        maxWidth: Int,
+        maxHeight: Int,
+        crop: Rect?,
+        pool: BitmapPool?,
+        callback: BitmapCallback
+    ) {
+        val ui = Handler(Looper.getMainLooper())
+        WorkerHandler.execute {
+            val bitmap = toBitmap(maxWidth, maxHeight, crop, pool)
+            ui.post {
+                callback.onBitmapReady(bitmap)
             }
         }
     }
 
+    /**
+     * Decodes this picture synchronously, already rotated, and fitting the given max size.
+     *
+     * Only the needed pixels are decoded: the sample size is chosen from the max size,
+     * and if a crop is given, only that region is decoded. Rotation and final scaling
+     * are applied to the small decoded bitmap, so a thumbnail never needs a full size
+     * decode. If a pool is given, bitmaps are taken from it and intermediate ones are
+     * given back to it. The result can also be given back when not needed anymore.
+     *
+     * @param maxWidth  the max. width of final bitmap, or -1
+     * @param maxHeight the max. height of final bitmap, or -1
+     * @param crop      the region to decode in [size] coordinates, or null for the whole picture
+     * @param pool      a pool to take bitmaps from, or null
+     * @return the decoded bitmap, or null if an error was encountered
+     */
+    @WorkerThread
+    fun toBitmap(maxWidth: Int, maxHeight: Int, crop: Rect?, pool: BitmapPool?): Bitmap? {
+        // Apparently: BitmapFactory added DNG support in API 24, but DNG does not
+        // support region decoding: in this case the crop is applied after decoding.
+        return PictureDecoder.decode(data, rotation, maxWidth, maxHeight, crop, pool)
+    }
+
     /**
      * Shorthand for [CameraUtils.decodeBitmap].
      * Decodes this picture on a background thread and posts the result in the UI thread using
@@ -126,5 +172,7 @@ class PictureResult internal constructor(builder: Stub) {
         var facing: Facing? = null
         var data: ByteArray = ByteArray(0)
         var format: PictureFormat? = null
+        var file: File? = null
+        internal var isFileWritten: Boolean = false
     }
 }
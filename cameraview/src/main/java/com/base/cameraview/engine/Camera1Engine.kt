@@ -5,7 +5,6 @@ import android.graphics.ImageFormat
 import android.graphics.PointF
 import android.graphics.SurfaceTexture
 import android.hardware.Camera
-import android.hardware.Camera.CameraInfo
 import android.hardware.Camera.ErrorCallback
 import android.hardware.Camera.PreviewCallback
 import android.location.Location
@@ -31,7 +30,7 @@ import com.base.cameraview.frame.ByteBufferFrameManager
 import com.base.cameraview.frame.ByteBufferFrameManager.BufferCallback
 import com.base.cameraview.frame.FrameManager
 import com.base.cameraview.gesture.Gesture
-import com.base.cameraview.internal.CropHelper
+import com.base.cameraview.internal.CameraCapabilities
 import com.base.cameraview.metering.MeteringRegions
 import com.base.cameraview.metering.MeteringTransform
 import com.base.cameraview.picture.Full1PictureRecorder
@@ -41,7 +40,6 @@ import com.base.cameraview.preview.RendererCameraPreview
 import com.base.cameraview.size.AspectRatio
 import com.base.cameraview.size.Size
 import com.base.cameraview.video.Full1VideoRecorder
-import com.base.cameraview.video.SnapshotVideoRecorder
 import com.google.android.gms.tasks.Task
 import com.google.android.gms.tasks.Tasks
 import java.io.IOException
@@ -121,13 +119,12 @@ class Camera1Engine(
             "Internal:",
             internalFacing,
             "Cameras:",
-            Camera.getNumberOfCameras()
+            CameraCapabilities.getCamera1Count()
         )
-        val cameraInfo = CameraInfo()
         var i = 0
-        val count = Camera.getNumberOfCameras()
+        val count = CameraCapabilities.getCamera1Count()
         while (i < count) {
-            Camera.getCameraInfo(i, cameraInfo)
+            val cameraInfo = CameraCapabilities.getCamera1Info(i)
             if (cameraInfo.facing == internalFacing) {
                 angles.setSensorOffset(facing, cameraInfo.orientation)
                 mCameraId = i
@@ -273,6 +270,7 @@ class Camera1Engine(
             throw CameraException(e, CameraException.REASON_FAILED_TO_START_PREVIEW)
         }
         LOG.i("onStartPreview", "Started preview.")
+        restartVideoSnapshotPreRoll()
         return Tasks.forResult<Void?>(null)
     }
 
@@ -284,6 +282,9 @@ class Camera1Engine(
         mVideoRecorder?.stop(true)
         mVideoRecorder = null
         mPictureRecorder = null
+        mBurstRecorder?.stop()
+        mBurstRecorder = null
+        stopVideoSnapshotPreRoll()
         frameManager.release()
         LOG.i("onStopPreview:", "Releasing preview buffers.")
         mCamera!!.setPreviewCallbackWithBuffer(null) // Release anything left
@@ -423,26 +424,11 @@ class Camera1Engine(
     ) {
         check(mPreview is RendererCameraPreview) { "Video snapshots are only supported with GL_SURFACE." }
         val glPreview = mPreview as RendererCameraPreview
-        var outputSize = getUncroppedSnapshotSize(Reference.OUTPUT)
-        checkNotNull(outputSize) { "outputSize should not be null." }
-        val outputCrop = CropHelper.computeCrop(outputSize, outputRatio)
-        outputSize = Size(outputCrop.width(), outputCrop.height())
-        stub.size = outputSize
-        // Vertical:               0   (270-0-0)
-        // Left (unlocked):        0   (270-90-270)
-        // Right (unlocked):       0   (270-270-90)
-        // Upside down (unlocked): 0   (270-180-180)
-        // Left (locked):          270 (270-0-270)
-        // Right (locked):         90  (270-0-90)
-        // Upside down (locked):   180 (270-0-180)
-        // The correct formula seems to be deviceOrientation+displayOffset,
-        // which means offset(Reference.VIEW, Reference.OUTPUT, Axis.ABSOLUTE).
-        stub.rotation = angles.offset(Reference.VIEW, Reference.OUTPUT, Axis.ABSOLUTE)
-        stub.videoFrameRate = mPreviewFrameRate.roundToInt()
+        computeVideoSnapshotStub(stub, outputRatio)
         LOG.i("onTakeVideoSnapshot", "rotation:", stub.rotation, "size:", stub.size)
 
         // Start.
-        mVideoRecorder = SnapshotVideoRecorder(this@Camera1Engine, glPreview, overlay)
+        mVideoRecorder = createVideoSnapshotRecorder(glPreview)
         try {
             mVideoRecorder?.start(stub)
         } catch (e: Exception) {
@@ -680,8 +666,7 @@ class Camera1Engine(
     }
 
     private fun applyPlaySounds(oldPlaySound: Boolean): Boolean {
-        val info = CameraInfo()
-        Camera.getCameraInfo(mCameraId, info)
+        val info = CameraCapabilities.getCamera1Info(mCameraId)
         if (info.canDisableShutterSound) {
             return try {
                 // this method is documented to throw on some occasions. #377
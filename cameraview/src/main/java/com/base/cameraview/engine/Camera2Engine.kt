@@ -52,17 +52,17 @@ import com.base.cameraview.engine.orchestrator.CameraState
 import com.base.cameraview.frame.FrameManager
 import com.base.cameraview.frame.ImageFrameManager
 import com.base.cameraview.gesture.Gesture
-import com.base.cameraview.internal.CropHelper
+import com.base.cameraview.internal.CameraCapabilities
 import com.base.cameraview.internal.FpsRangeValidator
 import com.base.cameraview.metering.MeteringRegions
 import com.base.cameraview.picture.Full2PictureRecorder
+import com.base.cameraview.picture.PictureRecorder
 import com.base.cameraview.picture.Snapshot2PictureRecorder
 import com.base.cameraview.preview.RendererCameraPreview
 import com.base.cameraview.size.AspectRatio
 import com.base.cameraview.size.Size
 import com.base.cameraview.video.Full2VideoRecorder
 import com.base.cameraview.video.Full2VideoRecorder.PrepareException
-import com.base.cameraview.video.SnapshotVideoRecorder
 import com.google.android.gms.tasks.Task
 import com.google.android.gms.tasks.TaskCompletionSource
 import com.google.android.gms.tasks.Tasks
@@ -286,21 +286,10 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
     @EngineThread
     private fun getPreviewStreamAvailableSizesEngine2(): MutableList<Size> {
         try {
-            val characteristics = mManager.getCameraCharacteristics(mCameraId!!)
-            val streamMap =
-                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
-            if (streamMap == null) {
-                throw RuntimeException("StreamConfigurationMap is null. Should not happen.")
-            }
             // This works because our previews return either a SurfaceTexture or a SurfaceHolder,
             // which are accepted class types by the getOutputSizes method.
-            val sizes = streamMap.getOutputSizes(mPreview?.getOutputClass())
-            val candidates: MutableList<Size> = ArrayList(sizes.size)
-            for (size in sizes) {
-                val add = Size(size.width, size.height)
-                if (!candidates.contains(add)) candidates.add(add)
-            }
-            return candidates
+            val outputClass = mPreview?.getOutputClass() ?: return ArrayList()
+            return ArrayList(CameraCapabilities.getOutputSizes(mManager, mCameraId!!, outputClass))
         } catch (e: CameraAccessException) {
             throw createCameraException(e)
         } catch (e: Exception) {
@@ -315,19 +304,9 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
     @EngineThread
     private fun getFrameProcessingAvailableSizesEngine2(): MutableList<Size> {
         try {
-            val characteristics = mManager.getCameraCharacteristics(mCameraId!!)
-            val streamMap =
-                characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
-            if (streamMap == null) {
-                throw RuntimeException("StreamConfigurationMap is null. Should not happen.")
-            }
-            val sizes = streamMap.getOutputSizes(mFrameProcessingFormat)
-            val candidates: MutableList<Size> = ArrayList(sizes.size)
-            for (size in sizes) {
-                val add = Size(size.width, size.height)
-                if (!candidates.contains(add)) candidates.add(add)
-            }
-            return candidates
+            return ArrayList(
+                CameraCapabilities.getOutputSizes(mManager, mCameraId!!, mFrameProcessingFormat)
+            )
         } catch (e: CameraAccessException) {
             throw createCameraException(e)
         } catch (e: Exception) {
@@ -345,9 +324,17 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
     @EngineThread
     override fun collectCameraInfo(facing: Facing): Boolean {
         val internalFacing = mMapper.mapFacing(facing)
+        if (findCamera(facing, internalFacing)) return true
+        // The cached id list might be stale, for example if an external camera was plugged.
+        CameraCapabilities.invalidateCameraIds()
+        return findCamera(facing, internalFacing)
+    }
+
+    @EngineThread
+    private fun findCamera(facing: Facing, internalFacing: Int?): Boolean {
         val cameraIds: Array<String>?
         try {
-            cameraIds = mManager.cameraIdList
+            cameraIds = CameraCapabilities.getCameraIds(mManager)
         } catch (e: CameraAccessException) {
             // This should never happen, I don't see how it could crash here.
             // However, let's launch an unrecoverable exception.
@@ -364,7 +351,7 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
         )
         for (cameraId in cameraIds) {
             try {
-                val characteristics = mManager.getCameraCharacteristics(cameraId)
+                val characteristics = CameraCapabilities.getCharacteristics(mManager, cameraId)
                 if (internalFacing == readCharacteristic<Int?>(
                         characteristics, CameraCharacteristics.LENS_FACING, -99
                     )
@@ -402,7 +389,8 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
                     // Set parameters that might have been set before the camera was opened.
                     try {
                         LOG.i("onStartEngine:", "Opened camera device.")
-                        mCameraCharacteristics = mManager.getCameraCharacteristics(mCameraId!!)
+                        mCameraCharacteristics =
+                            CameraCapabilities.getCharacteristics(mManager, mCameraId!!)
                         val flip = angles.flip(Reference.SENSOR, Reference.VIEW)
                         val format = when (mPictureFormat) {
                             PictureFormat.JPEG -> ImageFormat.JPEG
@@ -633,6 +621,7 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
         addRepeatingRequestBuilderSurfaces()
         applyRepeatingRequestBuilder(false, CameraException.REASON_FAILED_TO_START_PREVIEW)
         LOG.i("onStartPreview:", "Started preview.")
+        restartVideoSnapshotPreRoll()
 
         // Start delayed video if needed.
         if (mFullVideoPendingStub != null) {
@@ -671,6 +660,9 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
             mVideoRecorder = null
         }
         mPictureRecorder = null
+        mBurstRecorder?.stop()
+        mBurstRecorder = null
+        stopVideoSnapshotPreRoll()
         if (hasFrameProcessors()) {
             getFrameManager().release()
         }
@@ -820,9 +812,18 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
         }
     }
 
+    override fun onPictureCaptured(recorder: PictureRecorder) {
+        super.onPictureCaptured(recorder)
+        onPictureEnded(recorder is Full2PictureRecorder)
+    }
+
     override fun onPictureResult(result: PictureResult.Stub?, error: Exception?) {
         val fullPicture = mPictureRecorder is Full2PictureRecorder
         super.onPictureResult(result, error)
+        onPictureEnded(fullPicture)
+    }
+
+    private fun onPictureEnded(fullPicture: Boolean) {
         if (fullPicture && mPictureCaptureStopsPreview) {
             applyRepeatingRequestBuilder()
         }
@@ -882,15 +883,9 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
     @EngineThread
     override fun onTakeVideoSnapshot(stub: VideoResult.Stub, outputRatio: AspectRatio) {
         check(mPreview is RendererCameraPreview) { "Video snapshots are only supported with GL_SURFACE." }
-        var outputSize = getUncroppedSnapshotSize(Reference.OUTPUT)
-        checkNotNull(outputSize) { "outputSize should not be null." }
-        val outputCrop = CropHelper.computeCrop(outputSize, outputRatio)
-        outputSize = Size(outputCrop.width(), outputCrop.height())
-        stub.size = outputSize
-        stub.rotation = angles.offset(Reference.VIEW, Reference.OUTPUT, Axis.ABSOLUTE)
-        stub.videoFrameRate = mPreviewFrameRate.roundToInt()
+        computeVideoSnapshotStub(stub, outputRatio)
         LOG.i("onTakeVideoSnapshot", "rotation:", stub.rotation, "size:", stub.size)
-        mVideoRecorder = SnapshotVideoRecorder(this, mPreview as RendererCameraPreview, overlay)
+        mVideoRecorder = createVideoSnapshotRecorder(mPreview as RendererCameraPreview)
         try {
             mVideoRecorder?.start(stub)
         } catch (e: Exception) {
@@ -1424,7 +1419,7 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
 
     @EngineThread
     override fun onImageAvailable(reader: ImageReader) {
-        LOG.v("onImageAvailable:", "trying to acquire Image.")
+        LOG.v("onImageAvailable: trying to acquire Image.")
         var image: Image? = null
         try {
             image = reader.acquireLatestImage()
@@ -1439,13 +1434,13 @@ class Camera2Engine(callback: Callback) : CameraBaseEngine(callback), OnImageAva
                 image, System.currentTimeMillis()
             )
             if (frame != null) {
-                LOG.v("onImageAvailable:", "Image acquired, dispatching.")
+                LOG.v("onImageAvailable: Image acquired, dispatching.")
                 callback.dispatchFrame(frame)
             } else {
-                LOG.i("onImageAvailable:", "Image acquired, but no free frames. DROPPING.")
+                LOG.i("onImageAvailable: Image acquired, but no free frames. DROPPING.")
             }
         } else {
-            LOG.i("onImageAvailable:", "Image acquired in wrong state. Closing it now.")
+            LOG.i("onImageAvailable: Image acquired in wrong state. Closing it now.")
             image.close()
         }
     }
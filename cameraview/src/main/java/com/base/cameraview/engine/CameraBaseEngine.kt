@@ -1,10 +1,14 @@
 package com.base.cameraview.engine
 
 import android.location.Location
+import android.os.Handler
+import android.os.Looper
 import androidx.annotation.CallSuper
 import androidx.annotation.VisibleForTesting
+import com.base.cameraview.BurstCallback
 import com.base.cameraview.CameraException
 import com.base.cameraview.CameraOptions
+import com.base.cameraview.CameraUtils
 import com.base.cameraview.PictureResult
 import com.base.cameraview.VideoResult
 import com.base.cameraview.controls.Audio
@@ -17,33 +21,46 @@ import com.base.cameraview.controls.PictureFormat
 import com.base.cameraview.controls.VideoCodec
 import com.base.cameraview.controls.WhiteBalance
 import com.base.cameraview.engine.offset.Angles
+import com.base.cameraview.engine.offset.Axis
 import com.base.cameraview.engine.offset.Reference
 import com.base.cameraview.engine.orchestrator.CameraState
 import com.base.cameraview.frame.FrameManager
+import com.base.cameraview.internal.CropHelper
+import com.base.cameraview.internal.WorkerHandler
 import com.base.cameraview.overlay.Overlay
 import com.base.cameraview.picture.PictureRecorder
+import com.base.cameraview.picture.SnapshotGlBurstRecorder
 import com.base.cameraview.preview.CameraPreview
+import com.base.cameraview.preview.RendererCameraPreview
 import com.base.cameraview.size.AspectRatio
 import com.base.cameraview.size.Size
 import com.base.cameraview.size.SizeSelector
 import com.base.cameraview.size.SizeSelectors
+import com.base.cameraview.video.SnapshotVideoRecorder
 import com.base.cameraview.video.VideoRecorder
+import com.base.cameraview.video.encoding.PreRollBuffer
 import com.google.android.gms.tasks.Task
 import com.google.android.gms.tasks.Tasks
 import java.io.File
 import java.io.FileDescriptor
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.math.floor
 import kotlin.math.min
+import kotlin.math.roundToInt
 
 /**
  * Abstract implementation of [CameraEngine] that helps in common tasks.
  */
-abstract class CameraBaseEngine protected constructor(callback: Callback) : CameraEngine(callback) {
+abstract class CameraBaseEngine protected constructor(callback: Callback) : CameraEngine(callback),
+    SnapshotGlBurstRecorder.Listener {
     private val mAngles = Angles()
     protected var mPreview: CameraPreview<*, *>? = null
     protected var mCameraOptions: CameraOptions? = null
     protected var mPictureRecorder: PictureRecorder? = null
+    protected var mBurstRecorder: SnapshotGlBurstRecorder? = null
     protected var mVideoRecorder: VideoRecorder? = null
+    protected var mPreRollRecorder: SnapshotVideoRecorder? = null
     protected var mCaptureSize: Size? = null
     protected var mPreviewStreamSize: Size? = null
     protected var mFrameProcessingSize: Size? = null
@@ -61,8 +78,12 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
     protected var mPlaySounds: Boolean = false
     protected var mPictureMetering: Boolean = false
     protected var mPictureSnapshotMetering: Boolean = false
+    protected var mPicturePipelineSize: Int = 1
     protected var mPreviewFrameRate: Float = 0f
 
+    // Pictures released by onPictureCaptured(), still being processed.
+    private val mPicturesInFlight = AtomicInteger(0)
+
     // Ops used for testing.
     @VisibleForTesting(otherwise = VisibleForTesting.Companion.PROTECTED)
     var mZoomTask: Task<Void?> = Tasks.forResult<Void?>(null)
@@ -97,6 +118,8 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
     private var mAudio: Audio? = null
     private var mVideoMaxSize: Long = 0
     private var mVideoMaxDuration = 0
+    private var mVideoSnapshotPreRoll: Long = 0
+    private var mVideoSnapshotPreRollMaxSize = DEFAULT_PRE_ROLL_MAX_SIZE
     private var mVideoBitRate = 0
     private var mAudioBitRate = 0
     private var mAutoFocusResetDelayMillis: Long = 0
@@ -189,6 +212,28 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
         mVideoMaxDuration = videoMaxDurationMillis
     }
 
+    override fun getVideoSnapshotPreRoll(): Long {
+        return mVideoSnapshotPreRoll
+    }
+
+    override fun setVideoSnapshotPreRoll(preRollMillis: Long) {
+        mVideoSnapshotPreRoll = preRollMillis
+        restartVideoSnapshotPreRoll()
+    }
+
+    override fun getVideoSnapshotPreRollMaxSize(): Int {
+        return mVideoSnapshotPreRollMaxSize
+    }
+
+    override fun setVideoSnapshotPreRollMaxSize(maxSizeBytes: Int) {
+        mVideoSnapshotPreRollMaxSize = maxSizeBytes
+        restartVideoSnapshotPreRoll()
+    }
+
+    override fun getVideoSnapshotPreRollStats(): PreRollBuffer.Stats? {
+        return mPreRollRecorder?.preRollStats
+    }
+
     override fun getVideoCodec(): VideoCodec {
         return mVideoCodec!!
     }
@@ -409,9 +454,18 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
         mPictureSnapshotMetering = enable
     }
 
+    override fun getPicturePipelineSize(): Int {
+        return mPicturePipelineSize
+    }
+
+    override fun setPicturePipelineSize(size: Int) {
+        require(size > 0) { "Pipeline size should be > 0, got $size" }
+        mPicturePipelineSize = size
+    }
+
     //region Picture and video control
     override fun isTakingPicture(): Boolean {
-        return mPictureRecorder != null
+        return mPictureRecorder != null || mBurstRecorder != null
     }
 
     /* final */ override fun takePicture(stub: PictureResult.Stub) {
@@ -454,13 +508,119 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
         }
     }
 
+    /**
+     * Takes a burst of snapshots. Like [takePictureSnapshot], the size is the
+     * [getPreviewStreamSize], cropped based on the view/surface aspect ratio.
+     *
+     * @param stub     a picture stub, used as a template for all pictures
+     * @param count    the number of pictures
+     * @param fps      the target capture rate
+     * @param callback the burst callback
+     */
+    override fun takePictureSnapshotBurst(
+        stub: PictureResult.Stub, count: Int, fps: Float, callback: BurstCallback
+    ) {
+        orchestrator.scheduleStateful(
+            "take picture snapshot burst", CameraState.BIND
+        ) {
+            LOG.i("takePictureSnapshotBurst:", "running. isTakingPicture:", isTakingPicture)
+            if (isTakingPicture) {
+                // Unlike single pictures, the caller waits for onBurstEnd: end it right away.
+                Handler(Looper.getMainLooper()).post { callback.onBurstEnd(0) }
+                return@scheduleStateful
+            }
+            val preview = mPreview
+            check(preview is RendererCameraPreview) {
+                "takePictureSnapshotBurst is only supported with Preview.GL_SURFACE"
+            }
+            stub.location = mLocation
+            stub.isSnapshot = true
+            stub.facing = mFacing
+            stub.format = PictureFormat.JPEG
+            // Not the real size: it will be cropped to match the view ratio.
+            stub.size = getUncroppedSnapshotSize(Reference.OUTPUT)
+            stub.rotation = angles.offset(Reference.VIEW, Reference.OUTPUT, Axis.ABSOLUTE)
+            val ratio = AspectRatio.of(getPreviewSurfaceSize(Reference.OUTPUT)!!)
+            val recorder = SnapshotGlBurstRecorder(
+                stub, this, preview, ratio, overlay, count, fps, callback
+            )
+            mBurstRecorder = recorder
+            recorder.start()
+        }
+    }
+
+    override fun stopPictureSnapshotBurst() {
+        orchestrator.schedule("stop picture snapshot burst", true) {
+            LOG.i("stopPictureSnapshotBurst:", "running. isTakingBurst:", mBurstRecorder != null)
+            mBurstRecorder?.stop()
+        }
+    }
+
+    override fun onBurstEnd(recorder: SnapshotGlBurstRecorder) {
+        // Called from the encoder thread.
+        orchestrator.schedule("end picture snapshot burst", true) {
+            if (mBurstRecorder === recorder) mBurstRecorder = null
+        }
+    }
+
     override fun onPictureShutter(didPlaySound: Boolean) {
         callback.dispatchOnPictureShutter(!didPlaySound)
     }
 
+    /**
+     * Releases the current recorder while its picture is processed in background, so that
+     * the next picture can be taken, as long as less than [getPicturePipelineSize] pictures
+     * are in flight. The result of the released recorder skips [onPictureResult].
+     */
+    override fun onPictureCaptured(): PictureRecorder.PictureResultListener? {
+        val recorder = mPictureRecorder ?: return null
+        if (mPicturesInFlight.get() + 1 >= mPicturePipelineSize) return null
+        mPicturesInFlight.incrementAndGet()
+        mPictureRecorder = null
+        onPictureCaptured(recorder)
+        return object : PictureRecorder.PictureResultListener {
+            override fun onPictureShutter(didPlaySound: Boolean) {
+                this@CameraBaseEngine.onPictureShutter(didPlaySound)
+            }
+
+            override fun onPictureResult(result: PictureResult.Stub?, error: Exception?) {
+                mPicturesInFlight.decrementAndGet()
+                dispatchPictureResult(result, error)
+            }
+        }
+    }
+
+    /**
+     * Called when the given recorder was released by [onPictureCaptured]. Subclasses can
+     * restore what the recorder changed, since [onPictureResult] won't be called for it.
+     *
+     * @param recorder the recorder
+     */
+    protected open fun onPictureCaptured(recorder: PictureRecorder) {}
+
     override fun onPictureResult(result: PictureResult.Stub?, error: Exception?) {
         mPictureRecorder = null
-        if (result != null) {
+        dispatchPictureResult(result, error)
+    }
+
+    private fun dispatchPictureResult(result: PictureResult.Stub?, error: Exception?) {
+        val file = result?.file
+        if (result != null && file != null && !result.isFileWritten) {
+            // The recorder did not write the file: do it here, off the recorder thread.
+            WorkerHandler.execute {
+                if (CameraUtils.writeToFile(result.data, file) != null) {
+                    result.isFileWritten = true
+                    callback.dispatchOnPictureTaken(result)
+                } else {
+                    callback.dispatchError(
+                        CameraException(
+                            IOException("Could not write $file"),
+                            CameraException.REASON_PICTURE_FAILED
+                        )
+                    )
+                }
+            }
+        } else if (result != null) {
             callback.dispatchOnPictureTaken(result)
         } else {
             LOG.e("onPictureResult", "result or data is null: something went wrong.")
@@ -561,6 +721,78 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
                 )
             )
         }
+        restartVideoSnapshotPreRoll()
+    }
+
+    /**
+     * Fills the size, rotation and frame rate of a video snapshot stub.
+     *
+     * @param stub        a video stub
+     * @param outputRatio the view/surface aspect ratio
+     */
+    @EngineThread
+    protected fun computeVideoSnapshotStub(stub: VideoResult.Stub, outputRatio: AspectRatio) {
+        var outputSize = getUncroppedSnapshotSize(Reference.OUTPUT)
+        checkNotNull(outputSize) { "outputSize should not be null." }
+        val outputCrop = CropHelper.computeCrop(outputSize, outputRatio)
+        outputSize = Size(outputCrop.width(), outputCrop.height())
+        stub.size = outputSize
+        // Vertical:               0   (270-0-0)
+        // Left (unlocked):        0   (270-90-270)
+        // Right (unlocked):       0   (270-270-90)
+        // Upside down (unlocked): 0   (270-180-180)
+        // Left (locked):          270 (270-0-270)
+        // Right (locked):         90  (270-0-90)
+        // Upside down (locked):   180 (270-0-180)
+        // The correct formula seems to be deviceOrientation+displayOffset,
+        // which means offset(Reference.VIEW, Reference.OUTPUT, Axis.ABSOLUTE).
+        stub.rotation = angles.offset(Reference.VIEW, Reference.OUTPUT, Axis.ABSOLUTE)
+        stub.videoFrameRate = mPreviewFrameRate.roundToInt()
+    }
+
+    /**
+     * Returns a new recorder for a video snapshot: the pre-rolling one, if any,
+     * so that the buffered seconds end up in the video.
+     */
+    @EngineThread
+    protected fun createVideoSnapshotRecorder(preview: RendererCameraPreview): SnapshotVideoRecorder {
+        val preRoll = mPreRollRecorder
+        mPreRollRecorder = null
+        return preRoll ?: SnapshotVideoRecorder(this, preview, overlay)
+    }
+
+    /**
+     * Stops the current pre-roll, if any, and starts a new one if enabled
+     * and if the preview is running.
+     */
+    protected fun restartVideoSnapshotPreRoll() {
+        orchestrator.scheduleStateful("video snapshot pre-roll", CameraState.PREVIEW) {
+            stopVideoSnapshotPreRoll()
+            val preview = mPreview
+            if (mVideoSnapshotPreRoll <= 0 || preview !is RendererCameraPreview) return@scheduleStateful
+            if (isTakingVideo) return@scheduleStateful // Will restart later.
+            LOG.i("restartVideoSnapshotPreRoll:", "preRoll:", mVideoSnapshotPreRoll)
+            val stub = VideoResult.Stub()
+            stub.isSnapshot = true
+            stub.videoCodec = mVideoCodec ?: VideoCodec.DEFAULT
+            stub.audioCodec = mAudioCodec ?: AudioCodec.DEFAULT
+            stub.location = mLocation
+            stub.facing = mFacing
+            stub.videoBitRate = mVideoBitRate
+            stub.audioBitRate = mAudioBitRate
+            stub.audio = mAudio
+            computeVideoSnapshotStub(stub, AspectRatio.of(getPreviewSurfaceSize(Reference.OUTPUT)!!))
+            val buffer = PreRollBuffer(mVideoSnapshotPreRoll * 1000L, mVideoSnapshotPreRollMaxSize)
+            val recorder = SnapshotVideoRecorder(this, preview, overlay)
+            recorder.startPreRoll(stub, buffer)
+            mPreRollRecorder = recorder
+        }
+    }
+
+    @EngineThread
+    protected fun stopVideoSnapshotPreRoll() {
+        mPreRollRecorder?.stopPreRoll()
+        mPreRollRecorder = null
     }
 
     override fun onVideoRecordingStart() {
@@ -720,7 +952,7 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
         }
         selector = SizeSelectors.or(selector, SizeSelectors.biggest())
         val list: MutableList<Size?> = ArrayList(sizes)
-        var result: Size = selector.select(list)[0]!!
+        var result: Size = SizeSelectors.select(selector, list)[0]
         if (!list.contains(result)) {
             throw RuntimeException(
                 "SizeSelectors must not return Sizes other than " + "those in the input list."
@@ -781,7 +1013,7 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
         } else {
             matchAll
         }
-        var result: Size = selector.select(sizes)[0]!!
+        var result: Size = SizeSelectors.select(selector, sizes)[0]
         if (!sizes.contains(result)) {
             throw RuntimeException(
                 "SizeSelectors must not return Sizes other than " + "those in the input list."
@@ -832,7 +1064,7 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
             matchSize,  // If couldn't match aspect ratio, at least respect the size
             SizeSelectors.smallest() // If couldn't match any, take the smallest.
         )
-        var result: Size = matchAll.select(sizes)[0]!!
+        var result: Size = SizeSelectors.select(matchAll, sizes)[0]
         if (!sizes.contains(result)) {
             throw RuntimeException(
                 "SizeSelectors must not return Sizes other than " + "those in the input list."
@@ -846,5 +1078,6 @@ abstract class CameraBaseEngine protected constructor(callback: Callback) : Came
     companion object {
         const val ALLOWED_ZOOM_OPS: Int = 20
         const val ALLOWED_EV_OPS: Int = 20
+        const val DEFAULT_PRE_ROLL_MAX_SIZE: Int = 16 * 1024 * 1024
     }
 }
@@ -10,9 +10,11 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import com.base.cameraview.BurstCallback;
 import com.base.cameraview.CameraException;
 import com.base.cameraview.CameraLogger;
 import com.base.cameraview.CameraOptions;
+import com.base.cameraview.CameraTracer;
 import com.base.cameraview.PictureResult;
 import com.base.cameraview.VideoResult;
 import com.base.cameraview.controls.Audio;
@@ -40,6 +42,7 @@ import com.base.cameraview.preview.CameraPreview;
 import com.base.cameraview.size.Size;
 import com.base.cameraview.size.SizeSelector;
 import com.base.cameraview.video.VideoRecorder;
+import com.base.cameraview.video.encoding.PreRollBuffer;
 import com.google.android.gms.tasks.SuccessContinuation;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.Tasks;
@@ -269,6 +272,7 @@ public abstract class CameraEngine implements CameraPreview.SurfaceCallback, Pic
     @EngineThread
     private Task<Void> startEngine() {
         return mOrchestrator.scheduleStateChange(CameraState.OFF, CameraState.ENGINE, true, () -> {
+            CameraTracer.beginMilestone(CameraTracer.FIRST_FRAME);
             if (!collectCameraInfo(getFacing())) {
                 LOG.e("onStartEngine:", "No camera available for facing", getFacing());
                 throw new CameraException(CameraException.REASON_NO_CAMERA);
@@ -547,6 +551,17 @@ public abstract class CameraEngine implements CameraPreview.SurfaceCallback, Pic
 
     public abstract void setVideoMaxDuration(int videoMaxDurationMillis);
 
+    public abstract long getVideoSnapshotPreRoll();
+
+    public abstract void setVideoSnapshotPreRoll(long preRollMillis);
+
+    public abstract int getVideoSnapshotPreRollMaxSize();
+
+    public abstract void setVideoSnapshotPreRollMaxSize(int maxSizeBytes);
+
+    @Nullable
+    public abstract PreRollBuffer.Stats getVideoSnapshotPreRollStats();
+
     @NonNull
     public abstract VideoCodec getVideoCodec();
 
@@ -661,6 +676,10 @@ public abstract class CameraEngine implements CameraPreview.SurfaceCallback, Pic
 
     public abstract void setPictureSnapshotMetering(boolean enable);
 
+    public abstract int getPicturePipelineSize();
+
+    public abstract void setPicturePipelineSize(int size);
+
     public abstract void takeVideo(@NonNull VideoResult.Stub stub, @Nullable File file, @Nullable FileDescriptor fileDescriptor);
 
     public abstract void setPlaySounds(boolean playSounds);
@@ -671,6 +690,10 @@ public abstract class CameraEngine implements CameraPreview.SurfaceCallback, Pic
 
     public abstract void takePictureSnapshot(final @NonNull PictureResult.Stub stub);
 
+    public abstract void takePictureSnapshotBurst(@NonNull PictureResult.Stub stub, int count, float fps, @NonNull BurstCallback callback);
+
+    public abstract void stopPictureSnapshotBurst();
+
     public abstract boolean isTakingVideo();
 
     public abstract void takeVideoSnapshot(@NonNull VideoResult.Stub stub, @NonNull File file);
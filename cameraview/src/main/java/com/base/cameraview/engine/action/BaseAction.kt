@@ -5,6 +5,7 @@ import android.hardware.camera2.CaptureRequest
 import android.hardware.camera2.CaptureResult
 import android.hardware.camera2.TotalCaptureResult
 import androidx.annotation.CallSuper
+import com.base.cameraview.CameraTracer
 
 /**
  * The base implementation of [Action] that should always be subclassed,
@@ -29,6 +30,8 @@ abstract class BaseAction : Action {
                     callback.onActionStateChanged(this, field)
                 }
                 if (field == Action.Companion.STATE_COMPLETED) {
+                    CameraTracer.end(span)
+                    span = null
                     holder?.let {
                         holder?.removeAction(this)
                         onCompleted(holder!!)
@@ -38,6 +41,7 @@ abstract class BaseAction : Action {
         }
     private var holder: ActionHolder? = null
     private var needsOnStart = false
+    private var span: CameraTracer.Span? = null
 
     override fun start(holder: ActionHolder) {
         this.holder = holder
@@ -69,6 +73,9 @@ abstract class BaseAction : Action {
         // Repeating holder assignment here (already in start()) because we NEED it in start()
         // but some special actions will not call start() at all for their children.
         this.holder = holder
+        if (span == null && !isCompleted) {
+            span = CameraTracer.begin(CameraTracer.CATEGORY_ACTION, javaClass.simpleName)
+        }
         // Overrideable
     }
 
@@ -2,13 +2,13 @@ package com.base.cameraview.engine.options
 
 import android.graphics.ImageFormat
 import android.hardware.Camera
-import android.hardware.Camera.CameraInfo
 import com.base.cameraview.CameraOptions
 import com.base.cameraview.controls.Flash
 import com.base.cameraview.controls.Hdr
 import com.base.cameraview.controls.PictureFormat
 import com.base.cameraview.engine.mappers.Camera1Mapper.Companion.get
 import com.base.cameraview.internal.CamcorderProfiles
+import com.base.cameraview.internal.CameraCapabilities
 import com.base.cameraview.size.AspectRatio
 import com.base.cameraview.size.Size
 import kotlin.math.max
@@ -20,11 +20,10 @@ class Camera1Options(params: Camera.Parameters, cameraId: Int, flipSizes: Boolea
         val mapper = get()
 
         // Facing
-        val cameraInfo = CameraInfo()
         var i = 0
-        val count = Camera.getNumberOfCameras()
+        val count = CameraCapabilities.getCamera1Count()
         while (i < count) {
-            Camera.getCameraInfo(i, cameraInfo)
+            val cameraInfo = CameraCapabilities.getCamera1Info(i)
             val value = mapper.unmapFacing(cameraInfo.facing)
             if (value != null) supportedFacing.add(value)
             i++
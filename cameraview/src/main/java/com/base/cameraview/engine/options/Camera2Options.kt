@@ -11,6 +11,7 @@ import com.base.cameraview.controls.Hdr
 import com.base.cameraview.controls.PictureFormat
 import com.base.cameraview.engine.mappers.Camera2Mapper.Companion.get
 import com.base.cameraview.internal.CamcorderProfiles
+import com.base.cameraview.internal.CameraCapabilities
 import com.base.cameraview.size.AspectRatio
 import kotlin.math.max
 import kotlin.math.min
@@ -20,11 +21,11 @@ class Camera2Options(
 ) : CameraOptions() {
     init {
         val mapper = get()
-        val cameraCharacteristics = manager.getCameraCharacteristics(cameraId)
+        val cameraCharacteristics = CameraCapabilities.getCharacteristics(manager, cameraId)
 
         // Facing
-        for (cameraId1 in manager.cameraIdList) {
-            val cameraCharacteristics1 = manager.getCameraCharacteristics(cameraId1)
+        for (cameraId1 in CameraCapabilities.getCameraIds(manager)) {
+            val cameraCharacteristics1 = CameraCapabilities.getCharacteristics(manager, cameraId1)
             val cameraFacing = cameraCharacteristics1.get(CameraCharacteristics.LENS_FACING)
             if (cameraFacing != null) {
                 val value = mapper.unmapFacing(cameraFacing)
@@ -2,6 +2,7 @@ package com.base.cameraview.engine.orchestrator
 
 import androidx.annotation.GuardedBy
 import com.base.cameraview.CameraLogger
+import com.base.cameraview.CameraTracer
 import com.base.cameraview.internal.WorkerHandler
 import com.google.android.gms.tasks.OnCompleteListener
 import com.google.android.gms.tasks.Task
@@ -65,7 +66,7 @@ open class CameraOrchestrator(@JvmField protected val mCallback: Callback) {
         minDelay: Long,
         scheduler: Callable<Task<T?>>
     ): Task<T?> {
-        LOG.i(name.uppercase(Locale.getDefault()), "- Scheduling.")
+        LOG.i { "${name.uppercase(Locale.getDefault())} - Scheduling." }
         val job = Job(
             name, scheduler, dispatchExceptions,
             System.currentTimeMillis() + minDelay
@@ -110,11 +111,13 @@ open class CameraOrchestrator(@JvmField protected val mCallback: Callback) {
     private fun <T> execute(job: Job<T?>) {
         val worker = mCallback.getJobWorker(job.name)
         worker.run {
+            val span = CameraTracer.begin(CameraTracer.CATEGORY_JOB, job.name)
             try {
-                LOG.i(job.name.uppercase(Locale.getDefault()), "- Executing.")
+                LOG.i { "${job.name.uppercase(Locale.getDefault())} - Executing." }
                 val task = job.scheduler.call()
                 onComplete<T?>(task, worker) { task1: Task<T?>? ->
                     val e = task1!!.exception
+                    CameraTracer.end(span, e)
                     if (e != null) {
                         LOG.w(job.name.uppercase(Locale.getDefault()), "- Finished with ERROR.", e)
                         if (job.dispatchExceptions) {
@@ -122,13 +125,12 @@ open class CameraOrchestrator(@JvmField protected val mCallback: Callback) {
                         }
                         job.source.trySetException(e)
                     } else if (task1.isCanceled) {
-                        LOG.i(
-                            job.name.uppercase(Locale.getDefault()),
-                            "- Finished because ABORTED."
-                        )
+                        LOG.i {
+                            "${job.name.uppercase(Locale.getDefault())} - Finished because ABORTED."
+                        }
                         job.source.trySetException(CancellationException())
                     } else {
-                        LOG.i(job.name.uppercase(Locale.getDefault()), "- Finished.")
+                        LOG.i { "${job.name.uppercase(Locale.getDefault())} - Finished." }
                         job.source.trySetResult(task1.getResult())
                     }
                     synchronized(mJobsLock) {
@@ -136,6 +138,7 @@ open class CameraOrchestrator(@JvmField protected val mCallback: Callback) {
                     }
                 }
             } catch (e: Exception) {
+                CameraTracer.end(span, e)
                 LOG.i(job.name.uppercase(Locale.getDefault()), "- Finished with ERROR.", e)
                 if (job.dispatchExceptions) {
                     mCallback.handleJobException(job.name, e)
@@ -168,7 +171,7 @@ open class CameraOrchestrator(@JvmField protected val mCallback: Callback) {
                     scheduled.add(job)
                 }
             }
-            LOG.v("trim: name=", name, "scheduled=", scheduled.size, "allowed=", allowed)
+            LOG.v { "trim: name= $name scheduled= ${scheduled.size} allowed= $allowed" }
             val existing = max(scheduled.size - allowed, 0)
             if (existing > 0) {
                 // To remove the oldest ones first, we must reverse the list.
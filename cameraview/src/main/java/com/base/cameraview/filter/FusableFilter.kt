@@ -0,0 +1,40 @@
+package com.base.cameraview.filter
+
+/**
+ * A [Filter] that only transforms the color of each pixel, without sampling
+ * neighbors. Consecutive fusable filters in a [MultiFilter] can be combined
+ * into a single program and drawn in one pass.
+ *
+ * @see MultiFilter.isFused
+ */
+interface FusableFilter : Filter {
+    /**
+     * Returns the GLSL source for this filter when fused, which declares
+     * a `vec4 name(vec4 color)` function, plus any uniform it needs.
+     * Uniform names should be prefixed with the given name and an underscore,
+     * so that they don't clash with other filters.
+     *
+     * @param name the function name
+     * @return the fused source
+     */
+    fun getFusedSource(name: String): String
+
+    /**
+     * The fused program was just created. Uniform locations should be fetched
+     * using the same name that was passed to [getFusedSource].
+     *
+     * @param programHandle handle
+     * @param name          the function name
+     */
+    fun onCreateFused(programHandle: Int, name: String)
+
+    /**
+     * The fused program is about to be destroyed.
+     */
+    fun onDestroyFused()
+
+    /**
+     * Called before drawing with the fused program, to set uniform values.
+     */
+    fun onPreDrawFused()
+}
@@ -0,0 +1,57 @@
+package com.base.cameraview.filter
+
+/**
+ * Draws a chain of [FusableFilter]s in a single pass, by generating a fragment
+ * shader that calls each filter function in order.
+ * Colors are clamped after each function, like they would be when drawing
+ * each filter into its own framebuffer.
+ */
+internal class FusedFilter(val children: List<FusableFilter>) : BaseFilter() {
+
+    override val fragmentShader: String = buildString {
+        append("#extension GL_OES_EGL_image_external : require\n")
+        append("precision mediump float;\n")
+        append("uniform samplerExternalOES sTexture;\n")
+        append("varying vec2 $DEFAULT_FRAGMENT_TEXTURE_COORDINATE_NAME;\n")
+        for (i in children.indices) {
+            append(children[i].getFusedSource(name(i)))
+            append("\n")
+        }
+        append("void main() {\n")
+        append("  vec4 color = texture2D(sTexture, $DEFAULT_FRAGMENT_TEXTURE_COORDINATE_NAME);\n")
+        for (i in children.indices) {
+            append("  color = clamp(${name(i)}(color), 0.0, 1.0);\n")
+        }
+        append("  gl_FragColor = color;\n")
+        append("}\n")
+    }
+
+    override fun onCreate(programHandle: Int) {
+        super.onCreate(programHandle)
+        for (i in children.indices) {
+            children[i].onCreateFused(programHandle, name(i))
+        }
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        for (child in children) {
+            child.onDestroyFused()
+        }
+    }
+
+    override fun onPreDraw(timestampUs: Long, transformMatrix: FloatArray) {
+        super.onPreDraw(timestampUs, transformMatrix)
+        for (child in children) {
+            child.onPreDrawFused()
+        }
+    }
+
+    override fun onCopy(): BaseFilter {
+        return FusedFilter(children.map { it.copy() as FusableFilter })
+    }
+
+    private fun name(index: Int): String {
+        return "fused$index"
+    }
+}
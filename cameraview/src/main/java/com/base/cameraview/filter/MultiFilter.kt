@@ -2,9 +2,10 @@ package com.base.cameraview.filter
 
 import android.opengl.GLES20
 import androidx.annotation.VisibleForTesting
+import com.base.cameraview.internal.GlFramebufferPool
+import com.base.cameraview.internal.GlProgramCache
 import com.base.cameraview.size.Size
 import com.otaliastudios.opengl.core.Egloo.IDENTITY_MATRIX
-import com.otaliastudios.opengl.program.GlProgram
 import com.otaliastudios.opengl.program.GlTextureProgram
 import com.otaliastudios.opengl.texture.GlFramebuffer
 import com.otaliastudios.opengl.texture.GlTexture
@@ -19,6 +20,24 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
     val states: MutableMap<Filter?, State?> = HashMap<Filter?, State?>()
     private val lock = Any()
     private var size: Size? = null
+
+    /**
+     * Whether consecutive [FusableFilter]s should be combined into a single
+     * program and drawn in one pass, instead of one pass per filter.
+     * This saves a full screen draw and a framebuffer for each fused filter.
+     * Defaults to false.
+     */
+    var isFused: Boolean = false
+        set(value) {
+            synchronized(lock) {
+                if (field != value) {
+                    field = value
+                    invalidatePasses()
+                }
+            }
+        }
+    private var passes: List<Filter>? = null
+    private val stalePasses: MutableList<Filter> = ArrayList()
     override var parameter1: Float = 0f
         set(parameter1) {
             field = parameter1
@@ -78,8 +97,57 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
             if (!filters.contains(filter)) {
                 filters.add(filter)
                 states.put(filter, State())
+                invalidatePasses()
+            }
+        }
+    }
+
+    // Fused passes are owned by us, so they must be destroyed on the GL thread
+    // during the next draw() or onDestroy().
+    private fun invalidatePasses() {
+        passes?.let { old ->
+            for (pass in old) {
+                if (pass is FusedFilter) stalePasses.add(pass)
+            }
+        }
+        passes = null
+    }
+
+    private fun computePasses(): List<Filter> {
+        if (!isFused) return filters
+        val result = ArrayList<Filter>()
+        val run = ArrayList<FusableFilter>()
+        fun flush() {
+            when (run.size) {
+                0 -> Unit
+                1 -> result.add(run[0])
+                else -> {
+                    val fused = FusedFilter(ArrayList(run))
+                    states[fused] = State()
+                    result.add(fused)
+                }
+            }
+            run.clear()
+        }
+        for (filter in filters) {
+            if (filter is FusableFilter) {
+                run.add(filter)
+            } else {
+                flush()
+                result.add(filter)
             }
         }
+        flush()
+        return result
+    }
+
+    private fun destroyStalePasses() {
+        for (pass in stalePasses) {
+            maybeDestroyFramebuffer(pass)
+            maybeDestroyProgram(pass)
+            states.remove(pass)
+        }
+        stalePasses.clear()
     }
 
     private fun maybeCreateProgram(filter: Filter, isFirst: Boolean, isLast: Boolean) {
@@ -94,7 +162,7 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
         else
             filter.fragmentShader.replace("samplerExternalOES ", "sampler2D ")
         val vertexShader = filter.vertexShader
-        state.programHandle = GlProgram.create(vertexShader, fragmentShader)
+        state.programHandle = GlProgramCache.acquire(vertexShader, fragmentShader)
         filter.onCreate(state.programHandle)
     }
 
@@ -106,7 +174,7 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
         if (!state!!.isProgramCreated) return
         state.isProgramCreated = false
         filter.onDestroy()
-        GLES20.glDeleteProgram(state.programHandle)
+        GlProgramCache.release(state.programHandle)
         state.programHandle = -1
     }
 
@@ -122,14 +190,10 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
         }
         if (!state!!.isFramebufferCreated) {
             state.isFramebufferCreated = true
-            state.outputTexture = GlTexture(
-                GLES20.GL_TEXTURE0,
-                GLES20.GL_TEXTURE_2D,
-                state.size!!.width,
-                state.size!!.height
-            )
-            state.outputFramebuffer = GlFramebuffer()
-            state.outputFramebuffer!!.attach(state.outputTexture!!)
+            val target = GlFramebufferPool.acquire(state.size!!.width, state.size!!.height)
+            state.outputTarget = target
+            state.outputTexture = target.texture
+            state.outputFramebuffer = target.framebuffer
         }
     }
 
@@ -137,9 +201,9 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
         val state = states[filter]
         if (!state!!.isFramebufferCreated) return
         state.isFramebufferCreated = false
-        state.outputFramebuffer!!.release()
+        GlFramebufferPool.recycle(state.outputTarget!!)
+        state.outputTarget = null
         state.outputFramebuffer = null
-        state.outputTexture!!.release()
         state.outputTexture = null
     }
 
@@ -168,6 +232,12 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
 
     override fun onDestroy() {
         synchronized(lock) {
+            destroyStalePasses()
+            for (filter in passes ?: filters) {
+                maybeDestroyFramebuffer(filter)
+                maybeDestroyProgram(filter)
+            }
+            // Also destroy filters that were drawn before fusing.
             for (filter in filters) {
                 maybeDestroyFramebuffer(filter)
                 maybeDestroyProgram(filter)
@@ -181,15 +251,30 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
             for (filter in filters) {
                 maybeSetSize(filter)
             }
+            passes?.let {
+                for (pass in it) maybeSetSize(pass)
+            }
         }
     }
 
     override fun draw(timestampUs: Long, transformMatrix: FloatArray) {
         synchronized(lock) {
-            for (i in filters.indices) {
+            destroyStalePasses()
+            val passes = this.passes ?: computePasses().also { computed ->
+                this.passes = computed
+                // Filters that are now fused into another pass don't need their own program.
+                // Destroy it before the fused one is created, since both share uniform locations.
+                for (filter in filters) {
+                    if (!computed.contains(filter)) {
+                        maybeDestroyFramebuffer(filter)
+                        maybeDestroyProgram(filter)
+                    }
+                }
+            }
+            for (i in passes.indices) {
                 val isFirst = i == 0
-                val isLast = i == filters.size - 1
-                val filter = filters[i]
+                val isLast = i == passes.size - 1
+                val filter = passes[i]
                 val state = states[filter]
 
                 maybeSetSize(filter)
@@ -237,6 +322,7 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
     override fun copy(): Filter {
         synchronized(lock) {
             val copy = MultiFilter()
+            copy.isFused = isFused
             if (size != null) {
                 copy.setSize(size!!.width, size!!.height)
             }
@@ -261,5 +347,6 @@ class MultiFilter(filters: MutableCollection<Filter>) : Filter, OneParameterFilt
         var programHandle = -1
         var outputFramebuffer: GlFramebuffer? = null
         var outputTexture: GlTexture? = null
+        var outputTarget: GlFramebufferPool.Target? = null
     }
 }
@@ -2,6 +2,7 @@ package com.base.cameraview.filters
 
 import android.opengl.GLES20
 import com.base.cameraview.filter.BaseFilter
+import com.base.cameraview.filter.FusableFilter
 import com.base.cameraview.filter.OneParameterFilter
 import com.otaliastudios.opengl.core.Egloo.checkGlError
 import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
@@ -9,7 +10,7 @@ import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
 /**
  * Adjusts the brightness of the frames.
  */
-class BrightnessFilter : BaseFilter(), OneParameterFilter {
+class BrightnessFilter : BaseFilter(), OneParameterFilter, FusableFilter {
     private var brightness = 2.0f // 1.0F...2.0F
     private var brightnessLocation = -1
 
@@ -61,6 +62,26 @@ class BrightnessFilter : BaseFilter(), OneParameterFilter {
 
     override fun onPreDraw(timestampUs: Long, transformMatrix: FloatArray) {
         super.onPreDraw(timestampUs, transformMatrix)
+        onPreDrawFused()
+    }
+
+    override fun getFusedSource(name: String): String = """
+        uniform float ${name}_brightness;
+        vec4 $name(vec4 color) {
+          return ${name}_brightness * color;
+        }
+        """.trimIndent()
+
+    override fun onCreateFused(programHandle: Int, name: String) {
+        brightnessLocation = GLES20.glGetUniformLocation(programHandle, "${name}_brightness")
+        checkGlProgramLocation(brightnessLocation, "${name}_brightness")
+    }
+
+    override fun onDestroyFused() {
+        brightnessLocation = -1
+    }
+
+    override fun onPreDrawFused() {
         GLES20.glUniform1f(brightnessLocation, brightness)
         checkGlError("glUniform1f")
     }
@@ -2,6 +2,7 @@ package com.base.cameraview.filters
 
 import android.opengl.GLES20
 import com.base.cameraview.filter.BaseFilter
+import com.base.cameraview.filter.FusableFilter
 import com.base.cameraview.filter.OneParameterFilter
 import com.otaliastudios.opengl.core.Egloo.checkGlError
 import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
@@ -9,7 +10,7 @@ import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
 /**
  * Adjusts the contrast.
  */
-class ContrastFilter : BaseFilter(), OneParameterFilter {
+class ContrastFilter : BaseFilter(), OneParameterFilter, FusableFilter {
     private var contrast = 2f
     private var contrastLocation = -1
 
@@ -59,6 +60,26 @@ class ContrastFilter : BaseFilter(), OneParameterFilter {
 
     override fun onPreDraw(timestampUs: Long, transformMatrix: FloatArray) {
         super.onPreDraw(timestampUs, transformMatrix)
+        onPreDrawFused()
+    }
+
+    override fun getFusedSource(name: String): String = """
+        uniform float ${name}_contrast;
+        vec4 $name(vec4 color) {
+          return (color - 0.5) * ${name}_contrast + 0.5;
+        }
+        """.trimIndent()
+
+    override fun onCreateFused(programHandle: Int, name: String) {
+        contrastLocation = GLES20.glGetUniformLocation(programHandle, "${name}_contrast")
+        checkGlProgramLocation(contrastLocation, "${name}_contrast")
+    }
+
+    override fun onDestroyFused() {
+        contrastLocation = -1
+    }
+
+    override fun onPreDrawFused() {
         GLES20.glUniform1f(contrastLocation, contrast)
         checkGlError("glUniform1f")
     }
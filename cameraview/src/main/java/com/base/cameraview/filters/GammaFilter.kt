@@ -2,6 +2,7 @@ package com.base.cameraview.filters
 
 import android.opengl.GLES20
 import com.base.cameraview.filter.BaseFilter
+import com.base.cameraview.filter.FusableFilter
 import com.base.cameraview.filter.OneParameterFilter
 import com.otaliastudios.opengl.core.Egloo.checkGlError
 import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
@@ -9,7 +10,7 @@ import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
 /**
  * Applies gamma correction to the frames.
  */
-class GammaFilter : BaseFilter(), OneParameterFilter {
+class GammaFilter : BaseFilter(), OneParameterFilter, FusableFilter {
     private var gamma = 2.0f
     private var gammaLocation = -1
 
@@ -55,6 +56,26 @@ class GammaFilter : BaseFilter(), OneParameterFilter {
 
     override fun onPreDraw(timestampUs: Long, transformMatrix: FloatArray) {
         super.onPreDraw(timestampUs, transformMatrix)
+        onPreDrawFused()
+    }
+
+    override fun getFusedSource(name: String): String = """
+        uniform float ${name}_gamma;
+        vec4 $name(vec4 color) {
+          return vec4(pow(color.rgb, vec3(${name}_gamma)), color.w);
+        }
+        """.trimIndent()
+
+    override fun onCreateFused(programHandle: Int, name: String) {
+        gammaLocation = GLES20.glGetUniformLocation(programHandle, "${name}_gamma")
+        checkGlProgramLocation(gammaLocation, "${name}_gamma")
+    }
+
+    override fun onDestroyFused() {
+        gammaLocation = -1
+    }
+
+    override fun onPreDrawFused() {
         GLES20.glUniform1f(gammaLocation, gamma)
         checkGlError("glUniform1f")
     }
@@ -2,6 +2,7 @@ package com.base.cameraview.filters
 
 import android.opengl.GLES20
 import com.base.cameraview.filter.BaseFilter
+import com.base.cameraview.filter.FusableFilter
 import com.base.cameraview.filter.OneParameterFilter
 import com.otaliastudios.opengl.core.Egloo.checkGlError
 import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
@@ -9,7 +10,7 @@ import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
 /**
  * Adjusts color saturation.
  */
-class SaturationFilter : BaseFilter(), OneParameterFilter {
+class SaturationFilter : BaseFilter(), OneParameterFilter, FusableFilter {
     private var scale = 1f // -1...1
     private var scaleLocation = -1
     private var exponentsLocation = -1
@@ -59,6 +60,10 @@ class SaturationFilter : BaseFilter(), OneParameterFilter {
 
     override fun onPreDraw(timestampUs: Long, transformMatrix: FloatArray) {
         super.onPreDraw(timestampUs, transformMatrix)
+        onPreDrawFused()
+    }
+
+    override fun onPreDrawFused() {
         if (scale > 0.0f) {
             GLES20.glUniform1f(scaleLocation, 0f)
             checkGlError("glUniform1f")
@@ -77,6 +82,33 @@ class SaturationFilter : BaseFilter(), OneParameterFilter {
         }
     }
 
+    override fun getFusedSource(name: String): String = """
+        uniform float ${name}_scale;
+        uniform vec3 ${name}_exponents;
+        vec4 $name(vec4 color) {
+          vec3 weights = vec3(${2f / 8f}, ${5f / 8f}, ${1f / 8f});
+          float kv = dot(color.rgb, weights) + ${1.0f / 255.0f};
+          vec3 new_color = ${name}_scale * color.rgb + (1.0 - ${name}_scale) * kv;
+          float de = dot(color.rgb, weights);
+          float inv_de = 1.0 / de;
+          vec3 verynew_color = de * pow(color.rgb * inv_de, ${name}_exponents);
+          float max_color = max(max(max(verynew_color.r, verynew_color.g), verynew_color.b), 1.0);
+          return vec4(new_color, color.a) + vec4(verynew_color / max_color, color.a);
+        }
+        """.trimIndent()
+
+    override fun onCreateFused(programHandle: Int, name: String) {
+        scaleLocation = GLES20.glGetUniformLocation(programHandle, "${name}_scale")
+        checkGlProgramLocation(scaleLocation, "${name}_scale")
+        exponentsLocation = GLES20.glGetUniformLocation(programHandle, "${name}_exponents")
+        checkGlProgramLocation(exponentsLocation, "${name}_exponents")
+    }
+
+    override fun onDestroyFused() {
+        scaleLocation = -1
+        exponentsLocation = -1
+    }
+
     override val fragmentShader: String = """
         #extension GL_OES_EGL_image_external : require
         precision mediump float;
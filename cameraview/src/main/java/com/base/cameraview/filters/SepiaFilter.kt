@@ -1,11 +1,35 @@
 package com.base.cameraview.filters
 
 import com.base.cameraview.filter.BaseFilter
+import com.base.cameraview.filter.FusableFilter
 
 /**
  * Converts frames to sepia tone.
  */
-class SepiaFilter : BaseFilter() {
+class SepiaFilter : BaseFilter(), FusableFilter {
+    override fun getFusedSource(name: String): String = """
+        vec4 $name(vec4 color) {
+          mat3 matrix;
+          matrix[0][0]=${805.0f / 2048.0f};
+          matrix[0][1]=${715.0f / 2048.0f};
+          matrix[0][2]=${557.0f / 2048.0f};
+          matrix[1][0]=${1575.0f / 2048.0f};
+          matrix[1][1]=${1405.0f / 2048.0f};
+          matrix[1][2]=${1097.0f / 2048.0f};
+          matrix[2][0]=${387.0f / 2048.0f};
+          matrix[2][1]=${344.0f / 2048.0f};
+          matrix[2][2]=${268.0f / 2048.0f};
+          vec3 new_color = min(matrix * color.rgb, 1.0);
+          return vec4(new_color.rgb, color.a);
+        }
+        """.trimIndent()
+
+    override fun onCreateFused(programHandle: Int, name: String) = Unit
+
+    override fun onDestroyFused() = Unit
+
+    override fun onPreDrawFused() = Unit
+
     override val fragmentShader: String = """
         #extension GL_OES_EGL_image_external : require
         precision mediump float;
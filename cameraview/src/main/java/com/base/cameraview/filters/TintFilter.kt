@@ -4,6 +4,7 @@ import android.graphics.Color
 import android.opengl.GLES20
 import androidx.annotation.ColorInt
 import com.base.cameraview.filter.BaseFilter
+import com.base.cameraview.filter.FusableFilter
 import com.base.cameraview.filter.OneParameterFilter
 import com.otaliastudios.opengl.core.Egloo.checkGlError
 import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
@@ -11,7 +12,7 @@ import com.otaliastudios.opengl.core.Egloo.checkGlProgramLocation
 /**
  * Tints the frames with specified color.
  */
-class TintFilter : BaseFilter(), OneParameterFilter {
+class TintFilter : BaseFilter(), OneParameterFilter, FusableFilter {
     private var tint = Color.RED
     private var tintLocation = -1
 
@@ -65,6 +66,10 @@ class TintFilter : BaseFilter(), OneParameterFilter {
 
     override fun onPreDraw(timestampUs: Long, transformMatrix: FloatArray) {
         super.onPreDraw(timestampUs, transformMatrix)
+        onPreDrawFused()
+    }
+
+    override fun onPreDrawFused() {
         val channels = floatArrayOf(
             Color.red(tint) / 255f,
             Color.green(tint) / 255f,
@@ -74,6 +79,24 @@ class TintFilter : BaseFilter(), OneParameterFilter {
         checkGlError("glUniform3fv")
     }
 
+    override fun getFusedSource(name: String): String = """
+        uniform vec3 ${name}_tint;
+        vec4 $name(vec4 color) {
+          float avg_color = dot(vec3(${0.21f}, ${0.71f}, ${0.07f}), color.rgb);
+          vec3 new_color = min(0.8 * avg_color + 0.2 * ${name}_tint, 1.0);
+          return vec4(new_color.rgb, color.a);
+        }
+        """.trimIndent()
+
+    override fun onCreateFused(programHandle: Int, name: String) {
+        tintLocation = GLES20.glGetUniformLocation(programHandle, "${name}_tint")
+        checkGlProgramLocation(tintLocation, "${name}_tint")
+    }
+
+    override fun onDestroyFused() {
+        tintLocation = -1
+    }
+
     override val fragmentShader: String = """
         #extension GL_OES_EGL_image_external : require
         precision mediump float;
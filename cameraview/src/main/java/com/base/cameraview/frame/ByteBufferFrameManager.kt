@@ -1,8 +1,8 @@
 package com.base.cameraview.frame
 
 import com.base.cameraview.engine.offset.Angles
+import com.base.cameraview.internal.RingBuffer
 import com.base.cameraview.size.Size
-import java.util.concurrent.LinkedBlockingQueue
 
 
 class ByteBufferFrameManager(poolSize: Int, callback: BufferCallback?) :
@@ -11,7 +11,7 @@ class ByteBufferFrameManager(poolSize: Int, callback: BufferCallback?) :
         ByteArray::class.java as Class<ByteArray?>
     ) {
     private val mBufferMode: Int
-    private var mBufferQueue: LinkedBlockingQueue<ByteArray?>? = null
+    private var mBufferQueue: RingBuffer<ByteArray>? = null
     private var mBufferCallback: BufferCallback? = null
 
     /**
@@ -25,7 +25,7 @@ class ByteBufferFrameManager(poolSize: Int, callback: BufferCallback?) :
             mBufferCallback = callback
             mBufferMode = BUFFER_MODE_DISPATCH
         } else {
-            mBufferQueue = LinkedBlockingQueue<ByteArray?>(poolSize)
+            mBufferQueue = RingBuffer(poolSize)
             mBufferMode = BUFFER_MODE_ENQUEUE
         }
     }
@@ -91,7 +91,7 @@ class ByteBufferFrameManager(poolSize: Int, callback: BufferCallback?) :
         }
     }
 
-    override fun onCloneFrameData(data: ByteArray?): ByteArray? {
+    override fun onCloneFrameData(data: ByteArray?): Any {
         val clone = ByteArray(data?.size ?: 0)
         if (data != null) {
             System.arraycopy(data, 0, clone, 0, data.size)
@@ -3,20 +3,24 @@ package com.base.cameraview.frame
 import android.annotation.SuppressLint
 import com.base.cameraview.CameraLogger
 import com.base.cameraview.size.Size
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * A preview frame to be processed by [FrameProcessor]s.
  */
-class Frame internal constructor(private val mManager: FrameManager<Any?>) {
+class Frame internal constructor(
+    private val mManager: FrameManager<Any?>,
     /**
      * Returns the class returned by [.getData].
      * This class depends on the engine that produced this frame.
      * - [Engine.CAMERA1] will produce byte[] arrays
-     * - [Engine.CAMERA2] will produce [android.media.Image]s
+     * - [Engine.CAMERA2] will produce [android.media.Image]s, but frames that
+     *   [freeze] had to copy hold NV21 byte[] arrays instead
      *
      * @return the data class
      */
     val dataClass: Class<*> = mManager.frameDataClass
+) {
 
     private var mData: Any? = null
     private var mTime: Long = -1
@@ -25,6 +29,10 @@ class Frame internal constructor(private val mManager: FrameManager<Any?>) {
     private var mViewRotation = 0
     private var mSize: Size? = null
     private var mFormat = -1
+    private val mRefCount = AtomicInteger(0)
+
+    // For frames returned by a pinned freeze(): the frame that owns the data.
+    private var mSource: Frame? = null
 
     fun setContent(
         data: Any, time: Long, userRotation: Int, viewRotation: Int,
@@ -37,6 +45,7 @@ class Frame internal constructor(private val mManager: FrameManager<Any?>) {
         mViewRotation = viewRotation
         mSize = size
         mFormat = format
+        mRefCount.set(1)
     }
 
     private fun hasContent(): Boolean {
@@ -61,30 +70,71 @@ class Frame internal constructor(private val mManager: FrameManager<Any?>) {
     }
 
     /**
-     * Clones the frame, returning a frozen content that will not be overwritten.
+     * Returns a frozen frame, whose content will not be overwritten.
      * This can be kept or safely passed to other threads.
      * Using freeze without clearing with [.release] can result in memory leaks.
      *
+     * The frozen frame is always a new instance, owning one reference: call [release] on
+     * it once. If the [FrameManager] pin budget allows it, no copy is made: the frozen
+     * frame shares the data of this one, whose buffer stays out of the pool until the
+     * frozen frame is released. Otherwise, the frame data is copied. For Camera2 frames,
+     * the copy is an NV21 byte[] array, see [dataClass].
+     *
      * @return a frozen Frame
+     * @see FrameManager.pinBudget
      */
     @SuppressLint("NewApi")
     fun freeze(): Frame {
         ensureHasContent()
-        val other = Frame(mManager)
-        val data: Any = mManager.cloneFrameData(getData())!!
-        other.setContent(data, mTime, mUserRotation, mViewRotation, mSize!!, mFormat)
+        if (mManager.tryPin()) {
+            retain()
+            val pinned = Frame(mManager, dataClass)
+            pinned.setContent(mData!!, mTime, mUserRotation, mViewRotation, mSize!!, mFormat)
+            pinned.mSource = this
+            return pinned
+        }
+        val data: Any = mManager.cloneFrameData(getData())
+        val other = Frame(mManager, mManager.frozenDataClass)
+        other.setContent(data, mTime, mUserRotation, mViewRotation, mSize!!,
+            mManager.getFrozenFormat(mFormat))
         return other
     }
 
+    /**
+     * Adds references to this frame, so that its contents stay valid until
+     * [release] is called once for each reference, plus once for the original owner.
+     * This can be used to share the same frame between threads without copying it.
+     *
+     * @param count the number of references to add
+     * @return this frame
+     */
+    @JvmOverloads
+    fun retain(count: Int = 1): Frame {
+        ensureHasContent()
+        mRefCount.addAndGet(count)
+        return this
+    }
+
     /**
      * Disposes the contents of this frame. Can be useful for frozen frames
-     * that are not useful anymore.
+     * that are not useful anymore. If the frame was retained through [retain],
+     * contents are disposed only when the last reference is released.
+     * Extra calls are ignored.
      */
     fun release() {
         if (!hasContent()) return
-        LOG.v("Frame with time", mTime, "is being released.")
+        if (mRefCount.decrementAndGet() != 0) return
+        LOG.v { "Frame with time $mTime is being released." }
         val data = mData
         mData = null
+        val source = mSource
+        if (source != null) {
+            // Pinned frames only hold a reference to their source.
+            mSource = null
+            mManager.unpin()
+            source.release()
+            return
+        }
         mUserRotation = 0
         mViewRotation = 0
         mTime = -1
@@ -0,0 +1,45 @@
+package com.base.cameraview.frame
+
+/**
+ * Defines what happens to new [Frame]s when [FrameProcessor]s are slower
+ * than the preview stream.
+ *
+ * @see com.base.cameraview.CameraView.setFrameProcessingDispatchPolicy
+ */
+enum class FrameDispatchPolicy(val value: Int) {
+    /**
+     * Every frame is queued for processing, without bounds. When processors are slow,
+     * frames pile up until the frame pool is exhausted and the camera stops producing.
+     */
+    QUEUE(0),
+
+    /**
+     * Only the most recent frame is kept waiting. When a new frame arrives,
+     * any frame that was not picked up yet is released and counted as dropped.
+     */
+    LATEST(1),
+
+    /**
+     * Frames are kept in a bounded queue. When the queue is full,
+     * the oldest frame is released and counted as dropped.
+     *
+     * @see com.base.cameraview.CameraView.setFrameProcessingQueueSize
+     */
+    DROP_OLDEST(2);
+
+    companion object {
+        @JvmField
+        val DEFAULT: FrameDispatchPolicy = QUEUE
+
+        @JvmStatic
+        fun fromValue(value: Int): FrameDispatchPolicy {
+            val list = FrameDispatchPolicy.entries.toTypedArray()
+            for (action in list) {
+                if (action.value == value) {
+                    return action
+                }
+            }
+            return DEFAULT
+        }
+    }
+}
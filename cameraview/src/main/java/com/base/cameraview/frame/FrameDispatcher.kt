@@ -0,0 +1,403 @@
+package com.base.cameraview.frame
+
+import com.base.cameraview.CameraLogger
+import com.base.cameraview.internal.RingBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Moves [Frame]s from the camera engine to the registered [FrameProcessor]s,
+ * according to a [FrameDispatchPolicy].
+ *
+ * With [FrameDispatchPolicy.LATEST] and [FrameDispatchPolicy.DROP_OLDEST], frames wait
+ * in a bounded [RingBuffer] and are drained by at most [executors] workers. Frames that
+ * are evicted from the queue are released right away, so they go back to the
+ * [FrameManager] pool and the camera can keep producing fresh ones.
+ *
+ * Each processor can also be throttled to a max rate through [setMaxFps].
+ *
+ * When [isParallel] is true, each processor runs on its own lane, so a slow processor
+ * does not stall the others. All lanes share the same [Frame], which is retained once
+ * per lane and goes back to the pool after the last lane releases it.
+ *
+ * @param processors the processors list, read each time a frame is processed
+ */
+class FrameDispatcher(private val processors: List<FrameProcessor>) {
+
+    private val mLock = Any()
+    private var mPolicy = FrameDispatchPolicy.DEFAULT
+    private var mQueueSize = DEFAULT_QUEUE_SIZE
+
+    @Volatile
+    private var mPending: RingBuffer<Frame>? = null
+    private var mExecutor: Executor? = null
+
+    @Volatile
+    private var mExecutors = 0
+    private val mActiveWorkers = AtomicInteger(0)
+    private val mThrottles = ConcurrentHashMap<FrameProcessor, Throttle>()
+    private val mLanes = ConcurrentHashMap<FrameProcessor, Lane>()
+
+    /**
+     * Whether processors should run concurrently, each on its own lane.
+     * When false, processors run one after the other on the same worker.
+     */
+    @Volatile
+    var isParallel: Boolean = false
+
+    private val mDispatched = AtomicLong(0)
+    private val mProcessed = AtomicLong(0)
+    private val mDropped = AtomicLong(0)
+    private val mThrottled = AtomicLong(0)
+    private val mLaneSkipped = AtomicLong(0)
+    private val mMaxQueueDepth = AtomicInteger(0)
+
+    /**
+     * The number of threads that can process frames at the same time.
+     */
+    var executors: Int
+        get() = mExecutors
+        set(executors) {
+            require(executors >= 1) { "Need at least 1 executor, got $executors" }
+            val executor = ThreadPoolExecutor(
+                executors, executors, 4, TimeUnit.SECONDS,
+                LinkedBlockingQueue()
+            ) { r -> Thread(r, "FrameExecutor #" + THREAD_COUNT.getAndIncrement()) }
+            executor.allowCoreThreadTimeOut(true)
+            synchronized(mLock) {
+                mExecutor = executor
+                mExecutors = executors
+            }
+        }
+
+    /**
+     * The current dispatch policy.
+     */
+    var policy: FrameDispatchPolicy
+        get() = mPolicy
+        set(policy) {
+            synchronized(mLock) {
+                if (mPolicy == policy) return
+                mPolicy = policy
+                onQueueChanged()
+            }
+        }
+
+    /**
+     * The max number of frames waiting for processing
+     * when using [FrameDispatchPolicy.DROP_OLDEST].
+     */
+    var queueSize: Int
+        get() = mQueueSize
+        set(queueSize) {
+            require(queueSize >= 1) { "Need a queue size of at least 1, got $queueSize" }
+            synchronized(mLock) {
+                if (mQueueSize == queueSize) return
+                mQueueSize = queueSize
+                onQueueChanged()
+            }
+        }
+
+    private fun onQueueChanged() {
+        val old = mPending
+        mPending = when (mPolicy) {
+            FrameDispatchPolicy.QUEUE -> null
+            FrameDispatchPolicy.LATEST -> RingBuffer(1)
+            FrameDispatchPolicy.DROP_OLDEST -> RingBuffer(mQueueSize)
+        }
+        if (old != null) {
+            // These were never processed. Release them so they go back to the pool.
+            var frame = old.poll()
+            while (frame != null) {
+                mDropped.incrementAndGet()
+                frame.release()
+                frame = old.poll()
+            }
+        }
+    }
+
+    /**
+     * Limits the rate at which the given processor receives frames.
+     * Frames that arrive too early are simply skipped for this processor.
+     *
+     * @param processor the processor
+     * @param maxFps    the max frames per second, or 0 to remove the limit
+     */
+    fun setMaxFps(processor: FrameProcessor, maxFps: Float) {
+        if (maxFps <= 0F) {
+            mThrottles.remove(processor)
+        } else {
+            mThrottles[processor] = Throttle((1000F / maxFps).toLong())
+        }
+    }
+
+    /**
+     * Creates the lane of the given processor. Lanes start their thread on first use.
+     *
+     * @param processor the added processor
+     */
+    fun onProcessorAdded(processor: FrameProcessor) {
+        mLanes.getOrPut(processor) { Lane() }
+    }
+
+    /**
+     * Forgets everything about the given processor: its rate limit and its lane.
+     *
+     * @param processor the removed processor
+     */
+    fun onProcessorRemoved(processor: FrameProcessor) {
+        mThrottles.remove(processor)
+        mLanes.remove(processor)?.shutdown()
+    }
+
+    /**
+     * Forgets everything about all processors.
+     */
+    fun onProcessorsCleared() {
+        mThrottles.clear()
+        for (lane in mLanes.values) lane.shutdown()
+        mLanes.clear()
+    }
+
+    /**
+     * Returns the max rate set through [setMaxFps], or 0 if not throttled.
+     *
+     * @param processor the processor
+     * @return the max frames per second
+     */
+    fun getMaxFps(processor: FrameProcessor): Float {
+        val throttle = mThrottles[processor] ?: return 0F
+        return if (throttle.intervalMillis == 0L) 0F else 1000F / throttle.intervalMillis
+    }
+
+    /**
+     * Dispatches a new frame. The frame will be released after all processors
+     * have seen it, or when it gets dropped.
+     *
+     * @param frame the frame
+     */
+    fun dispatch(frame: Frame) {
+        mDispatched.incrementAndGet()
+        val executor: Executor
+        synchronized(mLock) {
+            executor = mExecutor!!
+            val pending = mPending
+            if (pending == null) {
+                executor.execute { process(frame) }
+                return
+            }
+            while (!pending.offer(frame)) {
+                val oldest = pending.poll()
+                if (oldest != null) {
+                    LOG.v { "dispatch: dropping frame ${oldest.time} in favor of ${frame.time}" }
+                    mDropped.incrementAndGet()
+                    oldest.release()
+                }
+            }
+            val depth = pending.size()
+            if (depth > mMaxQueueDepth.get()) mMaxQueueDepth.set(depth)
+        }
+        if (tryAcquireWorker()) {
+            executor.execute { drain() }
+        }
+    }
+
+    private fun tryAcquireWorker(): Boolean {
+        while (true) {
+            val active = mActiveWorkers.get()
+            if (active >= mExecutors) return false
+            if (mActiveWorkers.compareAndSet(active, active + 1)) return true
+        }
+    }
+
+    private fun drain() {
+        while (true) {
+            val frame = mPending?.poll()
+            if (frame != null) {
+                process(frame)
+                continue
+            }
+            mActiveWorkers.decrementAndGet()
+            // A frame might have been offered after our poll, but before the decrement,
+            // while all workers looked busy. Make sure someone picks it up.
+            val pending = mPending
+            if (pending == null || pending.isEmpty || !tryAcquireWorker()) return
+        }
+    }
+
+    private fun process(frame: Frame) {
+        if (isParallel) {
+            fanOut(frame)
+            return
+        }
+        val time = frame.time
+        LOG.v { "process: passing $time to processors." }
+        for (processor in processors) {
+            if (!accept(processor, time)) continue
+            invoke(processor, frame)
+        }
+        mProcessed.incrementAndGet()
+        frame.release()
+    }
+
+    private fun fanOut(frame: Frame) {
+        val time = frame.time
+        LOG.v { "fanOut: passing $time to processor lanes." }
+        // With bounded policies, a lane that is still busy skips this frame instead of
+        // queueing it: processors always get fresh frames and the frame goes back sooner.
+        val skipBusy = mPolicy != FrameDispatchPolicy.QUEUE
+        // Hold one reference while submitting, so that fast lanes
+        // can not release the frame before all lanes have it.
+        for (processor in processors) {
+            // No lane means the processor was just removed.
+            val lane = mLanes[processor] ?: continue
+            if (!accept(processor, time)) continue
+            if (skipBusy && lane.isBusy) {
+                mLaneSkipped.incrementAndGet()
+                continue
+            }
+            frame.retain()
+            val submitted = lane.execute {
+                invoke(processor, frame)
+                frame.release()
+            }
+            if (!submitted) frame.release()
+        }
+        mProcessed.incrementAndGet()
+        frame.release()
+    }
+
+    private fun accept(processor: FrameProcessor, time: Long): Boolean {
+        val throttle = mThrottles[processor] ?: return true
+        if (throttle.accept(time)) return true
+        mThrottled.incrementAndGet()
+        return false
+    }
+
+    private fun invoke(processor: FrameProcessor, frame: Frame) {
+        try {
+            processor.process(frame)
+        } catch (e: Exception) {
+            LOG.w("Frame processor crashed:", e)
+        }
+    }
+
+    /**
+     * Releases all frames that are waiting to be processed.
+     */
+    fun clear() {
+        val pending = mPending ?: return
+        var frame = pending.poll()
+        while (frame != null) {
+            mDropped.incrementAndGet()
+            frame.release()
+            frame = pending.poll()
+        }
+    }
+
+    /**
+     * Returns the current dispatch metrics.
+     *
+     * @return the stats
+     */
+    fun getStats(): Stats {
+        return Stats(
+            mPending?.size() ?: 0,
+            mMaxQueueDepth.get(),
+            mDispatched.get(),
+            mProcessed.get(),
+            mDropped.get(),
+            mThrottled.get(),
+            mLaneSkipped.get()
+        )
+    }
+
+    /**
+     * Frame dispatching metrics.
+     *
+     * @param queueDepth    frames currently waiting for a worker
+     * @param maxQueueDepth the max value of [queueDepth] so far
+     * @param dispatched    frames received from the engine
+     * @param processed     frames that were passed to processors
+     * @param dropped       frames released without being processed
+     * @param throttled     single processor invocations skipped because of [setMaxFps]
+     * @param laneSkipped   single processor invocations skipped because its lane was busy
+     */
+    data class Stats(
+        val queueDepth: Int,
+        val maxQueueDepth: Int,
+        val dispatched: Long,
+        val processed: Long,
+        val dropped: Long,
+        val throttled: Long,
+        val laneSkipped: Long
+    )
+
+    /**
+     * A single-threaded executor dedicated to one processor.
+     */
+    private class Lane {
+        private val mPending = AtomicInteger(0)
+        private val mExecutor = ThreadPoolExecutor(
+            1, 1, 4, TimeUnit.SECONDS,
+            LinkedBlockingQueue()
+        ) { r -> Thread(r, "FrameLane #" + LANE_COUNT.getAndIncrement()) }
+
+        init {
+            mExecutor.allowCoreThreadTimeOut(true)
+        }
+
+        val isBusy: Boolean
+            get() = mPending.get() > 0
+
+        fun execute(task: Runnable): Boolean {
+            mPending.incrementAndGet()
+            try {
+                mExecutor.execute {
+                    try {
+                        task.run()
+                    } finally {
+                        mPending.decrementAndGet()
+                    }
+                }
+                return true
+            } catch (e: RejectedExecutionException) {
+                // The processor was removed in the meantime.
+                mPending.decrementAndGet()
+                return false
+            }
+        }
+
+        fun shutdown() {
+            // Already submitted tasks still run, so their frames are released.
+            mExecutor.shutdown()
+        }
+    }
+
+    private class Throttle(val intervalMillis: Long) {
+        private val mLastTime = AtomicLong(Long.MIN_VALUE)
+
+        fun accept(time: Long): Boolean {
+            while (true) {
+                val last = mLastTime.get()
+                if (last != Long.MIN_VALUE && time - last < intervalMillis) return false
+                if (mLastTime.compareAndSet(last, time)) return true
+            }
+        }
+    }
+
+    companion object {
+        private val TAG: String = FrameDispatcher::class.java.simpleName
+        private val LOG: CameraLogger = CameraLogger.create(TAG)
+        private val THREAD_COUNT = AtomicInteger(1)
+        private val LANE_COUNT = AtomicInteger(1)
+
+        const val DEFAULT_QUEUE_SIZE: Int = 2
+    }
+}
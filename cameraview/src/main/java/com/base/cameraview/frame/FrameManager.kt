@@ -5,8 +5,10 @@ import com.base.cameraview.CameraLogger
 import com.base.cameraview.engine.offset.Angles
 import com.base.cameraview.engine.offset.Axis
 import com.base.cameraview.engine.offset.Reference
+import com.base.cameraview.internal.RecycleStats
+import com.base.cameraview.internal.RingBuffer
 import com.base.cameraview.size.Size
-import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.math.ceil
 
 
@@ -46,11 +48,43 @@ abstract class FrameManager<T> protected constructor(
         private set
     private var mFrameSize: Size? = null
     private var mFrameFormat = -1
-    private val mFrameQueue: LinkedBlockingQueue<Frame?> = LinkedBlockingQueue<Frame?>(
-        this.poolSize
-    )
+    private val mFrameQueue: RingBuffer<Frame> = RingBuffer(this.poolSize)
     private var mAngles: Angles? = null
 
+    /**
+     * Returns the recycling counters for this manager. Hits are frames served
+     * from the pool, misses are camera frames dropped because no [Frame] was available,
+     * drops are released frames that could not go back to the pool.
+     *
+     * @return the recycle stats
+     */
+    val recycleStats: RecycleStats = RecycleStats()
+
+    private val mPinned = AtomicInteger(0)
+
+    /**
+     * The max number of frames that [Frame.freeze] can pin at the same time.
+     * A pinned frame keeps its buffer out of the pool instead of copying it,
+     * so this should stay below [poolSize] to leave frames for the camera.
+     * When the budget is exhausted, [Frame.freeze] falls back to copying, into
+     * data of class [frozenDataClass]. Frames pinned before [release] keep their
+     * budget until they are released, even after a new [setUp].
+     * Defaults to [poolSize] - 1. Use 0 to always copy.
+     */
+    var pinBudget: Int = (poolSize - 1).coerceAtLeast(0)
+        set(value) {
+            require(value >= 0) { "pinBudget should be >= 0, got $value" }
+            field = value
+        }
+
+    /**
+     * Returns the number of frames currently pinned by [Frame.freeze].
+     *
+     * @return pinned frames
+     */
+    val pinnedCount: Int
+        get() = mPinned.get()
+
     /**
      * Allocates a [.mPoolSize] number of buffers. Should be called once
      * the preview size and the image format value are known.
@@ -104,7 +138,8 @@ abstract class FrameManager<T> protected constructor(
 
         val frame = mFrameQueue.poll()
         if (frame != null) {
-            LOG.v("getFrame for time:", time, "RECYCLING.")
+            recycleStats.hit()
+            LOG.v { "getFrame for time: $time RECYCLING." }
             val userRotation = mAngles!!.offset(
                 Reference.SENSOR, Reference.OUTPUT,
                 Axis.RELATIVE_TO_SENSOR
@@ -116,7 +151,8 @@ abstract class FrameManager<T> protected constructor(
             frame.setContent(data!!, time, userRotation, viewRotation, mFrameSize!!, mFrameFormat)
             return frame
         } else {
-            LOG.i("getFrame for time:", time, "NOT AVAILABLE.")
+            recycleStats.miss()
+            LOG.i { "getFrame for time: $time NOT AVAILABLE." }
             onFrameDataReleased(data, false)
             return null
         }
@@ -128,10 +164,16 @@ abstract class FrameManager<T> protected constructor(
      * @param frame the released frame
      */
     fun onFrameReleased(frame: Frame, data: T) {
+        if (frame.dataClass !== frameDataClass) {
+            // A copy made by freeze(), it does not belong to the pool.
+            onFrozenDataReleased(data as Any)
+            return
+        }
         if (!this.isSetUp) return
         // If frame queue is full, let's drop everything.
         // If frame queue accepts this frame, let's recycle the buffer as well.
         val recycled = mFrameQueue.offer(frame)
+        if (!recycled) recycleStats.drop()
         onFrameDataReleased(data, recycled)
     }
 
@@ -146,11 +188,54 @@ abstract class FrameManager<T> protected constructor(
      */
     protected abstract fun onFrameDataReleased(data: T, recycled: Boolean)
 
-    fun cloneFrameData(data: T): T {
+    /**
+     * Tries to take one unit of the [pinBudget].
+     *
+     * @return true if the frame can be pinned
+     */
+    internal fun tryPin(): Boolean {
+        while (true) {
+            val pinned = mPinned.get()
+            if (pinned >= pinBudget) return false
+            if (mPinned.compareAndSet(pinned, pinned + 1)) return true
+        }
+    }
+
+    /**
+     * Gives back the unit of the [pinBudget] taken through [tryPin].
+     */
+    internal fun unpin() {
+        mPinned.decrementAndGet()
+    }
+
+    /**
+     * Returns the class of the data copied by [cloneFrameData]. Defaults to [frameDataClass].
+     */
+    open val frozenDataClass: Class<*>
+        get() = frameDataClass
+
+    /**
+     * Returns the format of the data copied by [cloneFrameData].
+     *
+     * @param format the format of the frame
+     * @return the format of the copy
+     */
+    open fun getFrozenFormat(format: Int): Int = format
+
+    fun cloneFrameData(data: T): Any {
         return onCloneFrameData(data)
     }
 
-    protected abstract fun onCloneFrameData(data: T): T
+    protected abstract fun onCloneFrameData(data: T): Any
+
+    /**
+     * Called when a frame holding data copied by [cloneFrameData] is released, if the
+     * copy has a different class than [frameDataClass]. Copies of the same class go back
+     * to the pool through [onFrameDataReleased] instead.
+     *
+     * @param data the copied data
+     */
+    protected open fun onFrozenDataReleased(data: Any) {}
 
     /**
      * Releases all frames controlled by this manager and
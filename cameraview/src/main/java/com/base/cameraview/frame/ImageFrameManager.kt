@@ -1,11 +1,28 @@
 package com.base.cameraview.frame
 
+import android.graphics.ImageFormat
 import android.media.Image
+import com.base.cameraview.internal.RingBuffer
 
+/**
+ * Frame manager for Camera2 [Image]s.
+ *
+ * Images can't be copied, so when [Frame.freeze] runs out of [pinBudget], the YUV planes
+ * are copied into an NV21 byte array instead: frozen copies have a [Frame.dataClass] of
+ * byte[] and a [Frame.format] of [ImageFormat.NV21]. Arrays go back to a small pool
+ * when the frozen frame is released.
+ */
 class ImageFrameManager(poolSize: Int) : FrameManager<Image?>(
     poolSize,
     Image::class.java as Class<Image?>
 ) {
+    private val mCopies = RingBuffer<ByteArray>(poolSize)
+
+    override val frozenDataClass: Class<*>
+        get() = ByteArray::class.java
+
+    override fun getFrozenFormat(format: Int): Int = ImageFormat.NV21
+
     override fun onFrameDataReleased(data: Image?, recycled: Boolean) {
         try {
             data?.close()
@@ -13,11 +30,60 @@ class ImageFrameManager(poolSize: Int) : FrameManager<Image?>(
         }
     }
 
-    override fun onCloneFrameData(data: Image?): Image {
-        throw RuntimeException(
-            "Cannot freeze() an Image Frame. " +
-                    "Please consider using the frame synchronously in your process() method, " +
-                    "which also gives better performance."
-        )
+    override fun onCloneFrameData(data: Image?): Any {
+        val image = data!!
+        val width = image.width
+        val height = image.height
+        val lumaSize = width * height
+        val size = lumaSize * 3 / 2
+        var copy = mCopies.poll()
+        // Arrays of a previous setUp might have a different size.
+        while (copy != null && copy.size != size) copy = mCopies.poll()
+        if (copy == null) copy = ByteArray(size)
+        val planes = image.planes
+        copyPlane(planes[0], width, height, copy, 0, 1)
+        // NV21 interleaves chroma as V, U.
+        copyPlane(planes[2], width / 2, height / 2, copy, lumaSize, 2)
+        copyPlane(planes[1], width / 2, height / 2, copy, lumaSize + 1, 2)
+        return copy
+    }
+
+    override fun onFrozenDataReleased(data: Any) {
+        if (isSetUp) mCopies.offer(data as ByteArray)
+    }
+
+    override fun release() {
+        super.release()
+        mCopies.clear()
+    }
+
+    // Copies a plane of the given size into output, writing a byte every outStride bytes.
+    private fun copyPlane(
+        plane: Image.Plane, width: Int, height: Int,
+        output: ByteArray, offset: Int, outStride: Int
+    ) {
+        val buffer = plane.buffer.duplicate()
+        val rowStride = plane.rowStride
+        val pixelStride = plane.pixelStride
+        var position = offset
+        if (pixelStride == 1 && outStride == 1) {
+            for (y in 0..<height) {
+                buffer.position(y * rowStride)
+                buffer.get(output, position, width)
+                position += width
+            }
+            return
+        }
+        // The last row can be shorter than rowStride.
+        val row = ByteArray(rowStride)
+        for (y in 0..<height) {
+            val start = y * rowStride
+            buffer.position(start)
+            buffer.get(row, 0, minOf(rowStride, buffer.limit() - start))
+            for (x in 0..<width) {
+                output[position] = row[x * pixelStride]
+                position += outStride
+            }
+        }
     }
 }
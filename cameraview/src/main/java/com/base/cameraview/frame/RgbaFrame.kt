@@ -0,0 +1,42 @@
+package com.base.cameraview.frame
+
+import java.nio.ByteBuffer
+
+/**
+ * A downscaled RGBA preview frame, to be processed by [RgbaFrameProcessor]s.
+ *
+ * Pixels are stored row by row, starting from the top-left corner, 4 bytes per pixel.
+ * The frame is already rotated to match the preview as displayed on screen.
+ *
+ * The frame contents are only valid for the duration of [RgbaFrameProcessor.process],
+ * after which the buffer will be reused for another frame.
+ */
+class RgbaFrame internal constructor(
+    /**
+     * Returns the pixels buffer, positioned at 0.
+     *
+     * @return the pixels buffer
+     */
+    val buffer: ByteBuffer,
+    /**
+     * Returns the frame width in pixels.
+     *
+     * @return the width
+     */
+    val width: Int,
+    /**
+     * Returns the frame height in pixels.
+     *
+     * @return the height
+     */
+    val height: Int
+) {
+    /**
+     * Returns the frame timestamp in microseconds,
+     * in the [android.graphics.SurfaceTexture.getTimestamp] reference.
+     *
+     * @return the timestamp
+     */
+    var timestampUs: Long = -1
+        internal set
+}
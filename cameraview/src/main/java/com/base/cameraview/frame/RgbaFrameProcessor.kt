@@ -0,0 +1,20 @@
+package com.base.cameraview.frame
+
+import androidx.annotation.WorkerThread
+
+/**
+ * A RgbaFrameProcessor will process downscaled [RgbaFrame]s coming from the
+ * GL preview renderer. No color conversion or resizing is needed on the CPU.
+ *
+ * @see com.base.cameraview.CameraView.addRgbaFrameProcessor
+ */
+interface RgbaFrameProcessor {
+    /**
+     * Processes the given frame. The frame will hold the correct values only for the
+     * duration of this method. When it returns, the frame buffer will be reused.
+     *
+     * @param frame the new frame
+     */
+    @WorkerThread
+    fun process(frame: RgbaFrame)
+}
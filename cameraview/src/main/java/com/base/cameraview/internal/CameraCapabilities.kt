@@ -0,0 +1,196 @@
+package com.base.cameraview.internal
+
+import android.content.Context
+import android.hardware.Camera
+import android.hardware.camera2.CameraCharacteristics
+import android.hardware.camera2.CameraManager
+import android.media.MediaCodecInfo
+import android.media.MediaCodecList
+import com.base.cameraview.CameraLogger
+import com.base.cameraview.size.Size
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A process-wide cache of static device capabilities: camera ids, Camera2 characteristics
+ * and output sizes, Camera1 infos and the list of device encoders.
+ *
+ * These never change for a given camera, but probing them takes tens of milliseconds on
+ * some devices, and used to happen every time the camera was opened and every time a
+ * video was started. Values are computed lazily on first use, or in parallel on background
+ * threads with [prewarm]. Concurrent requests for the same value wait for a single probe.
+ *
+ * Only the camera id list can change (external cameras): it is re-read when
+ * [invalidateCameraIds] is called.
+ */
+object CameraCapabilities {
+    private val LOG: CameraLogger = CameraLogger.create(CameraCapabilities::class.java.simpleName)
+
+    private val mPrewarmed = AtomicBoolean(false)
+
+    @Volatile
+    private var mCameraIds: Array<String>? = null
+    private val mCharacteristics = ConcurrentHashMap<String, CameraCharacteristics>()
+    private val mOutputSizes = ConcurrentHashMap<String, List<Size>>()
+
+    @Volatile
+    private var mCamera1Count = -1
+    private val mCamera1Infos = ConcurrentHashMap<Int, Camera.CameraInfo>()
+
+    @Volatile
+    private var mEncoders: List<MediaCodecInfo>? = null
+    private val mEncodersLock = Any()
+
+    /**
+     * Starts probing cameras and encoders on two background threads, if not done already.
+     * Can be called early, for example when the app starts, to make the first camera
+     * start faster.
+     *
+     * @param context a context
+     */
+    @JvmStatic
+    fun prewarm(context: Context) {
+        if (!mPrewarmed.compareAndSet(false, true)) return
+        val manager = context.applicationContext
+            .getSystemService(Context.CAMERA_SERVICE) as CameraManager
+        probe("CameraCapabilities") {
+            for (cameraId in getCameraIds(manager)) {
+                getCharacteristics(manager, cameraId)
+            }
+        }
+        probe("EncoderCapabilities") { getEncoders() }
+    }
+
+    private fun probe(name: String, block: () -> Unit) {
+        val worker = WorkerHandler.get(name)
+        worker.post {
+            val start = System.currentTimeMillis()
+            try {
+                block()
+                LOG.i("prewarm:", name, "took", System.currentTimeMillis() - start, "ms")
+            } catch (e: Exception) {
+                LOG.w("prewarm:", name, "failed.", e)
+            }
+            worker.destroy()
+        }
+    }
+
+    /**
+     * Returns the Camera2 camera ids.
+     *
+     * @param manager the camera manager
+     * @return the ids
+     */
+    @JvmStatic
+    fun getCameraIds(manager: CameraManager): Array<String> {
+        return mCameraIds ?: manager.cameraIdList.also { mCameraIds = it }
+    }
+
+    /**
+     * Forgets the camera id list, so that it is read again. Characteristics of known
+     * cameras are kept.
+     */
+    @JvmStatic
+    fun invalidateCameraIds() {
+        mCameraIds = null
+    }
+
+    /**
+     * Returns the characteristics of the given Camera2 camera.
+     * Throws the same exceptions as [CameraManager.getCameraCharacteristics].
+     *
+     * @param manager  the camera manager
+     * @param cameraId the camera id
+     * @return the characteristics
+     */
+    @JvmStatic
+    fun getCharacteristics(manager: CameraManager, cameraId: String): CameraCharacteristics {
+        return mCharacteristics.computeIfAbsent(cameraId) {
+            manager.getCameraCharacteristics(it)
+        }
+    }
+
+    /**
+     * Returns the distinct output sizes of the given Camera2 camera for the given format.
+     *
+     * @param manager  the camera manager
+     * @param cameraId the camera id
+     * @param format   the image format
+     * @return the sizes, which should not be modified
+     */
+    @JvmStatic
+    fun getOutputSizes(manager: CameraManager, cameraId: String, format: Int): List<Size> {
+        return mOutputSizes.computeIfAbsent("$cameraId:$format") {
+            toSizes(streamMap(manager, cameraId).getOutputSizes(format))
+        }
+    }
+
+    /**
+     * Returns the distinct output sizes of the given Camera2 camera for the given
+     * output class, like SurfaceTexture.
+     *
+     * @param manager  the camera manager
+     * @param cameraId the camera id
+     * @param klass    the output class
+     * @return the sizes, which should not be modified
+     */
+    @JvmStatic
+    fun getOutputSizes(manager: CameraManager, cameraId: String, klass: Class<*>): List<Size> {
+        return mOutputSizes.computeIfAbsent("$cameraId:${klass.name}") {
+            toSizes(streamMap(manager, cameraId).getOutputSizes(klass))
+        }
+    }
+
+    private fun streamMap(manager: CameraManager, cameraId: String) =
+        getCharacteristics(manager, cameraId)
+            .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
+            ?: throw RuntimeException("StreamConfigurationMap is null. Should not happen.")
+
+    private fun toSizes(sizes: Array<android.util.Size>?): List<Size> {
+        if (sizes == null) return emptyList()
+        val candidates = LinkedHashSet<Size>(sizes.size)
+        for (size in sizes) candidates.add(Size(size.width, size.height))
+        return candidates.toList()
+    }
+
+    /**
+     * Returns the number of Camera1 cameras.
+     *
+     * @return the count
+     */
+    @JvmStatic
+    fun getCamera1Count(): Int {
+        if (mCamera1Count < 0) mCamera1Count = Camera.getNumberOfCameras()
+        return mCamera1Count
+    }
+
+    /**
+     * Returns the info of the given Camera1 camera.
+     *
+     * @param cameraId the camera id
+     * @return the info, which should not be modified
+     */
+    @JvmStatic
+    fun getCamera1Info(cameraId: Int): Camera.CameraInfo {
+        return mCamera1Infos.computeIfAbsent(cameraId) {
+            Camera.CameraInfo().also { info -> Camera.getCameraInfo(cameraId, info) }
+        }
+    }
+
+    /**
+     * Returns all the device encoders, which means excluding decoders.
+     *
+     * @return the encoders, which should not be modified
+     */
+    @JvmStatic
+    fun getEncoders(): List<MediaCodecInfo> {
+        mEncoders?.let { return it }
+        synchronized(mEncodersLock) {
+            mEncoders?.let { return it }
+            val encoders = MediaCodecList(MediaCodecList.REGULAR_CODECS).codecInfos
+                .filter { it.isEncoder }
+            mEncoders = encoders
+            return encoders
+        }
+    }
+}
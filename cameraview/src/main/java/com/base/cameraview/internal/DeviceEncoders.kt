@@ -6,7 +6,6 @@ import android.media.MediaCodec
 import android.media.MediaCodecInfo
 import android.media.MediaCodecInfo.AudioCapabilities
 import android.media.MediaCodecInfo.VideoCapabilities
-import android.media.MediaCodecList
 import android.media.MediaFormat
 import androidx.annotation.VisibleForTesting
 import com.base.cameraview.CameraLogger.Companion.create
@@ -102,17 +101,11 @@ class DeviceEncoders @SuppressLint("NewApi") constructor(
     val deviceEncoders: MutableList<MediaCodecInfo>
         /**
          * Collects all the device encoders, which means excluding decoders.
+         * The list is probed once per process by [CameraCapabilities].
          *
          * @return encoders
          */
-        get() {
-            val results = ArrayList<MediaCodecInfo>()
-            val array = MediaCodecList(MediaCodecList.REGULAR_CODECS).codecInfos
-            for (info in array) {
-                if (info.isEncoder) results.add(info)
-            }
-            return results
-        }
+        get() = ArrayList(CameraCapabilities.getEncoders())
 
     /**
      * Whether an encoder is a hardware encoder or not. We don't have an API to check this,
@@ -0,0 +1,263 @@
+package com.base.cameraview.internal
+
+import android.graphics.SurfaceTexture
+import android.opengl.GLES20
+import android.opengl.GLES30
+import android.opengl.Matrix
+import com.base.cameraview.CameraLogger
+import com.base.cameraview.filter.Filter
+import com.base.cameraview.frame.RgbaFrame
+import com.base.cameraview.frame.RgbaFrameProcessor
+import com.base.cameraview.preview.RendererFrameCallback
+import com.base.cameraview.preview.RendererThread
+import com.base.cameraview.size.Size
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Renders the preview texture into a small RGBA framebuffer and reads it back,
+ * dispatching the result to [RgbaFrameProcessor]s on a worker thread.
+ *
+ * Reads are double buffered: each frame is drawn into one of two framebuffers, while the
+ * one drawn during the previous frame is read. This gives the GPU a whole frame of time
+ * before we ask for the pixels. On GLES 3 contexts, the read goes through pixel buffer
+ * objects, so glReadPixels returns immediately and the data is mapped one frame later.
+ *
+ * CPU buffers are double buffered too. If processors are still busy with both,
+ * the frame is dropped and no read is performed.
+ */
+class GlFrameReader : RendererFrameCallback {
+
+    private val mProcessors: MutableList<RgbaFrameProcessor> = CopyOnWriteArrayList()
+    private val mWorker = WorkerHandler.get("GlFrameReader")
+
+    @Volatile
+    private var mSize: Size = Size(DEFAULT_WIDTH, DEFAULT_HEIGHT)
+
+    // Renderer thread state
+    private var mTextureDrawer: GlTextureDrawer? = null
+    private var mAllocatedSize: Size? = null
+    private val mTargets = arrayOfNulls<GlFramebufferPool.Target>(2)
+    private val mPixelBuffers = IntArray(2)
+    private var mUsePixelBuffers = false
+    private var mIndex = 0
+    private var mPendingTimeUs = -1L
+    private val mViewport = IntArray(4)
+    private var mOutputs = arrayOfNulls<Output>(2)
+
+    private val mRead = AtomicLong(0)
+    private val mDropped = AtomicLong(0)
+
+    /**
+     * The size of frames passed to processors.
+     */
+    var size: Size
+        get() = mSize
+        set(size) {
+            require(size.width > 0 && size.height > 0) { "Invalid size: $size" }
+            mSize = size
+        }
+
+    /**
+     * Returns the number of frames that were read and passed to processors.
+     */
+    val readCount: Long
+        get() = mRead.get()
+
+    /**
+     * Returns the number of frames that were skipped because processors were busy.
+     */
+    val droppedCount: Long
+        get() = mDropped.get()
+
+    fun addProcessor(processor: RgbaFrameProcessor) {
+        mProcessors.add(processor)
+    }
+
+    fun removeProcessor(processor: RgbaFrameProcessor) {
+        mProcessors.remove(processor)
+    }
+
+    fun clearProcessors() {
+        mProcessors.clear()
+    }
+
+    fun hasProcessors(): Boolean {
+        return mProcessors.isNotEmpty()
+    }
+
+    @RendererThread
+    override fun onRendererTextureCreated(textureId: Int) {
+        // This is a new EGL context: old GL objects, if any, died with the old one.
+        mTextureDrawer = GlTextureDrawer(textureId)
+        mAllocatedSize = null
+        mTargets.fill(null)
+        mPixelBuffers.fill(0)
+        mPendingTimeUs = -1L
+    }
+
+    @RendererThread
+    override fun onRendererFilterChanged(filter: Filter) {
+        // Processors receive unfiltered frames.
+    }
+
+    @RendererThread
+    override fun onRendererFrame(
+        surfaceTexture: SurfaceTexture,
+        rotation: Int,
+        scaleX: Float,
+        scaleY: Float
+    ) {
+        val drawer = mTextureDrawer ?: return
+        if (mProcessors.isEmpty()) {
+            release()
+            return
+        }
+        val size = mSize
+        if (size != mAllocatedSize) {
+            release()
+            allocate(size)
+        }
+
+        // Apply the preview transformations. Crop is not applied: we want the full stream.
+        val transform = drawer.textureTransform
+        surfaceTexture.getTransformMatrix(transform)
+        Matrix.translateM(transform, 0, 0.5F, 0.5F, 0F)
+        Matrix.rotateM(transform, 0, rotation.toFloat(), 0F, 0F, 1F)
+        Matrix.scaleM(transform, 0, 1F, -1F, 1F) // Vertical flip because we'll use glReadPixels
+        Matrix.translateM(transform, 0, -0.5F, -0.5F, 0F)
+
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mViewport, 0)
+        val timeUs = surfaceTexture.timestamp / 1000L
+        val index = mIndex
+        mTargets[index]!!.framebuffer.bind()
+        GLES20.glViewport(0, 0, size.width, size.height)
+        drawer.draw(timeUs)
+        if (mUsePixelBuffers) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[index])
+            GLES30.glReadPixels(
+                0, 0, size.width, size.height,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0
+            )
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0)
+        }
+
+        // Now read the frame drawn during the previous call.
+        val previous = 1 - index
+        if (mPendingTimeUs >= 0) read(previous, size, mPendingTimeUs)
+        mPendingTimeUs = timeUs
+        mIndex = previous
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0)
+        GLES20.glViewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3])
+    }
+
+    @RendererThread
+    private fun read(slot: Int, size: Size, timeUs: Long) {
+        val output = mOutputs.firstOrNull { it!!.busy.compareAndSet(false, true) }
+        if (output == null) {
+            LOG.v("read: processors are busy. Dropping frame", timeUs)
+            mDropped.incrementAndGet()
+            return
+        }
+        val buffer = output.frame.buffer
+        buffer.clear()
+        if (mUsePixelBuffers) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffers[slot])
+            val mapped = GLES30.glMapBufferRange(
+                GLES30.GL_PIXEL_PACK_BUFFER, 0, buffer.capacity(), GLES30.GL_MAP_READ_BIT
+            ) as ByteBuffer?
+            if (mapped != null) {
+                buffer.put(mapped)
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER)
+            }
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0)
+        } else {
+            mTargets[slot]!!.framebuffer.bind()
+            GLES20.glReadPixels(
+                0, 0, size.width, size.height,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer
+            )
+        }
+        buffer.rewind()
+        output.frame.timestampUs = timeUs
+        mWorker.post { dispatch(output) }
+    }
+
+    private fun dispatch(output: Output) {
+        for (processor in mProcessors) {
+            try {
+                output.frame.buffer.rewind()
+                processor.process(output.frame)
+            } catch (e: Exception) {
+                LOG.w("RgbaFrame processor crashed:", e)
+            }
+        }
+        mRead.incrementAndGet()
+        output.busy.set(false)
+    }
+
+    @RendererThread
+    private fun allocate(size: Size) {
+        LOG.i("allocate:", "size:", size)
+        for (i in 0..1) {
+            mTargets[i] = GlFramebufferPool.acquire(size.width, size.height)
+            mOutputs[i] = Output(size)
+        }
+        val bytes = size.width * size.height * 4
+        val version = GLES20.glGetString(GLES20.GL_VERSION)
+        mUsePixelBuffers = version != null && version.startsWith("OpenGL ES 3")
+        if (mUsePixelBuffers) {
+            GLES20.glGenBuffers(2, mPixelBuffers, 0)
+            for (buffer in mPixelBuffers) {
+                GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer)
+                GLES20.glBufferData(
+                    GLES30.GL_PIXEL_PACK_BUFFER, bytes, null, GLES30.GL_STREAM_READ
+                )
+            }
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0)
+        }
+        mAllocatedSize = size
+        mIndex = 0
+        mPendingTimeUs = -1L
+    }
+
+    @RendererThread
+    private fun release() {
+        if (mAllocatedSize == null) return
+        LOG.i("release:", "size:", mAllocatedSize)
+        for (i in 0..1) {
+            mTargets[i]?.let { GlFramebufferPool.recycle(it) }
+            mTargets[i] = null
+        }
+        if (mUsePixelBuffers) {
+            GLES20.glDeleteBuffers(2, mPixelBuffers, 0)
+            mPixelBuffers.fill(0)
+        }
+        // Outputs might still be in use by the worker, which holds its own reference.
+        mOutputs = arrayOfNulls(2)
+        mAllocatedSize = null
+        mPendingTimeUs = -1L
+    }
+
+    private class Output(size: Size) {
+        val busy = AtomicBoolean(false)
+        val frame = RgbaFrame(
+            ByteBuffer.allocateDirect(size.width * size.height * 4)
+                .order(ByteOrder.nativeOrder()),
+            size.width,
+            size.height
+        )
+    }
+
+    companion object {
+        private val TAG: String = GlFrameReader::class.java.simpleName
+        private val LOG: CameraLogger = CameraLogger.create(TAG)
+
+        const val DEFAULT_WIDTH: Int = 320
+        const val DEFAULT_HEIGHT: Int = 240
+    }
+}
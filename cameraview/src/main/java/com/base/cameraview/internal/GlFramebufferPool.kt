@@ -0,0 +1,202 @@
+package com.base.cameraview.internal
+
+import android.opengl.EGL14
+import android.opengl.EGLContext
+import android.opengl.GLES20
+import com.base.cameraview.CameraLogger
+import com.base.cameraview.size.Size
+import com.otaliastudios.opengl.texture.GlFramebuffer
+import com.otaliastudios.opengl.texture.GlTexture
+
+/**
+ * A size-bucketed pool of RGBA textures, each attached to its own framebuffer,
+ * for offscreen drawing passes like [com.base.cameraview.filter.MultiFilter] steps.
+ *
+ * Framebuffers can not be shared between EGL contexts, so each context gets its own pool.
+ * Targets should be acquired and recycled on the thread that owns the context
+ * (for example, the renderer thread). Recycled targets are kept in a bucket for their
+ * size, up to [MAX_IDLE_PER_SIZE] per bucket, so resizing or reordering filters and
+ * taking filtered snapshots in a burst reuse GPU allocations.
+ *
+ * When a context is created or released, [onContextCreated] and [onContextReleased]
+ * should be called so that the pool forgets objects that died with it.
+ *
+ * Each target remembers the context pool it was acquired from. Recycling it while
+ * another context (or none) is current gives its bytes back to that pool, and only
+ * deletes GL objects if the owning context is current and alive.
+ */
+object GlFramebufferPool {
+    private val LOG: CameraLogger = CameraLogger.create(GlFramebufferPool::class.java.simpleName)
+    private const val MAX_IDLE_PER_SIZE = 4
+
+    private val mLock = Any()
+    private val mPools = HashMap<EGLContext, ContextPool>()
+    private var mGeneration = 0
+    private var mHits = 0L
+    private var mMisses = 0L
+
+    /**
+     * Returns a target of the given size, recycled if possible.
+     * The framebuffer contents are undefined.
+     *
+     * @param width  the width
+     * @param height the height
+     * @return a target
+     */
+    fun acquire(width: Int, height: Int): Target {
+        synchronized(mLock) {
+            val pool = currentPool()
+            val size = Size(width, height)
+            val target = pool?.idle?.get(size)?.removeLastOrNull()
+            if (target != null) {
+                mHits++
+                return target
+            }
+            mMisses++
+            val texture = GlTexture(GLES20.GL_TEXTURE0, GLES20.GL_TEXTURE_2D, width, height)
+            val framebuffer = GlFramebuffer()
+            framebuffer.attach(texture)
+            val created = Target(size, texture, framebuffer, pool)
+            pool?.let { it.bytes += created.bytes }
+            return created
+        }
+    }
+
+    /**
+     * Gives back a target returned by [acquire]. It will be reused or destroyed.
+     *
+     * @param target the target
+     */
+    fun recycle(target: Target) {
+        synchronized(mLock) {
+            val pool = target.owner
+            if (pool == null || pool.dead || pool !== currentPool()) {
+                // Can't be reused from here.
+                destroy(target)
+                return
+            }
+            val bucket = pool.idle.getOrPut(target.size) { ArrayDeque() }
+            if (bucket.size < MAX_IDLE_PER_SIZE) {
+                bucket.addLast(target)
+            } else {
+                destroy(target)
+            }
+        }
+    }
+
+    /**
+     * Destroys all idle targets of the current context.
+     */
+    fun trim() {
+        synchronized(mLock) {
+            val pool = currentPool() ?: return
+            for (bucket in pool.idle.values) {
+                for (target in bucket) destroy(target)
+            }
+            pool.idle.clear()
+        }
+    }
+
+    /**
+     * Should be called when a new root context is created. Forgets anything
+     * pooled for a previous context that had the same handle.
+     *
+     * @param context the new context
+     */
+    fun onContextCreated(context: EGLContext) {
+        synchronized(mLock) {
+            mPools.put(context, ContextPool(context))?.dead = true
+            mGeneration++
+        }
+    }
+
+    /**
+     * Should be called before a context is destroyed, while it is still current
+     * if possible, so that idle targets can be deleted.
+     *
+     * @param context the context
+     */
+    fun onContextReleased(context: EGLContext) {
+        synchronized(mLock) {
+            val pool = mPools.remove(context) ?: return
+            var count = 0
+            for (bucket in pool.idle.values) {
+                for (target in bucket) {
+                    destroy(target)
+                    count++
+                }
+            }
+            pool.dead = true
+            LOG.i("onContextReleased:", "dropping", count, "idle targets.")
+        }
+    }
+
+    /**
+     * Returns a number that changes every time a root context is created.
+     * This can be used to invalidate objects that depend on older contexts.
+     */
+    val generation: Int
+        get() = synchronized(mLock) { mGeneration }
+
+    /**
+     * Returns how many [acquire] calls were served by recycled targets.
+     */
+    val hits: Long
+        get() = synchronized(mLock) { mHits }
+
+    /**
+     * Returns how many [acquire] calls allocated a new target.
+     */
+    val misses: Long
+        get() = synchronized(mLock) { mMisses }
+
+    /**
+     * Returns an estimate of the GPU memory held by pooled targets, in bytes,
+     * both in use and idle.
+     */
+    val bytes: Long
+        get() = synchronized(mLock) { mPools.values.sumOf { it.bytes } }
+
+    private fun currentPool(): ContextPool? {
+        val context = EGL14.eglGetCurrentContext()
+        if (context == EGL14.EGL_NO_CONTEXT) return null
+        return mPools.getOrPut(context) { ContextPool(context) }
+    }
+
+    // Called with the lock held.
+    private fun destroy(target: Target) {
+        val owner = target.owner
+        if (owner == null) {
+            target.release()
+            return
+        }
+        owner.bytes -= target.bytes
+        // GL names are per context: deleting them elsewhere could delete other objects.
+        if (!owner.dead && EGL14.eglGetCurrentContext() == owner.context) target.release()
+    }
+
+    /**
+     * A texture attached to a framebuffer.
+     */
+    class Target internal constructor(
+        val size: Size,
+        val texture: GlTexture,
+        val framebuffer: GlFramebuffer,
+        internal val owner: ContextPool?
+    ) {
+        internal val bytes: Long = size.width.toLong() * size.height * 4
+
+        internal fun release() {
+            framebuffer.release()
+            texture.release()
+        }
+    }
+
+    internal class ContextPool(val context: EGLContext) {
+        val idle = HashMap<Size, ArrayDeque<Target>>()
+        var bytes = 0L
+
+        // Set when the context is released or its handle is reused.
+        var dead = false
+    }
+}
@@ -0,0 +1,140 @@
+package com.base.cameraview.internal
+
+import android.opengl.EGL14
+import android.opengl.EGLContext
+import android.opengl.GLES20
+import com.base.cameraview.CameraLogger
+import com.otaliastudios.opengl.program.GlProgram
+
+/**
+ * Caches linked GL programs, keyed by their shader sources, so that filter copies
+ * and drawers on the preview, snapshot and video threads can reuse them instead of
+ * compiling and linking again.
+ *
+ * The cache is kept per EGL context, even for contexts of the same share group:
+ * uniform values are stored in the program object, so two threads drawing with the
+ * same program at the same time would overwrite each other's transforms. Programs are
+ * reference counted. When no longer referenced, a few of them are kept alive so that
+ * switching filters back and forth does not compile anything.
+ *
+ * All methods must be called on a thread with a current EGL context.
+ */
+object GlProgramCache {
+    private val LOG: CameraLogger = CameraLogger.create(GlProgramCache::class.java.simpleName)
+    private const val MAX_IDLE_PROGRAMS = 8
+
+    private val mLock = Any()
+    private val mGroups = HashMap<EGLContext, Group>()
+    private var mHits = 0L
+    private var mMisses = 0L
+
+    /**
+     * Returns a linked program for the given sources, creating it if needed.
+     * Should be released with [release].
+     *
+     * @param vertexShader   the vertex shader
+     * @param fragmentShader the fragment shader
+     * @return the program handle
+     */
+    fun acquire(vertexShader: String, fragmentShader: String): Int {
+        synchronized(mLock) {
+            val group = currentGroup() ?: return GlProgram.create(vertexShader, fragmentShader)
+            val key = vertexShader + '\u0000' + fragmentShader
+            val entry = group.programs[key]
+            if (entry != null) {
+                if (entry.refs++ == 0) group.idle.remove(key)
+                mHits++
+                return entry.handle
+            }
+            mMisses++
+            val handle = GlProgram.create(vertexShader, fragmentShader)
+            group.programs[key] = Entry(handle)
+            group.handles[handle] = key
+            return handle
+        }
+    }
+
+    /**
+     * Releases a program returned by [acquire].
+     *
+     * @param handle the program handle
+     */
+    fun release(handle: Int) {
+        synchronized(mLock) {
+            val group = currentGroup()
+            val key = group?.handles?.get(handle)
+            if (group == null || key == null) {
+                GLES20.glDeleteProgram(handle)
+                return
+            }
+            val entry = group.programs[key]!!
+            if (--entry.refs > 0) return
+            group.idle.add(key)
+            if (group.idle.size > MAX_IDLE_PROGRAMS) {
+                val oldest = group.idle.first()
+                group.idle.remove(oldest)
+                val removed = group.programs.remove(oldest)!!
+                group.handles.remove(removed.handle)
+                GLES20.glDeleteProgram(removed.handle)
+            }
+        }
+    }
+
+    /**
+     * Should be called when a new context is created. Forgets anything cached
+     * for a previous context that had the same handle.
+     *
+     * @param context the new context
+     */
+    fun onContextCreated(context: EGLContext) {
+        synchronized(mLock) {
+            mGroups[context] = Group()
+        }
+    }
+
+    /**
+     * Should be called before a context is destroyed, while it is still current.
+     * Deletes all the programs of this context.
+     *
+     * @param context the context
+     */
+    fun onContextReleased(context: EGLContext) {
+        synchronized(mLock) {
+            val group = mGroups.remove(context) ?: return
+            LOG.i("onContextReleased:", "deleting", group.programs.size, "programs.")
+            for (entry in group.programs.values) {
+                GLES20.glDeleteProgram(entry.handle)
+            }
+        }
+    }
+
+    /**
+     * Returns how many [acquire] calls were served by the cache.
+     */
+    val hits: Long
+        get() = synchronized(mLock) { mHits }
+
+    /**
+     * Returns how many [acquire] calls had to compile a new program.
+     */
+    val misses: Long
+        get() = synchronized(mLock) { mMisses }
+
+    private fun currentGroup(): Group? {
+        val context = EGL14.eglGetCurrentContext()
+        if (context == EGL14.EGL_NO_CONTEXT) return null
+        return mGroups.getOrPut(context) { Group() }
+    }
+
+    private class Entry(val handle: Int) {
+        var refs = 1
+    }
+
+    private class Group {
+        val programs = HashMap<String, Entry>()
+        val handles = HashMap<Int, String>()
+
+        // Keys of programs that are not referenced, oldest first.
+        val idle = LinkedHashSet<String>()
+    }
+}
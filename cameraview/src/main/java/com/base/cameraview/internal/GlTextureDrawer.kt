@@ -7,7 +7,6 @@ import com.base.cameraview.filter.Filter
 import com.base.cameraview.filter.NoFilter
 import com.otaliastudios.opengl.core.Egloo.IDENTITY_MATRIX
 import com.otaliastudios.opengl.core.Egloo.checkGlError
-import com.otaliastudios.opengl.program.GlProgram
 import com.otaliastudios.opengl.texture.GlTexture
 
 
@@ -40,7 +39,7 @@ class GlTextureDrawer(val texture: GlTexture) {
         }
 
         if (mProgramHandle == -1) {
-            mProgramHandle = GlProgram.create(
+            mProgramHandle = GlProgramCache.acquire(
                 mFilter.vertexShader, mFilter.fragmentShader
             )
             mFilter.onCreate(mProgramHandle)
@@ -59,7 +58,7 @@ class GlTextureDrawer(val texture: GlTexture) {
     fun release() {
         if (mProgramHandle == -1) return
         mFilter.onDestroy()
-        GLES20.glDeleteProgram(mProgramHandle)
+        GlProgramCache.release(mProgramHandle)
         mProgramHandle = -1
     }
 
@@ -0,0 +1,233 @@
+package com.base.cameraview.internal
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Matrix
+import android.graphics.Paint
+import android.graphics.Rect
+import android.os.Build
+import androidx.annotation.WorkerThread
+import com.base.cameraview.BitmapPool
+import com.base.cameraview.CameraLogger
+import java.io.IOException
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Decodes compressed pictures into bitmaps of the requested size, touching as few
+ * pixels as possible:
+ *
+ * - the sample size is the largest power of two that keeps the requested size
+ * - when a crop is requested, only that region is decoded, if the format allows it
+ * - rotation, crop leftovers and the final scaling are applied in a single draw
+ *   into a bitmap of the output size, instead of creating a rotated full size copy
+ *
+ * All bitmaps can be taken from a [BitmapPool], and intermediate ones are given back to it.
+ */
+object PictureDecoder {
+    private val LOG: CameraLogger = CameraLogger.create(PictureDecoder::class.java.simpleName)
+
+    /**
+     * Decodes the given picture.
+     *
+     * @param data      the compressed picture
+     * @param rotation  the clockwise rotation to apply, one of 0, 90, 180, 270
+     * @param maxWidth  the max output width, or a value <= 0 for no limit
+     * @param maxHeight the max output height, or a value <= 0 for no limit
+     * @param crop      the region to decode, in rotated coordinates, or null
+     * @param pool      the pool to take bitmaps from, or null
+     * @return the bitmap, or null if the picture could not be decoded
+     */
+    @JvmStatic
+    @WorkerThread
+    fun decode(
+        data: ByteArray,
+        rotation: Int,
+        maxWidth: Int,
+        maxHeight: Int,
+        crop: Rect?,
+        pool: BitmapPool?
+    ): Bitmap? {
+        val options = BitmapFactory.Options()
+        options.inJustDecodeBounds = true
+        BitmapFactory.decodeByteArray(data, 0, data.size, options)
+        val width = options.outWidth
+        val height = options.outHeight
+        if (width <= 0 || height <= 0) {
+            LOG.e("decode:", "could not read bounds.")
+            return null
+        }
+
+        // Crop and output size are in rotated coordinates.
+        val swap = rotation % 180 != 0
+        val target = Rect(0, 0, if (swap) height else width, if (swap) width else height)
+        if (crop != null && !target.intersect(crop)) {
+            LOG.e("decode:", "crop is out of bounds.", crop)
+            return null
+        }
+        val region = unrotate(target, rotation, width, height)
+        val scale = min(
+            1F, min(
+                (if (maxWidth > 0) maxWidth else Int.MAX_VALUE) / target.width().toFloat(),
+                (if (maxHeight > 0) maxHeight else Int.MAX_VALUE) / target.height().toFloat()
+            )
+        )
+        val outWidth = max(1, (target.width() * scale).roundToInt())
+        val outHeight = max(1, (target.height() * scale).roundToInt())
+        var sample = 1
+        while (target.width() / (sample * 2) >= outWidth
+            && target.height() / (sample * 2) >= outHeight
+        ) {
+            sample *= 2
+        }
+        options.inJustDecodeBounds = false
+        options.inSampleSize = sample
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888
+        options.inMutable = true
+
+        // Source rect of the decoded bitmap that should end up in the output.
+        val source = Rect()
+        val decoded: Bitmap
+        try {
+            val whole = region.width() == width && region.height() == height
+            val decodedRegion = if (whole) null else decodeRegion(data, region, options, pool)
+            if (decodedRegion != null) {
+                decoded = decodedRegion
+                source.set(0, 0, decoded.width, decoded.height)
+            } else {
+                decoded = decodeFull(data, width, height, options, pool) ?: return null
+                val ratioX = decoded.width / width.toFloat()
+                val ratioY = decoded.height / height.toFloat()
+                source.set(
+                    (region.left * ratioX).roundToInt(), (region.top * ratioY).roundToInt(),
+                    (region.right * ratioX).roundToInt(), (region.bottom * ratioY).roundToInt()
+                )
+            }
+        } catch (e: OutOfMemoryError) {
+            LOG.e("decode:", "out of memory.", e)
+            return null
+        }
+        if (rotation == 0 && source.left == 0 && source.top == 0
+            && source.width() == decoded.width && source.height() == decoded.height
+            && decoded.width == outWidth && decoded.height == outHeight
+        ) {
+            return decoded
+        }
+
+        // Rotate, crop and scale in a single draw.
+        val output: Bitmap
+        try {
+            output = pool?.get(outWidth, outHeight, Bitmap.Config.ARGB_8888)
+                ?: Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888)
+        } catch (e: OutOfMemoryError) {
+            LOG.e("decode:", "out of memory.", e)
+            release(decoded, pool)
+            return null
+        }
+        output.eraseColor(Color.TRANSPARENT)
+        val rotatedWidth = if (swap) source.height() else source.width()
+        val rotatedHeight = if (swap) source.width() else source.height()
+        val matrix = Matrix()
+        matrix.setTranslate(-source.exactCenterX(), -source.exactCenterY())
+        matrix.postRotate(rotation.toFloat())
+        matrix.postScale(outWidth / rotatedWidth.toFloat(), outHeight / rotatedHeight.toFloat())
+        matrix.postTranslate(outWidth / 2F, outHeight / 2F)
+        Canvas(output).drawBitmap(decoded, matrix, Paint(Paint.FILTER_BITMAP_FLAG))
+        release(decoded, pool)
+        return output
+    }
+
+    /**
+     * Maps a rect of the rotated picture back to the encoded picture.
+     */
+    private fun unrotate(rect: Rect, rotation: Int, width: Int, height: Int): Rect {
+        return when (rotation) {
+            90 -> Rect(rect.top, height - rect.right, rect.bottom, height - rect.left)
+            180 -> Rect(width - rect.right, height - rect.bottom, width - rect.left, height - rect.top)
+            270 -> Rect(width - rect.bottom, rect.left, width - rect.top, rect.right)
+            else -> Rect(rect)
+        }
+    }
+
+    // Returns null if the format does not support region decoding.
+    private fun decodeRegion(
+        data: ByteArray,
+        region: Rect,
+        options: BitmapFactory.Options,
+        pool: BitmapPool?
+    ): Bitmap? {
+        val decoder = try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                BitmapRegionDecoder.newInstance(data, 0, data.size)
+            } else {
+                @Suppress("DEPRECATION")
+                BitmapRegionDecoder.newInstance(data, 0, data.size, false)
+            }
+        } catch (e: IOException) {
+            LOG.w("decodeRegion:", "region decoding not supported.", e)
+            return null
+        } ?: return null
+        try {
+            // The region decoder draws into inBitmap without resizing it, so it must
+            // have the exact output size.
+            val sample = options.inSampleSize
+            options.inBitmap = pool?.get(
+                max(1, region.width() / sample),
+                max(1, region.height() / sample),
+                options.inPreferredConfig
+            )
+            return decodeWithFallback(options, pool) { decoder.decodeRegion(region, options) }
+        } finally {
+            options.inBitmap = null
+            decoder.recycle()
+        }
+    }
+
+    private fun decodeFull(
+        data: ByteArray,
+        width: Int,
+        height: Int,
+        options: BitmapFactory.Options,
+        pool: BitmapPool?
+    ): Bitmap? {
+        try {
+            // BitmapFactory resizes inBitmap as needed, it just has to be large enough.
+            val sample = options.inSampleSize
+            options.inBitmap = pool?.get(
+                (width + sample - 1) / sample,
+                (height + sample - 1) / sample,
+                options.inPreferredConfig
+            )
+            return decodeWithFallback(options, pool) {
+                BitmapFactory.decodeByteArray(data, 0, data.size, options)
+            }
+        } finally {
+            options.inBitmap = null
+        }
+    }
+
+    // If the pooled bitmap can't be reused, try again without it.
+    private inline fun decodeWithFallback(
+        options: BitmapFactory.Options,
+        pool: BitmapPool?,
+        decode: () -> Bitmap?
+    ): Bitmap? {
+        val inBitmap = options.inBitmap ?: return decode()
+        return try {
+            decode()
+        } catch (e: IllegalArgumentException) {
+            LOG.w("decode:", "could not reuse bitmap.", e)
+            options.inBitmap = null
+            pool?.put(inBitmap)
+            decode()
+        }
+    }
+
+    private fun release(bitmap: Bitmap, pool: BitmapPool?) {
+        if (pool != null) pool.put(bitmap) else bitmap.recycle()
+    }
+}
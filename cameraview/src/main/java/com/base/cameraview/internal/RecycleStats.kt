@@ -0,0 +1,99 @@
+package com.base.cameraview.internal
+
+import android.os.SystemClock
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Counts how well a pool of recycleable objects is doing.
+ * - hits: an item was requested and a recycled one was available
+ * - misses: an item was requested but none was available
+ * - drops: an item was given back but could not be recycled
+ *
+ * Counting is lock-free and allocation-free, so it can be done on every frame.
+ * Rates are computed when [snapshot] is called, over the time elapsed
+ * since the previous call.
+ */
+class RecycleStats {
+
+    private val mHits = AtomicLong(0)
+    private val mMisses = AtomicLong(0)
+    private val mDrops = AtomicLong(0)
+
+    private val mLock = Any()
+    private var mLastTime = SystemClock.elapsedRealtime()
+    private var mLastHits = 0L
+    private var mLastMisses = 0L
+    private var mLastDrops = 0L
+
+    fun hit() {
+        mHits.incrementAndGet()
+    }
+
+    fun miss() {
+        mMisses.incrementAndGet()
+    }
+
+    fun drop() {
+        mDrops.incrementAndGet()
+    }
+
+    val hits: Long
+        get() = mHits.get()
+
+    val misses: Long
+        get() = mMisses.get()
+
+    val drops: Long
+        get() = mDrops.get()
+
+    /**
+     * Returns the current counters, along with per-second rates
+     * computed since the last call to this method.
+     *
+     * @return a snapshot
+     */
+    fun snapshot(): Snapshot {
+        synchronized(mLock) {
+            val now = SystemClock.elapsedRealtime()
+            val hits = mHits.get()
+            val misses = mMisses.get()
+            val drops = mDrops.get()
+            val seconds = (now - mLastTime).coerceAtLeast(1L) / 1000F
+            val snapshot = Snapshot(
+                hits, misses, drops,
+                (hits - mLastHits) / seconds,
+                (misses - mLastMisses) / seconds,
+                (drops - mLastDrops) / seconds
+            )
+            mLastTime = now
+            mLastHits = hits
+            mLastMisses = misses
+            mLastDrops = drops
+            return snapshot
+        }
+    }
+
+    /**
+     * Resets all counters.
+     */
+    fun reset() {
+        synchronized(mLock) {
+            mHits.set(0)
+            mMisses.set(0)
+            mDrops.set(0)
+            mLastTime = SystemClock.elapsedRealtime()
+            mLastHits = 0
+            mLastMisses = 0
+            mLastDrops = 0
+        }
+    }
+
+    data class Snapshot(
+        val hits: Long,
+        val misses: Long,
+        val drops: Long,
+        val hitsPerSecond: Float,
+        val missesPerSecond: Float,
+        val dropsPerSecond: Float
+    )
+}
@@ -0,0 +1,101 @@
+package com.base.cameraview.internal
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * A bounded, lock-free ring buffer that is safe for multiple producers
+ * and multiple consumers (so, of course, also for a single one of each).
+ *
+ * Unlike [java.util.concurrent.LinkedBlockingQueue], no node is allocated on
+ * [offer] or [poll] and no lock is taken, which makes it suitable for per-frame
+ * recycling of objects. Each slot carries a sequence number that tells producers
+ * and consumers whether it is free to be written or ready to be read.
+ *
+ * @param T the item type
+ * @param capacity the max number of items, must be positive
+ */
+class RingBuffer<T : Any>(val capacity: Int) {
+
+    private val mItems = AtomicReferenceArray<T?>(capacity)
+    private val mSequences = AtomicLongArray(capacity)
+    private val mHead = AtomicLong(0)
+    private val mTail = AtomicLong(0)
+
+    init {
+        require(capacity > 0) { "capacity should be > 0, got $capacity" }
+        for (i in 0..<capacity) {
+            mSequences.set(i, i.toLong())
+        }
+    }
+
+    /**
+     * Inserts the item if there is room for it.
+     *
+     * @param item the item
+     * @return true if the item was added, false if the buffer is full
+     */
+    fun offer(item: T): Boolean {
+        while (true) {
+            val tail = mTail.get()
+            val index = (tail % capacity).toInt()
+            val diff = mSequences.get(index) - tail
+            if (diff == 0L) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mItems.lazySet(index, item)
+                    mSequences.set(index, tail + 1)
+                    return true
+                }
+            } else if (diff < 0L) {
+                return false
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest item, if any.
+     *
+     * @return the item, or null if the buffer is empty
+     */
+    fun poll(): T? {
+        while (true) {
+            val head = mHead.get()
+            val index = (head % capacity).toInt()
+            val diff = mSequences.get(index) - (head + 1)
+            if (diff == 0L) {
+                if (mHead.compareAndSet(head, head + 1)) {
+                    val item = mItems.get(index)
+                    mItems.lazySet(index, null)
+                    mSequences.set(index, head + capacity)
+                    return item
+                }
+            } else if (diff < 0L) {
+                return null
+            }
+        }
+    }
+
+    /**
+     * Returns an estimate of the current number of items.
+     * This is exact only when no one is concurrently offering or polling.
+     *
+     * @return the item count
+     */
+    fun size(): Int {
+        val size = mTail.get() - mHead.get()
+        return size.coerceIn(0L, capacity.toLong()).toInt()
+    }
+
+    val isEmpty: Boolean
+        get() = size() == 0
+
+    /**
+     * Removes all items.
+     */
+    fun clear() {
+        @Suppress("ControlFlowWithEmptyBody")
+        while (poll() != null) {
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.base.cameraview.internal;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.base.cameraview.CameraLogger;
+import com.base.cameraview.size.Size;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rotates, mirrors and crops NV21 images in a single pass.
+ *
+ * Each output plane is a linear function of the input plane, so we compute the source
+ * origin and the source steps for one output column and one output row, and then walk
+ * the output in square tiles. When rotating by 90 or 270 degrees, this keeps the source
+ * rows touched by a tile in cache, instead of striding through the whole image for each
+ * output row. Each chroma pair is copied once.
+ *
+ * Large images are split in horizontal bands that are transformed in parallel.
+ * Output arrays can be supplied by the caller, or taken from a small pool with
+ * {@link #obtainBuffer(int)} and given back with {@link #recycleBuffer(byte[])}.
+ */
+public class YuvTransformer {
+
+    private static final String TAG = YuvTransformer.class.getSimpleName();
+    private static final CameraLogger LOG = CameraLogger.create(TAG);
+
+    // Tile side in luma pixels. Must be even.
+    private static final int TILE = 64;
+    // Below this output size, threads cost more than they save.
+    private static final int PARALLEL_THRESHOLD = 1024 * 1024;
+    private static final int MAX_THREADS = 4;
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private static final Object sLock = new Object();
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<>();
+    private static ThreadPoolExecutor sExecutor;
+
+    /**
+     * Aligns the crop rect to even coordinates, as required by the NV21 chroma plane.
+     * The rect is shrunk if needed, never grown.
+     *
+     * @param crop the crop rect
+     * @return a new, aligned rect
+     */
+    @NonNull
+    public static Rect alignCrop(@NonNull Rect crop) {
+        int left = (crop.left + 1) & ~1;
+        int top = (crop.top + 1) & ~1;
+        int right = crop.right & ~1;
+        int bottom = crop.bottom & ~1;
+        return new Rect(left, top, Math.max(left, right), Math.max(top, bottom));
+    }
+
+    /**
+     * Returns the output size for the given input size and transformation.
+     *
+     * @param size     the input size
+     * @param rotation the rotation
+     * @param crop     the crop rect, in rotated coordinates, or null
+     * @return the output size
+     */
+    @NonNull
+    public static Size computeOutputSize(@NonNull Size size, int rotation, @Nullable Rect crop) {
+        if (crop != null) return new Size(crop.width(), crop.height());
+        return rotation % 180 == 0 ? size : size.flip();
+    }
+
+    /**
+     * Returns a byte array of the given length, recycled if possible.
+     * It can be given back with {@link #recycleBuffer(byte[])}.
+     *
+     * @param length the length
+     * @return an array
+     */
+    @NonNull
+    public static byte[] obtainBuffer(int length) {
+        synchronized (sLock) {
+            for (byte[] buffer : sBuffers) {
+                if (buffer.length == length) {
+                    sBuffers.remove(buffer);
+                    return buffer;
+                }
+            }
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Gives back an array returned by {@link #obtainBuffer(int)}.
+     *
+     * @param buffer the array
+     */
+    public static void recycleBuffer(@NonNull byte[] buffer) {
+        synchronized (sLock) {
+            if (sBuffers.size() >= MAX_POOLED_BUFFERS) sBuffers.removeFirst();
+            sBuffers.addLast(buffer);
+        }
+    }
+
+    /**
+     * Transforms the given NV21 image. The input is first rotated clockwise by the given
+     * angle, then mirrored horizontally if needed, then cropped.
+     *
+     * @param input    the NV21 image
+     * @param size     the input size, with even width and height
+     * @param rotation the rotation, one of 0, 90, 180, 270
+     * @param mirror   whether to mirror horizontally after rotating
+     * @param crop     the crop rect in rotated coordinates, aligned with
+     *                 {@link #alignCrop(Rect)}, or null
+     * @param output   the output array, at least 3/2 of the output size
+     * @return the output size
+     */
+    @NonNull
+    public static Size transform(@NonNull byte[] input,
+                                 @NonNull Size size,
+                                 int rotation,
+                                 boolean mirror,
+                                 @Nullable Rect crop,
+                                 @NonNull byte[] output) {
+        if (crop == null) {
+            return transform(input, size, rotation, mirror, output);
+        }
+        return transform(input, size, rotation, mirror,
+                crop.left, crop.top, crop.right, crop.bottom, output);
+    }
+
+    /**
+     * Transforms the given NV21 image without cropping.
+     * See {@link #transform(byte[], Size, int, boolean, int, int, int, int, byte[])}.
+     *
+     * @param input    the NV21 image
+     * @param size     the input size, with even width and height
+     * @param rotation the rotation, one of 0, 90, 180, 270
+     * @param mirror   whether to mirror horizontally after rotating
+     * @param output   the output array, at least as large as the input
+     * @return the output size
+     */
+    @NonNull
+    public static Size transform(@NonNull byte[] input,
+                                 @NonNull Size size,
+                                 int rotation,
+                                 boolean mirror,
+                                 @NonNull byte[] output) {
+        final boolean swap = rotation % 180 != 0;
+        final int rotatedWidth = swap ? size.getHeight() : size.getWidth();
+        final int rotatedHeight = swap ? size.getWidth() : size.getHeight();
+        return transform(input, size, rotation, mirror,
+                0, 0, rotatedWidth, rotatedHeight, output);
+    }
+
+    /**
+     * Transforms the given NV21 image. The input is first rotated clockwise by the given
+     * angle, then mirrored horizontally if needed, then cropped to the given bounds.
+     * Bounds are in rotated coordinates and must be even.
+     *
+     * @param input      the NV21 image
+     * @param size       the input size, with even width and height
+     * @param rotation   the rotation, one of 0, 90, 180, 270
+     * @param mirror     whether to mirror horizontally after rotating
+     * @param cropLeft   the left crop bound
+     * @param cropTop    the top crop bound
+     * @param cropRight  the right crop bound, exclusive
+     * @param cropBottom the bottom crop bound, exclusive
+     * @param output     the output array, at least 3/2 of the output size
+     * @return the output size
+     */
+    @NonNull
+    public static Size transform(@NonNull byte[] input,
+                                 @NonNull Size size,
+                                 int rotation,
+                                 boolean mirror,
+                                 int cropLeft,
+                                 int cropTop,
+                                 int cropRight,
+                                 int cropBottom,
+                                 @NonNull byte[] output) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
+            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
+        }
+        final int width = size.getWidth();
+        final int height = size.getHeight();
+        if ((width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("NV21 size should be even: " + size);
+        }
+        final boolean swap = rotation % 180 != 0;
+        final int rotatedWidth = swap ? height : width;
+        final int rotatedHeight = swap ? width : height;
+        final int outWidth = cropRight - cropLeft;
+        final int outHeight = cropBottom - cropTop;
+        if ((cropLeft & 1) != 0 || (cropTop & 1) != 0
+                || (outWidth & 1) != 0 || (outHeight & 1) != 0
+                || cropLeft < 0 || cropTop < 0 || outWidth < 0 || outHeight < 0
+                || cropRight > rotatedWidth || cropBottom > rotatedHeight) {
+            throw new IllegalArgumentException("Invalid crop: ("
+                    + cropLeft + ", " + cropTop + ", " + cropRight + ", " + cropBottom + ")");
+        }
+        final int outFrame = outWidth * outHeight;
+        if (input.length < width * height * 3 / 2 || output.length < outFrame * 3 / 2) {
+            throw new IllegalArgumentException("Buffers too small for " + size);
+        }
+
+        final Plane luma = new Plane(input, output, 0, 0, 1, outWidth,
+                width, height, rotation, mirror, cropLeft, cropTop);
+        final Plane chroma = new Plane(input, output, width * height, outFrame, 2, outWidth,
+                width / 2, height / 2, rotation, mirror, cropLeft / 2, cropTop / 2);
+
+        // Bands are made of whole tiles, so each chroma band covers exactly its luma rows.
+        int bands = 1;
+        if (outFrame >= PARALLEL_THRESHOLD) {
+            int tileRows = (outHeight + TILE - 1) / TILE;
+            bands = Math.min(tileRows, Math.min(MAX_THREADS,
+                    Runtime.getRuntime().availableProcessors()));
+        }
+        if (bands <= 1) {
+            luma.copy(0, outHeight, outWidth);
+            chroma.copy(0, outHeight / 2, outWidth / 2);
+            return new Size(outWidth, outHeight);
+        }
+        final int tileRows = (outHeight + TILE - 1) / TILE;
+        final CountDownLatch latch = new CountDownLatch(bands - 1);
+        ThreadPoolExecutor executor = getExecutor();
+        for (int band = 0; band < bands; band++) {
+            final int top = Math.min(outHeight, tileRows * band / bands * TILE);
+            final int bottom = Math.min(outHeight, tileRows * (band + 1) / bands * TILE);
+            Runnable job = () -> {
+                luma.copy(top, bottom, outWidth);
+                chroma.copy(top / 2, bottom / 2, outWidth / 2);
+            };
+            if (band == bands - 1) {
+                job.run(); // Do our part on the caller thread.
+            } else {
+                executor.execute(() -> {
+                    try {
+                        job.run();
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            LOG.w("transform: interrupted while waiting for bands.");
+            Thread.currentThread().interrupt();
+        }
+        return new Size(outWidth, outHeight);
+    }
+
+    @NonNull
+    private static ThreadPoolExecutor getExecutor() {
+        synchronized (sLock) {
+            if (sExecutor == null) {
+                final AtomicInteger count = new AtomicInteger(1);
+                sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS,
+                        5, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        r -> {
+                            Thread thread = new Thread(r, TAG + " #" + count.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                sExecutor.allowCoreThreadTimeOut(true);
+            }
+            return sExecutor;
+        }
+    }
+
+    /**
+     * One plane of the transformation. Pixels are pixelSize bytes wide and rows are
+     * tightly packed, which holds for both NV21 planes: the chroma plane has half the
+     * pixels, each made of a V and a U byte.
+     */
+    private static class Plane {
+        private final byte[] input;
+        private final byte[] output;
+        private final int outOffset;
+        private final int pixelSize;
+        private final int outRowBytes;
+        // Source byte index for output pixel (x, y) is origin + x * stepX + y * stepY.
+        private final int origin;
+        private final int stepX;
+        private final int stepY;
+
+        Plane(byte[] input, byte[] output, int inOffset, int outOffset, int pixelSize,
+              int outLumaWidth, int width, int height, int rotation, boolean mirror,
+              int cropLeft, int cropTop) {
+            this.input = input;
+            this.output = output;
+            this.outOffset = outOffset;
+            this.pixelSize = pixelSize;
+            this.outRowBytes = outLumaWidth; // Same for both planes in NV21
+            final int rowBytes = width * pixelSize;
+            final boolean swap = rotation % 180 != 0;
+            final int rotatedWidth = swap ? height : width;
+
+            // Rotated coordinates: rx = ax + sx * x, ry = ay + sy * y.
+            int ax = cropLeft;
+            int sx = 1;
+            if (mirror) {
+                ax = rotatedWidth - 1 - cropLeft;
+                sx = -1;
+            }
+            int ay = cropTop;
+            int sy = 1;
+            // Back to source coordinates, inverting the clockwise rotation.
+            int col0, colX, colY, row0, rowX, rowY;
+            switch (rotation) {
+                case 90: // col = ry, row = H - 1 - rx
+                    col0 = ay; colX = 0; colY = sy;
+                    row0 = height - 1 - ax; rowX = -sx; rowY = 0;
+                    break;
+                case 180: // col = W - 1 - rx, row = H - 1 - ry
+                    col0 = width - 1 - ax; colX = -sx; colY = 0;
+                    row0 = height - 1 - ay; rowX = 0; rowY = -sy;
+                    break;
+                case 270: // col = W - 1 - ry, row = rx
+                    col0 = width - 1 - ay; colX = 0; colY = -sy;
+                    row0 = ax; rowX = sx; rowY = 0;
+                    break;
+                default: // col = rx, row = ry
+                    col0 = ax; colX = sx; colY = 0;
+                    row0 = ay; rowX = 0; rowY = sy;
+                    break;
+            }
+            origin = inOffset + row0 * rowBytes + col0 * pixelSize;
+            stepX = rowX * rowBytes + colX * pixelSize;
+            stepY = rowY * rowBytes + colY * pixelSize;
+        }
+
+        /**
+         * Copies output rows [top, bottom) of this plane.
+         */
+        void copy(int top, int bottom, int outWidth) {
+            if (stepX == pixelSize) {
+                // Source rows are contiguous: copy them whole.
+                final int bytes = outWidth * pixelSize;
+                for (int y = top; y < bottom; y++) {
+                    System.arraycopy(input, origin + y * stepY,
+                            output, outOffset + y * outRowBytes, bytes);
+                }
+                return;
+            }
+            final int tile = pixelSize == 1 ? TILE : TILE / 2;
+            for (int tileY = top; tileY < bottom; tileY += tile) {
+                final int endY = Math.min(bottom, tileY + tile);
+                for (int tileX = 0; tileX < outWidth; tileX += tile) {
+                    final int endX = Math.min(outWidth, tileX + tile);
+                    for (int y = tileY; y < endY; y++) {
+                        int src = origin + tileX * stepX + y * stepY;
+                        int dst = outOffset + y * outRowBytes + tileX * pixelSize;
+                        if (pixelSize == 1) {
+                            for (int x = tileX; x < endX; x++) {
+                                output[dst++] = input[src];
+                                src += stepX;
+                            }
+                        } else {
+                            for (int x = tileX; x < endX; x++) {
+                                output[dst++] = input[src];
+                                output[dst++] = input[src + 1];
+                                src += stepX;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
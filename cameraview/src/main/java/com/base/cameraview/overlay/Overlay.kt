@@ -1,6 +1,7 @@
 package com.base.cameraview.overlay
 
 import android.graphics.Canvas
+import android.graphics.Rect
 
 /**
  * Base interface for overlays.
@@ -24,6 +25,24 @@ interface Overlay {
      */
     fun drawsOn(target: Target): Boolean
 
+    /**
+     * Called by drawers before each frame, to know what changed since the last time
+     * this overlay was drawn on the given target. If nothing changed, the drawer can
+     * reuse the last drawn content instead of calling [.drawOn].
+     *
+     * The default implementation marks the whole canvas as changed for each frame.
+     *
+     * @param target   the target
+     * @param width    the target canvas width
+     * @param height   the target canvas height
+     * @param outDirty filled with the changed region, in target canvas coordinates
+     * @return true if something changed
+     */
+    fun getDirtyRegion(target: Target, width: Int, height: Int, outDirty: Rect): Boolean {
+        outDirty.set(0, 0, width, height)
+        return true
+    }
+
     /**
      * Returns true if hardware canvas capture is enabled, false by default
      *
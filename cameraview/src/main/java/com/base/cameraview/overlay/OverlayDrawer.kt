@@ -3,6 +3,7 @@ package com.base.cameraview.overlay
 import android.graphics.Canvas
 import android.graphics.Color
 import android.graphics.PorterDuff
+import android.graphics.Rect
 import android.graphics.SurfaceTexture
 import android.opengl.GLES20
 import android.view.Surface
@@ -22,21 +23,29 @@ import com.base.cameraview.size.Size
  * - Applies the [Issue514Workaround] the correct way
  *
  *
+ * The overlay is only redrawn when [Overlay.getDirtyRegion] reports a change: otherwise,
+ * the texture keeps the last drawn content. With a software canvas, only the changed
+ * region is cleared and redrawn, and the rest of the buffer is preserved by the surface.
+ *
+ *
  * In the future we might want to use a different approach than [GlTextureDrawer],
  * The current approach has some issues, for example see [Issue514Workaround].
  */
-class OverlayDrawer(private val mOverlay: Overlay, size: Size) {
+class OverlayDrawer(private val mOverlay: Overlay, private val mSize: Size) {
 
     @VisibleForTesting
     var mTextureDrawer: GlTextureDrawer?
     private var mSurfaceTexture: SurfaceTexture?
     private var mSurface: Surface?
     private var mIssue514Workaround: Issue514Workaround?
+    private val mDirty = Rect()
+    private val mLastTransform = FloatArray(16)
+    private var mHasContent = false
 
     init {
         mTextureDrawer = GlTextureDrawer()
         mSurfaceTexture = SurfaceTexture(mTextureDrawer!!.texture.id)
-        mSurfaceTexture!!.setDefaultBufferSize(size.width, size.height)
+        mSurfaceTexture!!.setDefaultBufferSize(mSize.width, mSize.height)
         mSurface = Surface(mSurfaceTexture)
         mIssue514Workaround = Issue514Workaround(mTextureDrawer!!.texture.id)
     }
@@ -46,15 +55,28 @@ class OverlayDrawer(private val mOverlay: Overlay, size: Size) {
      * This will provide a working [Canvas] to the overlay and also update the
      * drawn contents to a GL_ES texture.
      *
+     * If the overlay did not change since the last call, the texture is left as is
+     * and only the transform is reset.
+     *
      * @param target the target
      */
     fun draw(target: Overlay.Target) {
+        val changed = mOverlay.getDirtyRegion(target, mSize.width, mSize.height, mDirty)
+        if (mHasContent && !changed) {
+            System.arraycopy(mLastTransform, 0, mTextureDrawer!!.textureTransform, 0, 16)
+            return
+        }
+        val full = !mHasContent
+                || (mDirty.width() >= mSize.width && mDirty.height() >= mSize.height)
         try {
             val surfaceCanvas: Canvas
             if (mOverlay.hardwareCanvasEnabled) {
+                // No dirty region support here, redraw everything.
                 surfaceCanvas = mSurface!!.lockHardwareCanvas()
             } else {
-                surfaceCanvas = mSurface!!.lockCanvas(null)
+                // The surface copies back the previous buffer outside of the dirty region,
+                // or expands the region if it can't.
+                surfaceCanvas = mSurface!!.lockCanvas(if (full) null else mDirty)
             }
             surfaceCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR)
             mOverlay.drawOn(target, surfaceCanvas)
@@ -66,11 +88,13 @@ class OverlayDrawer(private val mOverlay: Overlay, size: Size) {
             mIssue514Workaround!!.beforeOverlayUpdateTexImage()
             try {
                 mSurfaceTexture!!.updateTexImage()
+                mHasContent = true
             } catch (e: IllegalStateException) {
                 LOG.w("Got IllegalStateException while updating texture contents", e)
             }
         }
-        mSurfaceTexture!!.getTransformMatrix(mTextureDrawer!!.textureTransform)
+        mSurfaceTexture!!.getTransformMatrix(mLastTransform)
+        System.arraycopy(mLastTransform, 0, mTextureDrawer!!.textureTransform, 0, 16)
     }
 
     val transform: FloatArray?
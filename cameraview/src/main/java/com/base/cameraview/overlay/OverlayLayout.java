@@ -5,9 +5,11 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
 import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
@@ -17,6 +19,9 @@ import androidx.annotation.VisibleForTesting;
 import com.base.cameraview.CameraLogger;
 import com.base.cameraview.R;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 @SuppressLint("CustomViewStyleable")
 public class OverlayLayout extends FrameLayout implements Overlay {
@@ -28,6 +33,15 @@ public class OverlayLayout extends FrameLayout implements Overlay {
     Target currentTarget = Target.PREVIEW;
 
     private boolean mHardwareCanvasEnabled;
+    private volatile boolean mCachingEnabled;
+
+    // Region changed since the last drawOn(), for each target. Guarded by mDirtyLock.
+    private final Object mDirtyLock = new Object();
+    private final Rect[] mDirtyRects = new Rect[Target.values().length];
+    private final boolean[] mFullyDirty = new boolean[Target.values().length];
+    // Bounds of each child when it was last drawn on a snapshot target.
+    private final Map<View, Rect> mDrawnBounds = new HashMap<>();
+    private final Rect mTempRect = new Rect();
 
     /**
      * We set {@link #setWillNotDraw(boolean)} to false even if we don't draw anything.
@@ -42,6 +56,10 @@ public class OverlayLayout extends FrameLayout implements Overlay {
     public OverlayLayout(@NonNull Context context) {
         super(context);
         setWillNotDraw(false);
+        for (int i = 0; i < mDirtyRects.length; i++) {
+            mDirtyRects[i] = new Rect();
+        }
+        Arrays.fill(mFullyDirty, true);
     }
 
     /**
@@ -113,6 +131,127 @@ public class OverlayLayout extends FrameLayout implements Overlay {
         mHardwareCanvasEnabled = on;
     }
 
+    /**
+     * Returns true if snapshot drawers are allowed to reuse the last drawn overlays
+     * until some child is invalidated.
+     *
+     * @return true if caching
+     */
+    public boolean getCachingEnabled() {
+        return mCachingEnabled;
+    }
+
+    /**
+     * Lets snapshot drawers reuse the last drawn overlays until some child is invalidated,
+     * and redraw only the invalidated region. This saves a lot of work for static overlays
+     * like watermarks, but should not be used with children that change without calling
+     * {@link View#invalidate()}, like video players.
+     *
+     * @param on enabled
+     */
+    public void setCachingEnabled(boolean on) {
+        mCachingEnabled = on;
+        markDirty(null);
+    }
+
+    @Override
+    public boolean getDirtyRegion(@NonNull Target target, int width, int height,
+                                  @NonNull Rect outDirty) {
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        if (!mCachingEnabled || viewWidth == 0 || viewHeight == 0) {
+            outDirty.set(0, 0, width, height);
+            return true;
+        }
+        synchronized (mDirtyLock) {
+            int index = target.ordinal();
+            Rect dirty = mDirtyRects[index];
+            if (mFullyDirty[index]) {
+                outDirty.set(0, 0, width, height);
+            } else if (dirty.isEmpty()) {
+                return false;
+            } else {
+                // Same scale as drawOn(). Round outwards and leave room for antialiasing.
+                float widthScale = width / (float) viewWidth;
+                float heightScale = height / (float) viewHeight;
+                outDirty.set((int) Math.floor(dirty.left * widthScale) - 1,
+                        (int) Math.floor(dirty.top * heightScale) - 1,
+                        (int) Math.ceil(dirty.right * widthScale) + 1,
+                        (int) Math.ceil(dirty.bottom * heightScale) + 1);
+                if (!outDirty.intersect(0, 0, width, height)) {
+                    outDirty.setEmpty();
+                }
+            }
+            mFullyDirty[index] = false;
+            dirty.setEmpty();
+            return true;
+        }
+    }
+
+    /**
+     * Records a change of the given child, or of the whole layout if null.
+     * The child old bounds, if it was drawn, are also marked as changed.
+     */
+    private void markDirty(@Nullable View child) {
+        if (!mCachingEnabled) return;
+        synchronized (mDirtyLock) {
+            if (child == null) {
+                Arrays.fill(mFullyDirty, true);
+                return;
+            }
+            child.getHitRect(mTempRect);
+            Rect drawn = mDrawnBounds.get(child);
+            if (drawn != null) mTempRect.union(drawn);
+            for (Rect dirty : mDirtyRects) {
+                dirty.union(mTempRect);
+            }
+        }
+    }
+
+    @Override
+    public void onDescendantInvalidated(@NonNull View child, @NonNull View target) {
+        super.onDescendantInvalidated(child, target);
+        markDirty(child);
+    }
+
+    /**
+     * Only called when not hardware accelerated. We don't know which child changed,
+     * so the whole layout is marked as changed.
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        markDirty(null);
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        if (changed) {
+            markDirty(null);
+        } else {
+            for (int i = 0; i < getChildCount(); i++) {
+                markDirty(getChildAt(i));
+            }
+        }
+    }
+
+    @Override
+    public void onViewAdded(View child) {
+        super.onViewAdded(child);
+        markDirty(child);
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+        markDirty(child);
+        synchronized (mDirtyLock) {
+            mDrawnBounds.remove(child);
+        }
+    }
+
     /**
      * For {@link Target#PREVIEW}, this method is called by the View hierarchy. We will
      * just forward the call to super.
@@ -158,6 +297,16 @@ public class OverlayLayout extends FrameLayout implements Overlay {
     protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
         LayoutParams params = (LayoutParams) child.getLayoutParams();
         if (params.drawsOn(currentTarget)) {
+            if (mCachingEnabled && currentTarget != Target.PREVIEW) {
+                synchronized (mDirtyLock) {
+                    Rect drawn = mDrawnBounds.get(child);
+                    if (drawn == null) {
+                        drawn = new Rect();
+                        mDrawnBounds.put(child, drawn);
+                    }
+                    child.getHitRect(drawn);
+                }
+            }
             LOG.v("Performing drawing for view:", child.getClass().getSimpleName(), "target:", currentTarget, "params:", params);
             return doDrawChild(canvas, child, drawingTime);
         } else {
@@ -9,6 +9,7 @@ import android.media.Image
 import android.media.ImageReader
 import android.media.ImageReader.OnImageAvailableListener
 import androidx.exifinterface.media.ExifInterface
+import com.base.cameraview.CameraUtils
 import com.base.cameraview.PictureResult
 import com.base.cameraview.controls.PictureFormat
 import com.base.cameraview.engine.Camera2Engine
@@ -21,6 +22,7 @@ import com.base.cameraview.internal.WorkerHandler
 import java.io.BufferedOutputStream
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
+import java.io.File
 import java.io.IOException
 
 /**
@@ -39,6 +41,14 @@ class Full2PictureRecorder(
 
     private var mDngCreator: DngCreator? = null
 
+    private val mProcessor = WorkerHandler.get("PictureProcessing")
+    private val mWriter = WorkerHandler.get("PictureWriter")
+    private var mStartNanos = 0L
+    private var mImageNanos = 0L
+    private var mCopyNanos = 0L
+    private var mExifNanos = 0L
+    private var mWriteNanos = 0L
+
     init {
         mPictureReader.setOnImageAvailableListener(this, WorkerHandler.get().handler)
         mAction = object : BaseAction() {
@@ -97,11 +107,21 @@ class Full2PictureRecorder(
     }
 
     override fun take() {
+        mStartNanos = System.nanoTime()
         mAction.start(mHolder)
     }
 
+    /**
+     * First stage, on the reader thread: copies the image and closes it right away, so
+     * that the reader can receive the next picture. Then, the engine is notified that
+     * it can take the next picture while this one is processed, and the remaining
+     * stages are posted to the processing and writer threads. Both threads are shared by
+     * all recorders, so results keep the capture order.
+     */
     override fun onImageAvailable(reader: ImageReader) {
         LOG.i("onImageAvailable started.")
+        mImageNanos = System.nanoTime()
+        traceStage("copy")
         var image: Image? = null
         try {
             image = reader.acquireNextImage()
@@ -118,31 +138,76 @@ class Full2PictureRecorder(
         } finally {
             image?.close()
         }
-
-        // Leave.
+        mCopyNanos = System.nanoTime()
         LOG.i("onImageAvailable ended.")
+        dispatchOnCaptured()
+        mProcessor.post { process() }
+    }
+
+    /**
+     * Second stage: reads the EXIF rotation of JPEG pictures.
+     */
+    private fun process() {
+        val result = mResult ?: return
+        if (result.format == PictureFormat.JPEG) {
+            traceStage("exif")
+            result.rotation = readRotation(result.data)
+        }
+        mExifNanos = System.nanoTime()
+        mWriter.post { write(result, result.file) }
+    }
+
+    /**
+     * Third stage: writes the picture to the requested file, if any, and dispatches the
+     * result. Pictures with no file go through this thread too, so results keep the
+     * capture order.
+     */
+    private fun write(result: PictureResult.Stub, file: File?) {
+        if (file != null) {
+            traceStage("write")
+            if (CameraUtils.writeToFile(result.data, file) != null) {
+                result.isFileWritten = true
+            } else {
+                mResult = null
+                mError = IOException("Could not write $file")
+            }
+            mWriteNanos = System.nanoTime()
+        }
+        logTimings()
         dispatchResult()
     }
 
+    private fun logTimings() {
+        LOG.i(
+            "Picture timings (ms):",
+            "capture", (mImageNanos - mStartNanos) / 1000000F,
+            "copy", (mCopyNanos - mImageNanos) / 1000000F,
+            "exif", (mExifNanos - mCopyNanos) / 1000000F,
+            "write", if (mWriteNanos > 0) (mWriteNanos - mExifNanos) / 1000000F else 0F
+        )
+    }
+
     private fun readJpegImage(image: Image) {
         val buffer = image.planes[0].buffer
         val bytes = ByteArray(buffer.remaining())
         buffer.get(bytes)
         mResult?.data = bytes
+    }
 
+    private fun readRotation(data: ByteArray): Int {
         // Just like Camera1, unfortunately, the camera might rotate the image
         // and put EXIF=0 instead of respecting our EXIF and leave the image unaltered.
-        mResult?.rotation = 0
         try {
-            val exif = ExifInterface(ByteArrayInputStream(mResult?.data))
+            val exif = ExifInterface(ByteArrayInputStream(data))
             val exifOrientation = exif.getAttributeInt(
                 ExifInterface.TAG_ORIENTATION,
                 ExifInterface.ORIENTATION_NORMAL
             )
-            mResult?.rotation = getOrientation(exifOrientation)
+            return getOrientation(exifOrientation)
         } catch (ignore: IOException) {
             // Should not happen
             ignore.printStackTrace()
+            return 0
         }
     }
 
@@ -1,6 +1,7 @@
 package com.base.cameraview.picture
 
 import androidx.annotation.VisibleForTesting
+import com.base.cameraview.CameraTracer
 import com.base.cameraview.PictureResult
 
 /**
@@ -21,6 +22,11 @@ abstract class PictureRecorder(
     @VisibleForTesting
     var mListener: PictureResultListener?
 
+    // The whole operation, then the current stage: capture until shutter, then processing.
+    private val mSpan: CameraTracer.Span?
+    private var mStageSpan: CameraTracer.Span?
+    private var mShutterDispatched = false
+
     /**
      * Creates a new picture recorder.
      *
@@ -30,6 +36,9 @@ abstract class PictureRecorder(
     init {
         mResult = stub
         mListener = listener
+        val name = javaClass.simpleName
+        mSpan = CameraTracer.begin(CameraTracer.CATEGORY_PICTURE, name)
+        mStageSpan = CameraTracer.begin(CameraTracer.CATEGORY_PICTURE, "$name capture")
     }
 
     /**
@@ -44,14 +53,46 @@ abstract class PictureRecorder(
      * @param didPlaySound whether it played sounds
      */
     protected fun dispatchOnShutter(didPlaySound: Boolean) {
+        if (!mShutterDispatched) {
+            mShutterDispatched = true
+            CameraTracer.end(mStageSpan)
+            mStageSpan = CameraTracer.begin(
+                CameraTracer.CATEGORY_PICTURE, "${javaClass.simpleName} processing"
+            )
+        }
         if (mListener != null) mListener!!.onPictureShutter(didPlaySound)
     }
 
+    /**
+     * Subclasses can call this when the capture is done and only processing is left,
+     * to let the listener take other pictures meanwhile. If the listener returns
+     * another listener, the result will be dispatched there.
+     */
+    protected fun dispatchOnCaptured() {
+        val listener = mListener?.onPictureCaptured()
+        if (listener != null) mListener = listener
+    }
+
+    /**
+     * Subclasses can call this to trace the processing stages, after the shutter.
+     * Ends the current stage and starts a new one with the given name.
+     *
+     * @param stage the stage name
+     */
+    protected fun traceStage(stage: String) {
+        CameraTracer.end(mStageSpan)
+        mStageSpan = CameraTracer.begin(
+            CameraTracer.CATEGORY_PICTURE, "${javaClass.simpleName} $stage"
+        )
+    }
+
     /**
      * Subclasses can call this to notify that the result was obtained,
      * either with some error (null result) or with the actual stub, filled.
      */
     protected open fun dispatchResult() {
+        CameraTracer.end(mStageSpan, mError)
+        CameraTracer.end(mSpan, mError)
         if (mListener != null) {
             mListener!!.onPictureResult(mResult, mError)
             mListener = null
@@ -70,6 +111,15 @@ abstract class PictureRecorder(
          */
         fun onPictureShutter(didPlaySound: Boolean)
 
+        /**
+         * The capture is done and the picture is being processed in background.
+         * Listeners can return another listener for the result of this picture,
+         * so that they can take the next picture meanwhile.
+         *
+         * @return a listener for the result, or null to receive it here
+         */
+        fun onPictureCaptured(): PictureResultListener? = null
+
         /**
          * Picture was taken or there was some error, if
          * the result is null.
@@ -1,15 +1,15 @@
 package com.base.cameraview.picture
 
+import android.graphics.Rect
 import android.graphics.YuvImage
 import android.hardware.Camera
 import com.base.cameraview.PictureResult
 import com.base.cameraview.engine.Camera1Engine
 import com.base.cameraview.engine.offset.Reference
 import com.base.cameraview.internal.CropHelper
-import com.base.cameraview.internal.RotationHelper
 import com.base.cameraview.internal.WorkerHandler
+import com.base.cameraview.internal.YuvTransformer
 import com.base.cameraview.size.AspectRatio
-import com.base.cameraview.size.Size
 import java.io.ByteArrayOutputStream
 
 /**
@@ -49,18 +49,22 @@ class Snapshot1PictureRecorder(
                     dispatchResult()
                     return@execute
                 }
-                var data = RotationHelper.rotate(yuv, previewStreamSize, sensorToOutput)
-                val yuv = YuvImage(
-                    data, mFormat, outputSize.width, outputSize.height, null
+                // Rotate and crop in a single pass, into a recycled buffer.
+                val crop = YuvTransformer.alignCrop(
+                    CropHelper.computeCrop(outputSize, mOutputRatio!!)
                 )
+                val buffer = YuvTransformer.obtainBuffer(crop.width() * crop.height() * 3 / 2)
+                val size = YuvTransformer.transform(
+                    yuv, previewStreamSize, sensorToOutput, false, crop, buffer
+                )
+                val image = YuvImage(buffer, mFormat, size.width, size.height, null)
 
                 val stream = ByteArrayOutputStream()
-                val outputRect = CropHelper.computeCrop(outputSize, mOutputRatio!!)
-                yuv.compressToJpeg(outputRect, 90, stream)
-                data = stream.toByteArray()
+                image.compressToJpeg(Rect(0, 0, size.width, size.height), 90, stream)
+                YuvTransformer.recycleBuffer(buffer)
 
-                mResult!!.data = data
-                mResult!!.size = Size(outputRect.width(), outputRect.height())
+                mResult!!.data = stream.toByteArray()
+                mResult!!.size = size
                 mResult!!.rotation = 0
                 dispatchResult()
             }
@@ -0,0 +1,407 @@
+package com.base.cameraview.picture
+
+import android.graphics.Bitmap
+import android.graphics.SurfaceTexture
+import android.opengl.GLES20
+import android.opengl.GLES30
+import android.opengl.Matrix
+import android.os.Handler
+import android.os.Looper
+import com.base.cameraview.BurstCallback
+import com.base.cameraview.CameraLogger
+import com.base.cameraview.PictureResult
+import com.base.cameraview.filter.Filter
+import com.base.cameraview.internal.CropHelper
+import com.base.cameraview.internal.GlFramebufferPool
+import com.base.cameraview.internal.GlTextureDrawer
+import com.base.cameraview.internal.RingBuffer
+import com.base.cameraview.overlay.Overlay
+import com.base.cameraview.overlay.OverlayDrawer
+import com.base.cameraview.preview.RendererCameraPreview
+import com.base.cameraview.preview.RendererFrameCallback
+import com.base.cameraview.preview.RendererThread
+import com.base.cameraview.size.AspectRatio
+import com.base.cameraview.size.Size
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Takes a burst of picture snapshots from the [RendererCameraPreview], at a target rate.
+ *
+ * Unlike [SnapshotGlPictureRecorder], which draws each picture on a separate EGL surface
+ * and reads it synchronously, this works as a pipeline:
+ *
+ * - On the [RendererThread], the frame is drawn into an offscreen framebuffer, with the same
+ * transformations, filter and overlays of a single snapshot.
+ * - On GLES 3 contexts, pixels are read into a pixel buffer object. glReadPixels returns
+ * immediately, and the buffer is mapped during the next renderer frame, so the preview
+ * never waits for the GPU. On older contexts we fall back to a plain glReadPixels.
+ * - JPEG compression runs on a small pool of encoder threads, so several pictures
+ * can be compressed while the next ones are being captured.
+ * - Results are put back in capture order and passed to the [BurstCallback] on the UI thread.
+ *
+ * The number of pictures in flight is bounded by [MAX_IN_FLIGHT] pixel buffers.
+ * When all of them are busy, the frame is skipped and we try again on the next one.
+ */
+class SnapshotGlBurstRecorder(
+    private val mStub: PictureResult.Stub,
+    private val mListener: Listener?,
+    private val mPreview: RendererCameraPreview,
+    outputRatio: AspectRatio,
+    overlay: Overlay?,
+    private val mCount: Int,
+    fps: Float,
+    private val mCallback: BurstCallback
+) : RendererFrameCallback {
+
+    private val mOutputRatio = outputRatio
+    private val mOverlay: Overlay? = overlay
+    private val mHasOverlay = overlay != null && overlay.drawsOn(Overlay.Target.PICTURE_SNAPSHOT)
+    private val mIntervalUs = (1000000F / fps).toLong()
+    private val mUiHandler = Handler(Looper.getMainLooper())
+    private val mEncoder: ThreadPoolExecutor
+
+    // Renderer thread state
+    private var mTextureDrawer: GlTextureDrawer? = null
+    private var mOverlayDrawer: OverlayDrawer? = null
+    private var mOutputSize: Size? = null
+    private var mTarget: GlFramebufferPool.Target? = null
+    private val mPixelBuffer = IntArray(1)
+    private val mViewport = IntArray(4)
+    private var mUsePixelBuffer = false
+    private var mPending: Capture? = null
+    private var mLastCaptureUs = -1L
+    private var mAllocatedBuffers = 0
+    private var mReleased = false
+
+    // Shared state
+    private val mFreeBuffers = RingBuffer<ByteBuffer>(MAX_IN_FLIGHT)
+    private val mLock = Any()
+    private val mResults = arrayOfNulls<PictureResult.Stub>(mCount)
+    private val mEncoded = BooleanArray(mCount)
+    private var mSubmitted = 0
+    private var mNextDelivery = 0
+    private var mDelivered = 0
+    private var mCaptureEnded = false
+    private var mEnded = false
+    private var mSkipped = 0
+
+    @Volatile
+    private var mStopped = false
+
+    init {
+        require(mCount >= 1) { "Need at least 1 picture, got $mCount" }
+        require(fps > 0F) { "Need a positive rate, got $fps" }
+        val threads = min(max(Runtime.getRuntime().availableProcessors() / 2, 1), MAX_ENCODERS)
+        mEncoder = ThreadPoolExecutor(
+            threads, threads, 2, TimeUnit.SECONDS,
+            LinkedBlockingQueue()
+        ) { r -> Thread(r, "BurstEncoder #" + THREAD_COUNT.getAndIncrement()) }
+        mEncoder.allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Starts capturing.
+     */
+    fun start() {
+        LOG.i("start:", "count:", mCount, "intervalUs:", mIntervalUs)
+        mPreview.addRendererFrameCallback(this)
+    }
+
+    /**
+     * Stops capturing. Pictures that were already captured are still compressed
+     * and passed to the callback, then [BurstCallback.onBurstEnd] is called.
+     * GL resources are released during the next renderer frame, if any:
+     * otherwise they go away with the EGL context.
+     */
+    fun stop() {
+        LOG.i("stop:", "stopping the burst.")
+        mStopped = true
+        endCapture()
+    }
+
+    @RendererThread
+    override fun onRendererTextureCreated(textureId: Int) {
+        // Might be a new EGL context: old GL objects, if any, died with the old one.
+        mTextureDrawer = GlTextureDrawer(textureId)
+        mTarget = null
+        mPixelBuffer[0] = 0
+        mPending?.let { mFreeBuffers.offer(it.buffer) }
+        mPending = null
+
+        val size = mOutputSize ?: run {
+            val uncropped = mStub.size ?: Size.defaultSize()
+            val crop = CropHelper.computeCrop(uncropped, mOutputRatio)
+            Size(crop.width(), crop.height()).also { mOutputSize = it }
+        }
+        if (mHasOverlay) {
+            mOverlayDrawer = OverlayDrawer(mOverlay!!, size)
+        }
+    }
+
+    @RendererThread
+    override fun onRendererFilterChanged(filter: Filter) {
+        mTextureDrawer?.setFilter(filter.copy())
+    }
+
+    @RendererThread
+    override fun onRendererFrame(
+        surfaceTexture: SurfaceTexture,
+        rotation: Int,
+        scaleX: Float,
+        scaleY: Float
+    ) {
+        val drawer = mTextureDrawer ?: return
+        if (mReleased) return
+        // 1. Collect the picture that was read during the previous frame.
+        mPending?.let {
+            mPending = null
+            collect(it)
+        }
+        if (mStopped || synchronized(mLock) { mCaptureEnded || mSubmitted >= mCount }) {
+            endCapture()
+            release()
+            return
+        }
+
+        // 2. Check if it's time for another picture and if we have room for it.
+        val timeUs = surfaceTexture.timestamp / 1000L
+        if (mLastCaptureUs >= 0 && timeUs - mLastCaptureUs < mIntervalUs) return
+        val size = mOutputSize!!
+        val buffer = mFreeBuffers.poll() ?: if (mAllocatedBuffers < MAX_IN_FLIGHT) {
+            mAllocatedBuffers++
+            ByteBuffer.allocateDirect(size.width * size.height * 4)
+                .order(ByteOrder.nativeOrder())
+        } else {
+            LOG.v("onRendererFrame: encoders are busy. Skipping frame", timeUs)
+            synchronized(mLock) { mSkipped++ }
+            return
+        }
+        mLastCaptureUs = timeUs
+        if (mTarget == null) allocate(size)
+
+        // 3. Draw and read.
+        draw(drawer, surfaceTexture, rotation, scaleX, scaleY, size, timeUs)
+        if (mUsePixelBuffer) {
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0])
+            GLES30.glReadPixels(
+                0, 0, size.width, size.height,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0
+            )
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0)
+            mPending = Capture(buffer, timeUs)
+        } else {
+            buffer.clear()
+            GLES20.glReadPixels(
+                0, 0, size.width, size.height,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer
+            )
+            submit(Capture(buffer, timeUs))
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0)
+    }
+
+    @RendererThread
+    private fun draw(
+        drawer: GlTextureDrawer,
+        surfaceTexture: SurfaceTexture,
+        rotation: Int,
+        scaleX: Float,
+        scaleY: Float,
+        size: Size,
+        timeUs: Long
+    ) {
+        // Same transformations as SnapshotGlPictureRecorder.
+        val transform = drawer.textureTransform
+        surfaceTexture.getTransformMatrix(transform)
+        val scaleTranslX = (1f - scaleX) / 2f
+        val scaleTranslY = (1f - scaleY) / 2f
+        Matrix.translateM(transform, 0, scaleTranslX, scaleTranslY, 0f)
+        Matrix.scaleM(transform, 0, scaleX, scaleY, 1f)
+        Matrix.translateM(transform, 0, 0.5f, 0.5f, 0f)
+        Matrix.rotateM(transform, 0, (rotation + mStub.rotation).toFloat(), 0f, 0f, 1f)
+        Matrix.scaleM(transform, 0, 1f, -1f, 1f) // Vertical flip because we'll use glReadPixels
+        Matrix.translateM(transform, 0, -0.5f, -0.5f, 0f)
+        if (mHasOverlay) {
+            val overlayDrawer = mOverlayDrawer!!
+            overlayDrawer.draw(Overlay.Target.PICTURE_SNAPSHOT)
+            val overlayTransform = overlayDrawer.transform!!
+            Matrix.translateM(overlayTransform, 0, 0.5f, 0.5f, 0f)
+            Matrix.rotateM(overlayTransform, 0, mStub.rotation.toFloat(), 0f, 0f, 1f)
+            Matrix.scaleM(overlayTransform, 0, 1f, -1f, 1f)
+            Matrix.translateM(overlayTransform, 0, -0.5f, -0.5f, 0f)
+        }
+
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mViewport, 0)
+        mTarget!!.framebuffer.bind()
+        GLES20.glViewport(0, 0, size.width, size.height)
+        drawer.draw(timeUs)
+        if (mHasOverlay) mOverlayDrawer!!.render(timeUs)
+        GLES20.glViewport(mViewport[0], mViewport[1], mViewport[2], mViewport[3])
+    }
+
+    @RendererThread
+    private fun collect(capture: Capture) {
+        val buffer = capture.buffer
+        buffer.clear()
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0])
+        val mapped = GLES30.glMapBufferRange(
+            GLES30.GL_PIXEL_PACK_BUFFER, 0, buffer.capacity(), GLES30.GL_MAP_READ_BIT
+        ) as ByteBuffer?
+        if (mapped != null) {
+            buffer.put(mapped)
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER)
+        }
+        GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0)
+        if (mapped == null) {
+            LOG.w("collect: could not map pixel buffer. Dropping frame", capture.timeUs)
+            mFreeBuffers.offer(buffer)
+            return
+        }
+        submit(capture)
+    }
+
+    @RendererThread
+    private fun submit(capture: Capture) {
+        val index: Int
+        synchronized(mLock) {
+            if (mCaptureEnded) {
+                mFreeBuffers.offer(capture.buffer)
+                return
+            }
+            index = mSubmitted++
+        }
+        val stub = PictureResult.Stub()
+        stub.isSnapshot = true
+        stub.location = mStub.location
+        stub.facing = mStub.facing
+        stub.format = mStub.format
+        stub.size = mOutputSize
+        stub.rotation = 0 // We have rotated the texture.
+        mEncoder.execute { encode(index, stub, capture.buffer) }
+    }
+
+    private fun encode(index: Int, stub: PictureResult.Stub, buffer: ByteBuffer) {
+        val size = stub.size!!
+        var result: PictureResult.Stub? = null
+        try {
+            val bitmap = Bitmap.createBitmap(size.width, size.height, Bitmap.Config.ARGB_8888)
+            buffer.rewind()
+            bitmap.copyPixelsFromBuffer(buffer)
+            mFreeBuffers.offer(buffer)
+            val stream = ByteArrayOutputStream()
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream)
+            bitmap.recycle()
+            stub.data = stream.toByteArray()
+            result = stub
+        } catch (e: Exception) {
+            LOG.w("encode: could not compress picture", index, e)
+            mFreeBuffers.offer(buffer)
+        } catch (e: OutOfMemoryError) {
+            LOG.w("encode: out of memory while compressing picture", index, e)
+            mFreeBuffers.offer(buffer)
+        }
+        onEncoded(index, result)
+    }
+
+    private fun onEncoded(index: Int, result: PictureResult.Stub?) {
+        synchronized(mLock) {
+            mResults[index] = result
+            mEncoded[index] = true
+            // Posting under the lock keeps the callbacks in order.
+            while (mNextDelivery < mCount && mEncoded[mNextDelivery]) {
+                val next = mNextDelivery++
+                val stub = mResults[next] ?: continue
+                mResults[next] = null
+                val position = mDelivered++
+                mUiHandler.post { mCallback.onBurstPicture(PictureResult(stub), position) }
+            }
+            maybeEnd()
+        }
+    }
+
+    private fun endCapture() {
+        synchronized(mLock) {
+            if (mCaptureEnded) return
+            mCaptureEnded = true
+            maybeEnd()
+        }
+    }
+
+    private fun maybeEnd() {
+        if (mEnded || !mCaptureEnded || mNextDelivery < mSubmitted) return
+        mEnded = true
+        val delivered = mDelivered
+        LOG.i(
+            "end:", "captured:", mSubmitted, "delivered:", delivered,
+            "skipped:", mSkipped
+        )
+        mEncoder.shutdown()
+        mUiHandler.post { mCallback.onBurstEnd(delivered) }
+        mListener?.onBurstEnd(this)
+    }
+
+    @RendererThread
+    private fun allocate(size: Size) {
+        mTarget = GlFramebufferPool.acquire(size.width, size.height)
+        val version = GLES20.glGetString(GLES20.GL_VERSION)
+        mUsePixelBuffer = version != null && version.startsWith("OpenGL ES 3")
+        if (mUsePixelBuffer) {
+            GLES20.glGenBuffers(1, mPixelBuffer, 0)
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPixelBuffer[0])
+            GLES20.glBufferData(
+                GLES30.GL_PIXEL_PACK_BUFFER, size.width * size.height * 4,
+                null, GLES30.GL_STREAM_READ
+            )
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0)
+        }
+    }
+
+    @RendererThread
+    private fun release() {
+        mReleased = true
+        mPreview.removeRendererFrameCallback(this)
+        mPending?.let { mFreeBuffers.offer(it.buffer) }
+        mPending = null
+        mTarget?.let { GlFramebufferPool.recycle(it) }
+        mTarget = null
+        if (mPixelBuffer[0] != 0) {
+            GLES20.glDeleteBuffers(1, mPixelBuffer, 0)
+            mPixelBuffer[0] = 0
+        }
+        mTextureDrawer?.release()
+        mOverlayDrawer?.release()
+        mOverlayDrawer = null
+    }
+
+    private class Capture(val buffer: ByteBuffer, val timeUs: Long)
+
+    /**
+     * Listens for the end of a burst.
+     */
+    interface Listener {
+        /**
+         * The burst is over: all pictures were passed to the callback.
+         *
+         * @param recorder the recorder
+         */
+        fun onBurstEnd(recorder: SnapshotGlBurstRecorder)
+    }
+
+    companion object {
+        private val TAG: String = SnapshotGlBurstRecorder::class.java.simpleName
+        private val LOG: CameraLogger = CameraLogger.create(TAG)
+        private val THREAD_COUNT = AtomicInteger(1)
+
+        private const val MAX_ENCODERS = 3
+        private const val MAX_IN_FLIGHT = 4
+        private const val JPEG_QUALITY = 90
+    }
+}
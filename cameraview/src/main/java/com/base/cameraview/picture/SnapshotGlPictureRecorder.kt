@@ -9,6 +9,8 @@ import androidx.annotation.WorkerThread
 import com.base.cameraview.PictureResult
 import com.base.cameraview.filter.Filter
 import com.base.cameraview.internal.CropHelper
+import com.base.cameraview.internal.GlFramebufferPool
+import com.base.cameraview.internal.GlProgramCache
 import com.base.cameraview.internal.GlTextureDrawer
 import com.base.cameraview.internal.WorkerHandler
 import com.base.cameraview.overlay.Overlay
@@ -31,7 +33,8 @@ import com.otaliastudios.opengl.surface.EglWindowSurface
  * - We get the textureId and the frame callback on the [RendererThread]
  * - [Optional: we construct another textureId for overlays]
  * - We take a handle of the EGL context from the [RendererThread]
- * - We move to another thread, and create a new EGL surface for that EGL context.
+ * - We move to another thread, and create a new EGL surface for that EGL context,
+ * or reuse the one of a recent snapshot, so bursts don't pay for EGL setup each time.
  * - We make this new surface current, and re-draw the textureId on it
  * - [Optional: fill the overlayTextureId and draw it on the same surface]
  * - We use glReadPixels (through [EglSurface.toByteArray])
@@ -160,19 +163,20 @@ open class SnapshotGlPictureRecorder(
         scaleY: Float,
         eglContext: EGLContext
     ) {
-        // 0. EGL window will need an output.
-        // We create a fake one as explained in javadocs.
-
-        val fakeOutputTextureId = 9999
-        val fakeOutputSurface = SurfaceTexture(fakeOutputTextureId)
-        fakeOutputSurface.setDefaultBufferSize(
+        // 0-1. Get an EGL surface, reusing the one of the previous snapshot if possible.
+        val outputSize = Size(
             mResult!!.size?.width ?: Size.DEFAULT_WIDTH,
             mResult!!.size?.height ?: Size.DEFAULT_HEIGHT
         )
-
-        // 1. Create an EGL surface
-        val core = EglCore(eglContext, EglCore.Companion.FLAG_RECORDABLE)
-        val eglSurface: EglSurface = EglWindowSurface(core, fakeOutputSurface)
+        val worker = WorkerHandler.get()
+        worker.remove(RELEASE_SURFACE)
+        var surface = sSurface
+        if (surface == null || !surface.matches(eglContext, outputSize)) {
+            surface?.release()
+            surface = SnapshotSurface(eglContext, outputSize)
+            sSurface = surface
+        }
+        val eglSurface: EglSurface = surface.eglSurface
         eglSurface.makeCurrent()
         val transform = mTextureDrawer!!.textureTransform
 
@@ -216,12 +220,10 @@ open class SnapshotGlPictureRecorder(
         if (mHasOverlay) mOverlayDrawer!!.render(timestampUs)
         mResult!!.data = eglSurface.toByteArray(Bitmap.CompressFormat.JPEG)
 
-        // 6. Cleanup
-        eglSurface.release()
+        // 6. Cleanup. The EGL surface is kept for a while, in case another snapshot comes.
         mTextureDrawer!!.release()
-        fakeOutputSurface.release()
         if (mHasOverlay) mOverlayDrawer!!.release()
-        core.release()
+        worker.post(SURFACE_IDLE_TIMEOUT_MILLIS, RELEASE_SURFACE)
         dispatchResult()
     }
 
@@ -229,4 +231,52 @@ open class SnapshotGlPictureRecorder(
         mOutputRatio = null
         super.dispatchResult()
     }
+
+    /**
+     * The EGL objects needed to draw a snapshot. We don't have a real output window
+     * for the EGL surface, so we create a fake one as explained in [takeFrame] docs.
+     * Lives on the [WorkerHandler] fallback thread.
+     */
+    private class SnapshotSurface(val sharedContext: EGLContext, val size: Size) {
+        private val generation = GlFramebufferPool.generation
+        private val fakeOutputSurface = SurfaceTexture(FAKE_OUTPUT_TEXTURE_ID)
+        private val core: EglCore
+        val eglSurface: EglSurface
+        private val context: EGLContext
+
+        init {
+            fakeOutputSurface.setDefaultBufferSize(size.width, size.height)
+            core = EglCore(sharedContext, EglCore.Companion.FLAG_RECORDABLE)
+            eglSurface = EglWindowSurface(core, fakeOutputSurface)
+            eglSurface.makeCurrent()
+            context = EGL14.eglGetCurrentContext()
+            GlProgramCache.onContextCreated(context)
+        }
+
+        fun matches(sharedContext: EGLContext, size: Size): Boolean {
+            return this.sharedContext == sharedContext && this.size == size
+                    && generation == GlFramebufferPool.generation
+        }
+
+        fun release() {
+            eglSurface.makeCurrent()
+            GlProgramCache.onContextReleased(context)
+            GlFramebufferPool.onContextReleased(context)
+            eglSurface.release()
+            fakeOutputSurface.release()
+            core.release()
+        }
+    }
+
+    companion object {
+        private const val FAKE_OUTPUT_TEXTURE_ID = 9999
+        private const val SURFACE_IDLE_TIMEOUT_MILLIS = 2000L
+
+        // Only accessed from the WorkerHandler fallback thread.
+        private var sSurface: SnapshotSurface? = null
+        private val RELEASE_SURFACE = Runnable {
+            sSurface?.release()
+            sSurface = null
+        }
+    }
 }
@@ -2,6 +2,7 @@ package com.base.cameraview.preview;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.view.LayoutInflater;
@@ -13,9 +14,12 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import com.base.cameraview.CameraTracer;
 import com.base.cameraview.R;
 import com.base.cameraview.filter.Filter;
 import com.base.cameraview.filter.NoFilter;
+import com.base.cameraview.internal.GlFramebufferPool;
+import com.base.cameraview.internal.GlProgramCache;
 import com.base.cameraview.internal.GlTextureDrawer;
 import com.base.cameraview.size.AspectRatio;
 
@@ -271,6 +275,8 @@ public class GlCameraPreview extends CameraPreview<GLSurfaceView, SurfaceTexture
             if (mCurrentFilter == null) {
                 mCurrentFilter = new NoFilter();
             }
+            GlProgramCache.INSTANCE.onContextCreated(EGL14.eglGetCurrentContext());
+            GlFramebufferPool.INSTANCE.onContextCreated(EGL14.eglGetCurrentContext());
             mOutputTextureDrawer = new GlTextureDrawer();
             mOutputTextureDrawer.setFilter(mCurrentFilter);
             final int textureId = mOutputTextureDrawer.getTexture().getId();
@@ -306,6 +312,8 @@ public class GlCameraPreview extends CameraPreview<GLSurfaceView, SurfaceTexture
                 mOutputTextureDrawer.release();
                 mOutputTextureDrawer = null;
             }
+            GlProgramCache.INSTANCE.onContextReleased(EGL14.eglGetCurrentContext());
+            GlFramebufferPool.INSTANCE.onContextReleased(EGL14.eglGetCurrentContext());
         }
 
         @RendererThread
@@ -358,6 +366,9 @@ public class GlCameraPreview extends CameraPreview<GLSurfaceView, SurfaceTexture
             }
 
             mOutputTextureDrawer.draw(mInputSurfaceTexture.getTimestamp() / 1000L);
+            if (mInputSurfaceTexture.getTimestamp() != 0) {
+                CameraTracer.endMilestone(CameraTracer.FIRST_FRAME);
+            }
             for (RendererFrameCallback callback : mRendererFrameCallbacks) {
                 try {
                     callback.onRendererFrame(mInputSurfaceTexture, mDrawRotation, mCropScaleX, mCropScaleY);
@@ -3,7 +3,7 @@ package com.base.cameraview.size;
 import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -11,9 +11,14 @@ import java.util.HashMap;
  */
 public class AspectRatio implements Comparable<AspectRatio> {
 
+    // Keyed by the packed reduced values, see key().
     @VisibleForTesting
-    final static HashMap<String, AspectRatio> sCache
-            = new HashMap<>(16);
+    final static ConcurrentHashMap<Long, AspectRatio> sCache
+            = new ConcurrentHashMap<>(16);
+    // Keyed by the packed original values, so that sizes we have already seen skip the GCD.
+    private final static ConcurrentHashMap<Long, AspectRatio> sIndex
+            = new ConcurrentHashMap<>(64);
+    private final static int MAX_INDEX_SIZE = 256;
     private final int mX;
     private final int mY;
 
@@ -42,18 +47,28 @@ public class AspectRatio implements Comparable<AspectRatio> {
      */
     @NonNull
     public static AspectRatio of(int x, int y) {
+        long original = key(x, y);
+        AspectRatio indexed = sIndex.get(original);
+        if (indexed != null) return indexed;
         int gcd = gcd(x, y);
         if (gcd > 0) x /= gcd;
         if (gcd > 0) y /= gcd;
-        String key = x + ":" + y;
-        AspectRatio cached = sCache.get(key);
+        long reduced = key(x, y);
+        AspectRatio cached = sCache.get(reduced);
         if (cached == null) {
-            cached = new AspectRatio(x, y);
-            sCache.put(key, cached);
+            AspectRatio created = new AspectRatio(x, y);
+            cached = sCache.putIfAbsent(reduced, created);
+            if (cached == null) cached = created;
         }
+        // Device sizes are a few dozens, but don't let arbitrary values grow the index.
+        if (sIndex.size() < MAX_INDEX_SIZE) sIndex.put(original, cached);
         return cached;
     }
 
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
     /**
      * Parses an aspect ratio string, for example those previously obtained
      * with {@link #toString()}.
@@ -91,12 +106,13 @@ public class AspectRatio implements Comparable<AspectRatio> {
         return mY;
     }
 
+    // Same value as AspectRatio.of(size).toFloat(), without reducing.
     public boolean matches(@NonNull Size size) {
-        return equals(AspectRatio.of(size));
+        return toFloat() == (float) size.getWidth() / size.getHeight();
     }
 
     public boolean matches(@NonNull Size size, float tolerance) {
-        return Math.abs(toFloat() - AspectRatio.of(size).toFloat()) <= tolerance;
+        return Math.abs(toFloat() - (float) size.getWidth() / size.getHeight()) <= tolerance;
     }
 
     @Override
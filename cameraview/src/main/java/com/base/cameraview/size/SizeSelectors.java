@@ -1,16 +1,82 @@
 package com.base.cameraview.size;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Static utilities to create, join and merge {@link SizeSelector}s instances.
+ * <p>
+ * Selectors created here, except those using a custom {@link Filter}, only depend on their
+ * parameters and compare by value. This lets {@link #select(SizeSelector, List)} cache their
+ * results, so that running the same negotiation again is just a lookup.
  */
 public class SizeSelectors {
 
+    private static final int CACHE_SIZE = 32;
+
+    private static final SizeSelector BIGGEST = new SortSelector(true);
+    private static final SizeSelector SMALLEST = new SortSelector(false);
+
+    @SuppressWarnings("serial")
+    private static final Map<CacheKey, List<Size>> sCache
+            = new LinkedHashMap<CacheKey, List<Size>>(CACHE_SIZE, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, List<Size>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Returns the output of the given selector for the given sizes, like
+     * {@link SizeSelector#select(List)}, without modifying the input list.
+     * <p>
+     * If the selector was entirely built with this class, results are cached
+     * for each input list, so that evaluating it again with the same sizes does not
+     * filter or sort anything. Other selectors are simply run.
+     *
+     * @param selector the selector
+     * @param source   the input list
+     * @return a new output list
+     */
+    @NonNull
+    public static List<Size> select(@NonNull SizeSelector selector, @NonNull List<Size> source) {
+        if (!isCacheable(selector)) {
+            return new ArrayList<>(selector.select(new ArrayList<>(source)));
+        }
+        CacheKey key = new CacheKey(selector, new ArrayList<>(source));
+        List<Size> result;
+        synchronized (sCache) {
+            result = sCache.get(key);
+        }
+        if (result == null) {
+            result = new ArrayList<>(selector.select(new ArrayList<>(source)));
+            synchronized (sCache) {
+                sCache.put(key, result);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static boolean isCacheable(@Nullable SizeSelector selector) {
+        if (selector instanceof SortSelector) return true;
+        if (selector instanceof FilterSelector) return ((FilterSelector) selector).key != null;
+        SizeSelector[] children = null;
+        if (selector instanceof AndSelector) children = ((AndSelector) selector).values;
+        if (selector instanceof OrSelector) children = ((OrSelector) selector).values;
+        if (children == null) return false;
+        for (SizeSelector child : children) {
+            if (!isCacheable(child)) return false;
+        }
+        return true;
+    }
+
     /**
      * Returns a new {@link SizeSelector} with the given {@link Filter}.
      * This kind of selector will respect the order in the source array.
@@ -21,7 +87,7 @@ public class SizeSelectors {
     @SuppressWarnings("WeakerAccess")
     @NonNull
     public static SizeSelector withFilter(@NonNull Filter filter) {
-        return new FilterSelector(filter);
+        return new FilterSelector(filter, null);
     }
 
     /**
@@ -33,12 +99,12 @@ public class SizeSelectors {
      */
     @NonNull
     public static SizeSelector maxWidth(final int width) {
-        return withFilter(new Filter() {
+        return new FilterSelector(new Filter() {
             @Override
             public boolean accepts(@NonNull Size size) {
                 return size.getWidth() <= width;
             }
-        });
+        }, Arrays.asList("maxWidth", width));
     }
 
     /**
@@ -50,12 +116,12 @@ public class SizeSelectors {
      */
     @NonNull
     public static SizeSelector minWidth(final int width) {
-        return withFilter(new Filter() {
+        return new FilterSelector(new Filter() {
             @Override
             public boolean accepts(@NonNull Size size) {
                 return size.getWidth() >= width;
             }
-        });
+        }, Arrays.asList("minWidth", width));
     }
 
     /**
@@ -68,12 +134,12 @@ public class SizeSelectors {
     @SuppressWarnings("WeakerAccess")
     @NonNull
     public static SizeSelector maxHeight(final int height) {
-        return withFilter(new Filter() {
+        return new FilterSelector(new Filter() {
             @Override
             public boolean accepts(@NonNull Size size) {
                 return size.getHeight() <= height;
             }
-        });
+        }, Arrays.asList("maxHeight", height));
     }
 
     /**
@@ -85,12 +151,12 @@ public class SizeSelectors {
      */
     @NonNull
     public static SizeSelector minHeight(final int height) {
-        return withFilter(new Filter() {
+        return new FilterSelector(new Filter() {
             @Override
             public boolean accepts(@NonNull Size size) {
                 return size.getHeight() >= height;
             }
-        });
+        }, Arrays.asList("minHeight", height));
     }
 
     /**
@@ -106,13 +172,14 @@ public class SizeSelectors {
     @NonNull
     public static SizeSelector aspectRatio(AspectRatio ratio, final float delta) {
         final float desired = ratio.toFloat();
-        return withFilter(new Filter() {
+        return new FilterSelector(new Filter() {
             @Override
             public boolean accepts(@NonNull Size size) {
-                float candidate = AspectRatio.of(size.getWidth(), size.getHeight()).toFloat();
+                // Same value as AspectRatio.of(size).toFloat(), without reducing.
+                float candidate = (float) size.getWidth() / size.getHeight();
                 return candidate >= desired - delta && candidate <= desired + delta;
             }
-        });
+        }, Arrays.asList("aspectRatio", desired, delta));
     }
 
     /**
@@ -124,15 +191,7 @@ public class SizeSelectors {
     @SuppressWarnings("WeakerAccess")
     @NonNull
     public static SizeSelector biggest() {
-        return new SizeSelector() {
-            @NonNull
-            @Override
-            public List<Size> select(@NonNull List<Size> source) {
-                Collections.sort(source);
-                Collections.reverse(source);
-                return source;
-            }
-        };
+        return BIGGEST;
     }
 
     /**
@@ -144,14 +203,7 @@ public class SizeSelectors {
     @SuppressWarnings("WeakerAccess")
     @NonNull
     public static SizeSelector smallest() {
-        return new SizeSelector() {
-            @NonNull
-            @Override
-            public List<Size> select(@NonNull List<Size> source) {
-                Collections.sort(source);
-                return source;
-            }
-        };
+        return SMALLEST;
     }
 
     /**
@@ -164,12 +216,12 @@ public class SizeSelectors {
     @NonNull
     @SuppressWarnings("WeakerAccess")
     public static SizeSelector maxArea(final int area) {
-        return withFilter(new Filter() {
+        return new FilterSelector(new Filter() {
             @Override
             public boolean accepts(@NonNull Size size) {
                 return size.getHeight() * size.getWidth() <= area;
             }
-        });
+        }, Arrays.asList("maxArea", area));
     }
 
     /**
@@ -182,7 +234,8 @@ public class SizeSelectors {
     @SuppressWarnings("WeakerAccess")
     @NonNull
     public static SizeSelector minArea(final int area) {
-        return withFilter(size -> size.getHeight() * size.getWidth() >= area);
+        return new FilterSelector(size -> size.getHeight() * size.getWidth() >= area,
+                Arrays.asList("minArea", area));
     }
 
     /**
@@ -226,10 +279,13 @@ public class SizeSelectors {
 
     private static class FilterSelector implements SizeSelector {
 
-        private Filter constraint;
+        private final Filter constraint;
+        // Describes the filter for built-in selectors, null for custom filters.
+        private final Object key;
 
-        private FilterSelector(@NonNull Filter constraint) {
+        private FilterSelector(@NonNull Filter constraint, @Nullable Object key) {
             this.constraint = constraint;
+            this.key = key;
         }
 
         @Override
@@ -243,11 +299,40 @@ public class SizeSelectors {
             }
             return sizes;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (key == null || !(o instanceof FilterSelector)) return false;
+            return key.equals(((FilterSelector) o).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key != null ? key.hashCode() : System.identityHashCode(this);
+        }
+    }
+
+    private static class SortSelector implements SizeSelector {
+
+        private final boolean descending;
+
+        private SortSelector(boolean descending) {
+            this.descending = descending;
+        }
+
+        @Override
+        @NonNull
+        public List<Size> select(@NonNull List<Size> source) {
+            Collections.sort(source);
+            if (descending) Collections.reverse(source);
+            return source;
+        }
     }
 
     private static class AndSelector implements SizeSelector {
 
-        private SizeSelector[] values;
+        private final SizeSelector[] values;
 
         private AndSelector(@NonNull SizeSelector... values) {
             this.values = values;
@@ -262,11 +347,21 @@ public class SizeSelectors {
             }
             return temp;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof AndSelector && Arrays.equals(values, ((AndSelector) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
     }
 
     private static class OrSelector implements SizeSelector {
 
-        private SizeSelector[] values;
+        private final SizeSelector[] values;
 
         private OrSelector(@NonNull SizeSelector... values) {
             this.values = values;
@@ -285,6 +380,41 @@ public class SizeSelectors {
             return temp == null ? new ArrayList<>() : temp;
         }
 
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof OrSelector && Arrays.equals(values, ((OrSelector) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(values) + 1;
+        }
+    }
+
+    private static class CacheKey {
+
+        private final SizeSelector selector;
+        private final List<Size> sizes;
+        private final int hash;
+
+        private CacheKey(@NonNull SizeSelector selector, @NonNull List<Size> sizes) {
+            this.selector = selector;
+            this.sizes = sizes;
+            this.hash = 31 * selector.hashCode() + sizes.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey other = (CacheKey) o;
+            return hash == other.hash && selector.equals(other.selector)
+                    && sizes.equals(other.sizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
     }
     //endregion
 }
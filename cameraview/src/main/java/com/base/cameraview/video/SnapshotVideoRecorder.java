@@ -23,11 +23,17 @@ import com.base.cameraview.video.encoding.AudioConfig;
 import com.base.cameraview.video.encoding.AudioMediaEncoder;
 import com.base.cameraview.video.encoding.EncoderThread;
 import com.base.cameraview.video.encoding.MediaEncoderEngine;
+import com.base.cameraview.video.encoding.PreRollBuffer;
 import com.base.cameraview.video.encoding.TextureConfig;
 import com.base.cameraview.video.encoding.TextureMediaEncoder;
 
 /**
  * A {@link VideoRecorder} that uses {@link android.media.MediaCodec} APIs.
+ * <p>
+ * It can also pre-roll: through {@link #startPreRoll(VideoResult.Stub, PreRollBuffer)},
+ * encoders start running before the recording is requested and keep the last encoded
+ * samples in memory. When {@link #start(VideoResult.Stub)} is called later, those samples
+ * end up at the beginning of the video file.
  */
 public class SnapshotVideoRecorder extends VideoRecorder implements RendererFrameCallback,
         MediaEncoderEngine.Listener {
@@ -49,6 +55,8 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
     private OverlayDrawer mOverlayDrawer;
     private boolean mHasOverlay;
     private Filter mCurrentFilter;
+    private PreRollBuffer mPreRoll;
+    private VideoResult.Stub mPreRollStub;
 
     public SnapshotVideoRecorder(@NonNull CameraEngine engine,
                                  @NonNull RendererCameraPreview preview,
@@ -66,8 +74,79 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         return (int) (0.07F * 1F * size.getWidth() * size.getHeight() * frameRate);
     }
 
+    /**
+     * Starts encoding into the given buffer, without an output file.
+     * The pre-roll ends either with {@link #start(VideoResult.Stub)},
+     * or with {@link #stopPreRoll()}.
+     *
+     * @param stub    a stub with all fields except the file
+     * @param preRoll the pre-roll buffer
+     */
+    public void startPreRoll(@NonNull VideoResult.Stub stub, @NonNull PreRollBuffer preRoll) {
+        LOG.i("startPreRoll:", "maxDurationUs:", preRoll.getMaxDurationUs(),
+                "maxBytes:", preRoll.getMaxBytes());
+        mResult = stub;
+        mPreRollStub = stub;
+        mPreRoll = preRoll;
+        mPreview.addRendererFrameCallback(this);
+        mDesiredState = STATE_RECORDING;
+    }
+
+    /**
+     * Stops a pre-roll that was not turned into a recording. Buffered samples are dropped.
+     */
+    public void stopPreRoll() {
+        if (mPreRollStub == null) return;
+        LOG.i("stopPreRoll:", "Dropping pre-roll.");
+        mPreRollStub = null;
+        mDesiredState = STATE_NOT_RECORDING;
+        mCurrentState = STATE_NOT_RECORDING;
+        synchronized (mEncoderEngineLock) {
+            if (mEncoderEngine != null) {
+                // Cleanup will happen in onEncodingEnd.
+                mEncoderEngine.stop();
+                mEncoderEngine = null;
+            } else {
+                mPreview.removeRendererFrameCallback(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the state of the pre-roll buffer, if pre-rolling.
+     *
+     * @return the stats or null
+     */
+    @Nullable
+    public PreRollBuffer.Stats getPreRollStats() {
+        PreRollBuffer preRoll = mPreRoll;
+        return preRoll == null ? null : preRoll.getStats();
+    }
+
     @Override
     protected void onStart() {
+        VideoResult.Stub preRollStub = mPreRollStub;
+        mPreRollStub = null;
+        if (preRollStub != null) {
+            synchronized (mEncoderEngineLock) {
+                if (mEncoderEngine != null) {
+                    // Encoders are already running with the pre-roll configuration.
+                    mResult.size = preRollStub.size;
+                    mResult.rotation = preRollStub.rotation;
+                    mResult.videoBitRate = preRollStub.videoBitRate;
+                    mResult.audioBitRate = preRollStub.audioBitRate;
+                    mResult.videoFrameRate = preRollStub.videoFrameRate;
+                    mResult.videoCodec = preRollStub.videoCodec;
+                    mResult.audioCodec = preRollStub.audioCodec;
+                    mResult.audio = preRollStub.audio;
+                    mEncoderEngine.startOutput(mResult.file, mResult.maxDuration, mResult.maxSize);
+                }
+                // If no frame was encoded yet, this becomes a normal recording.
+                mPreRoll = null;
+            }
+            dispatchVideoRecordingStart();
+            return;
+        }
         mPreview.addRendererFrameCallback(this);
         mDesiredState = STATE_RECORDING;
         dispatchVideoRecordingStart();
@@ -248,12 +327,19 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
 
             // Engine
             synchronized (mEncoderEngineLock) {
-                mEncoderEngine = new MediaEncoderEngine(mResult.file,
-                        videoEncoder,
-                        audioEncoder,
-                        mResult.maxDuration,
-                        mResult.maxSize,
-                        SnapshotVideoRecorder.this);
+                if (mPreRoll != null) {
+                    mEncoderEngine = new MediaEncoderEngine(videoEncoder,
+                            audioEncoder,
+                            mPreRoll,
+                            SnapshotVideoRecorder.this);
+                } else {
+                    mEncoderEngine = new MediaEncoderEngine(mResult.file,
+                            videoEncoder,
+                            audioEncoder,
+                            mResult.maxDuration,
+                            mResult.maxSize,
+                            SnapshotVideoRecorder.this);
+                }
                 mEncoderEngine.notify(TextureMediaEncoder.FILTER_EVENT, mCurrentFilter);
                 try {
                     mEncoderEngine.start();
@@ -265,10 +351,11 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
         }
 
         if (mCurrentState == STATE_RECORDING) {
-            LOG.i("scheduling frame.");
+            final boolean logFrame = LOG.isEnabled(CameraLogger.LEVEL_INFO);
+            if (logFrame) LOG.i("scheduling frame.");
             synchronized (mEncoderEngineLock) {
                 if (mEncoderEngine != null) { // Can be null on teardown.
-                    LOG.i("dispatching frame.");
+                    if (logFrame) LOG.i("dispatching frame.");
                     TextureMediaEncoder textureEncoder
                             = (TextureMediaEncoder) mEncoderEngine.getVideoEncoder();
                     try {
@@ -314,7 +401,8 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
 
     @Override
     public void onEncodingStop() {
-        dispatchVideoRecordingEnd();
+        // Not recording if this was a pre-roll that was stopped.
+        if (isRecording()) dispatchVideoRecordingEnd();
     }
 
     @EncoderThread
@@ -338,6 +426,7 @@ public class SnapshotVideoRecorder extends VideoRecorder implements RendererFram
             }
         }
         // Cleanup
+        mPreRoll = null;
         mCurrentState = STATE_NOT_RECORDING;
         mDesiredState = STATE_NOT_RECORDING;
         mPreview.removeRendererFrameCallback(SnapshotVideoRecorder.this);
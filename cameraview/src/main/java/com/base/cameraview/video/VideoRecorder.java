@@ -6,6 +6,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import com.base.cameraview.CameraLogger;
+import com.base.cameraview.CameraTracer;
 import com.base.cameraview.VideoResult;
 
 /**
@@ -26,6 +27,9 @@ public abstract class VideoRecorder {
     @VisibleForTesting(otherwise = VisibleForTesting.PROTECTED)
     VideoResult.Stub mResult;
     private int mState;
+    // The whole recording, then the current stage: starting, recording, finishing.
+    private CameraTracer.Span mSpan;
+    private CameraTracer.Span mStageSpan;
 
     /**
      * Creates a new video recorder.
@@ -53,6 +57,9 @@ public abstract class VideoRecorder {
             mState = STATE_RECORDING;
         }
         mResult = stub;
+        String name = getClass().getSimpleName();
+        mSpan = CameraTracer.begin(CameraTracer.CATEGORY_VIDEO, name);
+        beginStage("starting");
         onStart();
     }
 
@@ -111,6 +118,10 @@ public abstract class VideoRecorder {
             mState = STATE_IDLE;
         }
         onDispatchResult();
+        CameraTracer.end(mStageSpan, mError);
+        CameraTracer.end(mSpan, mError);
+        mStageSpan = null;
+        mSpan = null;
         LOG.i("dispatchResult:", "About to dispatch result:", mResult, mError);
         if (mListener != null) {
             mListener.onVideoResult(mResult, mError);
@@ -134,6 +145,7 @@ public abstract class VideoRecorder {
     @CallSuper
     protected void dispatchVideoRecordingStart() {
         LOG.i("dispatchVideoRecordingStart:", "About to dispatch.");
+        beginStage("recording");
         if (mListener != null) {
             mListener.onVideoRecordingStart();
         }
@@ -147,11 +159,18 @@ public abstract class VideoRecorder {
     @CallSuper
     protected void dispatchVideoRecordingEnd() {
         LOG.i("dispatchVideoRecordingEnd:", "About to dispatch.");
+        beginStage("finishing");
         if (mListener != null) {
             mListener.onVideoRecordingEnd();
         }
     }
 
+    private void beginStage(@NonNull String stage) {
+        CameraTracer.end(mStageSpan);
+        mStageSpan = mSpan == null ? null : CameraTracer.begin(CameraTracer.CATEGORY_VIDEO,
+                getClass().getSimpleName() + " " + stage);
+    }
+
     /**
      * Listens for video recorder events.
      */
@@ -93,20 +93,21 @@ class AudioConfig {
     }
 
     /**
-     * We allocate buffers of [.frameSize] each, which is not much.
+     * Number of frames of [.frameSize] each held by the ring between the recording and
+     * the encoding threads. All of them are allocated when the encoder is prepared.
      *
      *
-     * This value indicates the maximum number of these buffers that we can allocate at a given
-     * instant. This value is the number of runnable that the encoder thread is allowed to be
-     * 'behind' the recorder thread. It's not safe to have it very large or we can end encoding
-     * A LOT AFTER the actual recording. It's better to reduce this and skip recording at all.
+     * This value is the number of frames that the encoder thread is allowed to be
+     * 'behind' the recorder thread: about 3 seconds at 44.1KHz. It's not safe to have it
+     * very large or we can end encoding A LOT AFTER the actual recording. When the ring
+     * is full, frames are dropped.
      *
      *
      * Should be coordinated with [.frameSize].
      *
-     * @return the buffer pool max size
+     * @return the ring size in frames
      */
-    fun bufferPoolMaxSize(): Int {
-        return 500
+    fun ringBufferFrames(): Int {
+        return 128
     }
 }
@@ -14,9 +14,7 @@ import com.base.cameraview.CameraLogger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Default implementation for audio encoding.
@@ -26,25 +24,18 @@ public class AudioMediaEncoder extends MediaEncoder {
     private static final String TAG = AudioMediaEncoder.class.getSimpleName();
     private static final CameraLogger LOG = CameraLogger.create(TAG);
 
-    private static final boolean PERFORMANCE_DEBUG = false;
     private static final boolean PERFORMANCE_FILL_GAPS = true;
     private static final int PERFORMANCE_MAX_GAPS = 8;
     private final AudioTimestamp mTimestamp;
-    private final LinkedBlockingQueue<InputBuffer> mInputBufferQueue = new LinkedBlockingQueue<>();
-    private boolean mRequestStop = false;
+    private volatile boolean mRequestStop = false;
     private AudioEncodingThread mEncoder;
     private AudioRecordingThread mRecorder;
-    private ByteBufferPool mByteBufferPool;
+    private volatile AudioRing mRing;
     private AudioConfig mConfig;
-    private InputBufferPool mInputBufferPool = new InputBufferPool();
     private AudioNoise mAudioNoise;
-
-    // Just to debug performance.
-    private int mDebugSendCount = 0;
-    private int mDebugExecuteCount = 0;
-    private long mDebugSendAvgDelay = 0;
-    private long mDebugExecuteAvgDelay = 0;
-    private Map<Long, Long> mDebugSendStartMap = new HashMap<>();
+    private long mFrameNanos;
+    private volatile long mOverruns;
+    private volatile long mUnderruns;
 
     public AudioMediaEncoder(@NonNull AudioConfig config) {
         super("AudioEncoder");
@@ -84,8 +75,9 @@ public class AudioMediaEncoder extends MediaEncoder {
         mMediaCodec.configure(audioFormat, null, null,
                 MediaCodec.CONFIGURE_FLAG_ENCODE);
         mMediaCodec.start();
-        mByteBufferPool = new ByteBufferPool(mConfig.frameSize(), mConfig.bufferPoolMaxSize());
+        mRing = new AudioRing(mConfig.ringBufferFrames(), mConfig.frameSize());
         mAudioNoise = new AudioNoise(mConfig);
+        mFrameNanos = AudioTimestamp.bytesToUs(mConfig.frameSize(), mConfig.byteRate()) * 1000L;
     }
 
     @EncoderThread
@@ -108,39 +100,53 @@ public class AudioMediaEncoder extends MediaEncoder {
         mRequestStop = false;
         mEncoder = null;
         mRecorder = null;
-        if (mByteBufferPool != null) {
-            mByteBufferPool.clear();
-            mByteBufferPool = null;
+        if (mRing != null) {
+            LOG.i("onStopped:", "overruns:", mRing.getOverruns(),
+                    "underruns:", mRing.getUnderruns());
+            mOverruns = mRing.getOverruns();
+            mUnderruns = mRing.getUnderruns();
+            mRing = null;
         }
     }
 
-    @Override
-    protected int getEncodedBitRate() {
-        return mConfig.bitRate;
+    /**
+     * Returns the number of audio frames that were lost because the encoder
+     * was too slow, during the last recording.
+     *
+     * @return the overrun count
+     */
+    public long getOverruns() {
+        AudioRing ring = mRing;
+        return ring != null ? ring.getOverruns() : mOverruns;
     }
 
     /**
-     * Sleeps for some frames duration, to skip them. This can be used to slow down
-     * the recording operation to balance it with encoding.
+     * Returns the number of times the encoder had no audio frame to encode
+     * and had to wait for the microphone, during the last recording.
+     *
+     * @return the underrun count
      */
-    private void skipFrames(int frames) {
-        try {
-            Thread.sleep(AudioTimestamp.bytesToMillis(
-                    mConfig.frameSize() * frames,
-                    mConfig.byteRate()));
-        } catch (InterruptedException ignore) {
-        }
+    public long getUnderruns() {
+        AudioRing ring = mRing;
+        return ring != null ? ring.getUnderruns() : mUnderruns;
+    }
+
+    @Override
+    protected int getEncodedBitRate() {
+        return mConfig.bitRate;
     }
 
     /**
      * A thread recording from microphone using {@link AudioRecord} class.
-     * Communicates with {@link AudioEncodingThread} using {@link #mInputBufferQueue}.
+     * Communicates with {@link AudioEncodingThread} using {@link #mRing}.
      */
     private class AudioRecordingThread extends Thread {
 
         private AudioRecord mAudioRecord;
         private ByteBuffer mCurrentBuffer;
         private int mCurrentReadBytes;
+        // Used when the ring is full, and to move frames aside when filling gaps.
+        private ByteBuffer mSpareBuffer;
 
         private long mLastTimeUs;
         private long mFirstTimeUs = Long.MIN_VALUE;
@@ -210,55 +216,60 @@ public class AudioMediaEncoder extends MediaEncoder {
          * @return true if proceeded
          */
         private boolean read(boolean endOfStream) {
-            mCurrentBuffer = mByteBufferPool.get();
+            mCurrentBuffer = mRing.obtain();
             if (mCurrentBuffer == null) {
                 // This can happen and it means that encoding is slow with respect to recording.
-                // One might be tempted to fix precisely the next frame presentation time when
-                // this happens, but this is not needed because the current increaseTime()
-                // algorithm will consider delays when they get large.
-                // Sleeping before returning is a good way of balancing the two operations.
-                // However, if endOfStream, we CAN'T lose this frame!
+                // If endOfStream, we CAN'T lose this frame, so wait for the encoder.
+                // Otherwise, keep reading at the microphone pace and drop the frame:
+                // sleeping here would make AudioRecord fall behind and create timestamp gaps.
                 if (endOfStream) {
-                    LOG.v("read thread - eos: true - No buffer, retrying.");
-                } else {
-                    LOG.w("read thread - eos: false - Skipping audio frame,",
-                            "encoding is too slow.");
-                    skipFrames(6); // sleep a bit
-                }
-                return false;
-            } else {
-                mCurrentBuffer.clear();
-                // When stereo, we read twice the data here and AudioRecord will fill the buffer
-                // with left and right bytes. https://stackoverflow.com/q/20594750/4288782
-                if (PERFORMANCE_DEBUG) {
-                    long before = System.nanoTime();
-                    mCurrentReadBytes = mAudioRecord.read(mCurrentBuffer, mConfig.frameSize());
-                    long after = System.nanoTime();
-                    float delayMillis = (after - before) / 1000000F;
-                    float durationMillis = AudioTimestamp.bytesToMillis(mCurrentReadBytes,
-                            mConfig.byteRate());
-                    LOG.v("read thread - reading took:", delayMillis,
-                            "should be:", durationMillis,
-                            "delay:", delayMillis - durationMillis);
-                } else {
-                    mCurrentReadBytes = mAudioRecord.read(mCurrentBuffer, mConfig.frameSize());
+                    LOG.v("read thread - eos: true - Ring is full, retrying.");
+                    LockSupport.parkNanos(mFrameNanos);
+                    return false;
                 }
+                // The dropped frame does not advance the timestamp, so the next committed
+                // frame follows the last one with no hole. If drops pile up, AudioTimestamp
+                // sees the delay on the next good read and reports it as a gap.
+                ByteBuffer spare = getSpareBuffer();
+                mCurrentReadBytes = mAudioRecord.read(spare, mConfig.frameSize());
+                LOG.w("read thread - eos: false - Dropped audio frame,",
+                        "encoding is too slow.");
+                return true;
+            }
+            // When stereo, we read twice the data here and AudioRecord will fill the buffer
+            // with left and right bytes. https://stackoverflow.com/q/20594750/4288782
+            mCurrentReadBytes = mAudioRecord.read(mCurrentBuffer, mConfig.frameSize());
+            if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
                 LOG.v("read thread - eos:", endOfStream, "- Read new audio frame. Bytes:",
                         mCurrentReadBytes);
-                if (mCurrentReadBytes > 0) { // Good read: increase PTS.
-                    increaseTime(mCurrentReadBytes, endOfStream);
+            }
+            if (mCurrentReadBytes > 0) { // Good read: increase PTS.
+                increaseTime(mCurrentReadBytes, endOfStream);
+                if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
                     LOG.v("read thread - eos:", endOfStream, "- mLastTimeUs:", mLastTimeUs);
-                    mCurrentBuffer.limit(mCurrentReadBytes);
-                    enqueue(mCurrentBuffer, mLastTimeUs, endOfStream);
-                } else if (mCurrentReadBytes == AudioRecord.ERROR_INVALID_OPERATION) {
-                    LOG.e("read thread - eos:", endOfStream,
-                            "- Got AudioRecord.ERROR_INVALID_OPERATION");
-                } else if (mCurrentReadBytes == AudioRecord.ERROR_BAD_VALUE) {
-                    LOG.e("read thread - eos:", endOfStream,
-                            "- Got AudioRecord.ERROR_BAD_VALUE");
                 }
-                return true;
+                if (PERFORMANCE_FILL_GAPS && mTimestamp.getGapCount(mConfig.frameSize()) > 0) {
+                    commitWithNoise(endOfStream);
+                } else {
+                    mRing.commit(mCurrentReadBytes, mLastTimeUs, endOfStream);
+                }
+            } else if (mCurrentReadBytes == AudioRecord.ERROR_INVALID_OPERATION) {
+                LOG.e("read thread - eos:", endOfStream,
+                        "- Got AudioRecord.ERROR_INVALID_OPERATION");
+            } else if (mCurrentReadBytes == AudioRecord.ERROR_BAD_VALUE) {
+                LOG.e("read thread - eos:", endOfStream,
+                        "- Got AudioRecord.ERROR_BAD_VALUE");
             }
+            return true;
+        }
+
+        @NonNull
+        private ByteBuffer getSpareBuffer() {
+            if (mSpareBuffer == null) {
+                mSpareBuffer = ByteBuffer.allocateDirect(mConfig.frameSize());
+            }
+            mSpareBuffer.clear();
+            return mSpareBuffer;
         }
 
         /**
@@ -289,37 +300,19 @@ public class AudioMediaEncoder extends MediaEncoder {
                     notifyMaxLengthReached();
                 }
             }
-
-            // Maybe add noise.
-            maybeAddNoise();
-        }
-
-        private void enqueue(@NonNull ByteBuffer byteBuffer,
-                             long timestamp,
-                             boolean isEndOfStream) {
-            if (PERFORMANCE_DEBUG) {
-                mDebugSendStartMap.put(timestamp, System.nanoTime() / 1000000);
-            }
-            int readBytes = byteBuffer.remaining();
-            InputBuffer inputBuffer = mInputBufferPool.get();
-            //noinspection ConstantConditions
-            inputBuffer.source = byteBuffer;
-            inputBuffer.timestamp = timestamp;
-            inputBuffer.length = readBytes;
-            inputBuffer.isEndOfStream = isEndOfStream;
-            mInputBufferQueue.add(inputBuffer);
         }
 
         /**
-         * If our {@link AudioTimestamp} detected huge gap, and the performance flag is enabled,
-         * we can add noise to fill them.
+         * Called when our {@link AudioTimestamp} detected a huge gap before the frame that
+         * we just read. Commits noise buffers to fill the gap, then the frame itself.
          * <p>
          * Even if we always pass the correct timestamps, if there are big gaps between the frames,
          * the encoder implementation might shrink all timestamps to have a continuous audio.
          * This results in a video that is fast-forwarded.
          * <p>
          * Adding noise does not solve the gaps issue, we'll still have distorted audio, but
-         * at least we get a video that has the correct playback speed.
+         * at least we get a video that has the correct playback speed. Since the recording
+         * thread never sleeps, gaps should only happen when the system delays our reads.
          * <p>
          * NOTE: this MUST be fast!
          * If this operation is slow, we make the {@link AudioRecordingThread} busy, so we'll
@@ -327,40 +320,50 @@ public class AudioMediaEncoder extends MediaEncoder {
          * and spend even more time here. The result might be recording no audio at all - just
          * random noise.
          * This is the reason why we have a {@link #PERFORMANCE_MAX_GAPS} number.
+         *
+         * @param endOfStream end of stream?
          */
-        private void maybeAddNoise() {
-            if (!PERFORMANCE_FILL_GAPS) return;
-            int gaps = mTimestamp.getGapCount(mConfig.frameSize());
-            if (gaps <= 0) return;
+        private void commitWithNoise(boolean endOfStream) {
+            // The frame was read into the slot that the noise should go into.
+            // Gaps are rare, so just move it aside.
+            ByteBuffer frame = getSpareBuffer();
+            mCurrentBuffer.limit(mCurrentReadBytes);
+            mCurrentBuffer.position(0);
+            frame.put(mCurrentBuffer);
+            frame.flip();
 
+            int gaps = mTimestamp.getGapCount(mConfig.frameSize());
             long gapStart = mTimestamp.getGapStartUs(mLastTimeUs);
             long frameUs = AudioTimestamp.bytesToUs(mConfig.frameSize(), mConfig.byteRate());
-            LOG.w("read thread - GAPS: trying to add", gaps,
-                    "noise buffers. PERFORMANCE_MAX_GAPS:", PERFORMANCE_MAX_GAPS);
-            for (int i = 0; i < Math.min(gaps, PERFORMANCE_MAX_GAPS); i++) {
-                ByteBuffer noiseBuffer = mByteBufferPool.get();
-                if (noiseBuffer == null) {
-                    LOG.e("read thread - GAPS: aborting because we have no free buffer.");
-                    break;
-                }
-                noiseBuffer.clear();
+            // Keep one slot for the frame itself.
+            int count = Math.min(Math.min(gaps, PERFORMANCE_MAX_GAPS), mRing.getFree() - 1);
+            LOG.w("read thread - GAPS: adding", count, "noise buffers out of", gaps,
+                    "PERFORMANCE_MAX_GAPS:", PERFORMANCE_MAX_GAPS);
+            for (int i = 0; i < count; i++) {
+                ByteBuffer noiseBuffer = mRing.obtain();
+                //noinspection ConstantConditions
                 mAudioNoise.fill(noiseBuffer);
-                noiseBuffer.rewind();
-                enqueue(noiseBuffer, gapStart, false);
+                mRing.commit(mConfig.frameSize(), gapStart, false);
                 gapStart += frameUs;
             }
+            ByteBuffer slot = mRing.obtain();
+            //noinspection ConstantConditions
+            slot.put(frame);
+            mRing.commit(mCurrentReadBytes, mLastTimeUs, endOfStream);
         }
     }
 
     /**
      * A thread encoding the microphone data using the media encoder APIs.
-     * Communicates with {@link AudioRecordingThread} using {@link #mInputBufferQueue}.
+     * Communicates with {@link AudioRecordingThread} using {@link #mRing}.
      * <p>
      * We want to do this operation on a different thread than the recording one (to avoid
      * losing frames while we're working here), and different than the {@link MediaEncoder}
      * own thread (we want that to be reactive - stop() must become onStop() soon).
      */
     private class AudioEncodingThread extends Thread {
+        private final InputBuffer mInputBuffer = new InputBuffer();
+
         private AudioEncodingThread() {
             // Not sure about this... This thread can do VERY time consuming operations,
             // and slowing down the preview/camera threads can break them e.g. hit internal
@@ -370,84 +373,42 @@ public class AudioMediaEncoder extends MediaEncoder {
 
         @Override
         public void run() {
-            encoding:
+            InputBuffer inputBuffer = mInputBuffer;
             while (true) {
-                if (mInputBufferQueue.isEmpty()) {
-                    skipFrames(3);
+                if (!mRing.peek(inputBuffer)) {
+                    // Wake up as soon as the recording thread commits a frame.
+                    mRing.await(mFrameNanos);
+                } else if (inputBuffer.isEndOfStream) {
+                    acquireInputBuffer(inputBuffer);
+                    encode(inputBuffer);
+                    break;
+                } else if (tryAcquireInputBuffer(inputBuffer)) {
+                    encode(inputBuffer);
                 } else {
-                    LOG.v("encoding thread - performing", mInputBufferQueue.size(),
-                            "pending operations.");
-                    InputBuffer inputBuffer;
-                    while ((inputBuffer = mInputBufferQueue.peek()) != null) {
-
-                        // Performance logging
-                        if (PERFORMANCE_DEBUG) {
-                            long sendEnd = System.nanoTime() / 1000000;
-                            Long sendStart = mDebugSendStartMap.remove(inputBuffer.timestamp);
-                            //noinspection StatementWithEmptyBody
-                            if (sendStart != null) {
-                                mDebugSendAvgDelay = ((mDebugSendAvgDelay * mDebugSendCount)
-                                        + (sendEnd - sendStart)) / (++mDebugSendCount);
-                                LOG.v("send delay millis:", sendEnd - sendStart,
-                                        "average:", mDebugSendAvgDelay);
-                            } else {
-                                // This input buffer was already processed
-                                // (but tryAcquire failed for now).
-                            }
-                        }
-
-                        // Actual work
-                        if (inputBuffer.isEndOfStream) {
-                            acquireInputBuffer(inputBuffer);
-                            encode(inputBuffer);
-                            break encoding;
-                        } else if (tryAcquireInputBuffer(inputBuffer)) {
-                            encode(inputBuffer);
-                        } else {
-                            skipFrames(3);
-                        }
-                    }
+                    // The codec has no free input buffer. The ring holds the frames
+                    // meanwhile, so we can afford a short wait.
+                    LockSupport.parkNanos(mFrameNanos / 4);
                 }
             }
-            // We got an end of stream.
-            mInputBufferPool.clear();
-            if (PERFORMANCE_DEBUG) {
-                // After latest changes, the count here is not so different between MONO and STEREO.
-                // We get about 400 frames in both cases (430 for MONO, but doesn't seem like
-                // a big issue).
-                LOG.e("EXECUTE DELAY MILLIS:", mDebugExecuteAvgDelay,
-                        "COUNT:", mDebugExecuteCount);
-                LOG.e("SEND DELAY MILLIS:", mDebugSendAvgDelay,
-                        "COUNT:", mDebugSendCount);
-            }
         }
 
         private void encode(@NonNull InputBuffer buffer) {
-            long executeStart = System.nanoTime() / 1000000;
-
-            LOG.v("encoding thread - performing pending operation for timestamp:",
-                    buffer.timestamp, "- encoding.");
-            // NOTE: this copy is prob. the worst part here for performance
+            if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("encoding thread - performing pending operation for timestamp:",
+                        buffer.timestamp, "- encoding.");
+            }
+            // Copy straight from the ring slot, which can be reused afterwards.
             buffer.data.put(buffer.source);
-            mByteBufferPool.recycle(buffer.source);
-            mInputBufferQueue.remove(buffer);
+            mRing.release();
             encodeInputBuffer(buffer);
-            boolean eos = buffer.isEndOfStream;
-            mInputBufferPool.recycle(buffer);
-            LOG.v("encoding thread - performing pending operation for timestamp:",
-                    buffer.timestamp, "- draining.");
-            // NOTE: can consider calling this drainOutput on yet another thread, which would let us
-            // use an even smaller BUFFER_POOL_MAX_SIZE without losing audio frames. But this way
-            // we can accumulate delay on this new thread without noticing (no pool getting empty).
-            drainOutput(eos);
-
-            if (PERFORMANCE_DEBUG) {
-                long executeEnd = System.nanoTime() / 1000000;
-                mDebugExecuteAvgDelay = ((mDebugExecuteAvgDelay * mDebugExecuteCount)
-                        + (executeEnd - executeStart)) / (++mDebugExecuteCount);
-                LOG.v("execute delay millis:", executeEnd - executeStart,
-                        "average:", mDebugExecuteAvgDelay);
+            if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v("encoding thread - performing pending operation for timestamp:",
+                        buffer.timestamp, "- draining.");
             }
+            // NOTE: can consider calling this drainOutput on yet another thread, which would let us
+            // use an even smaller ring without losing audio frames. But this way we can
+            // accumulate delay on this new thread without noticing (no ring getting full).
+            drainOutput(buffer.isEndOfStream);
         }
     }
 }
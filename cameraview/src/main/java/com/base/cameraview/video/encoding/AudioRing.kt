@@ -0,0 +1,150 @@
+package com.base.cameraview.video.encoding
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * A single producer, single consumer ring of PCM frames, moving audio from the
+ * recording thread to the encoding thread of [AudioMediaEncoder].
+ *
+ * All memory is allocated up front: one direct buffer split into [capacity] slots of
+ * [frameSize] bytes, and side arrays holding the length, timestamp and end of stream
+ * flag of each slot. The producer only moves the tail and the consumer only moves the
+ * head, so frames are exchanged without locks and without allocations.
+ *
+ * The ring counts overruns (the producer found it full, so a frame was lost) and
+ * underruns (the consumer found it empty and had to wait).
+ *
+ * @param capacity  the number of slots
+ * @param frameSize the size of each slot, in bytes
+ */
+internal class AudioRing(val capacity: Int, val frameSize: Int) {
+
+    private val mSlots: Array<ByteBuffer>
+    private val mLengths = IntArray(capacity)
+    private val mTimestamps = LongArray(capacity)
+    private val mEndOfStream = BooleanArray(capacity)
+
+    // Next slot to be read, written by the consumer only.
+    private val mHead = AtomicLong(0)
+
+    // Next slot to be written, written by the producer only.
+    private val mTail = AtomicLong(0)
+
+    @Volatile
+    private var mConsumer: Thread? = null
+
+    /**
+     * The number of times the producer found the ring full.
+     */
+    @Volatile
+    var overruns: Long = 0
+        private set
+
+    /**
+     * The number of times the consumer found the ring empty.
+     */
+    @Volatile
+    var underruns: Long = 0
+        private set
+
+    /**
+     * Producer: the number of free slots. Can only grow until the next [commit].
+     */
+    val free: Int
+        get() = capacity - (mTail.get() - mHead.get()).toInt()
+
+    init {
+        require(capacity > 0) { "capacity should be > 0, got $capacity" }
+        require(frameSize > 0) { "frameSize should be > 0, got $frameSize" }
+        val memory = ByteBuffer.allocateDirect(capacity * frameSize)
+            .order(ByteOrder.nativeOrder())
+        mSlots = Array(capacity) {
+            memory.limit((it + 1) * frameSize)
+            memory.position(it * frameSize)
+            memory.slice().order(ByteOrder.nativeOrder())
+        }
+    }
+
+    /**
+     * Producer: returns the cleared slot that the next frame should be written into,
+     * or null if the ring is full. In this case, an overrun is counted.
+     * The frame becomes visible to the consumer after [commit].
+     *
+     * @return a buffer of [frameSize] bytes, or null
+     */
+    fun obtain(): ByteBuffer? {
+        val tail = mTail.get()
+        if (tail - mHead.get() >= capacity) {
+            overruns++
+            return null
+        }
+        val slot = mSlots[(tail % capacity).toInt()]
+        slot.clear()
+        return slot
+    }
+
+    /**
+     * Producer: publishes the frame written into the buffer returned by [obtain].
+     *
+     * @param length      the number of bytes written
+     * @param timestampUs the frame timestamp
+     * @param endOfStream whether this is the last frame
+     */
+    fun commit(length: Int, timestampUs: Long, endOfStream: Boolean) {
+        val tail = mTail.get()
+        val index = (tail % capacity).toInt()
+        mLengths[index] = length
+        mTimestamps[index] = timestampUs
+        mEndOfStream[index] = endOfStream
+        // Volatile write: the side arrays are visible before the new tail, and the tail
+        // is visible before we read mConsumer, so await() can't miss this frame.
+        mTail.set(tail + 1)
+        mConsumer?.let { LockSupport.unpark(it) }
+    }
+
+    /**
+     * Consumer: fills the holder with the oldest frame, without removing it.
+     * The frame data is in [InputBuffer.source] and can be read until [release].
+     *
+     * @param holder the holder
+     * @return true if a frame was available
+     */
+    fun peek(holder: InputBuffer): Boolean {
+        val head = mHead.get()
+        if (head == mTail.get()) return false
+        val index = (head % capacity).toInt()
+        val slot = mSlots[index]
+        slot.limit(mLengths[index])
+        slot.position(0)
+        holder.source = slot
+        holder.length = mLengths[index]
+        holder.timestamp = mTimestamps[index]
+        holder.isEndOfStream = mEndOfStream[index]
+        return true
+    }
+
+    /**
+     * Consumer: removes the frame returned by [peek], so its slot can be written again.
+     */
+    fun release() {
+        mHead.lazySet(mHead.get() + 1)
+    }
+
+    /**
+     * Consumer: counts an underrun and waits until the producer commits a frame,
+     * or until the timeout expires.
+     *
+     * @param timeoutNanos the max time to wait
+     */
+    fun await(timeoutNanos: Long) {
+        underruns++
+        mConsumer = Thread.currentThread()
+        // Check again after publishing the thread, commit() might have missed it.
+        if (mHead.get() == mTail.get()) {
+            LockSupport.parkNanos(this, timeoutNanos)
+        }
+    }
+}
@@ -167,9 +167,13 @@ public abstract class MediaEncoder {
         if (!mPendingEvents.containsKey(event)) mPendingEvents.put(event, new AtomicInteger(0));
         final AtomicInteger pendingEvents = mPendingEvents.get(event);
         pendingEvents.incrementAndGet();
-        LOG.v(mName, "Notify was called. Posting. pendingEvents:", pendingEvents.intValue());
+        if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+            LOG.v(mName, "Notify was called. Posting. pendingEvents:", pendingEvents.intValue());
+        }
         mWorker.post(() -> {
-            LOG.v(mName, "Notify was called. Executing. pendingEvents:", pendingEvents.intValue());
+            if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+                LOG.v(mName, "Notify was called. Executing. pendingEvents:", pendingEvents.intValue());
+            }
             onEvent(event, data);
             pendingEvents.decrementAndGet();
         });
@@ -303,7 +307,9 @@ public abstract class MediaEncoder {
      */
     @SuppressWarnings("WeakerAccess")
     protected void encodeInputBuffer(InputBuffer buffer) {
-        LOG.v(mName, "ENCODING - Buffer:", buffer.index, "Bytes:", buffer.length, "Presentation:", buffer.timestamp);
+        if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+            LOG.v(mName, "ENCODING - Buffer:", buffer.index, "Bytes:", buffer.length, "Presentation:", buffer.timestamp);
+        }
         try {
             if (buffer.isEndOfStream) { // send EOS
                 mMediaCodec.queueInputBuffer(buffer.index, 0, 0, buffer.timestamp, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
@@ -328,7 +334,7 @@ public abstract class MediaEncoder {
     @SuppressLint("LogNotTimber")
     @SuppressWarnings("WeakerAccess")
     protected final void drainOutput(boolean drainAll) {
-        LOG.i(mName, "DRAINING - EOS:", drainAll);
+        if (LOG.isEnabled(CameraLogger.LEVEL_INFO)) LOG.i(mName, "DRAINING - EOS:", drainAll);
         if (mMediaCodec == null) {
             LOG.e("drain() was called before prepare() or after releasing.");
             return;
@@ -339,7 +345,9 @@ public abstract class MediaEncoder {
         try {
             while (true) {
                 int encoderStatus = mMediaCodec.dequeueOutputBuffer(mBufferInfo, OUTPUT_TIMEOUT_US);
-                LOG.i(mName, "DRAINING - Got status:", encoderStatus);
+                if (LOG.isEnabled(CameraLogger.LEVEL_INFO)) {
+                    LOG.i(mName, "DRAINING - Got status:", encoderStatus);
+                }
                 if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
                     // no output available yet
                     if (!drainAll) break; // out of while
@@ -391,7 +399,9 @@ public abstract class MediaEncoder {
                         mBufferInfo.presentationTimeUs = (mStartTimeMillis * 1000) + mLastTimeUs - mFirstTimeUs;
 
                         // Write.
-                        LOG.v(mName, "DRAINING - About to write(). Adjusted presentation:", mBufferInfo.presentationTimeUs);
+                        if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) {
+                            LOG.v(mName, "DRAINING - About to write(). Adjusted presentation:", mBufferInfo.presentationTimeUs);
+                        }
                         OutputBuffer buffer = mOutputBufferPool.get();
                         //noinspection ConstantConditions
                         buffer.info = mBufferInfo;
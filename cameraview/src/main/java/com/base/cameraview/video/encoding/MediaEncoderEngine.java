@@ -1,6 +1,5 @@
 package com.base.cameraview.video.encoding;
 
-import android.annotation.SuppressLint;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.util.Log;
@@ -13,10 +12,8 @@ import com.base.cameraview.internal.WorkerHandler;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The entry point for encoding video files.
@@ -49,6 +46,15 @@ import java.util.Map;
  * because they reach some limit or constraint (e.g. max duration). For this, they should
  * call {@link Controller#requestStop(int)}. Once all MediaEncoders have stopped, we will
  * actually call {@link #stop()} on ourselves.
+ * <p>
+ * The engine can also be created without an output file, in pre-roll mode. In this case,
+ * encoded samples are kept in a {@link PreRollBuffer} instead of being written, and the muxer
+ * is only created when {@link #startOutput(File, int, long)} is called. Buffered samples
+ * are flushed into it before any new sample.
+ * <p>
+ * Once the muxer is started, samples are not written on the encoder threads: they are copied
+ * and handed to a {@link MuxerWriter}, which interleaves tracks and writes them on its own
+ * thread. Its counters can be read with {@link #getMuxerStats()}.
  */
 public class MediaEncoderEngine {
 
@@ -58,19 +64,28 @@ public class MediaEncoderEngine {
     public final static int END_BY_MAX_SIZE = 2;
     private final static String TAG = MediaEncoderEngine.class.getSimpleName();
     private final static CameraLogger LOG = CameraLogger.create(TAG);
-    private static final boolean DEBUG_PERFORMANCE = true;
     private final List<MediaEncoder> mEncoders = new ArrayList<>();
     @SuppressWarnings("FieldCanBeLocal")
     private final Controller mController = new Controller();
     private final WorkerHandler mControllerThread = WorkerHandler.get("EncoderEngine");
     private final Object mControllerLock = new Object();
     private MediaMuxer mMediaMuxer;
+    // Published once the output is open. Encoders write to it without taking the lock.
+    private volatile MuxerWriter mMuxerWriter;
+    private List<MuxerTrackStats> mMuxerStats = Collections.emptyList();
     private int mStartedEncodersCount = 0;
     private int mStoppedEncodersCount = 0;
-    private boolean mMediaMuxerStarted = false;
+    private volatile boolean mMediaMuxerStarted = false;
     private Listener mListener;
     private int mEndReason = END_BY_USER;
     private int mPossibleEndReason;
+    private PreRollBuffer mPreRoll;
+    private final List<MediaFormat> mFormats = new ArrayList<>();
+    private File mOutputFile;
+    private long mOutputMaxDurationUs = Long.MAX_VALUE;
+    private volatile long mOutputFirstTimeUs = Long.MIN_VALUE;
+    private volatile boolean mOutputLimitReached;
+    private Exception mOutputError;
 
     /**
      * Creates a new engine for the given file, with the given encoders and max limits,
@@ -101,10 +116,41 @@ public class MediaEncoderEngine {
             e.printStackTrace();
             return;
         }
+        long finalMaxDurationUs = computeMaxDurationUs(maxDuration, maxSize);
+        for (MediaEncoder encoder : mEncoders) {
+            encoder.prepare(mController, finalMaxDurationUs);
+        }
+    }
 
-        // Trying to convert the size constraints to duration constraints,
-        // because they are super easy to check.
-        // This is really naive & probably not accurate, but...
+    /**
+     * Creates a new engine in pre-roll mode: samples are kept in the given buffer
+     * until {@link #startOutput(File, int, long)} is called.
+     *
+     * @param videoEncoder video encoder to use
+     * @param audioEncoder audio encoder to use
+     * @param preRoll      the pre-roll buffer
+     * @param listener     a listener
+     */
+    public MediaEncoderEngine(@NonNull VideoMediaEncoder videoEncoder,
+                              @Nullable AudioMediaEncoder audioEncoder,
+                              @NonNull PreRollBuffer preRoll,
+                              @Nullable Listener listener) {
+        mListener = listener;
+        mPreRoll = preRoll;
+        mEncoders.add(videoEncoder);
+        if (audioEncoder != null) {
+            mEncoders.add(audioEncoder);
+        }
+        // Limits are checked by us once the output starts, not by the encoders.
+        for (MediaEncoder encoder : mEncoders) {
+            encoder.prepare(mController, Long.MAX_VALUE);
+        }
+    }
+
+    // Trying to convert the size constraints to duration constraints,
+    // because they are super easy to check.
+    // This is really naive & probably not accurate, but...
+    private long computeMaxDurationUs(int maxDuration, long maxSize) {
         int bitRate = 0;
         for (MediaEncoder encoder : mEncoders) {
             bitRate += encoder.getEncodedBitRate();
@@ -125,8 +171,81 @@ public class MediaEncoderEngine {
             finalMaxDurationUs = maxDurationUs;
         }
         LOG.w("Computed a max duration of", (finalMaxDurationUs / 1000000F));
-        for (MediaEncoder encoder : mEncoders) {
-            encoder.prepare(mController, finalMaxDurationUs);
+        return finalMaxDurationUs;
+    }
+
+    /**
+     * In pre-roll mode, starts writing to the given file: buffered samples are written
+     * first, followed by new ones. Limits are computed from the first written sample.
+     * If encoders have not started yet, the muxer will be opened as soon as they do.
+     *
+     * @param file        output file
+     * @param maxDuration max duration in millis
+     * @param maxSize     max size
+     */
+    public final void startOutput(@NonNull File file, int maxDuration, long maxSize) {
+        synchronized (mControllerLock) {
+            if (mPreRoll == null || mOutputFile != null) {
+                throw new IllegalStateException("Not in pre-roll mode, or output already started.");
+            }
+            LOG.i("startOutput:", "file:", file);
+            mOutputFile = file;
+            mOutputMaxDurationUs = computeMaxDurationUs(maxDuration, maxSize);
+            if (mFormats.size() == mEncoders.size()) {
+                openOutput();
+            }
+        }
+    }
+
+    /**
+     * Returns the pre-roll buffer, if this engine is still in pre-roll mode.
+     *
+     * @return the pre-roll buffer or null
+     */
+    @Nullable
+    public PreRollBuffer getPreRollBuffer() {
+        synchronized (mControllerLock) {
+            return mPreRoll;
+        }
+    }
+
+    // Called with mControllerLock held, after all formats are known. Buffered samples are
+    // written by the muxer thread, so the lock is not held while they hit the disk. New
+    // samples are queued behind them.
+    private void openOutput() {
+        final PreRollBuffer preRoll = mPreRoll;
+        try {
+            MediaMuxer muxer = new MediaMuxer(mOutputFile.toString(),
+                    MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            int videoTrack = 0;
+            for (MediaFormat format : mFormats) {
+                int track = muxer.addTrack(format);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("video/")) videoTrack = track;
+            }
+            muxer.start();
+            mMediaMuxer = muxer;
+            mOutputFirstTimeUs = preRoll.getFirstKeyFrameUs(videoTrack);
+            final int flushTrack = videoTrack;
+            MuxerWriter writer = new MuxerWriter(muxer, mFormats.size());
+            writer.prepare(() -> preRoll.flush(muxer, flushTrack));
+            mMuxerWriter = writer;
+        } catch (Exception e) {
+            LOG.e("openOutput:", "could not start the muxer.", e);
+            mOutputError = e;
+            preRoll.clear();
+            mPreRoll = null;
+            mControllerThread.post(new Runnable() {
+                @Override
+                public void run() {
+                    stop();
+                }
+            });
+            return;
+        }
+        mPreRoll = null;
+        if (mListener != null) {
+            mListener.onEncodingStart();
         }
     }
 
@@ -154,7 +273,7 @@ public class MediaEncoderEngine {
      */
     @SuppressWarnings("SameParameterValue")
     public final void notify(final String event, final Object data) {
-        LOG.v("Passing event to encoders:", event);
+        if (LOG.isEnabled(CameraLogger.LEVEL_VERBOSE)) LOG.v("Passing event to encoders:", event);
         for (MediaEncoder encoder : mEncoders) {
             encoder.notify(event, data);
         }
@@ -188,7 +307,19 @@ public class MediaEncoderEngine {
      */
     private void end() {
         LOG.i("end:", "Releasing muxer after all encoders have been released.");
-        Exception error = null;
+        Exception error = mOutputError;
+        if (mPreRoll != null) {
+            // Pre-roll was never turned into a recording.
+            mPreRoll.clear();
+            mPreRoll = null;
+        }
+        if (mMuxerWriter != null) {
+            // Write what is still queued before stopping the muxer.
+            mMuxerWriter.close();
+            if (error == null) error = mMuxerWriter.getError();
+            mMuxerStats = mMuxerWriter.getStats();
+            mMuxerWriter = null;
+        }
         if (mMediaMuxer != null) {
             // stop() throws an exception if you haven't fed it any data.
             // But also in other occasions. So this is a signal that something
@@ -205,6 +336,7 @@ public class MediaEncoderEngine {
             }
             mMediaMuxer = null;
         }
+        mFormats.clear();
         LOG.w("end:", "Dispatching end to listener - reason:", mEndReason, "error:", error);
         if (mListener != null) {
             mListener.onEncodingEnd(mEndReason, error);
@@ -218,6 +350,18 @@ public class MediaEncoderEngine {
         LOG.i("end:", "Completed.");
     }
 
+    /**
+     * Returns the per-track muxer counters. While recording, these are updated
+     * as samples are written. After the end, they hold the final values.
+     *
+     * @return a list of stats, one per track, or an empty list if no muxer was started
+     */
+    @NonNull
+    public List<MuxerTrackStats> getMuxerStats() {
+        MuxerWriter writer = mMuxerWriter;
+        return writer != null ? writer.getStats() : mMuxerStats;
+    }
+
     /**
      * Returns the current video encoder.
      *
@@ -284,9 +428,6 @@ public class MediaEncoderEngine {
     @SuppressWarnings("WeakerAccess")
     public class Controller {
 
-        @SuppressLint("UseSparseArrays")
-        private Map<Integer, Integer> mDebugCount = new HashMap<>();
-
         /**
          * Request that the muxer should start. This is not guaranteed to be executed:
          * we wait for all encoders to call this method, and only then, start the muxer.
@@ -299,6 +440,17 @@ public class MediaEncoderEngine {
                 if (mMediaMuxerStarted) {
                     throw new IllegalStateException("Trying to start but muxer started already");
                 }
+                if (mPreRoll != null) {
+                    // No muxer yet. Tracks will be added in this same order.
+                    int track = mFormats.size();
+                    mFormats.add(format);
+                    LOG.w("notifyStarted:", "Assigned pre-roll track", track);
+                    if (++mStartedEncodersCount == mEncoders.size()) {
+                        mMediaMuxerStarted = true;
+                        if (mOutputFile != null) openOutput();
+                    }
+                    return track;
+                }
                 int track = mMediaMuxer.addTrack(format);
                 LOG.w("notifyStarted:", "Assigned track", track, "to format",
                         format.getString(MediaFormat.KEY_MIME));
@@ -311,6 +463,7 @@ public class MediaEncoderEngine {
                         @Override
                         public void run() {
                             mMediaMuxer.start();
+                            mMuxerWriter = new MuxerWriter(mMediaMuxer, mEncoders.size());
                             mMediaMuxerStarted = true;
                             if (mListener != null) {
                                 mListener.onEncodingStart();
@@ -329,14 +482,14 @@ public class MediaEncoderEngine {
          * @return true if muxer was started
          */
         public boolean isStarted() {
-            synchronized (mControllerLock) {
-                return mMediaMuxerStarted;
-            }
+            return mMediaMuxerStarted;
         }
 
         /**
          * Writes the given data to the muxer. Should be called after {@link #isStarted()}
-         * returns true. Note: this seems to be thread safe, no lock.
+         * returns true. The sample is copied and queued, so this only blocks if the
+         * muxer thread is far behind. Once the output is open, this does not take the
+         * controller lock.
          * <p>
          * TODO: Skip first frames from encoder A when encoder B reported a firstTimeMillis
          * time that is significantly later. This can happen even if we wait for both to start,
@@ -353,27 +506,56 @@ public class MediaEncoderEngine {
          * @param buffer buffer
          */
         public void write(@NonNull OutputBufferPool pool, @NonNull OutputBuffer buffer) {
-            if (DEBUG_PERFORMANCE) {
-                // When AUDIO = mono, this is called about twice the time. (200 vs 100 for 5 sec).
-                Integer count = mDebugCount.get(buffer.trackIndex);
-                mDebugCount.put(buffer.trackIndex, count == null ? 1 : ++count);
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTimeInMillis(buffer.info.presentationTimeUs / 1000);
-                LOG.v("write:", "Writing into muxer -",
-                        "track:", buffer.trackIndex,
-                        "presentation:", buffer.info.presentationTimeUs,
-                        "readable:", calendar.get(Calendar.SECOND) + ":"
-                                + calendar.get(Calendar.MILLISECOND),
-                        "count:", count);
-            } else {
-                LOG.v("write:", "Writing into muxer -",
-                        "track:", buffer.trackIndex,
-                        "presentation:", buffer.info.presentationTimeUs);
+            MuxerWriter writer = mMuxerWriter;
+            if (writer == null) {
+                // Pre-roll, or the output failed to open. The writer is published with the
+                // lock held, before the pre-roll is closed, so samples can't be reordered.
+                synchronized (mControllerLock) {
+                    if (mPreRoll != null) {
+                        mPreRoll.write(buffer);
+                        pool.recycle(buffer);
+                        return;
+                    }
+                    writer = mMuxerWriter;
+                }
+                if (writer == null) {
+                    pool.recycle(buffer);
+                    return;
+                }
             }
-            mMediaMuxer.writeSampleData(buffer.trackIndex, buffer.data, buffer.info);
+            checkOutputLimit(buffer.info.presentationTimeUs);
+            writer.enqueue(buffer);
             pool.recycle(buffer);
         }
 
+        // Limits of pre-roll engines are checked here, since encoders started long before.
+        // The lock is only taken for the first sample and when the limit is reached.
+        private void checkOutputLimit(long presentationTimeUs) {
+            if (mOutputMaxDurationUs == Long.MAX_VALUE || mOutputLimitReached) return;
+            long firstTimeUs = mOutputFirstTimeUs;
+            if (firstTimeUs == Long.MIN_VALUE) {
+                synchronized (mControllerLock) {
+                    if (mOutputFirstTimeUs == Long.MIN_VALUE) {
+                        mOutputFirstTimeUs = presentationTimeUs;
+                    }
+                    firstTimeUs = mOutputFirstTimeUs;
+                }
+            }
+            if (presentationTimeUs - firstTimeUs <= mOutputMaxDurationUs) return;
+            synchronized (mControllerLock) {
+                if (mOutputLimitReached) return;
+                LOG.w("write:", "Reached the output limit. Stopping.");
+                mOutputLimitReached = true;
+                mEndReason = mPossibleEndReason;
+                mControllerThread.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        stop();
+                    }
+                });
+            }
+        }
+
         /**
          * Requests that the engine stops. This is not executed until all encoders call
          * this method, so it is a kind of soft request, just like
@@ -411,6 +593,7 @@ public class MediaEncoderEngine {
         public void notifyStopped(int track) {
             synchronized (mControllerLock) {
                 LOG.w("notifyStopped:", "Called for track", track);
+                if (mMuxerWriter != null) mMuxerWriter.endTrack(track);
                 if (++mStoppedEncodersCount == mEncoders.size()) {
                     LOG.w("requestStop:", "All encoders have been stopped.",
                             "Stopping the muxer.");
@@ -0,0 +1,18 @@
+package com.base.cameraview.video.encoding
+
+/**
+ * Muxer counters for a single track.
+ *
+ * @param track             the track index
+ * @param samples           the number of samples written
+ * @param bytes             the number of bytes written
+ * @param maxWriteLatencyUs the longest time spent writing a single sample
+ * @param encoderWaits      how many times the encoder had to wait for a full queue
+ */
+data class MuxerTrackStats(
+    val track: Int,
+    val samples: Long,
+    val bytes: Long,
+    val maxWriteLatencyUs: Long,
+    val encoderWaits: Long
+)
@@ -0,0 +1,263 @@
+package com.base.cameraview.video.encoding
+
+import android.media.MediaCodec
+import android.media.MediaMuxer
+import com.base.cameraview.CameraLogger
+import com.base.cameraview.internal.WorkerHandler
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Writes encoded samples into a started [MediaMuxer] from a dedicated thread,
+ * so that encoder threads never wait for muxer I/O.
+ *
+ * Samples are copied into recycled direct buffers, because codecs reuse their output
+ * buffers as soon as [enqueue] returns. Each track has a bounded queue: when it is full,
+ * the encoder blocks until the muxer catches up. Samples are written in presentation
+ * time order across tracks: we wait until every running track has a queued sample and
+ * write the earliest one, unless some queue is full or the track has ended.
+ *
+ * Per-track counters are kept instead of logging each sample. See [getStats].
+ */
+internal class MuxerWriter(private val mMuxer: MediaMuxer, trackCount: Int) {
+
+    private val mLock = ReentrantLock()
+    private val mNotFull = mLock.newCondition()
+    private val mIdle = mLock.newCondition()
+    private val mQueues = Array(trackCount) { ArrayDeque<Sample>(QUEUE_CAPACITY) }
+    private val mEnded = BooleanArray(trackCount)
+    private val mFree = ArrayDeque<Sample>()
+    private val mCounters = Array(trackCount) { Counters() }
+    // WorkerHandler caches workers by name: each writer needs its own, since close() destroys it.
+    private val mWorker = WorkerHandler.get("EncoderMuxer #" + sInstances.incrementAndGet())
+    private val mDrain = Runnable { drain() }
+    private var mDrainPosted = false
+    private var mWriting = false
+    private var mPreparing = false
+    private var mClosed = false
+
+    /**
+     * Returns the first error thrown by the muxer, if any.
+     */
+    @Volatile
+    var error: Exception? = null
+        private set
+
+    /**
+     * Runs the given job on the muxer thread, before any sample queued after this call.
+     * Used to write samples that were buffered elsewhere, like [PreRollBuffer], without
+     * blocking the caller. [close] waits for the job to complete.
+     *
+     * @param job writes into the muxer
+     */
+    fun prepare(job: Runnable) {
+        mLock.withLock { mPreparing = true }
+        // The worker runs jobs in order: any drain() is posted after this.
+        mWorker.post {
+            try {
+                job.run()
+            } catch (e: Exception) {
+                LOG.e("prepare:", "could not write into the muxer.", e)
+                error = e
+            }
+            mLock.withLock {
+                mPreparing = false
+                mIdle.signalAll()
+            }
+        }
+    }
+
+    /**
+     * Copies the given sample and queues it for writing. Might block if the
+     * track queue is full. The buffer can be recycled after this returns.
+     *
+     * @param buffer the encoded sample
+     */
+    fun enqueue(buffer: OutputBuffer) {
+        val data = buffer.data!!
+        val info = buffer.info!!
+        val track = buffer.trackIndex
+        val size = data.remaining()
+        val sample = mLock.withLock {
+            val queue = mQueues[track]
+            if (queue.size >= QUEUE_CAPACITY) {
+                mCounters[track].encoderWaits++
+                while (queue.size >= QUEUE_CAPACITY && !mClosed) mNotFull.await()
+            }
+            if (mClosed) return
+            obtain(size)
+        }
+        // Copy out of the lock, the muxer thread can keep writing.
+        val target = sample.buffer
+        target.clear()
+        target.put(data)
+        target.flip()
+        sample.info.set(0, size, info.presentationTimeUs, info.flags)
+        sample.track = track
+        mLock.withLock {
+            mQueues[track].addLast(sample)
+            schedule()
+        }
+    }
+
+    /**
+     * Notifies that the given track will not queue more samples,
+     * so other tracks should not wait for it.
+     *
+     * @param track the track
+     */
+    fun endTrack(track: Int) {
+        mLock.withLock {
+            mEnded[track] = true
+            schedule()
+        }
+    }
+
+    /**
+     * Writes all queued samples, waiting for them, then releases resources.
+     * The muxer can be stopped after this returns.
+     */
+    fun close() {
+        mLock.withLock {
+            mEnded.fill(true)
+            schedule()
+            while (mPreparing || mWriting || mQueues.any { it.isNotEmpty() }) mIdle.await()
+            mClosed = true
+            mFree.clear()
+            mNotFull.signalAll()
+        }
+        mWorker.destroy()
+        LOG.i("close:", "stats:", getStats())
+    }
+
+    /**
+     * Returns a snapshot of the per-track counters.
+     *
+     * @return a list of stats, one per track
+     */
+    fun getStats(): List<MuxerTrackStats> {
+        return mCounters.mapIndexed { track, counters ->
+            MuxerTrackStats(
+                track,
+                counters.samples,
+                counters.bytes,
+                counters.maxWriteLatencyUs,
+                counters.encoderWaits
+            )
+        }
+    }
+
+    // Called with the lock held.
+    private fun schedule() {
+        if (!mDrainPosted) {
+            mDrainPosted = true
+            mWorker.post(mDrain)
+        }
+    }
+
+    // Called with the lock held.
+    private fun obtain(size: Int): Sample {
+        val iterator = mFree.iterator()
+        while (iterator.hasNext()) {
+            val sample = iterator.next()
+            if (sample.buffer.capacity() >= size) {
+                iterator.remove()
+                return sample
+            }
+        }
+        var capacity = MIN_BUFFER_SIZE
+        while (capacity < size) capacity = capacity shl 1
+        return Sample(ByteBuffer.allocateDirect(capacity))
+    }
+
+    // Called with the lock held. Returns the next sample to write, or null if
+    // we should wait for more samples.
+    private fun next(): Sample? {
+        var best = -1
+        var ready = true
+        var full = false
+        for (track in mQueues.indices) {
+            val queue = mQueues[track]
+            val first = queue.firstOrNull()
+            if (first == null) {
+                if (!mEnded[track]) ready = false
+                continue
+            }
+            if (queue.size >= QUEUE_CAPACITY) full = true
+            if (best < 0 || first.info.presentationTimeUs <
+                mQueues[best].first().info.presentationTimeUs
+            ) {
+                best = track
+            }
+        }
+        if (best < 0 || (!ready && !full)) return null
+        val sample = mQueues[best].removeFirst()
+        mNotFull.signalAll()
+        return sample
+    }
+
+    @EncoderThread
+    private fun drain() {
+        while (true) {
+            val sample = mLock.withLock {
+                val next = next()
+                mWriting = next != null
+                if (next == null) {
+                    mDrainPosted = false
+                    mIdle.signalAll()
+                }
+                next
+            } ?: return
+            val start = System.nanoTime()
+            try {
+                if (error == null) {
+                    mMuxer.writeSampleData(sample.track, sample.buffer, sample.info)
+                }
+            } catch (e: Exception) {
+                LOG.e("drain:", "could not write sample.", e)
+                error = e
+            }
+            val latencyUs = (System.nanoTime() - start) / 1000L
+            val counters = mCounters[sample.track]
+            counters.samples++
+            counters.bytes += sample.info.size
+            if (latencyUs > counters.maxWriteLatencyUs) counters.maxWriteLatencyUs = latencyUs
+            mLock.withLock {
+                if (mFree.size < MAX_FREE_BUFFERS) mFree.addLast(sample)
+            }
+        }
+    }
+
+    private class Sample(val buffer: ByteBuffer) {
+        val info = MediaCodec.BufferInfo()
+        var track = 0
+    }
+
+    // Written by the muxer thread (and by encoders for waits, with the lock held).
+    private class Counters {
+        @Volatile
+        var samples = 0L
+
+        @Volatile
+        var bytes = 0L
+
+        @Volatile
+        var maxWriteLatencyUs = 0L
+
+        @Volatile
+        var encoderWaits = 0L
+    }
+
+    companion object {
+        private val TAG: String = MuxerWriter::class.java.simpleName
+        private val LOG: CameraLogger = CameraLogger.create(TAG)
+
+        private const val QUEUE_CAPACITY = 32
+        private const val MAX_FREE_BUFFERS = 48
+        private const val MIN_BUFFER_SIZE = 16 * 1024
+
+        private val sInstances = AtomicInteger(0)
+    }
+}
@@ -0,0 +1,211 @@
+package com.base.cameraview.video.encoding
+
+import android.media.MediaCodec
+import android.media.MediaMuxer
+import com.base.cameraview.CameraLogger
+import java.nio.ByteBuffer
+
+/**
+ * Keeps the most recent encoded samples of all tracks in memory, so that they can be
+ * written to the muxer when recording actually starts ("pre-roll").
+ *
+ * Samples are copied into a single circular arena of [maxBytes], allocated on first use.
+ * When there is no room for a new sample, or when the buffered duration exceeds
+ * [maxDurationUs], the oldest samples are evicted. Nothing is re-encoded and nothing
+ * is written to disk: when flushing, we skip to the first video key frame, so the
+ * actual pre-roll can be up to one key frame interval shorter than [maxDurationUs].
+ *
+ * All methods are thread safe: encoders write from their own threads.
+ *
+ * @param maxDurationUs the max duration to keep, in microseconds
+ * @param maxBytes      the max memory used for sample data, in bytes
+ */
+class PreRollBuffer(val maxDurationUs: Long, val maxBytes: Int) {
+
+    private val mLock = Any()
+    private var mArena: ByteBuffer? = null
+    private val mSamples = ArrayDeque<Sample>()
+    private var mBytes = 0L
+    private var mEvicted = 0L
+    private var mRejected = 0L
+
+    init {
+        require(maxDurationUs > 0) { "Invalid duration: $maxDurationUs" }
+        require(maxBytes > 0) { "Invalid size: $maxBytes" }
+    }
+
+    /**
+     * Copies the given encoded sample. The buffer can be recycled after this returns.
+     *
+     * @param buffer the encoded sample
+     */
+    fun write(buffer: OutputBuffer) {
+        val info = buffer.info!!
+        val data = buffer.data!!
+        val size = data.remaining()
+        synchronized(mLock) {
+            if (size > maxBytes) {
+                mRejected++
+                return
+            }
+            val arena = mArena ?: ByteBuffer.allocateDirect(maxBytes).also { mArena = it }
+            var offset = findRoom(size)
+            while (offset < 0) {
+                evictOldest()
+                offset = findRoom(size)
+            }
+            arena.limit(offset + size)
+            arena.position(offset)
+            arena.put(data)
+            mSamples.addLast(
+                Sample(buffer.trackIndex, offset, size, info.presentationTimeUs, info.flags)
+            )
+            mBytes += size
+            // Enforce the duration bound.
+            val last = info.presentationTimeUs
+            while (mSamples.size > 1 && last - mSamples.first().timeUs > maxDurationUs) {
+                evictOldest()
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered samples into the muxer, starting from the first key frame
+     * of the video track, then clears the buffer. Audio samples that come before that
+     * key frame are skipped.
+     *
+     * @param muxer      a started muxer, with tracks added in the same order as the encoders
+     * @param videoTrack the video track index
+     * @return the presentation time of the first written sample, or Long.MIN_VALUE if none
+     */
+    fun flush(muxer: MediaMuxer, videoTrack: Int): Long {
+        synchronized(mLock) {
+            val arena = mArena
+            val first = firstKeyFrame(videoTrack)
+            var written = 0
+            if (arena != null && first != null) {
+                val info = MediaCodec.BufferInfo()
+                val view = arena.duplicate()
+                var started = false
+                for (sample in mSamples) {
+                    if (sample === first) started = true
+                    if (!started && sample.track == videoTrack) continue
+                    if (sample.timeUs < first.timeUs) continue
+                    view.limit(sample.offset + sample.size)
+                    view.position(sample.offset)
+                    info.set(0, sample.size, sample.timeUs, sample.flags)
+                    muxer.writeSampleData(sample.track, view, info)
+                    written++
+                }
+            }
+            LOG.i(
+                "flush:", "wrote", written, "of", mSamples.size, "samples.",
+                "durationUs:", durationUs()
+            )
+            clear()
+            return first?.timeUs ?: Long.MIN_VALUE
+        }
+    }
+
+    /**
+     * Returns the presentation time of the sample that [flush] would write first.
+     *
+     * @param videoTrack the video track index
+     * @return the presentation time, or Long.MIN_VALUE if none
+     */
+    fun getFirstKeyFrameUs(videoTrack: Int): Long {
+        synchronized(mLock) {
+            return firstKeyFrame(videoTrack)?.timeUs ?: Long.MIN_VALUE
+        }
+    }
+
+    // Called with the lock held.
+    private fun firstKeyFrame(videoTrack: Int): Sample? = mSamples.firstOrNull {
+        it.track == videoTrack && (it.flags and MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0
+    }
+
+    /**
+     * Drops all samples and the memory arena.
+     */
+    fun clear() {
+        synchronized(mLock) {
+            mSamples.clear()
+            mBytes = 0
+            mArena = null
+        }
+    }
+
+    /**
+     * Returns the current buffer state.
+     *
+     * @return the stats
+     */
+    fun getStats(): Stats {
+        synchronized(mLock) {
+            return Stats(
+                durationUs(), mBytes, maxBytes.toLong(), mSamples.size, mEvicted, mRejected
+            )
+        }
+    }
+
+    private fun durationUs(): Long {
+        if (mSamples.size < 2) return 0L
+        return mSamples.last().timeUs - mSamples.first().timeUs
+    }
+
+    // Returns an offset where size bytes can be written without touching live samples,
+    // or -1 if there is no room.
+    private fun findRoom(size: Int): Int {
+        if (mSamples.isEmpty()) return 0
+        val start = mSamples.first().offset
+        val last = mSamples.last()
+        val end = last.offset + last.size
+        return if (end > start) {
+            when {
+                end + size <= maxBytes -> end
+                size <= start -> 0
+                else -> -1
+            }
+        } else {
+            if (end + size <= start) end else -1
+        }
+    }
+
+    private fun evictOldest() {
+        val sample = mSamples.removeFirst()
+        mBytes -= sample.size
+        mEvicted++
+    }
+
+    private class Sample(
+        val track: Int,
+        val offset: Int,
+        val size: Int,
+        val timeUs: Long,
+        val flags: Int
+    )
+
+    /**
+     * Pre-roll buffer state.
+     *
+     * @param durationUs      the duration currently buffered
+     * @param bytes           the bytes currently used by samples
+     * @param maxBytes        the memory bound
+     * @param samples         the number of buffered samples
+     * @param evictedSamples  samples dropped so far to respect the bounds
+     * @param rejectedSamples samples that could not fit in the whole buffer
+     */
+    data class Stats(
+        val durationUs: Long,
+        val bytes: Long,
+        val maxBytes: Long,
+        val samples: Int,
+        val evictedSamples: Long,
+        val rejectedSamples: Long
+    )
+
+    companion object {
+        private val TAG: String = PreRollBuffer::class.java.simpleName
+        private val LOG: CameraLogger = CameraLogger.create(TAG)
+    }
+}
@@ -1,6 +1,8 @@
 package com.base.cameraview.video.encoding;
 
 import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
 import android.opengl.Matrix;
 import android.util.Log;
 
@@ -9,6 +11,8 @@ import androidx.annotation.Nullable;
 
 import com.base.cameraview.CameraLogger;
 import com.base.cameraview.filter.Filter;
+import com.base.cameraview.internal.GlFramebufferPool;
+import com.base.cameraview.internal.GlProgramCache;
 import com.base.cameraview.internal.GlTextureDrawer;
 import com.base.cameraview.internal.Pool;
 import com.otaliastudios.opengl.core.EglCore;
@@ -27,6 +31,7 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
     private EglCore mEglCore;
     private EglWindowSurface mWindow;
     private GlTextureDrawer mDrawer;
+    private EGLContext mEglContext;
     private Pool<Frame> mFramePool = new Pool<>(Integer.MAX_VALUE, Frame::new);
     private boolean mHasCustomFilter = false;
 
@@ -64,6 +69,8 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
             if (mSurface != null) {
                 mWindow = new EglWindowSurface(mEglCore, mSurface, true);
                 mWindow.makeCurrent();
+                mEglContext = EGL14.eglGetCurrentContext();
+                GlProgramCache.INSTANCE.onContextCreated(mEglContext);
                 mDrawer = new GlTextureDrawer(mConfig.textureId);
             }
         } catch (Exception e) {
@@ -126,6 +133,7 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
     }
 
     private void onFrame(@NonNull Frame frame) {
+        final boolean logFrame = LOG.isEnabled(CameraLogger.LEVEL_INFO);
         if (!shouldRenderFrame(frame.timestampUs())) {
             mFramePool.recycle(frame);
             return;
@@ -147,11 +155,15 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
         }
 
         // First, drain any previous data.
-        LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- draining.");
+        if (logFrame) {
+            LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- draining.");
+        }
         drainOutput(false);
 
         // Then draw on the surface.
-        LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- drawing.");
+        if (logFrame) {
+            LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- drawing.");
+        }
 
         // 1. We must scale this matrix like GlCameraPreview does, because it might have some
         // cropping. Scaling takes place with respect to the (0, 0, 0) point, so we must apply
@@ -198,7 +210,9 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
                 Matrix.translateM(mConfig.overlayDrawer.getTransform(), 0, -0.5F, -0.5F, 0);
             }
         }
-        LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- gl rendering.");
+        if (logFrame) {
+            LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- gl rendering.");
+        }
         if (mDrawer != null) {
             mDrawer.setTextureTransform(transform);
             mDrawer.draw(frame.timestampUs());
@@ -213,21 +227,30 @@ public class TextureMediaEncoder extends VideoMediaEncoder<TextureConfig> {
             mWindow.swapBuffers();
         }
         mFramePool.recycle(frame);
-        LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- gl rendered.");
+        if (logFrame) {
+            LOG.i("onEvent -", "frameNumber:", mFrameNumber, "timestampUs:", frame.timestampUs(), "hasReachedMaxLength:", hasReachedMaxLength(), "thread:", Thread.currentThread(), "- gl rendered.");
+        }
     }
 
     @Override
     protected void onStopped() {
         super.onStopped();
         mFramePool.clear();
-        if (mWindow != null) {
-            mWindow.release();
-            mWindow = null;
-        }
+        // Release the drawer while the window is still current, so that
+        // its program goes back to the cache of this context.
         if (mDrawer != null) {
             mDrawer.release();
             mDrawer = null;
         }
+        if (mEglContext != null) {
+            GlProgramCache.INSTANCE.onContextReleased(mEglContext);
+            GlFramebufferPool.INSTANCE.onContextReleased(mEglContext);
+            mEglContext = null;
+        }
+        if (mWindow != null) {
+            mWindow.release();
+            mWindow = null;
+        }
         if (mEglCore != null) {
             mEglCore.release();
             mEglCore = null;
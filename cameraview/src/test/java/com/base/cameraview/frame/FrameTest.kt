@@ -0,0 +1,123 @@
+package com.base.cameraview.frame
+
+import android.graphics.ImageFormat
+import com.base.cameraview.engine.offset.Angles
+import com.base.cameraview.size.Size
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+
+class FrameTest {
+
+    private lateinit var manager: ByteBufferFrameManager
+
+    @Before
+    fun setUp() {
+        manager = ByteBufferFrameManager(POOL_SIZE, null)
+        manager.setUp(ImageFormat.NV21, Size(4, 4), Angles())
+    }
+
+    private fun newFrame(time: Long): Frame {
+        // Pool buffers are empty here, ImageFormat is stubbed on the JVM.
+        val buffer = ByteArray(16)
+        buffer[0] = time.toByte()
+        return manager.getFrame(buffer, time)!!
+    }
+
+    @Test
+    fun freeze_pinsAndReturnsHandle() {
+        val frame = newFrame(1)
+        val frozen = frame.freeze()
+        assertNotSame(frame, frozen)
+        assertSame(frame.getData<ByteArray>(), frozen.getData<ByteArray>())
+        assertEquals(1, manager.pinnedCount)
+
+        // The original owner releases first, data stays valid for the frozen frame.
+        frame.release()
+        assertEquals(1L, frozen.time)
+        assertEquals(1, manager.pinnedCount)
+
+        frozen.release()
+        assertEquals(0, manager.pinnedCount)
+    }
+
+    @Test
+    fun release_twiceIsNoOp() {
+        val frame = newFrame(1)
+        val first = frame.freeze()
+        val second = frame.freeze()
+        assertEquals(2, manager.pinnedCount)
+
+        first.release()
+        first.release()
+        assertEquals(1, manager.pinnedCount)
+        // The double release must not have dropped the reference of the other handle.
+        frame.release()
+        assertEquals(1L, second.time)
+
+        second.release()
+        assertEquals(0, manager.pinnedCount)
+        assertEquals(0L, manager.recycleStats.drops)
+    }
+
+    @Test
+    fun retain_keepsFrameUntilLastRelease() {
+        val frame = newFrame(1)
+        frame.retain(2)
+        frame.release()
+        frame.release()
+        assertEquals(1L, frame.time)
+        frame.release()
+        assertNull(runCatching { frame.time }.getOrNull())
+        assertEquals(0, manager.pinnedCount)
+    }
+
+    @Test
+    fun freeze_copiesOverBudget() {
+        manager.pinBudget = 1
+        val frame = newFrame(7)
+        val pinned = frame.freeze()
+        val copied = frame.freeze()
+        assertEquals(1, manager.pinnedCount)
+        assertNotSame(frame.getData<ByteArray>(), copied.getData<ByteArray>())
+        assertEquals(7.toByte(), copied.getData<ByteArray>()[0])
+
+        copied.release()
+        assertEquals(1, manager.pinnedCount)
+        pinned.release()
+        frame.release()
+        assertEquals(0, manager.pinnedCount)
+    }
+
+    @Test
+    fun freeze_zeroBudgetAlwaysCopies() {
+        manager.pinBudget = 0
+        val frame = newFrame(1)
+        val frozen = frame.freeze()
+        assertEquals(0, manager.pinnedCount)
+        frame.release()
+        assertNotNull(frozen.getData<ByteArray>())
+        frozen.release()
+    }
+
+    @Test
+    fun pins_surviveReleaseAndSetUp() {
+        val frame = newFrame(1)
+        val frozen = frame.freeze()
+        frame.release()
+        manager.release()
+        manager.setUp(ImageFormat.NV21, Size(4, 4), Angles())
+        assertEquals(1, manager.pinnedCount)
+
+        frozen.release()
+        assertEquals(0, manager.pinnedCount)
+    }
+
+    companion object {
+        private const val POOL_SIZE = 3
+    }
+}
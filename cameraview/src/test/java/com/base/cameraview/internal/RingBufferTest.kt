@@ -0,0 +1,90 @@
+package com.base.cameraview.internal
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RingBufferTest {
+
+    @Test
+    fun offerAndPoll_fifo() {
+        val ring = RingBuffer<Int>(4)
+        assertTrue(ring.isEmpty)
+        assertNull(ring.poll())
+        for (i in 0 until 4) assertTrue(ring.offer(i))
+        assertFalse(ring.offer(4))
+        assertEquals(4, ring.size())
+        for (i in 0 until 4) assertEquals(i, ring.poll())
+        assertNull(ring.poll())
+        assertTrue(ring.isEmpty)
+    }
+
+    @Test
+    fun wrapAround_keepsOrder() {
+        val ring = RingBuffer<Int>(3)
+        var next = 0
+        var expected = 0
+        // Keep the ring partially full so that head and tail wrap many times.
+        repeat(100) {
+            assertTrue(ring.offer(next++))
+            assertTrue(ring.offer(next++))
+            assertEquals(expected++, ring.poll())
+            assertEquals(expected++, ring.poll())
+        }
+        assertTrue(ring.offer(next++))
+        assertTrue(ring.offer(next++))
+        assertTrue(ring.offer(next++))
+        assertFalse(ring.offer(next))
+        assertEquals(expected++, ring.poll())
+        assertTrue(ring.offer(next))
+        ring.clear()
+        assertTrue(ring.isEmpty)
+        assertNull(ring.poll())
+    }
+
+    @Test
+    fun multipleProducersAndConsumers_deliverEachItemOnce() {
+        val ring = RingBuffer<Int>(8)
+        val producers = 4
+        val consumers = 4
+        val perProducer = 20000
+        val total = producers * perProducer
+        val received = ConcurrentHashMap.newKeySet<Int>()
+        val duplicates = AtomicInteger()
+        val polled = AtomicInteger()
+        val done = CountDownLatch(producers + consumers)
+        repeat(producers) { p ->
+            Thread {
+                for (i in 0 until perProducer) {
+                    val item = p * perProducer + i
+                    while (!ring.offer(item)) Thread.yield()
+                }
+                done.countDown()
+            }.start()
+        }
+        repeat(consumers) {
+            Thread {
+                while (polled.get() < total) {
+                    val item = ring.poll()
+                    if (item == null) {
+                        Thread.yield()
+                        continue
+                    }
+                    if (!received.add(item)) duplicates.incrementAndGet()
+                    polled.incrementAndGet()
+                }
+                done.countDown()
+            }.start()
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS))
+        assertEquals(0, duplicates.get())
+        assertEquals(total, received.size)
+        assertTrue(ring.isEmpty)
+    }
+}
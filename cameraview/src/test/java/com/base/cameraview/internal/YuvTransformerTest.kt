@@ -0,0 +1,154 @@
+package com.base.cameraview.internal
+
+import com.base.cameraview.size.Size
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Ignore
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Checks [YuvTransformer] against the per-pixel loop that RotationHelper used before.
+ */
+class YuvTransformerTest {
+
+    @Test
+    fun rotate_matchesRotationHelper() {
+        val size = Size(64, 48)
+        val input = randomNv21(size)
+        for (rotation in ROTATIONS) {
+            val expected = referenceRotate(input, size, rotation)
+            val output = ByteArray(input.size)
+            val outSize = YuvTransformer.transform(input, size, rotation, false, output)
+            assertEquals(rotatedSize(size, rotation), outSize)
+            assertArrayEquals("rotation $rotation", expected, output)
+        }
+    }
+
+    @Test
+    fun rotateAndCrop_matchesRotationHelper() {
+        val size = Size(64, 48)
+        val input = randomNv21(size)
+        for (rotation in ROTATIONS) {
+            val rotated = rotatedSize(size, rotation)
+            val expected = referenceCrop(referenceRotate(input, size, rotation), rotated,
+                4, 6, rotated.width - 8, rotated.height - 10)
+            val output = ByteArray(expected.size)
+            val outSize = YuvTransformer.transform(input, size, rotation, false,
+                4, 6, rotated.width - 8, rotated.height - 10, output)
+            assertEquals(Size(rotated.width - 12, rotated.height - 16), outSize)
+            assertArrayEquals("rotation $rotation", expected, output)
+        }
+    }
+
+    @Test
+    fun rotate_largeImage_matchesRotationHelper() {
+        // Above the parallel threshold, so that the image is split in bands.
+        val size = Size(1280, 960)
+        val input = randomNv21(size)
+        for (rotation in ROTATIONS) {
+            val expected = referenceRotate(input, size, rotation)
+            val output = ByteArray(input.size)
+            YuvTransformer.transform(input, size, rotation, false, output)
+            assertArrayEquals("rotation $rotation", expected, output)
+        }
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun transform_oddCrop_throws() {
+        val size = Size(64, 48)
+        YuvTransformer.transform(randomNv21(size), size, 0, false,
+            1, 0, 33, 48, ByteArray(64 * 48 * 3 / 2))
+    }
+
+    /**
+     * Timing comparison with the old loop. It asserts nothing and depends on the machine,
+     * so it is not part of the regular run: remove the annotation to run it by hand.
+     */
+    @Ignore("Benchmark, run manually")
+    @Test
+    fun benchmark() {
+        val size = Size(1920, 1080)
+        val input = randomNv21(size)
+        val output = ByteArray(input.size)
+        for (rotation in intArrayOf(90, 270)) {
+            // Warm up both paths first.
+            repeat(WARMUP) {
+                referenceRotate(input, size, rotation)
+                YuvTransformer.transform(input, size, rotation, false, output)
+            }
+            var start = System.nanoTime()
+            repeat(RUNS) { referenceRotate(input, size, rotation) }
+            val oldMs = (System.nanoTime() - start) / 1e6 / RUNS
+            start = System.nanoTime()
+            repeat(RUNS) { YuvTransformer.transform(input, size, rotation, false, output) }
+            val newMs = (System.nanoTime() - start) / 1e6 / RUNS
+            println(String.format("YuvTransformer %s rotation %d: loop %.2f ms, transformer %.2f ms",
+                size, rotation, oldMs, newMs))
+        }
+    }
+
+    private fun randomNv21(size: Size): ByteArray =
+        ByteArray(size.width * size.height * 3 / 2).also { Random(size.width.toLong()).nextBytes(it) }
+
+    private fun rotatedSize(size: Size, rotation: Int): Size =
+        if (rotation % 180 == 0) size else size.flip()
+
+    /**
+     * The loop of RotationHelper.rotate before it delegated to [YuvTransformer].
+     */
+    private fun referenceRotate(yuv: ByteArray, size: Size, rotation: Int): ByteArray {
+        if (rotation == 0) return yuv.copyOf()
+        val width = size.width
+        val height = size.height
+        val output = ByteArray(yuv.size)
+        val frameSize = width * height
+        val swap = rotation % 180 != 0
+        val xflip = rotation % 270 != 0
+        val yflip = rotation >= 180
+        for (j in 0 until height) {
+            for (i in 0 until width) {
+                val yIn = j * width + i
+                val uIn = frameSize + (j shr 1) * width + (i and 1.inv())
+                val vIn = uIn + 1
+                val wOut = if (swap) height else width
+                val hOut = if (swap) width else height
+                val iSwapped = if (swap) j else i
+                val jSwapped = if (swap) i else j
+                val iOut = if (xflip) wOut - iSwapped - 1 else iSwapped
+                val jOut = if (yflip) hOut - jSwapped - 1 else jSwapped
+                val yOut = jOut * wOut + iOut
+                val uOut = frameSize + (jOut shr 1) * wOut + (iOut and 1.inv())
+                val vOut = uOut + 1
+                output[yOut] = yuv[yIn]
+                output[uOut] = yuv[uIn]
+                output[vOut] = yuv[vIn]
+            }
+        }
+        return output
+    }
+
+    private fun referenceCrop(
+        yuv: ByteArray, size: Size, left: Int, top: Int, right: Int, bottom: Int
+    ): ByteArray {
+        val width = right - left
+        val height = bottom - top
+        val output = ByteArray(width * height * 3 / 2)
+        for (y in 0 until height) {
+            System.arraycopy(yuv, (top + y) * size.width + left, output, y * width, width)
+        }
+        val inChroma = size.width * size.height
+        val outChroma = width * height
+        for (y in 0 until height / 2) {
+            System.arraycopy(yuv, inChroma + (top / 2 + y) * size.width + left,
+                output, outChroma + y * width, width)
+        }
+        return output
+    }
+
+    companion object {
+        private val ROTATIONS = intArrayOf(0, 90, 180, 270)
+        private const val WARMUP = 5
+        private const val RUNS = 20
+    }
+}
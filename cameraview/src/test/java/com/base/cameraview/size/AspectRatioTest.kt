@@ -0,0 +1,44 @@
+package com.base.cameraview.size
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AspectRatioTest {
+
+    @Test
+    fun of_reducesAndCaches() {
+        val ratio = AspectRatio.of(1920, 1080)
+        assertEquals(16, ratio.x)
+        assertEquals(9, ratio.y)
+        assertSame(ratio, AspectRatio.of(16, 9))
+        assertSame(ratio, AspectRatio.of(Size(1280, 720)))
+        assertSame(ratio, AspectRatio.parse("32:18"))
+    }
+
+    @Test
+    fun matches_comparesFloats() {
+        val ratio = AspectRatio.of(16, 9)
+        assertTrue(ratio.matches(Size(1920, 1080)))
+        assertTrue(ratio.matches(Size(1280, 720)))
+        assertFalse(ratio.matches(Size(1440, 1080)))
+        assertTrue(AspectRatio.of(4, 3).matches(Size(1440, 1080)))
+        for (size in listOf(Size(1920, 1080), Size(1440, 1080), Size(1088, 1088), Size(720, 480))) {
+            assertEquals(
+                AspectRatio.of(size) == ratio,
+                ratio.matches(size)
+            )
+        }
+    }
+
+    @Test
+    fun matches_withTolerance() {
+        val ratio = AspectRatio.of(16, 9)
+        // 1920x1088 is 1.7647, 16:9 is 1.7778.
+        assertFalse(ratio.matches(Size(1920, 1088)))
+        assertTrue(ratio.matches(Size(1920, 1088), 0.02F))
+        assertFalse(ratio.matches(Size(1440, 1080), 0.02F))
+    }
+}
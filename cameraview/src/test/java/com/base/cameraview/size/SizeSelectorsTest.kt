@@ -0,0 +1,95 @@
+package com.base.cameraview.size
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Test
+
+class SizeSelectorsTest {
+
+    private val sizes = listOf(
+        Size(640, 480), Size(1920, 1080), Size(1280, 720), Size(320, 240)
+    )
+
+    @Test
+    fun builtInSelectors_compareByValue() {
+        assertEquals(SizeSelectors.maxWidth(1280), SizeSelectors.maxWidth(1280))
+        assertEquals(SizeSelectors.maxWidth(1280).hashCode(), SizeSelectors.maxWidth(1280).hashCode())
+        assertNotEquals(SizeSelectors.maxWidth(1280), SizeSelectors.maxWidth(1920))
+        assertNotEquals(SizeSelectors.maxWidth(1280), SizeSelectors.minWidth(1280))
+        assertEquals(
+            SizeSelectors.aspectRatio(AspectRatio.of(16, 9), 0.1F),
+            SizeSelectors.aspectRatio(AspectRatio.of(1920, 1080), 0.1F)
+        )
+
+        val and1 = SizeSelectors.and(SizeSelectors.maxArea(1000000), SizeSelectors.biggest())
+        val and2 = SizeSelectors.and(SizeSelectors.maxArea(1000000), SizeSelectors.biggest())
+        assertEquals(and1, and2)
+        assertEquals(and1.hashCode(), and2.hashCode())
+        assertNotEquals(and1, SizeSelectors.and(SizeSelectors.maxArea(1000000), SizeSelectors.smallest()))
+
+        val or1 = SizeSelectors.or(SizeSelectors.minHeight(720), SizeSelectors.biggest())
+        val or2 = SizeSelectors.or(SizeSelectors.minHeight(720), SizeSelectors.biggest())
+        assertEquals(or1, or2)
+        assertEquals(or1.hashCode(), or2.hashCode())
+        // Same children, different semantics.
+        assertNotEquals(or1, SizeSelectors.and(SizeSelectors.minHeight(720), SizeSelectors.biggest()))
+    }
+
+    @Test
+    fun customFilters_compareByIdentity() {
+        val filter = SizeSelectors.Filter { it.width > 500 }
+        val selector = SizeSelectors.withFilter(filter)
+        assertEquals(selector, selector)
+        assertNotEquals(selector, SizeSelectors.withFilter(filter))
+        assertNotEquals(
+            SizeSelectors.and(SizeSelectors.withFilter(filter), SizeSelectors.biggest()),
+            SizeSelectors.and(SizeSelectors.withFilter(filter), SizeSelectors.biggest())
+        )
+    }
+
+    @Test
+    fun select_returnsSameResultForEqualSelectors() {
+        val first = SizeSelectors.select(
+            SizeSelectors.and(SizeSelectors.maxWidth(1280), SizeSelectors.biggest()), sizes
+        )
+        assertEquals(listOf(Size(1280, 720), Size(640, 480), Size(320, 240)), first)
+
+        // Modifying the output must not change what the cache returns next.
+        val copy = ArrayList(first)
+        first.clear()
+        val second = SizeSelectors.select(
+            SizeSelectors.and(SizeSelectors.maxWidth(1280), SizeSelectors.biggest()), sizes
+        )
+        assertEquals(copy, second)
+        assertNotSame(first, second)
+    }
+
+    @Test
+    fun select_keysOnInputSizes() {
+        val selector = SizeSelectors.and(SizeSelectors.minWidth(600), SizeSelectors.smallest())
+        assertEquals(Size(640, 480), SizeSelectors.select(selector, sizes)[0])
+        val other = listOf(Size(800, 600), Size(1024, 768))
+        assertEquals(listOf(Size(800, 600), Size(1024, 768)), SizeSelectors.select(selector, other))
+        // The input list is not modified.
+        assertEquals(Size(640, 480), sizes[0])
+        assertEquals(Size(320, 240), sizes[3])
+    }
+
+    @Test
+    fun select_neverCachesCustomFilters() {
+        var calls = 0
+        var maxWidth = 1000
+        val selector = SizeSelectors.and(
+            SizeSelectors.withFilter { calls++; it.width <= maxWidth },
+            SizeSelectors.biggest()
+        )
+        assertEquals(Size(640, 480), SizeSelectors.select(selector, sizes)[0])
+        assertEquals(sizes.size, calls)
+
+        // The filter depends on outside state, so it must run again.
+        maxWidth = 2000
+        assertEquals(Size(1920, 1080), SizeSelectors.select(selector, sizes)[0])
+        assertEquals(sizes.size * 2, calls)
+    }
+}
@@ -0,0 +1,82 @@
+package com.base.cameraview.video.encoding
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class AudioRingTest {
+
+    @Test
+    fun empty_peekFailsAndAwaitCountsUnderrun() {
+        val ring = AudioRing(2, 4)
+        val holder = InputBuffer()
+        assertEquals(2, ring.free)
+        assertFalse(ring.peek(holder))
+        ring.await(1000000L)
+        assertEquals(1, ring.underruns)
+    }
+
+    @Test
+    fun full_obtainFailsAndCountsOverrun() {
+        val ring = AudioRing(2, 4)
+        write(ring, 1, 10L)
+        write(ring, 2, 20L)
+        assertEquals(0, ring.free)
+        assertNull(ring.obtain())
+        assertEquals(1, ring.overruns)
+
+        // Releasing one frame makes room for one more.
+        val holder = InputBuffer()
+        assertTrue(ring.peek(holder))
+        ring.release()
+        assertEquals(1, ring.free)
+        assertNotNull(ring.obtain())
+    }
+
+    @Test
+    fun wrapAround_keepsDataAndOrder() {
+        val ring = AudioRing(3, 4)
+        val holder = InputBuffer()
+        var written = 0
+        var read = 0
+        repeat(50) {
+            write(ring, ++written, written * 10L)
+            write(ring, ++written, written * 10L, endOfStream = written % 7 == 0)
+            repeat(2) {
+                assertTrue(ring.peek(holder))
+                read++
+                assertEquals(4, holder.length)
+                assertEquals(read * 10L, holder.timestamp)
+                assertEquals(read % 7 == 0, holder.isEndOfStream)
+                val source = holder.source!!
+                assertEquals(4, source.remaining())
+                repeat(4) { assertEquals(read.toByte(), source.get()) }
+                ring.release()
+            }
+        }
+        assertFalse(ring.peek(holder))
+        assertEquals(3, ring.free)
+        assertEquals(0, ring.overruns)
+    }
+
+    @Test
+    fun commit_shortFrame_limitsSource() {
+        val ring = AudioRing(1, 8)
+        val slot = ring.obtain()!!
+        slot.put(byteArrayOf(1, 2, 3))
+        ring.commit(3, 5L, false)
+        val holder = InputBuffer()
+        assertTrue(ring.peek(holder))
+        assertEquals(3, holder.length)
+        assertEquals(3, holder.source!!.remaining())
+    }
+
+    private fun write(ring: AudioRing, value: Int, timestampUs: Long, endOfStream: Boolean = false) {
+        val slot = ring.obtain()!!
+        repeat(ring.frameSize) { slot.put(value.toByte()) }
+        ring.commit(ring.frameSize, timestampUs, endOfStream)
+    }
+}